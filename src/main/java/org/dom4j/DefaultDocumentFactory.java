@@ -11,7 +11,7 @@ import org.dom4j.rule.Pattern;
 import org.dom4j.tree.*;
 import org.dom4j.util.SimpleSingleton;
 import org.dom4j.util.SingletonStrategy;
-import org.dom4j.xpath.DefaultXPath;
+import org.dom4j.xpath.XPathCache;
 import org.dom4j.xpath.XPathPattern;
 import org.jaxen.VariableContext;
 
@@ -42,7 +42,7 @@ public class DefaultDocumentFactory implements DocumentFactory, Serializable {
 	/**
 	 * Default namespace prefix -> URI mappings for XPath expressions to use
 	 */
-	private Map xpathNamespaceURIs;
+	private Map<String, String> xpathNamespaceURIs;
 
 	private static SingletonStrategy createSingleton() {
 		SingletonStrategy result = null;
@@ -204,7 +204,9 @@ public class DefaultDocumentFactory implements DocumentFactory, Serializable {
 	/**
 	 * <p>
 	 * <code>createXPath</code> parses an XPath expression and creates a new
-	 * XPath <code>XPath</code> instance.
+	 * XPath <code>XPath</code> instance. Compiled expressions are shared
+	 * through the {@link XPathCache}, so an expression is only parsed again
+	 * once it has been evicted.
 	 * </p>
 	 *
 	 * @param xpathExpression is the XPath expression to create
@@ -212,13 +214,8 @@ public class DefaultDocumentFactory implements DocumentFactory, Serializable {
 	 * @throws InvalidXPathException if the XPath expression is invalid
 	 */
 	public XPath createXPath(String xpathExpression) throws InvalidXPathException {
-		DefaultXPath xpath = new DefaultXPath(xpathExpression);
-
-		if (xpathNamespaceURIs != null) {
-			xpath.setNamespaceURIs(xpathNamespaceURIs);
-		}
-
-		return xpath;
+		return XPathCache.getInstance().createXPath(xpathExpression,
+				xpathNamespaceURIs);
 	}
 
 	/**
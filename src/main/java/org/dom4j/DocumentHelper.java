@@ -7,6 +7,7 @@
 
 package org.dom4j;
 
+import org.dom4j.frozen.FrozenDocument;
 import org.dom4j.io.SAXReader;
 import org.dom4j.rule.Pattern;
 import org.jaxen.VariableContext;
@@ -257,6 +258,25 @@ public final class DocumentHelper {
 		return result;
 	}
 
+	/**
+	 * <p>
+	 * <code>freeze</code> creates an immutable copy of the given document
+	 * which uses much less memory than the original and can safely be read
+	 * and queried by many threads at once.
+	 * </p>
+	 *
+	 * @param document the document to copy
+	 * @return the frozen copy of the document
+	 * @see org.dom4j.frozen.FrozenDocument
+	 */
+	public static Document freeze(Document document) {
+		if (document instanceof FrozenDocument) {
+			return document;
+		}
+
+		return new FrozenDocument(document);
+	}
+
 	private static String getEncoding(String text) {
 		String result = null;
 
@@ -607,7 +607,10 @@ public interface Element extends Branch {
 	List<Element> elements(QName qName);
 
 	/**
-	 * Returns an iterator over all this elements child elements.
+	 * Returns an iterator over all this elements child elements. The iterator
+	 * walks the content of this element lazily rather than copying the child
+	 * elements into a list, and fails fast if the content is modified other
+	 * than through its own <code>remove()</code> method.
 	 *
 	 * @return an iterator over the contained elements
 	 */
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.frozen;
+
+import java.util.Arrays;
+
+import org.dom4j.Branch;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.ProcessingInstruction;
+import org.dom4j.tree.TreeWalker;
+
+/**
+ * <p>
+ * <code>Freezer</code> builds the frozen copy of a tree. The tree is walked
+ * without recursion, so that documents of any depth can be frozen, and each
+ * frozen element is given its content as the walk reaches it.
+ * </p>
+ *
+ * @since 2.0
+ */
+final class Freezer extends TreeWalker<RuntimeException> {
+	private static final int INITIAL_DEPTH = 16;
+
+	private final FrozenElement.QNameTable qnames;
+
+	/**
+	 * The frozen copies of the elements entered by the walk, by depth
+	 */
+	private FrozenElement[] elements = new FrozenElement[INITIAL_DEPTH];
+
+	/**
+	 * The number of content nodes already frozen of each entered element
+	 */
+	private int[] counts = new int[INITIAL_DEPTH];
+
+	private Branch parent;
+
+	private int index;
+
+	/**
+	 * The frozen copy of the node the walk started at
+	 */
+	private Node frozen;
+
+	Freezer(FrozenElement.QNameTable qnames) {
+		this.qnames = qnames;
+	}
+
+	/**
+	 * Creates the frozen copy of a node and its content.
+	 *
+	 * @param parentBranch the frozen parent of the copy
+	 * @param position     the index of the node in the content of its parent
+	 * @param node         the node to copy
+	 * @return the frozen node
+	 */
+	Node freeze(Branch parentBranch, int position, Node node) {
+		this.parent = parentBranch;
+		this.index = position;
+		this.frozen = null;
+
+		try {
+			walk(node);
+
+			return frozen;
+		} finally {
+			this.parent = null;
+			this.frozen = null;
+		}
+	}
+
+	/**
+	 * Freezes the content of an element into its frozen copy, which has
+	 * already been created.
+	 *
+	 * @param copy   the frozen copy of the element
+	 * @param source the element to copy
+	 */
+	void freezeContent(FrozenElement copy, Element source) {
+		this.frozen = copy;
+
+		try {
+			walk(source);
+		} finally {
+			this.frozen = null;
+		}
+	}
+
+	@Override
+	protected boolean enterElement(Element element) {
+		int depth = getDepth();
+		FrozenElement copy;
+
+		if (depth == 0) {
+			copy = (frozen != null) ? (FrozenElement) frozen
+					: new FrozenElement(parent, index, element, qnames);
+			frozen = copy;
+		} else {
+			FrozenElement parentCopy = elements[depth - 1];
+			int position = counts[depth - 1]++;
+			copy = new FrozenElement(parentCopy, position, element, qnames);
+			parentCopy.setNode(position, copy);
+		}
+
+		if (depth == elements.length) {
+			elements = Arrays.copyOf(elements, depth * 2);
+			counts = Arrays.copyOf(counts, depth * 2);
+		}
+
+		elements[depth] = copy;
+		counts[depth] = 0;
+
+		return true;
+	}
+
+	@Override
+	protected void leaveElement(Element element) {
+		elements[getDepth()] = null;
+	}
+
+	@Override
+	protected void visit(Node node) {
+		int depth = getDepth();
+
+		if (depth == 0) {
+			frozen = freezeLeaf(parent, index, node);
+		} else {
+			FrozenElement parentCopy = elements[depth - 1];
+			int position = counts[depth - 1]++;
+			parentCopy.setNode(position, freezeLeaf(parentCopy, position, node));
+		}
+	}
+
+	/**
+	 * Creates the frozen copy of a content node other than an element.
+	 */
+	private static Node freezeLeaf(Branch parent, int index, Node node) {
+		switch (node.getNodeTypeEnum()) {
+			case TEXT_NODE:
+				return new FrozenText(parent, index, node.getText());
+			case CDATA_SECTION_NODE:
+				return new FrozenCDATA(parent, index, node.getText());
+			case COMMENT_NODE:
+				return new FrozenComment(parent, index, node.getText());
+			case ENTITY_REFERENCE_NODE:
+				return new FrozenEntity(parent, index, node.getName(), node
+						.getText());
+			case PROCESSING_INSTRUCTION_NODE:
+				ProcessingInstruction pi = (ProcessingInstruction) node;
+				return new FrozenProcessingInstruction(parent, index, pi
+						.getTarget(), pi.getText());
+			case NAMESPACE_NODE:
+				Namespace namespace = (Namespace) node;
+				return Namespace.get(namespace.getPrefix(), namespace.getURI());
+			default:
+				throw new IllegalArgumentException("Cannot freeze node: " + node);
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
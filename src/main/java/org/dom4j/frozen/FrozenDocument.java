@@ -0,0 +1,323 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+package org.dom4j.frozen;
+
+import org.dom4j.*;
+import org.dom4j.tree.AbstractDocument;
+import org.dom4j.tree.AbstractNode;
+import org.dom4j.tree.BackedList;
+import org.dom4j.tree.DefaultDocument;
+import org.dom4j.tree.IDResolver;
+import org.xml.sax.EntityResolver;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * <code>FrozenDocument</code> is an immutable, compact and thread-safe copy
+ * of a document. It is created with {@link
+ * DocumentHelper#freeze(Document)}or the constructor of this class, and
+ * implements the ordinary <i>dom4j</i> interfaces so that XPath expressions,
+ * {@link org.dom4j.io.XMLWriter}and visitors work on it unchanged. Every
+ * method which would modify the document throws an {@link
+ * UnsupportedOperationException}.
+ * </p>
+ * <p>
+ * The IDs of the elements are indexed when the document is frozen, with the
+ * {@link org.dom4j.tree.IDResolver} of the source document, so that {@link
+ * #elementByID(String)} can be called from any thread.
+ * </p>
+ *
+ * @see FrozenElement
+ * @since 2.0
+ */
+public class FrozenDocument extends AbstractDocument {
+	private final String name;
+
+	private final Node[] content;
+
+	private final Element rootElement;
+
+	private final DocumentType docType;
+
+	private final EntityResolver entityResolver;
+
+	/**
+	 * The first element with each ID
+	 */
+	private final Map<String, Element> elementsByID;
+
+	/**
+	 * Creates a frozen copy of the given document.
+	 *
+	 * @param source the document to copy
+	 */
+	public FrozenDocument(Document source) {
+		Freezer freezer = new Freezer(new FrozenElement.QNameTable());
+		int nodeCount = source.nodeCount();
+		Element root = null;
+
+		this.name = source.getName();
+		this.docType = (source.getDocType() != null) ? new FrozenDocumentType(
+				source.getDocType()) : null;
+		this.entityResolver = source.getEntityResolver();
+		this.encoding = source.getXMLEncoding();
+		this.content = new Node[nodeCount];
+
+		for (int i = 0; i < nodeCount; i++) {
+			Node node = freezer.freeze(this, i, source.node(i));
+			this.content[i] = node;
+
+			if (node instanceof Element) {
+				root = (Element) node;
+			}
+		}
+
+		this.rootElement = root;
+
+		if (source instanceof AbstractDocument) {
+			super.setIDResolver(((AbstractDocument) source).getIDResolver());
+		}
+
+		this.elementsByID = createIDMap();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getXMLEncoding() {
+		return encoding;
+	}
+
+	public Element getRootElement() {
+		return rootElement;
+	}
+
+	public DocumentType getDocType() {
+		return docType;
+	}
+
+	public EntityResolver getEntityResolver() {
+		return entityResolver;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public Element elementByID(String elementID) {
+		return elementsByID.get(elementID);
+	}
+
+	@Override
+	public void setIDResolver(IDResolver idResolver) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	public Node node(int index) {
+		return content[index];
+	}
+
+	@Override
+	public int nodeCount() {
+		return content.length;
+	}
+
+	@Override
+	public int indexOf(Node node) {
+		if ((node instanceof FrozenNode)
+				&& (((FrozenNode) node).getParentBranch() == this)) {
+			return ((FrozenNode) node).getIndex();
+		}
+
+		return contentList().indexOf(node);
+	}
+
+	public List<ProcessingInstruction> processingInstructions() {
+		BackedList<ProcessingInstruction> answer = createResultList();
+
+		for (Node node : content) {
+			ProcessingInstruction pi = NodeHelper.nodeAsProcessingInstruction(node);
+
+			if (pi != null) {
+				answer.addLocal(pi);
+			}
+		}
+
+		return answer;
+	}
+
+	public List<ProcessingInstruction> processingInstructions(String target) {
+		BackedList<ProcessingInstruction> answer = createResultList();
+
+		for (Node node : content) {
+			ProcessingInstruction pi = NodeHelper.nodeAsProcessingInstruction(node);
+
+			if ((pi != null) && target.equals(pi.getName())) {
+				answer.addLocal(pi);
+			}
+		}
+
+		return answer;
+	}
+
+	public ProcessingInstruction processingInstruction(String target) {
+		for (Node node : content) {
+			ProcessingInstruction pi = NodeHelper.nodeAsProcessingInstruction(node);
+
+			if ((pi != null) && target.equals(pi.getName())) {
+				return pi;
+			}
+		}
+
+		return null;
+	}
+
+	public boolean removeProcessingInstruction(String target) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	public void normalize() {
+		// frozen trees are immutable so there is nothing to normalize
+	}
+
+	@Override
+	public void setName(String name) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	public void setRootElement(Element rootElement) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setDocType(DocumentType docType) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public Document addDocType(String name, String publicId, String systemId) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setEntityResolver(EntityResolver entityResolver) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	public void setXMLEncoding(String encoding) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setContent(List<Node> content) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void clearContent() {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	/**
+	 * Returns a modifiable deep copy of this document.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public AbstractNode clone() {
+		DefaultDocument document = new DefaultDocument(name);
+		document.setDocType((docType != null) ? (DocumentType) docType
+				.clone() : null);
+		document.setEntityResolver(entityResolver);
+		document.setXMLEncoding(encoding);
+		document.setIDResolver(getIDResolver());
+		document.appendContent(this);
+
+		return document;
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	@Override
+	protected List<Node> contentList() {
+		return new ArrayView<Node>(content);
+	}
+
+	@Override
+	protected void addNode(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void addNode(int index, Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected boolean removeNode(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void childAdded(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void childRemoved(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void rootElementAdded(Element rootElement) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
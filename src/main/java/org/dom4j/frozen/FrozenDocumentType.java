@@ -0,0 +1,223 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.frozen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dom4j.DocumentType;
+import org.dom4j.dtd.AttributeDecl;
+import org.dom4j.dtd.ElementDecl;
+import org.dom4j.dtd.ExternalDeclaration;
+import org.dom4j.dtd.ExternalEntityDecl;
+import org.dom4j.dtd.InternalDeclaration;
+import org.dom4j.dtd.InternalEntityDecl;
+import org.dom4j.tree.AbstractDocumentType;
+import org.dom4j.tree.AbstractNode;
+import org.dom4j.tree.DefaultDocumentType;
+
+/**
+ * <p>
+ * <code>FrozenDocumentType</code> is the immutable {@link DocumentType} of a
+ * frozen document. It copies the document type it is created from, including
+ * the declarations of the DTD dom4j knows, so later changes to the source do
+ * not show through.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class FrozenDocumentType extends AbstractDocumentType {
+	private final String elementName;
+
+	private final String publicID;
+
+	private final String systemID;
+
+	private final List<InternalDeclaration> internalDeclarations;
+
+	private final List<ExternalDeclaration> externalDeclarations;
+
+	/**
+	 * Creates a frozen copy of the given document type.
+	 *
+	 * @param source the document type to copy
+	 */
+	public FrozenDocumentType(DocumentType source) {
+		this.elementName = source.getElementName();
+		this.publicID = source.getPublicID();
+		this.systemID = source.getSystemID();
+		this.internalDeclarations = copy(source.getInternalDeclarations());
+		this.externalDeclarations = copy(source.getExternalDeclarations());
+	}
+
+	public String getElementName() {
+		return elementName;
+	}
+
+	public String getPublicID() {
+		return publicID;
+	}
+
+	public String getSystemID() {
+		return systemID;
+	}
+
+	/**
+	 * Returns the declarations of the internal subset.
+	 *
+	 * @return an unmodifiable list of copies of the declarations, or null
+	 */
+	public List<InternalDeclaration> getInternalDeclarations() {
+		return internalDeclarations;
+	}
+
+	/**
+	 * Returns the declarations of the external subset.
+	 *
+	 * @return an unmodifiable list of copies of the declarations, or null
+	 */
+	public List<ExternalDeclaration> getExternalDeclarations() {
+		return externalDeclarations;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	public void setElementName(String elementName) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setPublicID(String publicID) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setSystemID(String systemID) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setInternalDeclarations(List<InternalDeclaration> declarations) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void setExternalDeclarations(List<ExternalDeclaration> declarations) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	/**
+	 * Returns a modifiable copy of this document type.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public AbstractNode clone() {
+		DefaultDocumentType docType = new DefaultDocumentType(elementName,
+				publicID, systemID);
+
+		if (internalDeclarations != null) {
+			docType.setInternalDeclarations(new ArrayList<InternalDeclaration>(
+					copy(internalDeclarations)));
+		}
+
+		if (externalDeclarations != null) {
+			docType.setExternalDeclarations(new ArrayList<ExternalDeclaration>(
+					copy(externalDeclarations)));
+		}
+
+		return docType;
+	}
+
+	/**
+	 * Copies a list of declarations. The declarations are mutable, so those
+	 * of the types of dom4j are copied as well.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> copy(List<T> declarations) {
+		if (declarations == null) {
+			return null;
+		}
+
+		List<Object> copies = new ArrayList<Object>(declarations.size());
+
+		for (Object declaration : declarations) {
+			copies.add(copyDeclaration(declaration));
+		}
+
+		return (List<T>) Collections.unmodifiableList(copies);
+	}
+
+	private static Object copyDeclaration(Object declaration) {
+		if (declaration == null) {
+			return null;
+		}
+
+		Class<?> type = declaration.getClass();
+
+		if (type == ElementDecl.class) {
+			ElementDecl decl = (ElementDecl) declaration;
+
+			return new ElementDecl(decl.getName(), decl.getModel());
+		} else if (type == AttributeDecl.class) {
+			AttributeDecl decl = (AttributeDecl) declaration;
+
+			return new AttributeDecl(decl.getElementName(), decl
+					.getAttributeName(), decl.getType(), decl.getValueDefault(),
+					decl.getValue());
+		} else if (type == InternalEntityDecl.class) {
+			InternalEntityDecl decl = (InternalEntityDecl) declaration;
+
+			return new InternalEntityDecl(decl.getName(), decl.getValue());
+		} else if (type == ExternalEntityDecl.class) {
+			ExternalEntityDecl decl = (ExternalEntityDecl) declaration;
+
+			return new ExternalEntityDecl(decl.getName(), decl.getPublicID(),
+					decl.getSystemID());
+		}
+
+		return declaration;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+package org.dom4j.frozen;
+
+import org.dom4j.*;
+import org.dom4j.tree.AbstractElement;
+import org.dom4j.tree.AbstractNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>
+ * <code>FrozenElement</code> is an immutable and compact implementation of
+ * an XML element. Its content is held in a flat array and its attributes as
+ * parallel arrays of names and values; {@link Attribute}nodes are only
+ * created the first time they are navigated to. Every node of a frozen tree
+ * knows its parent and its index in the parent's content.
+ * </p>
+ * <p>
+ * A frozen tree can be read, written and queried with XPath concurrently by
+ * any number of threads once it has been published. Every method which would
+ * modify the tree throws an {@link UnsupportedOperationException}.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class FrozenElement extends AbstractElement implements FrozenNode {
+	private static final AtomicReferenceFieldUpdater<FrozenElement, Attribute[]> ATTRIBUTES
+			= AtomicReferenceFieldUpdater.newUpdater(FrozenElement.class,
+			Attribute[].class, "attributes");
+
+	private static final Node[] NO_CONTENT = new Node[0];
+
+	private static final QName[] NO_ATTRIBUTES = new QName[0];
+
+	private static final String[] NO_VALUES = new String[0];
+
+	private final QName qname;
+
+	final Branch parent;
+
+	private final int index;
+
+	private final Node[] content;
+
+	private final QName[] attributeNames;
+
+	private final String[] attributeValues;
+
+	/**
+	 * The attribute nodes, created on first use
+	 */
+	private volatile Attribute[] attributes;
+
+	/**
+	 * Creates a detached frozen copy of the given element and its content.
+	 *
+	 * @param source the element to copy
+	 */
+	public FrozenElement(Element source) {
+		this(source, new QNameTable());
+	}
+
+	private FrozenElement(Element source, QNameTable qnames) {
+		this(null, 0, source, qnames);
+		new Freezer(qnames).freezeContent(this, source);
+	}
+
+	/**
+	 * Creates a frozen copy of the given element, whose content is then
+	 * frozen by a {@link Freezer}.
+	 */
+	FrozenElement(Branch parent, int index, Element source, QNameTable qnames) {
+		this.parent = parent;
+		this.index = index;
+		this.qname = qnames.intern(source.getQName());
+
+		int attributeCount = source.attributeCount();
+
+		if (attributeCount == 0) {
+			this.attributeNames = NO_ATTRIBUTES;
+			this.attributeValues = NO_VALUES;
+		} else {
+			this.attributeNames = new QName[attributeCount];
+			this.attributeValues = new String[attributeCount];
+
+			for (int i = 0; i < attributeCount; i++) {
+				Attribute attribute = source.attribute(i);
+				this.attributeNames[i] = qnames.intern(attribute.getQName());
+				this.attributeValues[i] = attribute.getValue();
+			}
+		}
+
+		int nodeCount = source.nodeCount();
+		this.content = (nodeCount == 0) ? NO_CONTENT : new Node[nodeCount];
+	}
+
+	/**
+	 * Sets a node of the content while the tree is being frozen.
+	 *
+	 * @param index the index of the node
+	 * @param node  the frozen node
+	 */
+	void setNode(int index, Node node) {
+		content[index] = node;
+	}
+
+	public QName getQName() {
+		return qname;
+	}
+
+	public void setQName(QName qname) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	public Element getParent() {
+		return FrozenNodeHelper.getParent(parent);
+	}
+
+	@Override
+	public Document getDocument() {
+		return FrozenNodeHelper.getDocument(parent);
+	}
+
+	@Override
+	public boolean supportsParent() {
+		return true;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	public Branch getParentBranch() {
+		return parent;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	// Content methods
+	// -------------------------------------------------------------------------
+
+	@Override
+	public Node node(int index) {
+		return ((index >= 0) && (index < content.length)) ? content[index]
+				: null;
+	}
+
+	@Override
+	public int nodeCount() {
+		return content.length;
+	}
+
+	@Override
+	public int indexOf(Node node) {
+		if ((node instanceof FrozenNode)
+				&& (((FrozenNode) node).getParentBranch() == this)) {
+			return ((FrozenNode) node).getIndex();
+		}
+
+		return contentList().indexOf(node);
+	}
+
+	public void setContent(List<Node> content) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	public void clearContent() {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	public void normalize() {
+		// frozen trees are immutable so there is nothing to normalize
+	}
+
+	@Override
+	protected void normalizeContent() {
+		// frozen trees are immutable so there is nothing to normalize
+	}
+
+	// Attribute methods
+	// -------------------------------------------------------------------------
+
+	@Override
+	public int attributeCount() {
+		return attributeNames.length;
+	}
+
+	@Override
+	public Attribute attribute(int index) {
+		if ((index < 0) || (index >= attributeNames.length)) {
+			return null;
+		}
+
+		return attributeNodes()[index];
+	}
+
+	@Override
+	public Attribute attribute(String name) {
+		for (int i = 0; i < attributeNames.length; i++) {
+			if (name.equals(attributeNames[i].getName())) {
+				return attributeNodes()[i];
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public Attribute attribute(QName qName) {
+		int i = attributeIndex(qName);
+
+		return (i >= 0) ? attributeNodes()[i] : null;
+	}
+
+	@Override
+	public String attributeValue(String name) {
+		for (int i = 0; i < attributeNames.length; i++) {
+			if (name.equals(attributeNames[i].getName())) {
+				return attributeValues[i];
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public String attributeValue(QName qName) {
+		int i = attributeIndex(qName);
+
+		return (i >= 0) ? attributeValues[i] : null;
+	}
+
+	@Override
+	public Iterator<Attribute> attributeIterator() {
+		return attributeList().iterator();
+	}
+
+	public void setAttributes(List<Attribute> attributes) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	/**
+	 * Returns a detached and modifiable deep copy of this element.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public AbstractNode clone() {
+		return (AbstractNode) createCopy();
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	@Override
+	protected List<Node> contentList() {
+		return new ArrayView<Node>(content);
+	}
+
+	@Override
+	protected List<Attribute> attributeList() {
+		return new ArrayView<Attribute>(attributeNodes());
+	}
+
+	@Override
+	@Deprecated
+	protected List<Attribute> attributeList(int attributeCount) {
+		return attributeList();
+	}
+
+	@Override
+	protected void addNode(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void addNode(int index, Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected boolean removeNode(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void childAdded(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	@Override
+	protected void childRemoved(Node node) {
+		throw new UnsupportedOperationException("This node cannot be modified");
+	}
+
+	private int attributeIndex(QName qName) {
+		for (int i = 0; i < attributeNames.length; i++) {
+			QName name = attributeNames[i];
+
+			if ((name == qName) || name.equals(qName)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the attribute nodes, creating them on first use. All threads
+	 * see the same instances.
+	 */
+	private Attribute[] attributeNodes() {
+		Attribute[] answer = attributes;
+
+		if (answer == null) {
+			answer = new Attribute[attributeNames.length];
+
+			for (int i = 0; i < answer.length; i++) {
+				answer[i] = new FrozenAttribute(this, i, attributeNames[i],
+						attributeValues[i]);
+			}
+
+			if (!ATTRIBUTES.compareAndSet(this, null, answer)) {
+				answer = attributes;
+			}
+		}
+
+		return answer;
+	}
+
+	/**
+	 * Interns the QNames of one frozen tree so that names with the same
+	 * namespace prefix, URI and local name share an instance.
+	 */
+	static final class QNameTable {
+		private final Map<Namespace, Map<String, QName>> qnames
+				= new HashMap<Namespace, Map<String, QName>>();
+
+		QName intern(QName qname) {
+			Map<String, QName> names = qnames.get(qname.getNamespace());
+
+			if (names == null) {
+				names = new HashMap<String, QName>();
+				qnames.put(qname.getNamespace(), names);
+			}
+
+			QName answer = names.get(qname.getName());
+
+			if (answer == null) {
+				answer = qname;
+				names.put(qname.getName(), answer);
+			}
+
+			return answer;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
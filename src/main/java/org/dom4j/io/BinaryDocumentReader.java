@@ -0,0 +1,726 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.DocumentType;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.QName;
+import org.dom4j.dtd.AttributeDecl;
+import org.dom4j.dtd.ElementDecl;
+import org.dom4j.dtd.ExternalEntityDecl;
+import org.dom4j.dtd.InternalEntityDecl;
+
+/**
+ * Reads documents written by {@link BinaryDocumentWriter}. As the format
+ * holds the tree as it is, with every name defined once, reading it is a
+ * matter of creating the nodes, without any of the character level work of
+ * parsing XML text.
+ * <p>
+ * Files are read through a memory mapped buffer where possible; any other
+ * input is read in blocks. A single mapping cannot exceed 2GB, so the rest
+ * of a larger file is read in blocks as a stream instead, which is slower
+ * but otherwise gives the same document. The root element is only added to
+ * its document once it is complete. The reader is not thread safe.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class BinaryDocumentReader {
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final int INITIAL_DEPTH = 16;
+
+	/**
+	 * The most bytes allocated ahead of reading them, so that a corrupted
+	 * length cannot exhaust the heap
+	 */
+	private static final int MAX_ALLOCATION = 1 << 20;
+
+	private DocumentFactory documentFactory;
+
+	private byte[] buffer;
+
+	private int position;
+
+	private int limit;
+
+	/**
+	 * The input when reading a stream, null otherwise
+	 */
+	private InputStream in;
+
+	/**
+	 * The input when reading a buffer not backed by an accessible array,
+	 * null otherwise
+	 */
+	private ByteBuffer source;
+
+	private char[] chars = new char[256];
+
+	private final List<QName> qNames = new ArrayList<QName>();
+
+	private final List<Namespace> namespaces = new ArrayList<Namespace>();
+
+	private Element[] elements = new Element[INITIAL_DEPTH];
+
+	public BinaryDocumentReader() {
+		this(DefaultDocumentFactory.getInstance());
+	}
+
+	public BinaryDocumentReader(DocumentFactory documentFactory) {
+		setDocumentFactory(documentFactory);
+	}
+
+	public DocumentFactory getDocumentFactory() {
+		return documentFactory;
+	}
+
+	public void setDocumentFactory(DocumentFactory documentFactory) {
+		if (documentFactory == null) {
+			throw new IllegalArgumentException("documentFactory must not be null");
+		}
+
+		this.documentFactory = documentFactory;
+	}
+
+	/**
+	 * Reads a document from the given file, which is memory mapped unless it
+	 * is larger than 2GB.
+	 *
+	 * @param file the file to read from
+	 * @return the document
+	 * @throws DocumentException if the document could not be read
+	 */
+	public Document read(File file) throws DocumentException {
+		try {
+			FileInputStream stream = new FileInputStream(file);
+
+			try {
+				return read(stream.getChannel());
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			throw new DocumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads a document starting at the current position of the given
+	 * channel. The rest of the file is mapped into memory unless it is too
+	 * large for a single mapping, in which case it is read in blocks. The
+	 * position of the channel is left after the document, except when it
+	 * was read in blocks since the channel is then read ahead.
+	 *
+	 * @param channel the channel to read from
+	 * @return the document
+	 * @throws DocumentException if the document could not be read
+	 */
+	public Document read(FileChannel channel) throws DocumentException {
+		try {
+			long start = channel.position();
+			long size = channel.size() - start;
+
+			if (size > Integer.MAX_VALUE) {
+				return read(Channels.newInputStream(channel));
+			}
+
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+					start, size);
+			Document document = read(mapped);
+			channel.position(start + mapped.position());
+
+			return document;
+		} catch (IOException e) {
+			throw new DocumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads a document from the given channel, in blocks.
+	 *
+	 * @param channel the channel to read from
+	 * @return the document
+	 * @throws DocumentException if the document could not be read
+	 */
+	public Document read(ReadableByteChannel channel) throws DocumentException {
+		if (channel instanceof FileChannel) {
+			return read((FileChannel) channel);
+		}
+
+		return read(Channels.newInputStream(channel));
+	}
+
+	/**
+	 * Reads a document from the given stream, in blocks. As the stream is
+	 * read ahead, it is not positioned right after the document when done.
+	 *
+	 * @param stream the stream to read from
+	 * @return the document
+	 * @throws DocumentException if the document could not be read
+	 */
+	public Document read(InputStream stream) throws DocumentException {
+		buffer = new byte[BUFFER_SIZE];
+		position = 0;
+		limit = 0;
+		in = stream;
+
+		return readDocument();
+	}
+
+	/**
+	 * Reads a document from the remaining bytes of the given buffer, which
+	 * may be a memory mapped file. The position of the buffer is left after
+	 * the document.
+	 *
+	 * @param bytes the buffer to read from
+	 * @return the document
+	 * @throws DocumentException if the document could not be read
+	 */
+	public Document read(ByteBuffer bytes) throws DocumentException {
+		if (bytes.hasArray()) {
+			int offset = bytes.arrayOffset();
+			buffer = bytes.array();
+			position = offset + bytes.position();
+			limit = offset + bytes.limit();
+
+			try {
+				return readDocument();
+			} finally {
+				bytes.position(position - offset);
+			}
+		}
+
+		buffer = new byte[BUFFER_SIZE];
+		position = 0;
+		limit = 0;
+		source = bytes;
+
+		try {
+			return readDocument();
+		} finally {
+			// give back what was read ahead
+			bytes.position(bytes.position() - (limit - position));
+		}
+	}
+
+	private Document readDocument() throws DocumentException {
+		try {
+			for (byte magic : BinaryFormat.MAGIC) {
+				if (readByte() != magic) {
+					throw new DocumentException("Not a binary document");
+				}
+			}
+
+			int version = readVarint();
+
+			if (version != BinaryFormat.VERSION) {
+				throw new DocumentException("Unsupported version: " + version);
+			}
+
+			Document document = documentFactory.createDocument();
+			document.setName(readString());
+			document.setXMLEncoding(readString());
+			readDocumentType(document);
+			readContent(document);
+
+			return document;
+		} catch (IOException e) {
+			throw new DocumentException(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			// the document factory rejected what was read
+			throw new DocumentException("Invalid binary document: "
+					+ e.getMessage(), e);
+		} finally {
+			buffer = null;
+			in = null;
+			source = null;
+			qNames.clear();
+			namespaces.clear();
+
+			for (int i = 0; i < elements.length && elements[i] != null; i++) {
+				elements[i] = null;
+			}
+		}
+	}
+
+	private void readDocumentType(Document document) throws IOException {
+		int tag = readByte();
+
+		if (tag == BinaryFormat.NO_DOCUMENT_TYPE) {
+			return;
+		}
+
+		if (tag != BinaryFormat.DOCUMENT_TYPE) {
+			throw new IOException("Invalid document type tag: " + tag);
+		}
+
+		String elementName = readString();
+		String publicID = readString();
+		String systemID = readString();
+		DocumentType docType = documentFactory.createDocType(elementName,
+				publicID, systemID);
+		docType.setInternalDeclarations(readDeclarations());
+		docType.setExternalDeclarations(readDeclarations());
+		document.setDocType(docType);
+	}
+
+	private List readDeclarations() throws IOException {
+		int size = readVarint() - 1;
+
+		if (size < 0) {
+			return null;
+		}
+
+		List<Object> declarations = new ArrayList<Object>(Math.min(size,
+				INITIAL_DEPTH));
+
+		for (int i = 0; i < size; i++) {
+			int tag = readByte();
+
+			switch (tag) {
+				case BinaryFormat.ELEMENT_DECL:
+					declarations.add(new ElementDecl(readString(), readString()));
+
+					break;
+
+				case BinaryFormat.ATTRIBUTE_DECL:
+					declarations.add(new AttributeDecl(readString(),
+							readString(), readString(), readString(),
+							readString()));
+
+					break;
+
+				case BinaryFormat.INTERNAL_ENTITY_DECL:
+					declarations.add(new InternalEntityDecl(readString(),
+							readString()));
+
+					break;
+
+				case BinaryFormat.EXTERNAL_ENTITY_DECL:
+					declarations.add(new ExternalEntityDecl(readString(),
+							readString(), readString()));
+
+					break;
+
+				default:
+					throw new IOException("Invalid declaration tag: " + tag);
+			}
+		}
+
+		return declarations;
+	}
+
+	private void readContent(Document document) throws IOException {
+		DocumentFactory factory = documentFactory;
+		Element root = null;
+		Element parent = null;
+		int depth = 0;
+
+		while (true) {
+			int tag = readByte();
+			Node node;
+
+			switch (tag) {
+				case BinaryFormat.END:
+					if (depth == 0) {
+						return;
+					}
+
+					elements[--depth] = null;
+
+					if (depth == 0) {
+						document.add(root);
+						parent = null;
+					} else {
+						parent = elements[depth - 1];
+					}
+
+					continue;
+
+				case BinaryFormat.ELEMENT:
+				case BinaryFormat.EMPTY_ELEMENT:
+					if ((parent == null) && (document.getRootElement() != null)) {
+						throw new IOException("More than one root element");
+					}
+
+					Element element = factory.createElement(readQName());
+
+					for (int i = readVarint(); i > 0; i--) {
+						QName qName = readQName();
+						element.add(factory.createAttribute(element, qName,
+								readString()));
+					}
+
+					if (parent != null) {
+						parent.add(element);
+					} else if (tag == BinaryFormat.EMPTY_ELEMENT) {
+						document.add(element);
+					} else {
+						root = element;
+					}
+
+					if (tag == BinaryFormat.ELEMENT) {
+						if (depth == elements.length) {
+							Element[] newElements = new Element[depth * 2];
+							System.arraycopy(elements, 0, newElements, 0, depth);
+							elements = newElements;
+						}
+
+						elements[depth++] = element;
+						parent = element;
+					}
+
+					continue;
+
+				case BinaryFormat.TEXT:
+					node = factory.createText(readRequiredString());
+
+					break;
+
+				case BinaryFormat.CDATA:
+					node = factory.createCDATA(readRequiredString());
+
+					break;
+
+				case BinaryFormat.COMMENT:
+					node = factory.createComment(readRequiredString());
+
+					break;
+
+				case BinaryFormat.PROCESSING_INSTRUCTION:
+					String target = readRequiredString();
+					node = factory.createProcessingInstruction(target,
+							readRequiredString());
+
+					break;
+
+				case BinaryFormat.ENTITY:
+					String name = readRequiredString();
+					node = factory.createEntity(name, readString());
+
+					break;
+
+				case BinaryFormat.NAMESPACE:
+					node = readNamespace();
+
+					break;
+
+				default:
+					throw new IOException("Invalid node tag: " + tag);
+			}
+
+			if (parent != null) {
+				parent.add(node);
+			} else if ((tag == BinaryFormat.COMMENT)
+					|| (tag == BinaryFormat.PROCESSING_INSTRUCTION)) {
+				document.add(node);
+			} else {
+				throw new IOException("Invalid node tag outside the root "
+						+ "element: " + tag);
+			}
+		}
+	}
+
+	private QName readQName() throws IOException {
+		int reference = readVarint();
+
+		if (reference != 0) {
+			if (reference > qNames.size()) {
+				throw new IOException("Invalid name reference: " + reference);
+			}
+
+			return qNames.get(reference - 1);
+		}
+
+		String name = readRequiredString();
+		QName qName = documentFactory.createQName(name, readNamespace());
+		qNames.add(qName);
+
+		return qName;
+	}
+
+	private Namespace readNamespace() throws IOException {
+		int reference = readVarint();
+
+		if (reference != 0) {
+			if (reference > namespaces.size()) {
+				throw new IOException("Invalid namespace reference: "
+						+ reference);
+			}
+
+			return namespaces.get(reference - 1);
+		}
+
+		String prefix = readString();
+		Namespace namespace = documentFactory.createNamespace(prefix,
+				readString());
+		namespaces.add(namespace);
+
+		return namespace;
+	}
+
+	private String readRequiredString() throws IOException {
+		String string = readString();
+
+		if (string == null) {
+			throw new IOException("Missing string");
+		}
+
+		return string;
+	}
+
+	private String readString() throws IOException {
+		int length = readVarint() - 1;
+
+		if (length <= 0) {
+			return (length == 0) ? "" : null;
+		}
+
+		byte[] bytes;
+		int start;
+
+		if ((length <= BUFFER_SIZE) || ((in == null) && (source == null))) {
+			ensure(length);
+			bytes = buffer;
+			start = position;
+			position += length;
+		} else {
+			bytes = readFully(length);
+			start = 0;
+		}
+
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+
+		char[] c = chars;
+		int end = start + length;
+		int i = start;
+		int count = 0;
+
+		// the common case of ASCII text first
+		while (i < end && bytes[i] >= 0) {
+			c[count++] = (char) bytes[i++];
+		}
+
+		while (i < end) {
+			int b = bytes[i++];
+
+			if (b >= 0) {
+				c[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				c[count++] = (char) (((b & 0x1F) << 6) | (next(bytes, i++, end)));
+			} else if ((b & 0xF0) == 0xE0) {
+				int b1 = next(bytes, i++, end);
+				int b2 = next(bytes, i++, end);
+				c[count++] = (char) (((b & 0x0F) << 12) | (b1 << 6) | b2);
+			} else if ((b & 0xF8) == 0xF0) {
+				int b1 = next(bytes, i++, end);
+				int b2 = next(bytes, i++, end);
+				int b3 = next(bytes, i++, end);
+				int codePoint = ((b & 0x07) << 18) | (b1 << 12) | (b2 << 6)
+						| b3;
+				c[count++] = Character.highSurrogate(codePoint);
+				c[count++] = Character.lowSurrogate(codePoint);
+			} else {
+				throw new IOException("Invalid UTF-8 sequence");
+			}
+		}
+
+		return new String(c, 0, count);
+	}
+
+	private static int next(byte[] bytes, int index, int end)
+			throws IOException {
+		if (index >= end || (bytes[index] & 0xC0) != 0x80) {
+			throw new IOException("Invalid UTF-8 sequence");
+		}
+
+		return bytes[index] & 0x3F;
+	}
+
+	private int readByte() throws IOException {
+		if (position == limit && fill(1) == 0) {
+			throw new EOFException();
+		}
+
+		return buffer[position++];
+	}
+
+	private int readVarint() throws IOException {
+		int result = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = readByte();
+			result |= (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				if (result < 0) {
+					break;
+				}
+
+				return result;
+			}
+		}
+
+		throw new IOException("Invalid varint");
+	}
+
+	/**
+	 * Makes sure that the given number of bytes is available from the
+	 * current position. When reading a stream or buffer, the number must not
+	 * exceed the size of the buffer.
+	 */
+	private void ensure(int length) throws IOException {
+		if (limit - position < length && fill(length) < length) {
+			throw new EOFException();
+		}
+	}
+
+	/**
+	 * Moves the unread bytes to the start of the buffer and reads more after
+	 * them, until at least the given number of bytes is available or the
+	 * input is exhausted.
+	 *
+	 * @return the number of bytes available
+	 */
+	private int fill(int length) throws IOException {
+		if (in == null && source == null) {
+			// reading an array, there is no more
+			return limit - position;
+		}
+
+		int available = limit - position;
+		System.arraycopy(buffer, position, buffer, 0, available);
+		position = 0;
+		limit = available;
+
+		while (limit < length) {
+			int read;
+
+			if (in != null) {
+				read = in.read(buffer, limit, buffer.length - limit);
+			} else {
+				read = Math.min(source.remaining(), buffer.length - limit);
+
+				if (read == 0) {
+					read = -1;
+				} else {
+					source.get(buffer, limit, read);
+				}
+			}
+
+			if (read < 0) {
+				break;
+			}
+
+			limit += read;
+		}
+
+		return limit;
+	}
+
+	/**
+	 * Reads the given number of bytes into a new array, which grows as the
+	 * bytes arrive rather than being allocated at once.
+	 */
+	private byte[] readFully(int length) throws IOException {
+		byte[] bytes = new byte[Math.min(length, MAX_ALLOCATION)];
+		int count = Math.min(limit - position, bytes.length);
+		System.arraycopy(buffer, position, bytes, 0, count);
+		position += count;
+
+		while (count < length) {
+			int read;
+
+			if (count == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(length,
+						bytes.length * 2L));
+			}
+
+			if (in != null) {
+				read = in.read(bytes, count, bytes.length - count);
+			} else if (source != null) {
+				read = Math.min(source.remaining(), bytes.length - count);
+
+				if (read == 0) {
+					read = -1;
+				} else {
+					source.get(bytes, count, read);
+				}
+			} else {
+				read = -1;
+			}
+
+			if (read < 0) {
+				throw new EOFException();
+			}
+
+			count += read;
+		}
+
+		return bytes;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentType;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.ProcessingInstruction;
+import org.dom4j.QName;
+import org.dom4j.dtd.AttributeDecl;
+import org.dom4j.dtd.ElementDecl;
+import org.dom4j.dtd.ExternalEntityDecl;
+import org.dom4j.dtd.InternalEntityDecl;
+import org.dom4j.tree.TreeWalker;
+
+/**
+ * Writes documents in the compact binary format described by
+ * {@link BinaryFormat}, to be read back by {@link BinaryDocumentReader}.
+ * Names and namespaces are written once per document and referred to by
+ * index afterwards, so the output is usually a good deal smaller than the
+ * XML text and needs no parsing to be read.
+ * <p>
+ * The output is buffered and handed to the stream or channel in blocks; a
+ * <code>FileChannel</code> can be passed as the channel. The writer is not
+ * thread safe.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class BinaryDocumentWriter {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream out;
+
+	private final WritableByteChannel channel;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private final ByteBuffer channelBuffer;
+
+	private int count;
+
+	private final Map<QName, Integer> qNames = new IdentityHashMap<QName, Integer>();
+
+	private final Map<Namespace, Integer> namespaces = new IdentityHashMap<Namespace, Integer>();
+
+	private final ContentWriter contentWriter = new ContentWriter();
+
+	public BinaryDocumentWriter(OutputStream out) {
+		if (out == null) {
+			throw new IllegalArgumentException("out must not be null");
+		}
+
+		this.out = out;
+		this.channel = null;
+		this.channelBuffer = null;
+	}
+
+	public BinaryDocumentWriter(WritableByteChannel channel) {
+		if (channel == null) {
+			throw new IllegalArgumentException("channel must not be null");
+		}
+
+		this.out = null;
+		this.channel = channel;
+		this.channelBuffer = ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Writes the given document. Every document written is self contained,
+	 * so several documents can be written one after the other and read back
+	 * in the same order.
+	 *
+	 * @param document the document to write
+	 * @throws IOException if the document could not be written
+	 */
+	public void write(Document document) throws IOException {
+		qNames.clear();
+		namespaces.clear();
+
+		try {
+			writeBytes(BinaryFormat.MAGIC);
+			writeVarint(BinaryFormat.VERSION);
+			writeString(document.getName());
+			writeString(document.getXMLEncoding());
+			writeDocumentType(document.getDocType());
+
+			for (int i = 0, size = document.nodeCount(); i < size; i++) {
+				contentWriter.walk(document.node(i));
+			}
+
+			writeTag(BinaryFormat.END);
+			flushBuffer();
+		} finally {
+			qNames.clear();
+			namespaces.clear();
+		}
+	}
+
+	/**
+	 * Flushes the buffered output and the underlying stream.
+	 *
+	 * @throws IOException if the output could not be flushed
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Flushes the buffered output and closes the underlying stream or
+	 * channel.
+	 *
+	 * @throws IOException if the output could not be closed
+	 */
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			if (out != null) {
+				out.close();
+			} else {
+				channel.close();
+			}
+		}
+	}
+
+	protected void writeDocumentType(DocumentType docType) throws IOException {
+		if (docType == null) {
+			writeTag(BinaryFormat.NO_DOCUMENT_TYPE);
+
+			return;
+		}
+
+		writeTag(BinaryFormat.DOCUMENT_TYPE);
+		writeString(docType.getElementName());
+		writeString(docType.getPublicID());
+		writeString(docType.getSystemID());
+		writeDeclarations(docType.getInternalDeclarations());
+		writeDeclarations(docType.getExternalDeclarations());
+	}
+
+	private void writeDeclarations(List<?> declarations) throws IOException {
+		if (declarations == null) {
+			writeVarint(0);
+
+			return;
+		}
+
+		writeVarint(declarations.size() + 1);
+
+		for (Object declaration : declarations) {
+			if (declaration instanceof ElementDecl) {
+				ElementDecl decl = (ElementDecl) declaration;
+				writeTag(BinaryFormat.ELEMENT_DECL);
+				writeString(decl.getName());
+				writeString(decl.getModel());
+			} else if (declaration instanceof AttributeDecl) {
+				AttributeDecl decl = (AttributeDecl) declaration;
+				writeTag(BinaryFormat.ATTRIBUTE_DECL);
+				writeString(decl.getElementName());
+				writeString(decl.getAttributeName());
+				writeString(decl.getType());
+				writeString(decl.getValueDefault());
+				writeString(decl.getValue());
+			} else if (declaration instanceof InternalEntityDecl) {
+				InternalEntityDecl decl = (InternalEntityDecl) declaration;
+				writeTag(BinaryFormat.INTERNAL_ENTITY_DECL);
+				writeString(decl.getName());
+				writeString(decl.getValue());
+			} else if (declaration instanceof ExternalEntityDecl) {
+				ExternalEntityDecl decl = (ExternalEntityDecl) declaration;
+				writeTag(BinaryFormat.EXTERNAL_ENTITY_DECL);
+				writeString(decl.getName());
+				writeString(decl.getPublicID());
+				writeString(decl.getSystemID());
+			} else {
+				throw new IOException("Cannot write declaration: " + declaration);
+			}
+		}
+	}
+
+	protected void writeElementStart(Element element, boolean empty)
+			throws IOException {
+		writeTag(empty ? BinaryFormat.EMPTY_ELEMENT : BinaryFormat.ELEMENT);
+		writeQName(element.getQName());
+
+		int attributeCount = element.attributeCount();
+		writeVarint(attributeCount);
+
+		for (int i = 0; i < attributeCount; i++) {
+			Attribute attribute = element.attribute(i);
+			writeQName(attribute.getQName());
+			writeString(attribute.getValue());
+		}
+	}
+
+	protected void writeNode(Node node) throws IOException {
+		switch (node.getNodeTypeEnum()) {
+			case TEXT_NODE:
+				writeTag(BinaryFormat.TEXT);
+				writeString(node.getText());
+
+				break;
+
+			case CDATA_SECTION_NODE:
+				writeTag(BinaryFormat.CDATA);
+				writeString(node.getText());
+
+				break;
+
+			case COMMENT_NODE:
+				writeTag(BinaryFormat.COMMENT);
+				writeString(node.getText());
+
+				break;
+
+			case PROCESSING_INSTRUCTION_NODE:
+				ProcessingInstruction pi = (ProcessingInstruction) node;
+				writeTag(BinaryFormat.PROCESSING_INSTRUCTION);
+				writeString(pi.getTarget());
+				writeString(pi.getText());
+
+				break;
+
+			case ENTITY_REFERENCE_NODE:
+				writeTag(BinaryFormat.ENTITY);
+				writeString(node.getName());
+				writeString(node.getText());
+
+				break;
+
+			case NAMESPACE_NODE:
+				writeTag(BinaryFormat.NAMESPACE);
+				writeNamespace((Namespace) node);
+
+				break;
+
+			default:
+				throw new IOException("Cannot write node: " + node);
+		}
+	}
+
+	private void writeQName(QName qName) throws IOException {
+		Integer index = qNames.get(qName);
+
+		if (index != null) {
+			writeVarint(index + 1);
+
+			return;
+		}
+
+		writeVarint(0);
+		writeString(qName.getName());
+		writeNamespace(qName.getNamespace());
+		qNames.put(qName, qNames.size());
+	}
+
+	private void writeNamespace(Namespace namespace) throws IOException {
+		Integer index = namespaces.get(namespace);
+
+		if (index != null) {
+			writeVarint(index + 1);
+
+			return;
+		}
+
+		writeVarint(0);
+		writeString(namespace.getPrefix());
+		writeString(namespace.getURI());
+		namespaces.put(namespace, namespaces.size());
+	}
+
+	private void writeTag(int tag) throws IOException {
+		if (count == BUFFER_SIZE) {
+			flushBuffer();
+		}
+
+		buffer[count++] = (byte) tag;
+	}
+
+	private void writeVarint(int value) throws IOException {
+		if (count + 5 > BUFFER_SIZE) {
+			flushBuffer();
+		}
+
+		while ((value & ~0x7F) != 0) {
+			buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		buffer[count++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (count + bytes.length > BUFFER_SIZE) {
+			flushBuffer();
+		}
+
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	private void writeString(String text) throws IOException {
+		if (text == null) {
+			writeVarint(0);
+
+			return;
+		}
+
+		int length = text.length();
+		writeVarint(utf8Length(text, length) + 1);
+
+		byte[] buf = buffer;
+		int pos = count;
+
+		for (int i = 0; i < length; i++) {
+			if (pos + 4 > BUFFER_SIZE) {
+				count = pos;
+				flushBuffer();
+				pos = 0;
+			}
+
+			char c = text.charAt(i);
+
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && (i + 1 < length)
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else {
+				// unpaired surrogates are kept as they are
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		count = pos;
+	}
+
+	private static int utf8Length(String text, int length) {
+		int result = length;
+
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					result += 1;
+				} else if (Character.isHighSurrogate(c) && (i + 1 < length)
+						&& Character.isLowSurrogate(text.charAt(i + 1))) {
+					// four bytes for the two chars
+					result += 2;
+					i++;
+				} else {
+					result += 2;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count == 0) {
+			return;
+		}
+
+		if (out != null) {
+			out.write(buffer, 0, count);
+		} else {
+			channelBuffer.clear();
+			channelBuffer.limit(count);
+
+			while (channelBuffer.hasRemaining()) {
+				channel.write(channelBuffer);
+			}
+		}
+
+		count = 0;
+	}
+
+	/**
+	 * Writes the content of the document in document order
+	 */
+	private class ContentWriter extends TreeWalker<IOException> {
+		@Override
+		protected boolean enterElement(Element element) throws IOException {
+			boolean empty = element.nodeCount() == 0;
+			writeElementStart(element, empty);
+
+			return !empty;
+		}
+
+		@Override
+		protected void leaveElement(Element element) throws IOException {
+			if (element.nodeCount() != 0) {
+				writeTag(BinaryFormat.END);
+			}
+		}
+
+		@Override
+		protected void visit(Node node) throws IOException {
+			writeNode(node);
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+/**
+ * The constants of the binary document format written by
+ * {@link BinaryDocumentWriter} and read by {@link BinaryDocumentReader}.
+ * <p>
+ * A document starts with the magic bytes, the version, the name and XML
+ * encoding of the document and an optional document type, followed by its
+ * content. Each node starts with a tag byte. An element is followed by its
+ * name, its attributes and, unless it is empty, its content up to an
+ * {@link #END} tag; the content of the document also ends with {@link #END}.
+ * </p>
+ * <p>
+ * Integers are unsigned varints of seven bits per byte, least significant
+ * first. Strings are written as their UTF-8 length plus one followed by the
+ * UTF-8 bytes, a length of zero standing for null; unpaired surrogates are
+ * written as three byte sequences so that any string survives the round trip.
+ * Names and namespaces are written once: a reference of zero is followed by
+ * the definition and adds it to the symbol table, any other reference is one
+ * more than the index of an earlier definition.
+ * </p>
+ *
+ * @since 2.0
+ */
+final class BinaryFormat {
+	static final byte[] MAGIC = {'d', '4', 'j', 'b'};
+
+	static final int VERSION = 1;
+
+	// node tags
+	static final int END = 0;
+
+	static final int ELEMENT = 1;
+
+	static final int EMPTY_ELEMENT = 2;
+
+	static final int TEXT = 3;
+
+	static final int CDATA = 4;
+
+	static final int COMMENT = 5;
+
+	static final int PROCESSING_INSTRUCTION = 6;
+
+	static final int ENTITY = 7;
+
+	static final int NAMESPACE = 8;
+
+	// document type tags
+	static final int NO_DOCUMENT_TYPE = 0;
+
+	static final int DOCUMENT_TYPE = 1;
+
+	// declaration tags
+	static final int ELEMENT_DECL = 1;
+
+	static final int ATTRIBUTE_DECL = 2;
+
+	static final int INTERNAL_ENTITY_DECL = 3;
+
+	static final int EXTERNAL_ENTITY_DECL = 4;
+
+	private BinaryFormat() {
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
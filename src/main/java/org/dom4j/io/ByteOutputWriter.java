@@ -0,0 +1,537 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * A <code>Writer</code> which encodes characters straight into a reusable
+ * byte array, without going through a <code>CharsetEncoder</code>. Only
+ * UTF-8, ISO-8859-1 and US-ASCII are supported; characters which cannot be
+ * represented in the encoding are written as <code>?</code>, as an
+ * <code>OutputStreamWriter</code> would. If no stream is given the bytes are
+ * kept in memory until {@link #reset()} is called.
+ *
+ * @since 2.0
+ */
+class ByteOutputWriter extends Writer {
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * The longest sequence produced for a single character, which is a
+	 * character reference such as <code>&amp;#65535;</code>
+	 */
+	private static final int MAX_CHAR_LENGTH = 8;
+
+	private static final byte UNMAPPABLE = '?';
+
+	private static final int UTF8_LIMIT = Character.MAX_CODE_POINT;
+
+	private static final int LATIN1_LIMIT = 0xFF;
+
+	private static final int ASCII_LIMIT = 0x7F;
+
+	private OutputStream out;
+
+	private final int limit;
+
+	private byte[] buf;
+
+	private int count;
+
+	/**
+	 * A high surrogate from the end of the previous write, waiting for its
+	 * low surrogate
+	 */
+	private char highSurrogate;
+
+	ByteOutputWriter(OutputStream out, String encoding)
+			throws UnsupportedEncodingException {
+		this.out = out;
+		this.limit = getLimit(encoding);
+		this.buf = new byte[DEFAULT_BUFFER_SIZE];
+
+		if (limit < 0) {
+			throw new UnsupportedEncodingException(encoding);
+		}
+	}
+
+	/**
+	 * Returns whether characters in the given encoding can be written by this
+	 * class.
+	 *
+	 * @param encoding the name of the encoding
+	 * @return true if the encoding is UTF-8, ISO-8859-1 or US-ASCII
+	 */
+	static boolean isSupported(String encoding) {
+		return getLimit(encoding) >= 0;
+	}
+
+	private static int getLimit(String encoding) {
+		if (encoding == null) {
+			return -1;
+		}
+
+		String name;
+
+		try {
+			name = Charset.forName(encoding).name();
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+
+		if (name.equals("UTF-8")) {
+			return UTF8_LIMIT;
+		} else if (name.equals("ISO-8859-1")) {
+			return LATIN1_LIMIT;
+		} else if (name.equals("US-ASCII")) {
+			return ASCII_LIMIT;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns whether this writer encodes characters as the given encoding.
+	 *
+	 * @param encoding the name of the encoding
+	 * @return true if the encoding is the one written
+	 */
+	boolean isEncoding(String encoding) {
+		return getLimit(encoding) == limit;
+	}
+
+	/**
+	 * Redirects the output to the given stream, discarding any bytes not yet
+	 * written. The buffer is kept for reuse.
+	 *
+	 * @param out the stream to write to or null to keep the bytes in memory
+	 */
+	void setOutputStream(OutputStream out) {
+		this.out = out;
+		reset();
+	}
+
+	OutputStream getOutputStream() {
+		return out;
+	}
+
+	/**
+	 * Discards the buffered bytes so the buffer can be reused.
+	 */
+	void reset() {
+		count = 0;
+		highSurrogate = 0;
+	}
+
+	byte[] getBuffer() {
+		return buf;
+	}
+
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Encodes the given text on its own, for callers which cache the bytes.
+	 *
+	 * @param text the text to encode
+	 * @return the encoded bytes
+	 */
+	byte[] encode(String text) {
+		int size = text.length();
+		byte[] bytes = new byte[(limit == UTF8_LIMIT) ? (size * 3) : size];
+		int length = 0;
+
+		for (int i = 0; i < size; i++) {
+			char c = text.charAt(i);
+
+			if (c < 0x80) {
+				bytes[length++] = (byte) c;
+			} else if (limit != UTF8_LIMIT) {
+				if ((c <= limit) && !Character.isSurrogate(c)) {
+					bytes[length++] = (byte) c;
+				} else {
+					bytes[length++] = UNMAPPABLE;
+
+					if (Character.isHighSurrogate(c) && (i + 1 < size)
+							&& Character.isLowSurrogate(text.charAt(i + 1))) {
+						i++;
+					}
+				}
+			} else if (c < 0x800) {
+				bytes[length++] = (byte) (0xC0 | (c >> 6));
+				bytes[length++] = (byte) (0x80 | (c & 0x3F));
+			} else if (!Character.isSurrogate(c)) {
+				bytes[length++] = (byte) (0xE0 | (c >> 12));
+				bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[length++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && (i + 1 < size)
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else {
+				bytes[length++] = UNMAPPABLE;
+			}
+		}
+
+		if (length == bytes.length) {
+			return bytes;
+		}
+
+		byte[] answer = new byte[length];
+		System.arraycopy(bytes, 0, answer, 0, length);
+
+		return answer;
+	}
+
+	/**
+	 * Writes bytes which are already encoded.
+	 *
+	 * @param bytes the encoded bytes
+	 * @throws IOException if the buffer could not be drained
+	 */
+	void writeBytes(byte[] bytes) throws IOException {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes part of an array of bytes which are already encoded.
+	 *
+	 * @param bytes  the encoded bytes
+	 * @param off    the index of the first byte
+	 * @param length the number of bytes
+	 * @throws IOException if the buffer could not be drained
+	 */
+	void writeBytes(byte[] bytes, int off, int length) throws IOException {
+		endSurrogate();
+
+		if (count + length > buf.length) {
+			if ((out != null) && (length >= buf.length)) {
+				// too large to be worth copying
+				drain();
+				out.write(bytes, off, length);
+
+				return;
+			}
+
+			require(length);
+		}
+
+		System.arraycopy(bytes, off, buf, count, length);
+		count += length;
+	}
+
+	/**
+	 * Writes part of the given text, replacing every character below 128 for
+	 * which <code>entities</code> holds a value with that entity and every
+	 * character above <code>max</code> with a character reference, unless
+	 * <code>max</code> is not positive.
+	 *
+	 * @param text     the text to write
+	 * @param start    the index of the first character
+	 * @param end      the index after the last character
+	 * @param entities the encoded replacements of the ASCII characters
+	 * @param max      the highest character written as it is
+	 * @throws IOException if the buffer could not be drained
+	 */
+	void writeEscaped(String text, int start, int end, byte[][] entities,
+			int max) throws IOException {
+		endSurrogate();
+
+		if (max <= 0) {
+			max = Integer.MAX_VALUE;
+		}
+
+		byte[] bytes = buf;
+		int length = count;
+
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+
+			if (length + MAX_CHAR_LENGTH > bytes.length) {
+				count = length;
+				require(MAX_CHAR_LENGTH);
+				bytes = buf;
+				length = count;
+			}
+
+			if (c < 0x80) {
+				byte[] entity = entities[c];
+
+				if (entity != null) {
+					System.arraycopy(entity, 0, bytes, length, entity.length);
+					length += entity.length;
+				} else if (c > max) {
+					length = putCharacterReference(c, bytes, length);
+				} else {
+					bytes[length++] = (byte) c;
+				}
+			} else if (c > max) {
+				length = putCharacterReference(c, bytes, length);
+			} else {
+				count = length;
+
+				if (writeChar(c, text, i, end)) {
+					i++;
+				}
+
+				bytes = buf;
+				length = count;
+			}
+		}
+
+		count = length;
+	}
+
+	// Writer methods
+	// -------------------------------------------------------------------------
+
+	public void write(int c) throws IOException {
+		char ch = (char) c;
+
+		if ((ch < 0x80) && (highSurrogate == 0)) {
+			if (count == buf.length) {
+				require(1);
+			}
+
+			buf[count++] = (byte) ch;
+		} else {
+			writeChar(ch, null, 0, 0);
+		}
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		write(new String(cbuf, off, len), 0, len);
+	}
+
+	public void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+		byte[] bytes = buf;
+		int length = count;
+
+		for (int i = off, end = off + len; i < end; i++) {
+			char c = str.charAt(i);
+
+			if ((c < 0x80) && (highSurrogate == 0)) {
+				if (length == bytes.length) {
+					count = length;
+					require(1);
+					bytes = buf;
+					length = count;
+				}
+
+				bytes[length++] = (byte) c;
+			} else {
+				count = length;
+
+				if (writeChar(c, str, i, end)) {
+					i++;
+				}
+
+				bytes = buf;
+				length = count;
+			}
+		}
+
+		count = length;
+	}
+
+	public void flush() throws IOException {
+		drain();
+
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		endSurrogate();
+		flush();
+
+		if (out != null) {
+			out.close();
+		}
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Encodes a single character which is not plain ASCII. A high surrogate is
+	 * paired with the following character of <code>text</code> if there is
+	 * one, otherwise it is kept until the next write.
+	 *
+	 * @return true if the following character was consumed as well
+	 */
+	private boolean writeChar(char c, String text, int index, int end)
+			throws IOException {
+		if (count + MAX_CHAR_LENGTH > buf.length) {
+			require(MAX_CHAR_LENGTH);
+		}
+
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+
+			if (Character.isLowSurrogate(c)) {
+				putCodePoint(Character.toCodePoint(high, c));
+
+				return false;
+			}
+
+			buf[count++] = UNMAPPABLE;
+		}
+
+		if (Character.isHighSurrogate(c)) {
+			if ((text != null) && (index + 1 < end)) {
+				char low = text.charAt(index + 1);
+
+				if (Character.isLowSurrogate(low)) {
+					putCodePoint(Character.toCodePoint(c, low));
+
+					return true;
+				}
+
+				buf[count++] = UNMAPPABLE;
+			} else {
+				highSurrogate = c;
+			}
+		} else if (Character.isLowSurrogate(c)) {
+			buf[count++] = UNMAPPABLE;
+		} else if (c < 0x80) {
+			buf[count++] = (byte) c;
+		} else if (c > limit) {
+			buf[count++] = UNMAPPABLE;
+		} else if (limit != UTF8_LIMIT) {
+			buf[count++] = (byte) c;
+		} else if (c < 0x800) {
+			buf[count++] = (byte) (0xC0 | (c >> 6));
+			buf[count++] = (byte) (0x80 | (c & 0x3F));
+		} else {
+			buf[count++] = (byte) (0xE0 | (c >> 12));
+			buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buf[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+
+		return false;
+	}
+
+	private void putCodePoint(int codePoint) {
+		if (limit != UTF8_LIMIT) {
+			buf[count++] = UNMAPPABLE;
+		} else {
+			buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+			buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+		}
+	}
+
+	private static int putCharacterReference(char c, byte[] bytes, int length) {
+		bytes[length++] = '&';
+		bytes[length++] = '#';
+
+		int value = c;
+		int digits = (value < 10) ? 1 : ((value < 100) ? 2 : ((value < 1000) ? 3
+				: ((value < 10000) ? 4 : 5)));
+
+		for (int i = length + digits - 1; i >= length; i--) {
+			bytes[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+
+		length += digits;
+		bytes[length++] = ';';
+
+		return length;
+	}
+
+	/**
+	 * Writes a high surrogate left over by an earlier write as unmappable,
+	 * since what follows it is not its low surrogate.
+	 */
+	private void endSurrogate() throws IOException {
+		if (highSurrogate != 0) {
+			if (count == buf.length) {
+				require(1);
+			}
+
+			buf[count++] = UNMAPPABLE;
+			highSurrogate = 0;
+		}
+	}
+
+	/**
+	 * Makes room for at least <code>length</code> more bytes, writing the
+	 * buffer to the stream if there is one and growing it otherwise.
+	 */
+	private void require(int length) throws IOException {
+		drain();
+
+		if (count + length > buf.length) {
+			byte[] bytes = new byte[Math.max(buf.length * 2, count + length)];
+			System.arraycopy(buf, 0, bytes, 0, count);
+			buf = bytes;
+		}
+	}
+
+	private void drain() throws IOException {
+		if ((out != null) && (count > 0)) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
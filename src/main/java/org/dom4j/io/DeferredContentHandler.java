@@ -0,0 +1,326 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.util.Arrays;
+
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.DocumentFactory;
+import org.dom4j.QName;
+import org.dom4j.tree.DeferredElement;
+import org.dom4j.tree.DeferredNodeTable;
+import org.dom4j.tree.NamespaceStack;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * A {@link SAXContentHandler} which stores everything below the root element
+ * in a {@link DeferredNodeTable} rather than creating the nodes. The root
+ * element of the resulting document is a {@link DeferredElement}, so nodes
+ * are only created when they are navigated to. The nodes created are the
+ * same as those of a <code>SAXContentHandler</code> with the same settings,
+ * except that the elements are <code>DeferredElement</code>s whatever the
+ * document factory would create; the factory is used for the other nodes.
+ * <p>
+ * The root element is added to the document when its end tag is reached.
+ * Element handlers and streaming are not supported.
+ * </p>
+ *
+ * @see SAXReader#setDeferNodeExpansion(boolean)
+ * @since 2.0
+ */
+public class DeferredContentHandler extends SAXContentHandler {
+	private final NamespaceStack namespaceStack;
+
+	private int declaredNamespaceIndex;
+
+	private DeferredNodeTable table;
+
+	private DeferredElement rootElement;
+
+	/**
+	 * The table indexes of the open elements
+	 */
+	private int[] elements = new int[32];
+
+	private int depth;
+
+	private String entity;
+
+	private boolean insideDTDSection;
+
+	private boolean insideCDATASection;
+
+	private final StringBuilder cdataText = new StringBuilder();
+
+	private final StringBuilder textBuffer = new StringBuilder();
+
+	/**
+	 * Scratch space for handing buffered text to the table
+	 */
+	private char[] chars = new char[256];
+
+	public DeferredContentHandler() {
+		this(DefaultDocumentFactory.getInstance());
+	}
+
+	public DeferredContentHandler(DocumentFactory documentFactory) {
+		super(documentFactory);
+		this.namespaceStack = new NamespaceStack(documentFactory);
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		super.startDocument();
+		namespaceStack.clear();
+		declaredNamespaceIndex = 0;
+		table = new DeferredNodeTable();
+		rootElement = null;
+		depth = 0;
+		entity = null;
+		insideDTDSection = false;
+		insideCDATASection = false;
+		textBuffer.setLength(0);
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		super.endDocument();
+
+		if (table != null) {
+			table.trimToSize();
+			table = null;
+		}
+
+		rootElement = null;
+		namespaceStack.clear();
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		namespaceStack.push(prefix, uri);
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		namespaceStack.pop(prefix);
+		declaredNamespaceIndex = namespaceStack.size();
+	}
+
+	@Override
+	public void startElement(String namespaceURI, String localName,
+			String qualifiedName, Attributes attributes) throws SAXException {
+		completeCurrentTextNode();
+
+		QName qName = namespaceStack.getQName(namespaceURI, localName, qualifiedName);
+		int element;
+
+		if (depth == 0) {
+			// create the document before any of its content, as the super class does
+			getDocument();
+			element = table.addElement(-1, qName);
+			rootElement = new DeferredElement(qName, table, element);
+		} else {
+			element = table.addElement(elements[depth - 1], qName);
+		}
+
+		for (int i = 0, size = attributes.getLength(); i < size; i++) {
+			String name = attributes.getQName(i);
+
+			if (!name.startsWith("xmlns")) {
+				QName attributeQName = namespaceStack.getAttributeQName(
+						attributes.getURI(i), attributes.getLocalName(i), name);
+				table.addAttribute(element, attributeQName, attributes.getValue(i));
+			}
+		}
+
+		for (int size = namespaceStack.size(); declaredNamespaceIndex < size;
+				declaredNamespaceIndex++) {
+			table.addNamespace(element, namespaceStack.getNamespace(declaredNamespaceIndex));
+		}
+
+		if (depth == elements.length) {
+			elements = Arrays.copyOf(elements, depth * 2);
+		}
+
+		elements[depth++] = element;
+		entity = null;
+	}
+
+	@Override
+	public void endElement(String namespaceURI, String localName, String qName)
+			throws SAXException {
+		completeCurrentTextNode();
+
+		if (--depth == 0) {
+			getDocument().add(rootElement);
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (length == 0 || depth == 0) {
+			return;
+		}
+
+		if (entity != null) {
+			completeCurrentTextNode();
+			table.addEntity(elements[depth - 1], entity, new String(ch, start, length));
+			entity = null;
+		} else if (insideCDATASection) {
+			completeCurrentTextNode();
+			cdataText.append(ch, start, length);
+		} else if (isMergeAdjacentText()) {
+			textBuffer.append(ch, start, length);
+		} else {
+			table.addText(elements[depth - 1], ch, start, length);
+		}
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		completeCurrentTextNode();
+
+		if (depth > 0) {
+			table.addProcessingInstruction(elements[depth - 1], target, data);
+		} else {
+			getDocument().addProcessingInstruction(target, data);
+		}
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		if (isIgnoreComments()) {
+			return;
+		}
+
+		completeCurrentTextNode();
+
+		if (!insideDTDSection && length > 0) {
+			if (depth > 0) {
+				table.addComment(elements[depth - 1], ch, start, length);
+			} else {
+				getDocument().addComment(new String(ch, start, length));
+			}
+		}
+	}
+
+	@Override
+	public void startDTD(String name, String publicId, String systemId)
+			throws SAXException {
+		super.startDTD(name, publicId, systemId);
+		insideDTDSection = true;
+	}
+
+	@Override
+	public void endDTD() throws SAXException {
+		super.endDTD();
+		insideDTDSection = false;
+	}
+
+	@Override
+	public void startEntity(String name) throws SAXException {
+		super.startEntity(name);
+		entity = (insideDTDSection || isIgnorableEntity(name)) ? null : name;
+	}
+
+	@Override
+	public void endEntity(String name) throws SAXException {
+		super.endEntity(name);
+		entity = null;
+	}
+
+	@Override
+	public void startCDATA() throws SAXException {
+		insideCDATASection = true;
+		cdataText.setLength(0);
+	}
+
+	@Override
+	public void endCDATA() throws SAXException {
+		insideCDATASection = false;
+		table.addCDATA(elements[depth - 1], toCharArray(cdataText), 0, cdataText.length());
+	}
+
+	/**
+	 * Adds the text merged so far, if any, to the current element.
+	 */
+	@Override
+	protected void completeCurrentTextNode() {
+		int length = textBuffer.length();
+
+		if (length == 0) {
+			return;
+		}
+
+		if (!isStripWhitespaceText() || !isWhitespace(textBuffer)) {
+			table.addText(elements[depth - 1], toCharArray(textBuffer), 0, length);
+		}
+
+		textBuffer.setLength(0);
+	}
+
+	private static boolean isWhitespace(CharSequence text) {
+		for (int i = 0, size = text.length(); i < size; i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private char[] toCharArray(StringBuilder buffer) {
+		int length = buffer.length();
+
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+
+		buffer.getChars(0, length, chars, 0);
+
+		return chars;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -10,9 +10,15 @@ package org.dom4j.io;
 import org.dom4j.Element;
 import org.dom4j.ElementHandler;
 import org.dom4j.ElementPath;
+import org.dom4j.QName;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -26,48 +32,86 @@ import java.util.HashMap;
  * elements encountered.
  * </p>
  *
+ * <p>
+ * Handler paths are absolute location paths made of element names, such as
+ * <code>/a/b/c</code>. A step may be the wildcard <code>*</code> and steps
+ * may be separated by <code>//</code> to match any number of intermediate
+ * elements, as in <code>//item</code> or <code>/feed/&#42;/entry</code>. The
+ * registered paths are compiled into a trie over the element names which is
+ * walked lazily as a deterministic automaton, so no path strings are built
+ * while parsing. When several paths match an element, a path without
+ * wildcards wins, otherwise the path that was registered first is used.
+ * </p>
+ *
  * @author <a href="mailto:dwhite@equipecom.com">Dave White </a>
  * @version $Revision: 1.11 $
  */
 class DispatchHandler implements ElementHandler {
 	/**
-	 * Whether the parser is at the root element or not
+	 * The maximum number of element names whose transition is remembered for
+	 * each automaton state
 	 */
-	private boolean atRoot;
+	private static final int MAX_TRANSITIONS = 64;
 
 	/**
-	 * The current path in the XML tree (i.e. /a/b/c)
+	 * <code>Map</code> maintains the mapping between element paths and
+	 * handlers in registration order
 	 */
-	private String path;
+	private Map<String, ElementHandler> handlers;
 
 	/**
-	 * maintains a stack of previously encountered paths
+	 * <code>ElementHandler</code> to use by default for element paths with no
+	 * handlers registered
 	 */
-	private ArrayList pathStack;
+	private ElementHandler defaultHandler;
 
 	/**
-	 * maintains a stack of previously encountered handlers
+	 * The start state of the compiled automaton or null if the handlers have
+	 * changed since it was compiled
 	 */
-	private ArrayList handlerStack;
+	private State start;
 
 	/**
-	 * <code>HashMap</code> maintains the mapping between element paths and
-	 * handlers
+	 * The trie nodes of the compiled automaton indexed by their id
 	 */
-	private HashMap handlers;
+	private List<Step> steps;
 
 	/**
-	 * <code>ElementHandler</code> to use by default for element paths with no
-	 * handlers registered
+	 * The automaton states indexed by the trie nodes they are made of
 	 */
-	private ElementHandler defaultHandler;
+	private Map<BitSet, State> states;
+
+	/**
+	 * The names of the elements on the current path
+	 */
+	private QName[] nameStack;
+
+	/**
+	 * The automaton state reached by each element on the current path
+	 */
+	private State[] stateStack;
+
+	/**
+	 * The handler whose onStart method was called for each element on the
+	 * current path, or null
+	 */
+	private ElementHandler[] handlerStack;
+
+	/**
+	 * The number of elements on the current path
+	 */
+	private int depth;
+
+	/**
+	 * The number of elements on the current path which have a handler
+	 */
+	private int activeHandlerCount;
 
 	public DispatchHandler() {
-		atRoot = true;
-		path = "/";
-		pathStack = new ArrayList();
-		handlerStack = new ArrayList();
-		handlers = new HashMap();
+		handlers = new LinkedHashMap<String, ElementHandler>();
+		nameStack = new QName[16];
+		stateStack = new State[16];
+		handlerStack = new ElementHandler[16];
 	}
 
 	/**
@@ -80,6 +124,7 @@ class DispatchHandler implements ElementHandler {
 	 */
 	public void addHandler(String handlerPath, ElementHandler handler) {
 		handlers.put(handlerPath, handler);
+		start = null;
 	}
 
 	/**
@@ -87,10 +132,16 @@ class DispatchHandler implements ElementHandler {
 	 * for the specified path.
 	 *
 	 * @param handlerPath is the path to remove the <code>ElementHandler</code> for.
-	 * @return DOCUMENT ME!
+	 * @return the handler that was registered for the path or null
 	 */
 	public ElementHandler removeHandler(String handlerPath) {
-		return (ElementHandler) handlers.remove(handlerPath);
+		ElementHandler handler = handlers.remove(handlerPath);
+
+		if (handler != null) {
+			start = null;
+		}
+
+		return handler;
 	}
 
 	/**
@@ -111,7 +162,34 @@ class DispatchHandler implements ElementHandler {
 	 * @return the registered handler
 	 */
 	public ElementHandler getHandler(String handlerPath) {
-		return (ElementHandler) handlers.get(handlerPath);
+		return handlers.get(handlerPath);
+	}
+
+	/**
+	 * Returns the {@link ElementHandler}that was dispatched to for the
+	 * current element, if any.
+	 *
+	 * @return the handler of the current element or null
+	 */
+	public ElementHandler getCurrentHandler() {
+		return (depth > 0) ? handlerStack[depth - 1] : null;
+	}
+
+	/**
+	 * Returns whether a child of the current element with the given name
+	 * would be dispatched to a registered {@link ElementHandler}.
+	 *
+	 * @param qname the name of the child element
+	 * @return true when a handler is registered for the child's path
+	 */
+	public boolean isHandled(QName qname) {
+		if (start == null) {
+			compile();
+		}
+
+		State parent = (depth == 0) ? start : stateStack[depth - 1];
+
+		return transition(parent, qname).handler != null;
 	}
 
 	/**
@@ -121,7 +199,7 @@ class DispatchHandler implements ElementHandler {
 	 * @return number of active handlers
 	 */
 	public int getActiveHandlerCount() {
-		return handlerStack.size();
+		return activeHandlerCount;
 	}
 
 	/**
@@ -141,78 +219,366 @@ class DispatchHandler implements ElementHandler {
 	 * they were when object was created.
 	 */
 	public void resetHandlers() {
-		atRoot = true;
-		path = "/";
-		pathStack.clear();
-		handlerStack.clear();
+		for (int i = 0; i < depth; i++) {
+			nameStack[i] = null;
+			stateStack[i] = null;
+			handlerStack[i] = null;
+		}
+
+		depth = 0;
+		activeHandlerCount = 0;
 		handlers.clear();
 		defaultHandler = null;
+		start = null;
+		steps = null;
+		states = null;
 	}
 
 	/**
-	 * DOCUMENT ME!
+	 * Returns the path of the current element. The path is only built when
+	 * this method is called.
 	 *
 	 * @return the current path for the parse
 	 */
 	public String getPath() {
-		return path;
+		if (depth == 0) {
+			return "/";
+		}
+
+		StringBuilder path = new StringBuilder();
+
+		for (int i = 0; i < depth; i++) {
+			path.append('/').append(nameStack[i].getName());
+		}
+
+		return path.toString();
 	}
 
 	// The following methods implement the ElementHandler interface
 
 	public void onStart(ElementPath elementPath) {
 		Element element = elementPath.getCurrent();
+		ElementHandler handler = enter(element.getQName());
 
-		// Save the location of the last (i.e. parent) path
-		pathStack.add(path);
-
-		// Calculate the new path
-		if (atRoot) {
-			path = path + element.getName();
-			atRoot = false;
-		} else {
-			path = path + "/" + element.getName();
-		}
-
-		if ((handlers != null) && (handlers.containsKey(path))) {
+		if (handler != null) {
 			// The current node has a handler associated with it.
-			// Find the handler and save it on the handler stack.
-			ElementHandler handler = (ElementHandler) handlers.get(path);
-			handlerStack.add(handler);
-
 			// Call the handlers onStart method.
 			handler.onStart(elementPath);
 		} else {
 			// No handler is associated with this node, so use the
 			// defaultHandler it it exists.
-			if (handlerStack.isEmpty() && (defaultHandler != null)) {
+			if ((activeHandlerCount == 0) && (defaultHandler != null)) {
 				defaultHandler.onStart(elementPath);
 			}
 		}
 	}
 
 	public void onEnd(ElementPath elementPath) {
-		if ((handlers != null) && (handlers.containsKey(path))) {
+		ElementHandler handler = handlerStack[depth - 1];
+
+		if (handler != null) {
 			// This node has a handler associated with it.
-			// Find the handler and pop it from the handler stack.
-			ElementHandler handler = (ElementHandler) handlers.get(path);
-			handlerStack.remove(handlerStack.size() - 1);
+			activeHandlerCount--;
 
 			// Call the handlers onEnd method
 			handler.onEnd(elementPath);
 		} else {
 			// No handler is associated with this node, so use the
 			// defaultHandler it it exists.
-			if (handlerStack.isEmpty() && (defaultHandler != null)) {
+			if ((activeHandlerCount == 0) && (defaultHandler != null)) {
 				defaultHandler.onEnd(elementPath);
 			}
 		}
 
 		// Set path back to its parent
-		path = (String) pathStack.remove(pathStack.size() - 1);
+		depth--;
+		nameStack[depth] = null;
+		stateStack[depth] = null;
+		handlerStack[depth] = null;
+	}
+
+	/**
+	 * Moves the automaton into a child of the current element without
+	 * calling any handler. Used by readers which match paths without building
+	 * elements.
+	 *
+	 * @param qname the name of the child element
+	 * @return the handler registered for the child's path or null
+	 */
+	ElementHandler enter(QName qname) {
+		if (start == null) {
+			compile();
+		}
+
+		State parent = (depth == 0) ? start : stateStack[depth - 1];
+		State state = transition(parent, qname);
+		ElementHandler handler = state.handler;
+
+		if (depth == nameStack.length) {
+			reallocate(depth * 2);
+		}
+
+		nameStack[depth] = qname;
+		stateStack[depth] = state;
+		handlerStack[depth] = handler;
+		depth++;
+
+		if (handler != null) {
+			activeHandlerCount++;
+		}
+
+		return handler;
+	}
+
+	/**
+	 * Moves the automaton back to the parent of the current element without
+	 * calling any handler.
+	 */
+	void leave() {
+		depth--;
+
+		if (handlerStack[depth] != null) {
+			activeHandlerCount--;
+		}
+
+		nameStack[depth] = null;
+		stateStack[depth] = null;
+		handlerStack[depth] = null;
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	private void reallocate(int size) {
+		QName[] names = new QName[size];
+		State[] states = new State[size];
+		ElementHandler[] handlers = new ElementHandler[size];
+		System.arraycopy(nameStack, 0, names, 0, depth);
+		System.arraycopy(stateStack, 0, states, 0, depth);
+		System.arraycopy(handlerStack, 0, handlers, 0, depth);
+		nameStack = names;
+		stateStack = states;
+		handlerStack = handlers;
+	}
+
+	/**
+	 * Compiles the registered paths into a trie and recomputes the states of
+	 * the elements on the current path, so that handlers may be added or
+	 * removed while parsing.
+	 */
+	private void compile() {
+		steps = new ArrayList<Step>();
+		states = new HashMap<BitSet, State>();
+
+		Step root = createStep(false);
+		int order = 0;
+
+		for (Map.Entry<String, ElementHandler> entry : handlers.entrySet()) {
+			addPath(root, entry.getKey(), entry.getValue(), order++);
+		}
+
+		BitSet ids = new BitSet();
+		closure(root, ids);
+		start = getState(ids);
+
+		State state = start;
+
+		for (int i = 0; i < depth; i++) {
+			state = transition(state, nameStack[i]);
+			stateStack[i] = state;
+		}
+	}
+
+	private void addPath(Step root, String path, ElementHandler handler,
+			int order) {
+		Step step = root;
+		boolean exact = true;
+		boolean descendant = false;
+		int length = path.length();
+		int index = path.startsWith("/") ? 1 : 0;
+
+		while (index <= length) {
+			int end = path.indexOf('/', index);
+
+			if (end < 0) {
+				end = length;
+			}
+
+			String name = path.substring(index, end);
+
+			if (name.length() == 0) {
+				if (end < length) {
+					// an empty step between two slashes
+					descendant = true;
+				}
+			} else {
+				if (descendant) {
+					if (step.descendant == null) {
+						step.descendant = createStep(true);
+					}
+
+					step = step.descendant;
+					descendant = false;
+					exact = false;
+				}
+
+				Step next;
+
+				if ("*".equals(name)) {
+					next = step.anyChild;
+
+					if (next == null) {
+						next = createStep(false);
+						step.anyChild = next;
+					}
+
+					exact = false;
+				} else {
+					next = step.children.get(name);
+
+					if (next == null) {
+						next = createStep(false);
+						step.children.put(name, next);
+					}
+				}
+
+				step = next;
+			}
+
+			index = end + 1;
+		}
+
+		if ((step != root) && (step.handler == null)) {
+			step.handler = handler;
+			step.exact = exact;
+			step.order = order;
+		}
+	}
+
+	private Step createStep(boolean loop) {
+		Step step = new Step(steps.size(), loop);
+		steps.add(step);
+
+		return step;
+	}
+
+	private void closure(Step step, BitSet ids) {
+		ids.set(step.id);
+
+		if (step.descendant != null) {
+			closure(step.descendant, ids);
+		}
+	}
+
+	private State transition(State state, QName qname) {
+		if (state.steps.length == 0) {
+			// no path can match below this element
+			return state;
+		}
+
+		State next = state.transitions.get(qname);
+
+		if (next == null) {
+			String name = qname.getName();
+			BitSet ids = new BitSet();
+
+			for (Step step : state.steps) {
+				if (step.loop) {
+					ids.set(step.id);
+				}
+
+				Step child = step.children.get(name);
+
+				if (child != null) {
+					closure(child, ids);
+				}
+
+				if (step.anyChild != null) {
+					closure(step.anyChild, ids);
+				}
+			}
+
+			next = getState(ids);
+
+			if (state.transitions.size() < MAX_TRANSITIONS) {
+				state.transitions.put(qname, next);
+			}
+		}
+
+		return next;
+	}
+
+	private State getState(BitSet ids) {
+		State state = states.get(ids);
+
+		if (state == null) {
+			Step[] members = new Step[ids.cardinality()];
+			Step match = null;
+			int count = 0;
+
+			for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+				Step step = steps.get(i);
+				members[count++] = step;
+
+				if ((step.handler != null)
+						&& ((match == null) || (step.exact && !match.exact)
+						|| ((step.exact == match.exact)
+						&& (step.order < match.order)))) {
+					match = step;
+				}
+			}
+
+			state = new State(members, (match != null) ? match.handler : null);
+			states.put(ids, state);
+		}
+
+		return state;
+	}
+
+	/**
+	 * A node of the trie of registered paths.
+	 */
+	private static final class Step {
+		private final int id;
+
+		/**
+		 * Whether this node stays active for any number of descendants
+		 */
+		private final boolean loop;
+
+		private final Map<String, Step> children = new HashMap<String, Step>();
+
+		private Step anyChild;
+
+		private Step descendant;
+
+		private ElementHandler handler;
+
+		private boolean exact;
+
+		private int order;
+
+		private Step(int id, boolean loop) {
+			this.id = id;
+			this.loop = loop;
+		}
+	}
+
+	/**
+	 * A state of the automaton, i.e. the set of trie nodes active for an
+	 * element, with the transitions taken from it so far keyed by the
+	 * identity of the child element names.
+	 */
+	private static final class State {
+		private final Step[] steps;
+
+		private final ElementHandler handler;
+
+		private final Map<QName, State> transitions = new IdentityHashMap<QName, State>();
 
-		if (pathStack.size() == 0) {
-			atRoot = true;
+		private State(Step[] steps, ElementHandler handler) {
+			this.steps = steps;
+			this.handler = handler;
 		}
 	}
 }
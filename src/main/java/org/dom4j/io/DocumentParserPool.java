@@ -0,0 +1,358 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.FactoryConfigurationError;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * <p>
+ * <code>DocumentParserPool</code> reads documents from any number of threads
+ * using a pool of configured {@link SAXReader}s. A <code>SAXReader</code>
+ * keeps the <code>XMLReader</code> it creates for its first document, so the
+ * parser lookup and setup is only paid once per pooled reader instead of once
+ * per document, which is most of the cost of reading small documents.
+ * </p>
+ * <p>
+ * Each read borrows an idle reader, or creates one with {@link
+ * #createSAXReader()} if there is none, and gives it back afterwards, so
+ * there are never more readers than concurrent reads; as readers are not
+ * tied to threads this works as well with short lived or virtual threads.
+ * At most <code>maxIdle</code> readers are kept between reads. A reader is
+ * given back without the handlers of its last document, so idle readers do
+ * not keep documents alive, and with the entity resolver it was created
+ * with; a reader whose read failed is dropped. Override
+ * <code>createSAXReader()</code> to configure the readers.
+ * </p>
+ * <p>
+ * The readers of a pool share one JAXP <code>SAXParserFactory</code>, which
+ * is looked up when the first reader is created and again after {@link
+ * #clear()}, so the lookup is not repeated for every new reader.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class DocumentParserPool {
+	private final DocumentFactory documentFactory;
+
+	private final boolean validating;
+
+	private final int maxIdle;
+
+	private final Queue<PooledReader> readers = new ConcurrentLinkedQueue<PooledReader>();
+
+	private final AtomicInteger idle = new AtomicInteger();
+
+	/**
+	 * The factory of the XMLReaders of new readers, or null if it has not
+	 * been looked up yet
+	 */
+	private volatile SAXParserFactory parserFactory;
+
+	public DocumentParserPool() {
+		this(DefaultDocumentFactory.getInstance(), false);
+	}
+
+	public DocumentParserPool(DocumentFactory documentFactory,
+			boolean validating) {
+		this(documentFactory, validating, Runtime.getRuntime()
+				.availableProcessors() * 2);
+	}
+
+	public DocumentParserPool(DocumentFactory documentFactory,
+			boolean validating, int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("maxIdle must not be negative: "
+					+ maxIdle);
+		}
+
+		this.documentFactory = documentFactory;
+		this.validating = validating;
+		this.maxIdle = maxIdle;
+	}
+
+	public DocumentFactory getDocumentFactory() {
+		return documentFactory;
+	}
+
+	public boolean isValidating() {
+		return validating;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	/**
+	 * Reads a document from the given file.
+	 *
+	 * @param file the file to read from
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(File)
+	 */
+	public Document read(File file) throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(file);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Reads a document from the given URL.
+	 *
+	 * @param url the URL to read from
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(URL)
+	 */
+	public Document read(URL url) throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(url);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Reads a document from the given system ID.
+	 *
+	 * @param systemId the URI of the document
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(String)
+	 */
+	public Document read(String systemId) throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(systemId);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Reads a document from the given stream.
+	 *
+	 * @param in the stream to read from
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(InputStream)
+	 */
+	public Document read(InputStream in) throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(in);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Reads a document from the given stream, resolving relative URIs
+	 * against the given system ID.
+	 *
+	 * @param in the stream to read from
+	 * @param systemId the URI of the document
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(InputStream, String)
+	 */
+	public Document read(InputStream in, String systemId)
+			throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(in, systemId);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Reads a document from the given reader.
+	 *
+	 * @param in the reader to read from
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(Reader)
+	 */
+	public Document read(Reader in) throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(in);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Reads a document from the given input source.
+	 *
+	 * @param in the input source to read from
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see SAXReader#read(InputSource)
+	 */
+	public Document read(InputSource in) throws DocumentException {
+		PooledReader pooled = borrow();
+		Document document = pooled.reader.read(in);
+		release(pooled);
+
+		return document;
+	}
+
+	/**
+	 * Drops the idle readers and the parser factory, so the next reads
+	 * create new readers with a parser factory looked up again.
+	 */
+	public void clear() {
+		parserFactory = null;
+
+		while (readers.poll() != null) {
+			idle.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Creates a reader for the pool. Every reader is only used by one thread
+	 * at a time, but by different threads over its life time.
+	 *
+	 * @return a new reader
+	 */
+	protected SAXReader createSAXReader() {
+		SAXReader reader = new SAXReader(documentFactory, validating);
+		XMLReader xmlReader = createXMLReader();
+
+		if (xmlReader != null) {
+			reader.setXMLReader(xmlReader);
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Creates an XMLReader with the parser factory of this pool.
+	 *
+	 * @return the new XMLReader or null if JAXP is not available, in which
+	 *         case the SAXReader creates its own
+	 */
+	private XMLReader createXMLReader() {
+		try {
+			SAXParserFactory factory = parserFactory;
+
+			if (factory == null) {
+				factory = SAXParserFactory.newInstance();
+				factory.setValidating(validating);
+				factory.setNamespaceAware(true);
+				parserFactory = factory;
+			}
+
+			// factories are not thread safe
+			synchronized (factory) {
+				return factory.newSAXParser().getXMLReader();
+			}
+		} catch (FactoryConfigurationError e) {
+			return null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private PooledReader borrow() {
+		PooledReader pooled = readers.poll();
+
+		if (pooled == null) {
+			return new PooledReader(createSAXReader());
+		}
+
+		idle.decrementAndGet();
+
+		return pooled;
+	}
+
+	/**
+	 * Gives back a reader whose last read succeeded; a reader whose read
+	 * failed is dropped, as its parser may be left in any state.
+	 */
+	private void release(PooledReader pooled) {
+		// a reader without an entity resolver keeps the default one created
+		// for its first document, which resolves against that document
+		pooled.reader.setEntityResolver(pooled.entityResolver);
+		pooled.reader.releaseHandlers();
+
+		if (idle.incrementAndGet() <= maxIdle) {
+			readers.offer(pooled);
+		} else {
+			idle.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A pooled reader with the entity resolver it was configured with
+	 */
+	private static final class PooledReader {
+		final SAXReader reader;
+
+		final EntityResolver entityResolver;
+
+		PooledReader(SAXReader reader) {
+			this.reader = reader;
+			this.entityResolver = reader.getEntityResolver();
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
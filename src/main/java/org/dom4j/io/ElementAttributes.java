@@ -0,0 +1,229 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.xml.sax.Attributes;
+
+/**
+ * <p>
+ * <code>ElementAttributes</code> is a read-only SAX {@link Attributes} view
+ * of the attributes of a dom4j {@link Element}, optionally preceded by
+ * namespace declaration attributes. Nothing is copied, so the view reflects
+ * the element as it is when each method is called and can be pointed at
+ * another element with {@link #setElement(Element, Attributes)}.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class ElementAttributes implements Attributes {
+	private static final String TYPE = "CDATA";
+
+	private Element element;
+
+	private Attributes namespaceAttributes;
+
+	/**
+	 * The number of namespace declaration attributes
+	 */
+	private int namespaceCount;
+
+	public ElementAttributes() {
+	}
+
+	public ElementAttributes(Element element) {
+		setElement(element, null);
+	}
+
+	/**
+	 * Makes this view show the attributes of the given element.
+	 *
+	 * @param element             the element, or null for no attributes
+	 * @param namespaceAttributes the namespace declarations shown before the
+	 *                            attributes of the element, or null
+	 */
+	public void setElement(Element element, Attributes namespaceAttributes) {
+		this.element = element;
+		this.namespaceAttributes = namespaceAttributes;
+		this.namespaceCount = (namespaceAttributes != null) ? namespaceAttributes
+				.getLength() : 0;
+	}
+
+	public Element getElement() {
+		return element;
+	}
+
+	public int getLength() {
+		return namespaceCount
+				+ ((element != null) ? element.attributeCount() : 0);
+	}
+
+	public String getURI(int index) {
+		if (index < namespaceCount) {
+			return namespaceAttributes.getURI(index);
+		}
+
+		Attribute attribute = attribute(index);
+
+		return (attribute != null) ? attribute.getNamespaceURI() : null;
+	}
+
+	public String getLocalName(int index) {
+		if (index < namespaceCount) {
+			return namespaceAttributes.getLocalName(index);
+		}
+
+		Attribute attribute = attribute(index);
+
+		return (attribute != null) ? attribute.getName() : null;
+	}
+
+	public String getQName(int index) {
+		if (index < namespaceCount) {
+			return namespaceAttributes.getQName(index);
+		}
+
+		Attribute attribute = attribute(index);
+
+		return (attribute != null) ? attribute.getQualifiedName() : null;
+	}
+
+	public String getType(int index) {
+		if (index < namespaceCount) {
+			return namespaceAttributes.getType(index);
+		}
+
+		return (attribute(index) != null) ? TYPE : null;
+	}
+
+	public String getValue(int index) {
+		if (index < namespaceCount) {
+			return namespaceAttributes.getValue(index);
+		}
+
+		Attribute attribute = attribute(index);
+
+		return (attribute != null) ? attribute.getValue() : null;
+	}
+
+	public int getIndex(String uri, String localName) {
+		if (namespaceAttributes != null) {
+			int index = namespaceAttributes.getIndex(uri, localName);
+
+			if (index >= 0) {
+				return index;
+			}
+		}
+
+		if (element != null) {
+			for (int i = 0, size = element.attributeCount(); i < size; i++) {
+				Attribute attribute = element.attribute(i);
+
+				if (attribute.getName().equals(localName)
+						&& attribute.getNamespaceURI().equals(uri)) {
+					return namespaceCount + i;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	public int getIndex(String qName) {
+		if (namespaceAttributes != null) {
+			int index = namespaceAttributes.getIndex(qName);
+
+			if (index >= 0) {
+				return index;
+			}
+		}
+
+		if (element != null) {
+			for (int i = 0, size = element.attributeCount(); i < size; i++) {
+				if (element.attribute(i).getQualifiedName().equals(qName)) {
+					return namespaceCount + i;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	public String getType(String uri, String localName) {
+		int index = getIndex(uri, localName);
+
+		return (index >= 0) ? getType(index) : null;
+	}
+
+	public String getType(String qName) {
+		int index = getIndex(qName);
+
+		return (index >= 0) ? getType(index) : null;
+	}
+
+	public String getValue(String uri, String localName) {
+		int index = getIndex(uri, localName);
+
+		return (index >= 0) ? getValue(index) : null;
+	}
+
+	public String getValue(String qName) {
+		int index = getIndex(qName);
+
+		return (index >= 0) ? getValue(index) : null;
+	}
+
+	private Attribute attribute(int index) {
+		if ((index < 0) || (element == null)) {
+			return null;
+		}
+
+		index -= namespaceCount;
+
+		return (index < element.attributeCount()) ? element.attribute(index)
+				: null;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -83,7 +83,12 @@ class ElementStack implements ElementPath {
 			return null;
 		}
 
-		return stack[lastElementIndex--];
+		Element element = stack[lastElementIndex];
+
+		// do not keep popped elements reachable
+		stack[lastElementIndex--] = null;
+
+		return element;
 	}
 
 	/**
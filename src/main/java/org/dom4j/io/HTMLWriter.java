@@ -542,6 +542,26 @@ public class HTMLWriter extends XMLWriter {
 		return (preformattedTags != null) && (preformattedTags.contains(qualifiedName.toUpperCase()));
 	}
 
+	/**
+	 * Restores the format if writing the element failed within a
+	 * preformatted element.
+	 *
+	 * @param element the element to write
+	 * @throws IOException When the stream could not be written to.
+	 */
+	@Override
+	protected void writeElement(Element element) throws IOException {
+		int formatDepth = formatStack.size();
+
+		try {
+			super.writeElement(element);
+		} finally {
+			while (formatStack.size() > formatDepth) {
+				restoreFormat();
+			}
+		}
+	}
+
 	/**
 	 * This override handles any elements that should not remove whitespace,
 	 * such as &lt;PRE&gt;, &lt;SCRIPT&gt;, &lt;STYLE&gt;, and &lt;TEXTAREA&gt;.
@@ -549,11 +569,12 @@ public class HTMLWriter extends XMLWriter {
 	 * that. See javadoc note at setPreformattedTags.
 	 *
 	 * @param element DOCUMENT ME!
+	 * @return true if the content of the element should be written
 	 * @throws IOException When the stream could not be written to.
 	 * @see #setPreformattedTags(java.util.Set) setPreformattedTags
 	 */
 	@Override
-	protected void writeElement(Element element) throws IOException {
+	protected boolean writeElementStart(Element element) throws IOException {
 		if (newLineAfterNTags == -1) { // lazy initialization check
 			lazyInitNewLinesAfterNTags();
 		}
@@ -568,7 +589,6 @@ public class HTMLWriter extends XMLWriter {
 
 		String qualifiedName = element.getQualifiedName();
 		String saveLastText = lastText;
-		int size = element.nodeCount();
 
 		if (isPreformattedTag(qualifiedName)) {
 			OutputFormat currentFormat = getOutputFormat();
@@ -581,37 +601,44 @@ public class HTMLWriter extends XMLWriter {
 			formatStack.addFirst(new FormatState(saveNewlines, saveTrimText,
 					currentIndent));
 
-			try {
-				// do this manually, since it won't be done while outputting
-				// the tag.
-				super.writePrintln();
-
-				if ((saveLastText.trim().length() == 0) && (currentIndent != null) && (currentIndent.length() > 0)) {
-					// We are indenting, but we want to line up with the close
-					// tag. lastText was the indent (whitespace, no \n) before
-					// the preformatted start tag. So write it out instead of
-					// the current indent level. This makes it line up with its
-					// close tag.
-					super.writer.write(justSpaces(saveLastText));
-				}
-
-				// actually, newlines are handled in this class by writeString,
-				// depending on if the stack is empty.
-				currentFormat.setNewlines(false);
-				currentFormat.setTrimText(false);
-				currentFormat.setIndent("");
-
-				// This line is the recursive one:
-				super.writeElement(element);
-			} finally {
-				FormatState state = formatStack.poll();
-				currentFormat.setNewlines(state.isNewlines());
-				currentFormat.setTrimText(state.isTrimText());
-				currentFormat.setIndent(state.getIndent());
+			// do this manually, since it won't be done while outputting
+			// the tag.
+			super.writePrintln();
+
+			if ((saveLastText.trim().length() == 0) && (currentIndent != null) && (currentIndent.length() > 0)) {
+				// We are indenting, but we want to line up with the close
+				// tag. lastText was the indent (whitespace, no \n) before
+				// the preformatted start tag. So write it out instead of
+				// the current indent level. This makes it line up with its
+				// close tag.
+				super.writer.write(justSpaces(saveLastText));
 			}
-		} else {
-			super.writeElement(element);
+
+			// actually, newlines are handled in this class by writeString,
+			// depending on if the stack is empty.
+			currentFormat.setNewlines(false);
+			currentFormat.setTrimText(false);
+			currentFormat.setIndent("");
 		}
+
+		return super.writeElementStart(element);
+	}
+
+	@Override
+	protected void writeElementEnd(Element element) throws IOException {
+		super.writeElementEnd(element);
+
+		if (isPreformattedTag(element.getQualifiedName())) {
+			restoreFormat();
+		}
+	}
+
+	private void restoreFormat() {
+		FormatState state = formatStack.poll();
+		OutputFormat currentFormat = getOutputFormat();
+		currentFormat.setNewlines(state.isNewlines());
+		currentFormat.setTrimText(state.isTrimText());
+		currentFormat.setIndent(state.getIndent());
 	}
 
 	private String justSpaces(String text) {
@@ -0,0 +1,1695 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.ElementHandler;
+import org.dom4j.Namespace;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * <p>
+ * <code>IncrementalReader</code> reads a document from bytes pushed to it as
+ * they arrive, for example from a non-blocking socket, without ever blocking
+ * or waiting for the whole document. Every call to {@link #feed(ByteBuffer)}
+ * parses as much of the input received so far as possible and keeps the
+ * rest, down to a partial character or tag, for the next call;
+ * {@link #endOfInput()} completes the document. The document grows as the
+ * input is parsed and the registered {@link ElementHandler}s are called as
+ * soon as their elements have been read, just as with a {@link SAXReader}
+ * which is given the same settings. As the state of a document is kept in
+ * the reader, a single thread can serve any number of readers.
+ * </p>
+ * <p>
+ * The parser checks well-formedness and namespaces. The encoding is taken
+ * from the byte order mark or the XML declaration, defaulting to UTF-8. The
+ * internal subset of the document type is read for general entity
+ * declarations, whose replacement text must not contain markup; external
+ * entities and the external subset are not loaded, as that would block, so
+ * references to entities they may declare are skipped.
+ * </p>
+ * <p>
+ * Character data is reported up to the next markup or reference, so the
+ * document built does not depend on how the input is split into buffers. A
+ * reader is not thread safe; it can read further documents after
+ * {@link #reset()}.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class IncrementalReader {
+	private static final String XML_URI = Namespace.XML_NAMESPACE.getURI();
+
+	private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
+
+	/**
+	 * The longest entity or character reference
+	 */
+	private static final int MAX_REFERENCE_LENGTH = 256;
+
+	/**
+	 * The longest XML declaration read before the encoding is known
+	 */
+	private static final int MAX_DECLARATION_LENGTH = 1024;
+
+	/**
+	 * How deep entities may be nested in the replacement text of other
+	 * entities
+	 */
+	private static final int MAX_ENTITY_DEPTH = 16;
+
+	private static final Pattern ENCODING = Pattern
+			.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+	private static final Pattern DECLARATION = Pattern
+			.compile("\\s+version\\s*=\\s*([\"'])1\\.[0-9]+\\1"
+					+ "(\\s+encoding\\s*=\\s*([\"'])[A-Za-z][A-Za-z0-9._-]*\\3)?"
+					+ "(\\s+standalone\\s*=\\s*([\"'])(yes|no)\\5)?\\s*");
+
+	private static final Map<String, String> PREDEFINED_ENTITIES = new HashMap<String, String>();
+
+	static {
+		PREDEFINED_ENTITIES.put("lt", "<");
+		PREDEFINED_ENTITIES.put("gt", ">");
+		PREDEFINED_ENTITIES.put("amp", "&");
+		PREDEFINED_ENTITIES.put("apos", "'");
+		PREDEFINED_ENTITIES.put("quot", "\"");
+	}
+
+	private final DocumentFactory documentFactory;
+
+	private DispatchHandler dispatchHandler;
+
+	private boolean mergeAdjacentText;
+
+	private boolean stripWhitespaceText;
+
+	private boolean ignoreComments;
+
+	private boolean streaming;
+
+	// The state of the document being read
+	// -------------------------------------------------------------------------
+
+	private SAXContentHandler contentHandler;
+
+	private boolean finished;
+
+	private boolean failed;
+
+	/**
+	 * The bytes which have not been decoded yet, at the start of the array
+	 */
+	private byte[] bytes = new byte[0];
+
+	private int byteCount;
+
+	private CharsetDecoder decoder;
+
+	private String encoding;
+
+	private boolean lastWasCarriageReturn;
+
+	/**
+	 * The decoded characters, with normalized line ends, which have not been
+	 * parsed yet lie between position and limit
+	 */
+	private char[] chars = new char[256];
+
+	private int position;
+
+	private int limit;
+
+	/**
+	 * Where to continue looking for the end of the token at the current
+	 * position
+	 */
+	private int resume;
+
+	/**
+	 * The quote of the attribute value in which the search for the end of
+	 * the start tag at the current position stopped, or 0
+	 */
+	private char resumeQuote;
+
+	private int line = 1;
+
+	private int lineStart;
+
+	private boolean declarationChecked;
+
+	private boolean documentTypeRead;
+
+	private boolean rootRead;
+
+	private String[] elementNames = new String[16];
+
+	private int depth;
+
+	private String[] prefixes = new String[8];
+
+	private String[] uris = new String[8];
+
+	private int bindingCount;
+
+	/**
+	 * The number of namespace bindings before each open element
+	 */
+	private int[] bindingMarks = new int[16];
+
+	private final AttributesImpl attributes = new AttributesImpl();
+
+	private final Map<String, String> entities = new HashMap<String, String>();
+
+	private final Set<String> externalEntities = new HashSet<String>();
+
+	/**
+	 * Whether declarations may exist which have not been read
+	 */
+	private boolean unreadDeclarations;
+
+	/**
+	 * The local name of the last name resolved
+	 */
+	private String localName;
+
+	public IncrementalReader() {
+		this(DefaultDocumentFactory.getInstance());
+	}
+
+	public IncrementalReader(DocumentFactory documentFactory) {
+		this.documentFactory = documentFactory;
+	}
+
+	public DocumentFactory getDocumentFactory() {
+		return documentFactory;
+	}
+
+	public boolean isMergeAdjacentText() {
+		return mergeAdjacentText;
+	}
+
+	/**
+	 * Sets whether adjacent text nodes are merged into one.
+	 *
+	 * @param mergeAdjacentText whether text should be merged
+	 * @see SAXReader#setMergeAdjacentText(boolean)
+	 */
+	public void setMergeAdjacentText(boolean mergeAdjacentText) {
+		this.mergeAdjacentText = mergeAdjacentText;
+	}
+
+	public boolean isStripWhitespaceText() {
+		return stripWhitespaceText;
+	}
+
+	/**
+	 * Sets whether merged text made of whitespace only is dropped.
+	 *
+	 * @param stripWhitespaceText whether whitespace should be stripped
+	 * @see SAXReader#setStripWhitespaceText(boolean)
+	 */
+	public void setStripWhitespaceText(boolean stripWhitespaceText) {
+		this.stripWhitespaceText = stripWhitespaceText;
+	}
+
+	public boolean isIgnoreComments() {
+		return ignoreComments;
+	}
+
+	public void setIgnoreComments(boolean ignoreComments) {
+		this.ignoreComments = ignoreComments;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets whether only the elements handled by a registered
+	 * <code>ElementHandler</code> are kept. The setting applies from the next
+	 * document on.
+	 *
+	 * @param streaming whether unhandled elements are discarded
+	 * @see SAXReader#stream(org.xml.sax.InputSource)
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Adds the <code>ElementHandler</code> to be called when the specified
+	 * path is encountered. Handlers may also be added while the document is
+	 * being read; they are called for the elements which start afterwards.
+	 *
+	 * @param path the path to be handled
+	 * @param handler the handler to be called
+	 * @see SAXReader#addHandler(String, ElementHandler)
+	 */
+	public void addHandler(String path, ElementHandler handler) {
+		getDispatchHandler().addHandler(path, handler);
+	}
+
+	public void removeHandler(String path) {
+		getDispatchHandler().removeHandler(path);
+	}
+
+	public void setDefaultHandler(ElementHandler handler) {
+		getDispatchHandler().setDefaultHandler(handler);
+	}
+
+	public void resetHandlers() {
+		getDispatchHandler().resetHandlers();
+	}
+
+	/**
+	 * Parses the remaining bytes of the given buffer, as far as they form
+	 * complete markup. The buffer is read completely; the bytes which cannot
+	 * be parsed yet are copied.
+	 *
+	 * @param input the next bytes of the document
+	 * @throws DocumentException if the document is not well formed
+	 */
+	public void feed(ByteBuffer input) throws DocumentException {
+		checkOpen();
+
+		int length = input.remaining();
+
+		if (byteCount + length > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(byteCount + length,
+					bytes.length * 2));
+		}
+
+		input.get(bytes, byteCount, length);
+		byteCount += length;
+		process(false);
+	}
+
+	/**
+	 * Parses the rest of the input and completes the document.
+	 *
+	 * @return the document
+	 * @throws DocumentException if the document is not well formed or
+	 *             incomplete
+	 */
+	public Document endOfInput() throws DocumentException {
+		checkOpen();
+		process(true);
+		finished = true;
+
+		return contentHandler.getDocument();
+	}
+
+	/**
+	 * Returns the document read so far, which is complete once
+	 * {@link #endOfInput()} has returned.
+	 *
+	 * @return the document or null if no input has been parsed
+	 */
+	public Document getDocument() {
+		return (contentHandler != null) ? contentHandler.getDocument() : null;
+	}
+
+	/**
+	 * Returns whether the document has been read completely.
+	 *
+	 * @return true once {@link #endOfInput()} has returned
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Discards the document being read, so the next input starts a new
+	 * document. The settings and handlers are kept.
+	 */
+	public void reset() {
+		contentHandler = null;
+		finished = false;
+		failed = false;
+		byteCount = 0;
+		decoder = null;
+		encoding = null;
+		lastWasCarriageReturn = false;
+		position = 0;
+		limit = 0;
+		resume = 0;
+		resumeQuote = 0;
+		line = 1;
+		lineStart = 0;
+		declarationChecked = false;
+		documentTypeRead = false;
+		rootRead = false;
+		if (dispatchHandler != null) {
+			// leave the elements left open by an incomplete document
+			for (int i = 0; i < depth; i++) {
+				dispatchHandler.leave();
+			}
+		}
+
+		Arrays.fill(elementNames, 0, depth, null);
+		depth = 0;
+		Arrays.fill(prefixes, 0, bindingCount, null);
+		Arrays.fill(uris, 0, bindingCount, null);
+		bindingCount = 0;
+		attributes.clear();
+		entities.clear();
+		externalEntities.clear();
+		unreadDeclarations = false;
+	}
+
+	protected DispatchHandler getDispatchHandler() {
+		if (dispatchHandler == null) {
+			dispatchHandler = new DispatchHandler();
+		}
+
+		return dispatchHandler;
+	}
+
+	/**
+	 * Factory Method for the content handler building the document.
+	 *
+	 * @return the content handler
+	 */
+	protected SAXContentHandler createContentHandler() {
+		return new EncodingContentHandler();
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	private void checkOpen() {
+		if (failed) {
+			throw new IllegalStateException("The document is not well formed");
+		} else if (finished) {
+			throw new IllegalStateException("The document has been read completely");
+		}
+	}
+
+	private void process(boolean end) throws DocumentException {
+		try {
+			if (contentHandler == null) {
+				contentHandler = createContentHandler();
+				contentHandler.setMergeAdjacentText(mergeAdjacentText);
+				contentHandler.setStripWhitespaceText(stripWhitespaceText);
+				contentHandler.setIgnoreComments(ignoreComments);
+				contentHandler.setStreaming(streaming);
+				contentHandler.startDocument();
+			}
+
+			if (decoder == null && !detectEncoding(end)) {
+				return;
+			}
+
+			decode(end);
+			parse(end);
+
+			if (end) {
+				if (!rootRead) {
+					fatal("The document has no root element");
+				} else if (depth > 0) {
+					fatal("The element \"" + elementNames[depth - 1]
+							+ "\" is not closed");
+				}
+
+				contentHandler.endDocument();
+			}
+		} catch (SAXParseException e) {
+			failed = true;
+			throw new DocumentException("Error on line " + e.getLineNumber()
+					+ " : " + e.getMessage(), e);
+		} catch (SAXException e) {
+			failed = true;
+			throw new DocumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Creates the decoder from the byte order mark or the XML declaration.
+	 *
+	 * @return false if more input is needed
+	 */
+	private boolean detectEncoding(boolean end) throws SAXException {
+		if (byteCount < 4 && !end) {
+			return false;
+		}
+
+		int b0 = byteAt(0);
+		int b1 = byteAt(1);
+		int b2 = byteAt(2);
+		int b3 = byteAt(3);
+		int skip = 0;
+		String name = "UTF-8";
+
+		if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+			skip = 3;
+		} else if (b0 == 0xFE && b1 == 0xFF) {
+			name = "UTF-16BE";
+			skip = 2;
+		} else if (b0 == 0xFF && b1 == 0xFE) {
+			name = "UTF-16LE";
+			skip = 2;
+		} else if (b0 == 0 && b1 == '<' && b2 == 0 && b3 == '?') {
+			name = "UTF-16BE";
+		} else if (b0 == '<' && b1 == 0 && b2 == '?' && b3 == 0) {
+			name = "UTF-16LE";
+		} else if (b0 == '<' && b1 == '?' && b2 == 'x' && b3 == 'm') {
+			int close = -1;
+
+			for (int i = 4; i + 1 < byteCount && close < 0; i++) {
+				if (bytes[i] == '?' && bytes[i + 1] == '>') {
+					close = i;
+				}
+			}
+
+			if (close < 0) {
+				if (!end && byteCount < MAX_DECLARATION_LENGTH) {
+					return false;
+				}
+
+				fatal("The XML declaration is not closed");
+			}
+
+			Matcher matcher = ENCODING.matcher(new String(bytes, 0, close,
+					StandardCharsets.ISO_8859_1));
+
+			if (matcher.find()) {
+				name = matcher.group(1);
+			}
+		}
+
+		try {
+			decoder = Charset.forName(name).newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		} catch (IllegalArgumentException e) {
+			fatal("Unsupported encoding: " + name);
+		}
+
+		encoding = name;
+		byteCount -= skip;
+		System.arraycopy(bytes, skip, bytes, 0, byteCount);
+
+		return true;
+	}
+
+	private int byteAt(int index) {
+		return (index < byteCount) ? (bytes[index] & 0xFF) : -1;
+	}
+
+	/**
+	 * Decodes the pending bytes behind the characters not parsed yet.
+	 */
+	private void decode(boolean end) throws SAXException {
+		if (position > 0) {
+			System.arraycopy(chars, position, chars, 0, limit - position);
+			limit -= position;
+			resume = Math.max(resume - position, 0);
+			lineStart -= position;
+			position = 0;
+		}
+
+		ByteBuffer in = ByteBuffer.wrap(bytes, 0, byteCount);
+
+		while (true) {
+			int capacity = limit + (int) (in.remaining() * decoder.maxCharsPerByte()) + 16;
+
+			if (capacity > chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+			}
+
+			CharBuffer out = CharBuffer.wrap(chars, limit, chars.length - limit);
+			CoderResult result = decoder.decode(in, out, end);
+
+			if (end && result.isUnderflow()) {
+				result = decoder.flush(out);
+			}
+
+			limit = normalizeLineEnds(limit, out.position());
+
+			if (result.isError()) {
+				byteCount = 0;
+				fatal("Invalid byte sequence for encoding " + encoding);
+			} else if (!result.isOverflow()) {
+				break;
+			}
+		}
+
+		byteCount = in.remaining();
+		System.arraycopy(bytes, in.position(), bytes, 0, byteCount);
+	}
+
+	/**
+	 * Replaces line ends by line feeds in the given range of characters.
+	 *
+	 * @return the end of the range after the replacement
+	 */
+	private int normalizeLineEnds(int start, int end) {
+		int to = start;
+
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+
+			if (c == '\r') {
+				chars[to++] = '\n';
+				lastWasCarriageReturn = true;
+			} else {
+				if (c != '\n' || !lastWasCarriageReturn) {
+					chars[to++] = c;
+				}
+
+				lastWasCarriageReturn = false;
+			}
+		}
+
+		return to;
+	}
+
+	/**
+	 * Parses the complete markup and character data between position and
+	 * limit.
+	 */
+	private void parse(boolean end) throws SAXException {
+		if (!declarationChecked) {
+			if (limit < 6 && !end) {
+				return;
+			}
+
+			if (match(0, "<?xml") == 1 && limit > 5 && isWhitespace(chars[5])) {
+				int close = indexOf("?>", 5);
+
+				if (close < 0) {
+					if (!end) {
+						return;
+					}
+
+					fatal("The XML declaration is not closed");
+				}
+
+				if (!DECLARATION.matcher(CharBuffer.wrap(chars, 5, close - 5))
+						.matches()) {
+					fatal("Invalid XML declaration");
+				}
+
+				advance(close + 2);
+			}
+
+			declarationChecked = true;
+		}
+
+		while (position < limit) {
+			char c = chars[position];
+			int next;
+
+			if (c == '<') {
+				next = parseMarkup(end);
+			} else if (depth == 0) {
+				if (!isWhitespace(c)) {
+					fatal("Content is not allowed outside of the root element");
+				}
+
+				next = position + 1;
+			} else if (c == '&') {
+				next = parseReference(end);
+			} else {
+				next = parseText(end);
+			}
+
+			if (next < 0) {
+				if (end) {
+					fatal("Unexpected end of input");
+				}
+
+				return;
+			}
+
+			advance(next);
+		}
+	}
+
+	private void advance(int next) {
+		for (int i = position; i < next; i++) {
+			if (chars[i] == '\n') {
+				line++;
+				lineStart = i + 1;
+			}
+		}
+
+		position = next;
+		resume = next;
+	}
+
+	private int parseText(boolean end) throws SAXException {
+		int stop = Math.max(position, resume);
+
+		while (stop < limit) {
+			char c = chars[stop];
+
+			if (c == '<' || c == '&') {
+				break;
+			} else if (c == '>' && stop - 2 >= position
+					&& chars[stop - 1] == ']' && chars[stop - 2] == ']') {
+				fatal("The sequence \"]]>\" is not allowed in character data");
+			} else if (!isCharacter(c)) {
+				fatal("Invalid character in character data");
+			}
+
+			stop++;
+		}
+
+		if (stop == limit && !end) {
+			resume = stop;
+
+			return -1;
+		}
+
+		contentHandler.characters(chars, position, stop - position);
+
+		return stop;
+	}
+
+	private int parseReference(boolean end) throws SAXException {
+		int semicolon = findReferenceEnd(position, limit, end);
+
+		if (semicolon < 0) {
+			return -1;
+		}
+
+		String name = getReferenceName(position, semicolon);
+
+		if (name.startsWith("#")) {
+			char[] character = Character.toChars(parseCharacterReference(name));
+			contentHandler.characters(character, 0, character.length);
+		} else {
+			String text = getEntityText(name, 0);
+
+			if (text == null) {
+				contentHandler.skippedEntity(name);
+			} else if (PREDEFINED_ENTITIES.containsKey(name)) {
+				contentHandler.characters(text.toCharArray(), 0, text.length());
+			} else {
+				contentHandler.startEntity(name);
+				contentHandler.characters(text.toCharArray(), 0, text.length());
+				contentHandler.endEntity(name);
+			}
+		}
+
+		return semicolon + 1;
+	}
+
+	/**
+	 * Returns the position of the semicolon ending the reference at the
+	 * given position, or -1 if more input is needed.
+	 */
+	private int findReferenceEnd(int start, int end, boolean endOfInput)
+			throws SAXException {
+		int max = Math.min(end, start + MAX_REFERENCE_LENGTH);
+
+		for (int i = start + 1; i < max; i++) {
+			char c = chars[i];
+
+			if (c == ';') {
+				if (i == start + 1) {
+					break;
+				}
+
+				return i;
+			} else if (isWhitespace(c) || c == '<' || c == '&') {
+				break;
+			}
+		}
+
+		if (max == limit && max < start + MAX_REFERENCE_LENGTH && !endOfInput) {
+			return -1;
+		}
+
+		fatal("Invalid reference");
+
+		return -1;
+	}
+
+	private String getReferenceName(int start, int semicolon)
+			throws SAXException {
+		if (chars[start + 1] != '#' && scanName(start + 1, semicolon) != semicolon) {
+			fatal("Invalid reference");
+		}
+
+		return new String(chars, start + 1, semicolon - start - 1);
+	}
+
+	private int parseCharacterReference(String name) throws SAXException {
+		try {
+			int codePoint = name.startsWith("#x") ? Integer.parseInt(
+					name.substring(2), 16) : Integer.parseInt(name.substring(1));
+
+			if (codePoint == 0x9 || codePoint == 0xA || codePoint == 0xD
+					|| (codePoint >= 0x20 && codePoint <= 0xD7FF)
+					|| (codePoint >= 0xE000 && codePoint <= 0xFFFD)
+					|| (codePoint >= 0x10000 && codePoint <= 0x10FFFF)) {
+				return codePoint;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+
+		fatal("Invalid character reference: &" + name + ";");
+
+		return -1;
+	}
+
+	/**
+	 * Returns the replacement text of the given entity with all references
+	 * expanded, or null if the entity may be declared externally.
+	 */
+	private String getEntityText(String name, int level) throws SAXException {
+		String text = PREDEFINED_ENTITIES.get(name);
+
+		if (text != null) {
+			return text;
+		}
+
+		text = entities.get(name);
+
+		if (text == null) {
+			if (externalEntities.contains(name) || unreadDeclarations) {
+				return null;
+			}
+
+			fatal("The entity \"" + name + "\" is not declared");
+		} else if (level == MAX_ENTITY_DEPTH) {
+			fatal("The entity \"" + name + "\" is nested too deeply");
+		} else if (text.indexOf('<') >= 0) {
+			fatal("Markup in the replacement text of entity \"" + name
+					+ "\" is not supported");
+		}
+
+		int amp = text.indexOf('&');
+
+		if (amp < 0) {
+			return text;
+		}
+
+		StringBuilder expanded = new StringBuilder(text.length());
+		int from = 0;
+
+		while (amp >= 0) {
+			int semicolon = text.indexOf(';', amp);
+
+			if (semicolon < 0) {
+				fatal("Invalid reference in entity \"" + name + "\"");
+			}
+
+			String nested = getEntityText(text.substring(amp + 1, semicolon),
+					level + 1);
+			expanded.append(text, from, amp);
+
+			if (nested != null) {
+				expanded.append(nested);
+			}
+
+			from = semicolon + 1;
+			amp = text.indexOf('&', from);
+		}
+
+		return expanded.append(text, from, text.length()).toString();
+	}
+
+	private int parseMarkup(boolean end) throws SAXException {
+		int start = position;
+
+		if (start + 1 >= limit) {
+			return -1;
+		}
+
+		char next = chars[start + 1];
+
+		if (next == '/') {
+			return parseEndTag();
+		} else if (next == '?') {
+			return parseProcessingInstruction();
+		} else if (next != '!') {
+			return parseStartTag();
+		}
+
+		int comment = match(start, "<!--");
+		int cdata = match(start, "<![CDATA[");
+		int doctype = match(start, "<!DOCTYPE");
+
+		if (comment == 1) {
+			return parseComment();
+		} else if (cdata == 1) {
+			return parseCDATA();
+		} else if (doctype == 1) {
+			return parseDocumentType();
+		} else if (comment < 0 || cdata < 0 || doctype < 0) {
+			return -1;
+		}
+
+		fatal("Invalid markup");
+
+		return -1;
+	}
+
+	private int parseStartTag() throws SAXException {
+		int start = position;
+		int close = findStartTagEnd(start + 1);
+
+		if (close < 0) {
+			return -1;
+		}
+
+		boolean empty = chars[close - 1] == '/';
+		int end = empty ? close - 1 : close;
+		int nameEnd = scanName(start + 1, end);
+
+		if (nameEnd == start + 1) {
+			fatal("Invalid element name");
+		}
+
+		String qName = new String(chars, start + 1, nameEnd - start - 1);
+
+		if (depth == 0 && rootRead) {
+			fatal("Only one root element is allowed, found \"" + qName + "\"");
+		}
+
+		int mark = bindingCount;
+		attributes.clear();
+
+		for (int p = nameEnd; ; ) {
+			int q = skipWhitespace(p, end);
+
+			if (q == end) {
+				break;
+			} else if (q == p) {
+				fatal("Whitespace is required between the attributes of \""
+						+ qName + "\"");
+			}
+
+			int attributeEnd = scanName(q, end);
+
+			if (attributeEnd == q) {
+				fatal("Invalid attribute in element \"" + qName + "\"");
+			}
+
+			String name = new String(chars, q, attributeEnd - q);
+			q = skipWhitespace(attributeEnd, end);
+
+			if (q == end || chars[q] != '=') {
+				fatal("The attribute \"" + name + "\" has no value");
+			}
+
+			q = skipWhitespace(q + 1, end);
+
+			if (q == end || (chars[q] != '"' && chars[q] != '\'')) {
+				fatal("The value of attribute \"" + name + "\" is not quoted");
+			}
+
+			int valueEnd = indexOf(chars[q], q + 1, end);
+			String value = getAttributeValue(q + 1, valueEnd);
+
+			if (name.startsWith("xmlns")
+					&& (name.length() == 5 || name.charAt(5) == ':')) {
+				declarePrefix((name.length() == 5) ? "" : name.substring(6),
+						value, mark);
+			} else if (attributes.getIndex(name) >= 0) {
+				fatal("The attribute \"" + name + "\" is repeated");
+			} else {
+				attributes.addAttribute("", "", name, "CDATA", value);
+			}
+
+			p = valueEnd + 1;
+		}
+
+		for (int i = 0, count = attributes.getLength(); i < count; i++) {
+			attributes.setURI(i, resolve(attributes.getQName(i), false));
+			attributes.setLocalName(i, localName);
+		}
+
+		if (depth == elementNames.length) {
+			elementNames = Arrays.copyOf(elementNames, depth * 2);
+			bindingMarks = Arrays.copyOf(bindingMarks, depth * 2);
+		}
+
+		elementNames[depth] = qName;
+		bindingMarks[depth] = mark;
+		depth++;
+		rootRead = true;
+
+		for (int i = mark; i < bindingCount; i++) {
+			contentHandler.startPrefixMapping(prefixes[i], uris[i]);
+		}
+
+		String uri = resolve(qName, true);
+		contentHandler.startElement(uri, localName, qName, attributes);
+
+		if (empty) {
+			endElement();
+		}
+
+		return close + 1;
+	}
+
+	private int parseEndTag() throws SAXException {
+		int start = position;
+		int close = indexOf('>', Math.max(start + 2, resume), limit);
+
+		if (close < 0) {
+			resume = limit;
+
+			return -1;
+		}
+
+		int nameEnd = scanName(start + 2, close);
+
+		if (depth == 0) {
+			fatal("Unexpected end tag");
+		}
+
+		String qName = elementNames[depth - 1];
+
+		if (skipWhitespace(nameEnd, close) != close
+				|| !regionMatches(start + 2, nameEnd, qName)) {
+			fatal("The element \"" + qName
+					+ "\" must be terminated by the matching end tag");
+		}
+
+		endElement();
+
+		return close + 1;
+	}
+
+	private void endElement() throws SAXException {
+		String qName = elementNames[depth - 1];
+		String uri = resolve(qName, true);
+		contentHandler.endElement(uri, localName, qName);
+		depth--;
+		elementNames[depth] = null;
+
+		for (int mark = bindingMarks[depth]; bindingCount > mark; ) {
+			bindingCount--;
+			contentHandler.endPrefixMapping(prefixes[bindingCount]);
+			prefixes[bindingCount] = null;
+			uris[bindingCount] = null;
+		}
+	}
+
+	private int parseComment() throws SAXException {
+		int start = position;
+		int close = indexOf("-->", Math.max(start + 4, resume));
+
+		if (close < 0) {
+			resume = Math.max(start + 4, limit - 2);
+
+			return -1;
+		}
+
+		int dashes = indexOf("--", start + 4);
+
+		if (dashes < close) {
+			fatal("The sequence \"--\" is not allowed in comments");
+		}
+
+		checkCharacters(start + 4, close);
+		contentHandler.comment(chars, start + 4, close - start - 4);
+
+		return close + 3;
+	}
+
+	private int parseCDATA() throws SAXException {
+		int start = position;
+
+		if (depth == 0) {
+			fatal("CDATA sections are not allowed outside of the root element");
+		}
+
+		int close = indexOf("]]>", Math.max(start + 9, resume));
+
+		if (close < 0) {
+			resume = Math.max(start + 9, limit - 2);
+
+			return -1;
+		}
+
+		checkCharacters(start + 9, close);
+		contentHandler.startCDATA();
+		contentHandler.characters(chars, start + 9, close - start - 9);
+		contentHandler.endCDATA();
+
+		return close + 3;
+	}
+
+	private int parseProcessingInstruction() throws SAXException {
+		int start = position;
+		int close = indexOf("?>", Math.max(start + 2, resume));
+
+		if (close < 0) {
+			resume = Math.max(start + 2, limit - 1);
+
+			return -1;
+		}
+
+		int targetEnd = scanName(start + 2, close);
+		String target = new String(chars, start + 2, targetEnd - start - 2);
+
+		if (target.length() == 0 || target.equalsIgnoreCase("xml")) {
+			fatal("Invalid processing instruction target \"" + target + "\"");
+		}
+
+		int data = skipWhitespace(targetEnd, close);
+
+		if (data == targetEnd && data < close) {
+			fatal("Whitespace is required after the target of a processing instruction");
+		}
+
+		checkCharacters(data, close);
+		contentHandler.processingInstruction(target, new String(chars, data,
+				close - data));
+
+		return close + 2;
+	}
+
+	private int parseDocumentType() throws SAXException {
+		int start = position;
+
+		if (documentTypeRead || rootRead) {
+			fatal("The document type must be declared once before the root element");
+		}
+
+		int subsetStart = -1;
+		int subsetEnd = -1;
+		int close = -1;
+
+		for (int i = start + 9; i < limit && close < 0; i++) {
+			char c = chars[i];
+
+			if (c == '"' || c == '\'') {
+				i = indexOf(c, i + 1, limit);
+			} else if (c == '[' && subsetStart < 0) {
+				subsetStart = i + 1;
+				i = findSubsetEnd(subsetStart);
+				subsetEnd = i;
+			} else if (c == '>') {
+				close = i;
+			}
+
+			if (i < 0) {
+				return -1;
+			}
+		}
+
+		if (close < 0) {
+			return -1;
+		}
+
+		if (subsetStart >= 0 && skipWhitespace(subsetEnd + 1, close) != close) {
+			fatal("Invalid document type declaration");
+		}
+
+		int end = (subsetStart < 0) ? close : subsetStart - 1;
+		int p = skipWhitespace(start + 9, end);
+		int nameEnd = scanName(p, end);
+
+		if (p == start + 9 || nameEnd == p) {
+			fatal("Invalid document type declaration");
+		}
+
+		String name = new String(chars, p, nameEnd - p);
+		String[] ids = new String[2];
+		p = parseExternalId(skipWhitespace(nameEnd, end), end, ids);
+
+		if (skipWhitespace(p, end) != end) {
+			fatal("Invalid document type declaration");
+		}
+
+		documentTypeRead = true;
+		unreadDeclarations = ids[1] != null;
+		contentHandler.startDTD(name, ids[0], ids[1]);
+
+		if (subsetStart >= 0) {
+			parseInternalSubset(subsetStart, subsetEnd);
+		}
+
+		contentHandler.endDTD();
+
+		return close + 1;
+	}
+
+	/**
+	 * Returns the position of the bracket closing the internal subset, or -1
+	 * if more input is needed.
+	 */
+	private int findSubsetEnd(int start) throws SAXException {
+		for (int i = start; i < limit; i++) {
+			char c = chars[i];
+
+			if (c == ']') {
+				return i;
+			} else if (c == '"' || c == '\'') {
+				i = indexOf(c, i + 1, limit);
+			} else if (match(i, "<!--") == 1) {
+				i = indexOf("-->", i + 4);
+
+				if (i >= 0) {
+					i += 2;
+				}
+			} else if (match(i, "<?") == 1) {
+				i = indexOf("?>", i + 2);
+
+				if (i >= 0) {
+					i++;
+				}
+			}
+
+			if (i < 0) {
+				return -1;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Reads the general entity declarations of the internal subset and skips
+	 * all other declarations.
+	 */
+	private void parseInternalSubset(int start, int end) throws SAXException {
+		int p = skipWhitespace(start, end);
+
+		while (p < end) {
+			if (match(p, "<!--") == 1) {
+				p = indexOf("-->", p + 4) + 3;
+			} else if (match(p, "<?") == 1) {
+				p = indexOf("?>", p + 2) + 2;
+			} else if (chars[p] == '%') {
+				// a parameter entity reference may include any declarations
+				unreadDeclarations = true;
+				p = indexOf(';', p, end) + 1;
+			} else if (match(p, "<!ENTITY") == 1) {
+				p = parseEntityDeclaration(p + 8, end);
+			} else if (match(p, "<!") == 1) {
+				p = findTagEnd(p + 2, end) + 1;
+			} else {
+				fatal("Invalid markup in the internal subset");
+			}
+
+			if (p <= 0) {
+				fatal("Invalid markup in the internal subset");
+			}
+
+			p = skipWhitespace(p, end);
+		}
+	}
+
+	private int parseEntityDeclaration(int start, int end) throws SAXException {
+		int close = findTagEnd(start, end);
+		int p = skipWhitespace(start, close);
+
+		if (close < 0 || p == start) {
+			fatal("Invalid entity declaration");
+		}
+
+		if (chars[p] == '%') {
+			// parameter entities are not used outside of the subset
+			return close + 1;
+		}
+
+		int nameEnd = scanName(p, close);
+		String name = new String(chars, p, nameEnd - p);
+		int q = skipWhitespace(nameEnd, close);
+
+		if (nameEnd == p || q == nameEnd || q == close) {
+			fatal("Invalid entity declaration");
+		}
+
+		if (chars[q] == '"' || chars[q] == '\'') {
+			int valueEnd = indexOf(chars[q], q + 1, close);
+
+			if (skipWhitespace(valueEnd + 1, close) != close) {
+				fatal("Invalid declaration of entity \"" + name + "\"");
+			}
+
+			if (!entities.containsKey(name) && !externalEntities.contains(name)) {
+				entities.put(name, expandCharacterReferences(q + 1, valueEnd));
+			}
+		} else {
+			int idEnd = parseExternalId(q, close, new String[2]);
+			int r = skipWhitespace(idEnd, close);
+
+			if (idEnd == q || (r < close && match(r, "NDATA") != 1)) {
+				fatal("Invalid declaration of entity \"" + name + "\"");
+			}
+
+			if (!entities.containsKey(name)) {
+				externalEntities.add(name);
+			}
+		}
+
+		return close + 1;
+	}
+
+	/**
+	 * Parses an optional public or system identifier into the given array.
+	 *
+	 * @return the position after the identifiers
+	 */
+	private int parseExternalId(int start, int end, String[] ids)
+			throws SAXException {
+		boolean publicId = match(start, "PUBLIC") == 1;
+
+		if (!publicId && match(start, "SYSTEM") != 1) {
+			return start;
+		}
+
+		int p = start + 6;
+
+		for (int i = publicId ? 0 : 1; i < 2; i++) {
+			int q = skipWhitespace(p, end);
+
+			if (q == p || q == end || (chars[q] != '"' && chars[q] != '\'')) {
+				fatal("Invalid external identifier");
+			}
+
+			int close = indexOf(chars[q], q + 1, end);
+			ids[i] = new String(chars, q + 1, close - q - 1);
+			p = close + 1;
+		}
+
+		return p;
+	}
+
+	private String expandCharacterReferences(int start, int end)
+			throws SAXException {
+		StringBuilder text = new StringBuilder(end - start);
+
+		for (int i = start; i < end; i++) {
+			if (chars[i] == '&' && i + 1 < end && chars[i + 1] == '#') {
+				int semicolon = indexOf(';', i, end);
+
+				if (semicolon < 0) {
+					fatal("Invalid character reference");
+				}
+
+				text.appendCodePoint(parseCharacterReference(new String(chars,
+						i + 1, semicolon - i - 1)));
+				i = semicolon;
+			} else {
+				text.append(chars[i]);
+			}
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * Returns the normalized value of the attribute between the given
+	 * positions.
+	 */
+	private String getAttributeValue(int start, int end) throws SAXException {
+		int i = start;
+
+		while (i < end && chars[i] > ' ' && chars[i] != '&' && chars[i] != '<'
+				&& chars[i] < 0xFFFE) {
+			i++;
+		}
+
+		if (i == end) {
+			return new String(chars, start, end - start);
+		}
+
+		StringBuilder value = new StringBuilder(end - start);
+		value.append(chars, start, i - start);
+
+		for (; i < end; i++) {
+			char c = chars[i];
+
+			if (c == '<') {
+				fatal("Attribute values must not contain '<'");
+			} else if (c == '\n' || c == '\t') {
+				value.append(' ');
+			} else if (!isCharacter(c)) {
+				fatal("Invalid character in attribute value");
+			} else if (c == '&') {
+				int semicolon = findReferenceEnd(i, end, true);
+				String name = getReferenceName(i, semicolon);
+
+				if (name.startsWith("#")) {
+					value.appendCodePoint(parseCharacterReference(name));
+				} else {
+					String text = getEntityText(name, 0);
+
+					if (text != null) {
+						value.append(text.replace('\n', ' ').replace('\t', ' '));
+					}
+				}
+
+				i = semicolon;
+			} else {
+				value.append(c);
+			}
+		}
+
+		return value.toString();
+	}
+
+	private void declarePrefix(String prefix, String uri, int mark)
+			throws SAXException {
+		if (prefix.length() > 0 && uri.length() == 0) {
+			fatal("The prefix \"" + prefix + "\" cannot be unbound");
+		}
+
+		// the reserved prefixes and namespaces of Namespaces in XML
+		if ("xmlns".equals(prefix) || XMLNS_URI.equals(uri)) {
+			fatal("The prefix \"xmlns\" and the namespace \"" + XMLNS_URI
+					+ "\" cannot be declared");
+		}
+
+		if ("xml".equals(prefix) != XML_URI.equals(uri)) {
+			fatal("The prefix \"xml\" can only be bound to the namespace \""
+					+ XML_URI + "\" and that namespace to no other prefix");
+		} else if ("xml".equals(prefix)) {
+			// always bound, and like SAX parsers not reported
+			return;
+		}
+
+		for (int i = mark; i < bindingCount; i++) {
+			if (prefixes[i].equals(prefix)) {
+				fatal("The namespace prefix \"" + prefix + "\" is declared twice");
+			}
+		}
+
+		if (bindingCount == prefixes.length) {
+			prefixes = Arrays.copyOf(prefixes, bindingCount * 2);
+			uris = Arrays.copyOf(uris, bindingCount * 2);
+		}
+
+		prefixes[bindingCount] = prefix;
+		uris[bindingCount] = uri;
+		bindingCount++;
+	}
+
+	/**
+	 * Returns the namespace URI of the given name and sets its local name.
+	 */
+	private String resolve(String qName, boolean element) throws SAXException {
+		int colon = qName.indexOf(':');
+
+		if (colon < 0) {
+			localName = qName;
+
+			return element ? getNamespaceURI("") : "";
+		}
+
+		String prefix = qName.substring(0, colon);
+		String uri = getNamespaceURI(prefix);
+
+		if (uri == null) {
+			fatal("The prefix \"" + prefix + "\" of \"" + qName
+					+ "\" is not bound");
+		}
+
+		localName = qName.substring(colon + 1);
+
+		return uri;
+	}
+
+	private String getNamespaceURI(String prefix) {
+		for (int i = bindingCount - 1; i >= 0; i--) {
+			if (prefixes[i].equals(prefix)) {
+				return uris[i];
+			}
+		}
+
+		if (prefix.length() == 0) {
+			return "";
+		}
+
+		return "xml".equals(prefix) ? XML_URI : null;
+	}
+
+	/**
+	 * Returns the position of the closing bracket of the tag starting before
+	 * the given position, skipping quoted values, or -1.
+	 */
+	private int findTagEnd(int start, int end) throws SAXException {
+		for (int i = start; i < end; i++) {
+			char c = chars[i];
+
+			if (c == '>') {
+				return i;
+			} else if (c == '"' || c == '\'') {
+				i = indexOf(c, i + 1, end);
+
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == '<') {
+				fatal("Tags must not contain '<'");
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the '>' closing the start tag at the current
+	 * position, or -1 if it has not been received yet. The search continues
+	 * where the previous one stopped, so a long start tag arriving in many
+	 * small pieces is not scanned again from its beginning each time.
+	 */
+	private int findStartTagEnd(int start) throws SAXException {
+		int i = Math.max(start, resume);
+
+		if (resumeQuote != 0) {
+			i = indexOf(resumeQuote, i, limit);
+
+			if (i < 0) {
+				resume = limit;
+
+				return -1;
+			}
+
+			resumeQuote = 0;
+			i++;
+		}
+
+		for (; i < limit; i++) {
+			char c = chars[i];
+
+			if (c == '>') {
+				return i;
+			} else if (c == '"' || c == '\'') {
+				int quote = indexOf(c, i + 1, limit);
+
+				if (quote < 0) {
+					resumeQuote = c;
+					resume = limit;
+
+					return -1;
+				}
+
+				i = quote;
+			} else if (c == '<') {
+				fatal("Tags must not contain '<'");
+			}
+		}
+
+		resume = limit;
+
+		return -1;
+	}
+
+	/**
+	 * Returns the end of the name starting at the given position, which is
+	 * the given position if no name starts there.
+	 */
+	private int scanName(int start, int end) {
+		if (start == end || !isNameStartCharacter(chars[start])) {
+			return start;
+		}
+
+		int i = start + 1;
+
+		while (i < end && isNameCharacter(chars[i])) {
+			i++;
+		}
+
+		return i;
+	}
+
+	private void checkCharacters(int start, int end) throws SAXException {
+		for (int i = start; i < end; i++) {
+			if (!isCharacter(chars[i])) {
+				fatal("Invalid character");
+			}
+		}
+	}
+
+	private int skipWhitespace(int start, int end) {
+		int i = start;
+
+		while (i < end && isWhitespace(chars[i])) {
+			i++;
+		}
+
+		return i;
+	}
+
+	private int indexOf(char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (chars[i] == c) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private int indexOf(String s, int start) {
+		char first = s.charAt(0);
+
+		for (int i = indexOf(first, start, limit); i >= 0; i = indexOf(first,
+				i + 1, limit)) {
+			if (match(i, s) == 1) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns 1 if the given string is found at the given position, 0 if it
+	 * is not and -1 if more input is needed to tell.
+	 */
+	private int match(int start, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (start + i >= limit) {
+				return -1;
+			} else if (chars[start + i] != s.charAt(i)) {
+				return 0;
+			}
+		}
+
+		return 1;
+	}
+
+	private boolean regionMatches(int start, int end, String s) {
+		if (end - start != s.length()) {
+			return false;
+		}
+
+		for (int i = start; i < end; i++) {
+			if (chars[i] != s.charAt(i - start)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isNameStartCharacter(char c) {
+		if (c < 0x80) {
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| c == '_' || c == ':';
+		}
+
+		return c >= 0xC0 && c != 0xD7 && c != 0xF7 && c < 0xFFFE;
+	}
+
+	private static boolean isNameCharacter(char c) {
+		return isNameStartCharacter(c) || (c >= '0' && c <= '9') || c == '-'
+				|| c == '.' || c == 0xB7;
+	}
+
+	private static boolean isCharacter(char c) {
+		return (c >= ' ') ? (c < 0xFFFE) : (c == '\n' || c == '\t');
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+	}
+
+	private void fatal(String message) throws SAXParseException {
+		throw new SAXParseException(message, null, null, line, position
+				- lineStart + 1);
+	}
+
+	/**
+	 * Sets the encoding of the input on the document.
+	 */
+	private final class EncodingContentHandler extends SAXContentHandler {
+		EncodingContentHandler() {
+			super(documentFactory, getDispatchHandler());
+		}
+
+		@Override
+		protected Document createDocument() {
+			Document document = super.createDocument();
+			document.setXMLEncoding(encoding);
+
+			return document;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
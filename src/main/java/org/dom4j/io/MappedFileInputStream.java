@@ -0,0 +1,249 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An <code>InputStream</code> reading a file through memory mapped windows,
+ * so files of any size can be read without copying them through the
+ * operating system's read calls. Only one window is mapped at a time; it is
+ * released by the garbage collector once the next one has been mapped.
+ * <p>
+ * Besides the usual stream methods, {@link #getBuffer()} gives access to the
+ * current window, which lets a consumer decode the bytes in place. The
+ * stream supports {@link #mark(int)} and {@link #reset()} without limit.
+ * </p>
+ *
+ * @see SAXReader#setMemoryMapFiles(boolean)
+ * @since 2.0
+ */
+public class MappedFileInputStream extends InputStream {
+	/**
+	 * The default size of the mapped windows, 256MB
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+	private final FileChannel channel;
+
+	private final boolean closeChannel;
+
+	private final long size;
+
+	private final int windowSize;
+
+	private ByteBuffer window;
+
+	/**
+	 * The position of the current window in the file
+	 */
+	private long windowStart;
+
+	private long mark;
+
+	public MappedFileInputStream(File file) throws IOException {
+		this(new FileInputStream(file).getChannel(), true, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Reads the given channel from its current position. The channel is
+	 * not closed by {@link #close()}.
+	 *
+	 * @param channel the channel to read
+	 * @throws IOException if the channel could not be read
+	 */
+	public MappedFileInputStream(FileChannel channel) throws IOException {
+		this(channel, false, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Reads the given channel from its current position, mapping windows of
+	 * the given size. The channel is not closed by {@link #close()}.
+	 *
+	 * @param channel the channel to read
+	 * @param windowSize the size of the mapped windows
+	 * @throws IOException if the channel could not be read
+	 */
+	public MappedFileInputStream(FileChannel channel, int windowSize)
+			throws IOException {
+		this(channel, false, windowSize);
+	}
+
+	private MappedFileInputStream(FileChannel channel, boolean closeChannel,
+			int windowSize) throws IOException {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("windowSize must be positive: "
+					+ windowSize);
+		}
+
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		this.windowStart = channel.position();
+		this.mark = windowStart;
+	}
+
+	/**
+	 * Returns the current window with at least one byte remaining,
+	 * positioned at the next byte of the stream, mapping the next window if
+	 * needed. Reading from the buffer advances the stream.
+	 *
+	 * @return the current window, or null at the end of the file
+	 * @throws IOException if the next window could not be mapped
+	 */
+	public ByteBuffer getBuffer() throws IOException {
+		if ((window == null) || !window.hasRemaining()) {
+			long position = (window == null) ? windowStart : windowStart
+					+ window.limit();
+
+			if (position >= size) {
+				return null;
+			}
+
+			map(position);
+		}
+
+		return window;
+	}
+
+	/**
+	 * Returns the position of the next byte in the file.
+	 *
+	 * @return the position in the file
+	 */
+	public long getPosition() {
+		return (window == null) ? windowStart : windowStart
+				+ window.position();
+	}
+
+	@Override
+	public int read() throws IOException {
+		ByteBuffer buffer = getBuffer();
+
+		return (buffer == null) ? -1 : (buffer.get() & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		ByteBuffer buffer = getBuffer();
+
+		if (buffer == null) {
+			return -1;
+		}
+
+		int count = Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+
+		long position = getPosition();
+		long skipped = Math.min(n, size - position);
+		seek(position + skipped);
+
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(size - getPosition(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		mark = getPosition();
+	}
+
+	@Override
+	public void reset() throws IOException {
+		seek(mark);
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+
+		if (closeChannel) {
+			channel.close();
+		}
+	}
+
+	private void seek(long position) throws IOException {
+		if ((window != null) && (position >= windowStart)
+				&& (position <= windowStart + window.limit())) {
+			window.position((int) (position - windowStart));
+		} else {
+			window = null;
+			windowStart = position;
+		}
+	}
+
+	private void map(long position) throws IOException {
+		long length = Math.min(windowSize, size - position);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		windowStart = position;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
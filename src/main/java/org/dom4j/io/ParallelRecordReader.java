@@ -0,0 +1,818 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dom4j.Branch;
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.Node;
+import org.dom4j.NodeType;
+import org.xml.sax.InputSource;
+
+/**
+ * <p>
+ * <code>ParallelRecordReader</code> reads documents made of a root element
+ * wrapping many independent records, such as feeds and exports, on several
+ * threads. The input is scanned for the start tags of the children of the
+ * root element and cut into chunks at those tags. Every chunk is parsed by a
+ * {@link SAXReader} of its own as a document made of the original prolog,
+ * the start tag of the root element, the chunk and an end tag, so the
+ * namespaces declared on the root element as well as the entities and
+ * default attributes declared in the document type apply to every chunk.
+ * </p>
+ * <p>
+ * {@link #read(File)} merges the chunks into one document in their original
+ * order, {@link #stream(File, ElementHandler)} hands every record to an
+ * <code>ElementHandler</code> on the parsing threads as soon as it has been
+ * read, in no particular order. Chunks are parsed while the input is still
+ * being scanned; the scan only looks for markup and is many times faster
+ * than parsing.
+ * </p>
+ * <p>
+ * Input which cannot be split safely is read by a single
+ * <code>SAXReader</code>: input in an encoding which is not a superset of
+ * ASCII, files larger than 2GB, documents without records and readers which
+ * validate. Parse errors in a chunk report line numbers relative to the
+ * chunk.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class ParallelRecordReader {
+	/**
+	 * The handler path matching the records
+	 */
+	private static final String RECORD_PATH = "/*/*";
+
+	/**
+	 * The smallest chunk worth parsing on its own
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 18;
+
+	/**
+	 * The number of chunks per thread, so threads finishing early can help
+	 * out with the remaining chunks
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static final Pattern ENCODING = Pattern
+			.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+	private static final Pattern ASCII_COMPATIBLE = Pattern.compile(
+			"utf-?8|(us-)?ascii|iso-?8859-\\d+|latin-?1|(windows|cp)-?125\\d",
+			Pattern.CASE_INSENSITIVE);
+
+	private final DocumentFactory documentFactory;
+
+	private final int parallelism;
+
+	private final ExecutorService executor;
+
+	public ParallelRecordReader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelRecordReader(int parallelism) {
+		this(DefaultDocumentFactory.getInstance(), parallelism, null);
+	}
+
+	/**
+	 * Creates a reader parsing on the given executor, which is not shut down
+	 * by this reader. Without an executor a thread pool is created for each
+	 * document read.
+	 *
+	 * @param documentFactory the factory creating the nodes
+	 * @param parallelism the number of chunks parsed at the same time
+	 * @param executor the executor parsing the chunks or null
+	 */
+	public ParallelRecordReader(DocumentFactory documentFactory,
+			int parallelism, ExecutorService executor) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive: "
+					+ parallelism);
+		}
+
+		this.documentFactory = documentFactory;
+		this.parallelism = parallelism;
+		this.executor = executor;
+	}
+
+	public DocumentFactory getDocumentFactory() {
+		return documentFactory;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Reads a document from the given file, which is memory mapped.
+	 *
+	 * @param file the file to read from
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 */
+	public Document read(File file) throws DocumentException {
+		return parse(file, null);
+	}
+
+	/**
+	 * Reads a document from the remaining bytes of the given buffer, leaving
+	 * its position unchanged.
+	 *
+	 * @param buffer the bytes of the document
+	 * @param systemId the system ID of the document or null
+	 * @return the document
+	 * @throws DocumentException if an error occurs during parsing
+	 */
+	public Document read(ByteBuffer buffer, String systemId)
+			throws DocumentException {
+		return parse(buffer, systemId, null);
+	}
+
+	/**
+	 * Reads the given file, which is memory mapped, passing every child of
+	 * the root element to the given handler. The handler is called from
+	 * several threads at the same time. The records are detached once the
+	 * handler is done with them, as in {@link SAXReader#stream(File)}.
+	 *
+	 * @param file the file to read from
+	 * @param recordHandler the handler called for every record
+	 * @throws DocumentException if an error occurs during parsing
+	 */
+	public void stream(File file, ElementHandler recordHandler)
+			throws DocumentException {
+		parse(file, recordHandler);
+	}
+
+	/**
+	 * Reads the remaining bytes of the given buffer, passing every child of
+	 * the root element to the given handler, which is called from several
+	 * threads at the same time.
+	 *
+	 * @param buffer the bytes of the document
+	 * @param systemId the system ID of the document or null
+	 * @param recordHandler the handler called for every record
+	 * @throws DocumentException if an error occurs during parsing
+	 * @see #stream(File, ElementHandler)
+	 */
+	public void stream(ByteBuffer buffer, String systemId,
+			ElementHandler recordHandler) throws DocumentException {
+		parse(buffer, systemId, recordHandler);
+	}
+
+	/**
+	 * Factory Method for the readers parsing the chunks, one for each chunk.
+	 * The readers must not have any handlers registered.
+	 *
+	 * @return a new reader
+	 */
+	protected SAXReader createSAXReader() {
+		return new SAXReader(documentFactory);
+	}
+
+	private Document parse(File file, ElementHandler recordHandler)
+			throws DocumentException {
+		String systemId = file.getAbsoluteFile().toURI().toString();
+
+		try {
+			FileInputStream in = new FileInputStream(file);
+
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+
+				if (size > Integer.MAX_VALUE) {
+					InputSource source = new InputSource(new MappedFileInputStream(
+							channel));
+					source.setSystemId(systemId);
+
+					return parse(createSAXReader(), source, recordHandler);
+				}
+
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						0, size);
+
+				return parse(buffer, systemId, recordHandler);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new DocumentException(e.getMessage(), e);
+		}
+	}
+
+	private Document parse(ByteBuffer input, String systemId,
+			ElementHandler recordHandler) throws DocumentException {
+		ByteBuffer buffer = input.slice();
+		RecordScanner scanner = new RecordScanner(buffer);
+		SAXReader reader = createSAXReader();
+
+		if (reader.isValidating() || !scanner.scanProlog()) {
+			return parse(reader, createInputSource(systemId, buffer),
+					recordHandler);
+		}
+
+		ExecutorService service = executor;
+
+		if (service == null) {
+			service = Executors.newFixedThreadPool(parallelism,
+					new DaemonThreadFactory());
+		}
+
+		List<Future<Document>> chunks = new ArrayList<Future<Document>>();
+
+		try {
+			ByteBuffer prolog = slice(buffer, 0, scanner.getContentStart());
+			int contentLength = buffer.limit() - scanner.getContentStart();
+			int chunkSize = Math.max(MIN_CHUNK_SIZE, contentLength
+					/ (parallelism * CHUNKS_PER_THREAD));
+			int start = scanner.getContentStart();
+			int boundary;
+
+			while ((boundary = scanner.nextRecord((int) Math.min((long) start
+					+ chunkSize, Integer.MAX_VALUE))) >= 0) {
+				ByteBuffer end = ByteBuffer.wrap(scanner.getEndTag());
+				chunks.add(service.submit(new ChunkTask(reader, systemId,
+						recordHandler, prolog.duplicate(), slice(buffer, start,
+								boundary), end)));
+				reader = null;
+				start = boundary;
+			}
+
+			int rootEnd = scanner.getRootEnd();
+			chunks.add(service.submit(new ChunkTask(reader, systemId,
+					recordHandler, prolog.duplicate(), slice(buffer, start,
+							rootEnd), slice(buffer, rootEnd, buffer.limit()))));
+
+			List<Document> documents = new ArrayList<Document>(chunks.size());
+
+			for (Future<Document> chunk : chunks) {
+				documents.add(chunk.get());
+			}
+
+			return (recordHandler != null) ? null : merge(documents);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof DocumentException) {
+				throw (DocumentException) cause;
+			}
+
+			throw new DocumentException(cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DocumentException("Interrupted while reading", e);
+		} finally {
+			for (Future<Document> chunk : chunks) {
+				chunk.cancel(false);
+			}
+
+			if (service != executor) {
+				service.shutdown();
+			}
+		}
+	}
+
+	private Document parse(SAXReader reader, InputSource source,
+			ElementHandler recordHandler) throws DocumentException {
+		if (recordHandler == null) {
+			return reader.read(source);
+		}
+
+		reader.addHandler(RECORD_PATH, recordHandler);
+		reader.stream(source);
+
+		return null;
+	}
+
+	/**
+	 * Moves the records of all chunks into the document of the first chunk,
+	 * along with the nodes following the root element of the last chunk.
+	 */
+	private Document merge(List<Document> documents) {
+		Document document = documents.get(0);
+		Element root = document.getRootElement();
+		int size = documents.size();
+
+		for (int i = 1; i < size; i++) {
+			Element chunkRoot = documents.get(i).getRootElement();
+			List<Node> content = copyContent(chunkRoot, 0);
+			chunkRoot.clearContent();
+
+			for (Node node : content) {
+				// the namespaces declared by the root are repeated in every chunk
+				if (node.getNodeTypeEnum() != NodeType.NAMESPACE_NODE) {
+					root.add(node);
+				}
+			}
+		}
+
+		if (size > 1) {
+			Document last = documents.get(size - 1);
+			int index = last.indexOf(last.getRootElement());
+
+			for (Node node : copyContent(last, index + 1)) {
+				node.detach();
+				document.add(node);
+			}
+		}
+
+		return document;
+	}
+
+	private static List<Node> copyContent(Branch branch, int start) {
+		int count = branch.nodeCount();
+		List<Node> content = new ArrayList<Node>(count - start);
+
+		for (int i = start; i < count; i++) {
+			content.add(branch.node(i));
+		}
+
+		return content;
+	}
+
+	private static InputSource createInputSource(String systemId,
+			ByteBuffer... parts) {
+		InputSource source = new InputSource(new ChunkInputStream(parts));
+		source.setSystemId(systemId);
+
+		return source;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(end);
+		slice.position(start);
+
+		return slice;
+	}
+
+	/**
+	 * Parses one chunk, with the reader used to check the settings for the
+	 * first chunk and a new reader for the others.
+	 */
+	private final class ChunkTask implements Callable<Document> {
+		private final SAXReader reader;
+
+		private final InputSource source;
+
+		private final ElementHandler recordHandler;
+
+		ChunkTask(SAXReader reader, String systemId,
+				ElementHandler recordHandler, ByteBuffer... parts) {
+			this.reader = reader;
+			this.source = createInputSource(systemId, parts);
+			this.recordHandler = recordHandler;
+		}
+
+		public Document call() throws DocumentException {
+			SAXReader chunkReader = (reader != null) ? reader : createSAXReader();
+
+			return parse(chunkReader, source, recordHandler);
+		}
+	}
+
+	/**
+	 * Finds the start tags of the children of the root element. The scanner
+	 * only tells markup from character data, skipping comments, CDATA
+	 * sections, processing instructions and quoted attribute values, and
+	 * leaves checking the document to the parser.
+	 */
+	private static final class RecordScanner {
+		private final ByteBuffer buffer;
+
+		private final int limit;
+
+		private int position;
+
+		private int depth;
+
+		private int contentStart;
+
+		private int rootEnd = -1;
+
+		private byte[] endTag;
+
+		RecordScanner(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.limit = buffer.limit();
+		}
+
+		int getContentStart() {
+			return contentStart;
+		}
+
+		int getRootEnd() {
+			return rootEnd;
+		}
+
+		/**
+		 * Returns the end tag of the root element.
+		 */
+		byte[] getEndTag() {
+			return endTag;
+		}
+
+		/**
+		 * Skips the prolog and the start tag of the root element.
+		 *
+		 * @return false if the document cannot be split
+		 */
+		boolean scanProlog() {
+			int p = 0;
+
+			if (limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF
+					&& (buffer.get(1) & 0xFF) == 0xBB
+					&& (buffer.get(2) & 0xFF) == 0xBF) {
+				p = 3;
+			}
+
+			if (startsWith(p, "<?xml")) {
+				int end = indexOf(p, "?>");
+
+				if (end < 0) {
+					return false;
+				}
+
+				Matcher matcher = ENCODING.matcher(toString(p, end));
+
+				if (matcher.find()
+						&& !ASCII_COMPATIBLE.matcher(matcher.group(1)).matches()) {
+					return false;
+				}
+
+				p = end + 2;
+			}
+
+			while (p >= 0) {
+				p = skipWhitespace(p);
+
+				if (startsWith(p, "<!--")) {
+					p = skipPast(p + 4, "-->");
+				} else if (startsWith(p, "<?")) {
+					p = skipPast(p + 2, "?>");
+				} else if (startsWith(p, "<!DOCTYPE")) {
+					p = skipDocumentType(p + 9);
+				} else if (p < limit && buffer.get(p) == '<') {
+					int nameEnd = p + 1;
+
+					while (nameEnd < limit && !isNameEnd(buffer.get(nameEnd))) {
+						nameEnd++;
+					}
+
+					int end = skipTag(p);
+
+					if (end < 0 || buffer.get(end - 2) == '/') {
+						return false;
+					}
+
+					endTag = new byte[nameEnd - p + 2];
+					endTag[0] = '<';
+					endTag[1] = '/';
+
+					for (int i = p + 1; i < nameEnd; i++) {
+						endTag[i - p + 1] = buffer.get(i);
+					}
+
+					endTag[endTag.length - 1] = '>';
+					contentStart = end;
+					position = end;
+					depth = 1;
+
+					return true;
+				} else {
+					return false;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Returns the position of the first start tag of a child of the root
+		 * element at or after the given position, or -1 once the end of the
+		 * root element has been reached.
+		 */
+		int nextRecord(int from) {
+			while (position < limit) {
+				if (buffer.get(position) != '<') {
+					position++;
+					continue;
+				}
+
+				int tag = position;
+				byte next = (tag + 1 < limit) ? buffer.get(tag + 1) : 0;
+
+				if (next == '/') {
+					if (--depth == 0) {
+						rootEnd = tag;
+						position = limit;
+
+						return -1;
+					}
+
+					position = skipPast(tag + 2, ">");
+				} else if (next == '!') {
+					if (startsWith(tag, "<!--")) {
+						position = skipPast(tag + 4, "-->");
+					} else if (startsWith(tag, "<![CDATA[")) {
+						position = skipPast(tag + 9, "]]>");
+					} else {
+						position = skipPast(tag + 2, ">");
+					}
+				} else if (next == '?') {
+					position = skipPast(tag + 2, "?>");
+				} else {
+					int parentDepth = depth;
+					position = skipTag(tag);
+
+					if (position < 0) {
+						break;
+					}
+
+					if (buffer.get(position - 2) != '/') {
+						depth++;
+					}
+
+					if (parentDepth == 1 && tag >= from) {
+						return tag;
+					}
+				}
+
+				if (position < 0) {
+					break;
+				}
+			}
+
+			// truncated input, which the parser of the last chunk reports
+			rootEnd = limit;
+			position = limit;
+
+			return -1;
+		}
+
+		/**
+		 * Returns the position after the tag starting at the given position,
+		 * or -1.
+		 */
+		private int skipTag(int p) {
+			for (int i = p + 1; i < limit; i++) {
+				byte b = buffer.get(i);
+
+				if (b == '>') {
+					return i + 1;
+				} else if (b == '"' || b == '\'') {
+					i = indexOf(i + 1, b);
+
+					if (i < 0) {
+						return -1;
+					}
+				}
+			}
+
+			return -1;
+		}
+
+		private int skipDocumentType(int p) {
+			for (int i = p; i < limit; i++) {
+				byte b = buffer.get(i);
+
+				if (b == '>') {
+					return i + 1;
+				} else if (b == '"' || b == '\'') {
+					i = indexOf(i + 1, b);
+				} else if (b == '[') {
+					i = skipInternalSubset(i + 1);
+				}
+
+				if (i < 0) {
+					return -1;
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Returns the position of the bracket closing the internal subset
+		 * starting at the given position, or -1.
+		 */
+		private int skipInternalSubset(int p) {
+			for (int i = p; i < limit; i++) {
+				byte b = buffer.get(i);
+
+				if (b == ']') {
+					return i;
+				} else if (b == '"' || b == '\'') {
+					i = indexOf(i + 1, b);
+				} else if (startsWith(i, "<!--")) {
+					i = skipPast(i + 4, "-->") - 1;
+				} else if (startsWith(i, "<?")) {
+					i = skipPast(i + 2, "?>") - 1;
+				}
+
+				if (i < 0) {
+					return -1;
+				}
+			}
+
+			return -1;
+		}
+
+		private int skipWhitespace(int p) {
+			while (p < limit && isWhitespace(buffer.get(p))) {
+				p++;
+			}
+
+			return p;
+		}
+
+		/**
+		 * Returns the position after the next occurrence of the given
+		 * string, or -1.
+		 */
+		private int skipPast(int p, String s) {
+			int i = indexOf(p, s);
+
+			return (i < 0) ? -1 : i + s.length();
+		}
+
+		private int indexOf(int p, byte b) {
+			for (int i = p; i < limit; i++) {
+				if (buffer.get(i) == b) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		private int indexOf(int p, String s) {
+			byte first = (byte) s.charAt(0);
+
+			for (int i = indexOf(p, first); i >= 0; i = indexOf(i + 1, first)) {
+				if (startsWith(i, s)) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		private boolean startsWith(int p, String s) {
+			if (p < 0 || p + s.length() > limit) {
+				return false;
+			}
+
+			for (int i = 0; i < s.length(); i++) {
+				if (buffer.get(p + i) != s.charAt(i)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private String toString(int start, int end) {
+			StringBuilder text = new StringBuilder(end - start);
+
+			for (int i = start; i < end; i++) {
+				text.append((char) (buffer.get(i) & 0xFF));
+			}
+
+			return text.toString();
+		}
+
+		private static boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+		}
+
+		private static boolean isNameEnd(byte b) {
+			return isWhitespace(b) || b == '>' || b == '/';
+		}
+	}
+
+	/**
+	 * Reads the parts of a chunk one after the other.
+	 */
+	private static final class ChunkInputStream extends InputStream {
+		private final ByteBuffer[] parts;
+
+		private int part;
+
+		ChunkInputStream(ByteBuffer... parts) {
+			this.parts = parts;
+		}
+
+		@Override
+		public int read() {
+			for (; part < parts.length; part++) {
+				if (parts[part].hasRemaining()) {
+					return parts[part].get() & 0xFF;
+				}
+			}
+
+			return -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+
+			for (; part < parts.length; part++) {
+				ByteBuffer buffer = parts[part];
+
+				if (buffer.hasRemaining()) {
+					int count = Math.min(len, buffer.remaining());
+					buffer.get(b, off, count);
+
+					return count;
+				}
+			}
+
+			return -1;
+		}
+
+		@Override
+		public int available() {
+			return (part < parts.length) ? parts[part].remaining() : 0;
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = threadFactory.newThread(runnable);
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
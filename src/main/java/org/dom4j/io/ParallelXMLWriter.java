@@ -0,0 +1,435 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.NodeType;
+import org.dom4j.tree.NamespaceStack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * <code>ParallelXMLWriter</code> is an {@link XMLByteWriter} which writes the
+ * child elements found at a given depth concurrently. When an element at the
+ * depth above the split depth is written, its child elements are serialized
+ * in runs of siblings on a <code>ForkJoinPool</code> into pooled in-memory
+ * buffers, using the indentation and namespace declarations in effect at that
+ * point. The buffers are then copied to the output in document order, so the
+ * output is the same as that of a sequential <code>XMLWriter</code>.
+ * </p>
+ * <p>
+ * Only a bounded number of subtrees are buffered ahead of the output. Text,
+ * comments and other nodes between the elements are written as usual. If the
+ * encoding of the format is not one written directly by
+ * <code>XMLByteWriter</code> the document is written sequentially. The
+ * document must not be modified while it is being written.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class ParallelXMLWriter extends XMLByteWriter {
+	/**
+	 * The number of runs of subtrees buffered ahead of the output for each
+	 * thread of the pool
+	 */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/**
+	 * The largest number of sibling elements written by a single task
+	 */
+	private static final int MAX_RUN_LENGTH = 64;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * The depth of the elements written concurrently, where the element
+	 * passed to <code>write</code> has a depth of zero
+	 */
+	private int splitDepth = 1;
+
+	/**
+	 * The number of elements currently open
+	 */
+	private int depth;
+
+	/**
+	 * The runs of child elements which are being written concurrently, keyed
+	 * by each of their elements
+	 */
+	private Map<Node, Future<Run>> tasks;
+
+	/**
+	 * The child elements which have not been submitted yet
+	 */
+	private List<Element> pending;
+
+	private int pendingIndex;
+
+	private int runLength;
+
+	/**
+	 * The element whose children are being written concurrently
+	 */
+	private Element splitParent;
+
+	/**
+	 * The child element whose output has just been copied
+	 */
+	private Element stitched;
+
+	private SubtreeState state;
+
+	private final Queue<XMLByteWriter> writers
+			= new ConcurrentLinkedQueue<XMLByteWriter>();
+
+	public ParallelXMLWriter(OutputStream out, ForkJoinPool pool)
+			throws UnsupportedEncodingException {
+		this(out, DEFAULT_FORMAT, pool);
+	}
+
+	public ParallelXMLWriter(OutputStream out, OutputFormat format,
+			ForkJoinPool pool) throws UnsupportedEncodingException {
+		super(out, format);
+		this.pool = pool;
+	}
+
+	/**
+	 * Creates a writer which keeps its output in memory.
+	 *
+	 * @param format the format of the output
+	 * @param pool   the pool on which subtrees are written
+	 * @throws UnsupportedEncodingException if the encoding of the format is
+	 *                                      not one written directly
+	 */
+	public ParallelXMLWriter(OutputFormat format, ForkJoinPool pool)
+			throws UnsupportedEncodingException {
+		super(format);
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public int getSplitDepth() {
+		return splitDepth;
+	}
+
+	/**
+	 * Sets the depth of the elements which are written concurrently. The
+	 * element or root element being written has a depth of zero, so the
+	 * default of one writes its children concurrently.
+	 *
+	 * @param splitDepth the depth of the elements written concurrently
+	 */
+	public void setSplitDepth(int splitDepth) {
+		if (splitDepth < 1) {
+			throw new IllegalArgumentException("Split depth must be positive: "
+					+ splitDepth);
+		}
+
+		this.splitDepth = splitDepth;
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	protected void writeElement(Element element) throws IOException {
+		int oldDepth = depth;
+
+		try {
+			super.writeElement(element);
+		} finally {
+			depth = oldDepth;
+			stitched = null;
+
+			if ((splitParent != null) && (depth < splitDepth)) {
+				endSplit();
+			}
+		}
+	}
+
+	protected boolean writeElementStart(Element element) throws IOException {
+		Future<Run> task = (tasks != null) ? tasks.remove(element) : null;
+
+		if (task != null) {
+			writeRun(join(task));
+			stitched = element;
+
+			return false;
+		}
+
+		boolean content = super.writeElementStart(element);
+		depth++;
+
+		if (content && (depth == splitDepth) && (getByteOutput() != null)) {
+			startSplit(element);
+		}
+
+		return content;
+	}
+
+	protected void writeElementEnd(Element element) throws IOException {
+		if (element == stitched) {
+			stitched = null;
+			lastOutputNodeType = NodeType.ELEMENT_NODE;
+
+			return;
+		}
+
+		if (element == splitParent) {
+			endSplit();
+		}
+
+		super.writeElementEnd(element);
+		depth--;
+	}
+
+	/**
+	 * Starts writing the child elements of the given element concurrently.
+	 * The start tag of the element has just been written, so the state of
+	 * this writer is the one its children are written in.
+	 */
+	private void startSplit(Element element) {
+		List<Element> children = new ArrayList<Element>();
+
+		for (int i = 0, size = element.nodeCount(); i < size; i++) {
+			Node node = element.node(i);
+
+			if (node.getNodeTypeEnum() == NodeType.ELEMENT_NODE) {
+				children.add((Element) node);
+			}
+		}
+
+		if (children.size() < 2) {
+			return;
+		}
+
+		int window = pool.getParallelism() * TASKS_PER_THREAD;
+
+		splitParent = element;
+		state = new SubtreeState(this);
+		tasks = new IdentityHashMap<Node, Future<Run>>();
+		pending = children;
+		pendingIndex = 0;
+		runLength = Math.max(1, Math.min(MAX_RUN_LENGTH, children.size()
+				/ (window * 4)));
+
+		for (int i = window; (i > 0) && (pendingIndex < pending.size()); i--) {
+			submitNext();
+		}
+	}
+
+	private void endSplit() {
+		for (Future<Run> task : tasks.values()) {
+			task.cancel(false);
+		}
+
+		splitParent = null;
+		tasks = null;
+		pending = null;
+		state = null;
+	}
+
+	/**
+	 * Copies the output of the next element of a run.
+	 */
+	private void writeRun(Run run) throws IOException {
+		ByteBuffer buffer = run.writer.getByteBuffer();
+		int start = (run.next > 0) ? run.ends[run.next - 1] : 0;
+		int end = run.ends[run.next++];
+		getByteOutput().writeBytes(buffer.array(),
+				buffer.arrayOffset() + buffer.position() + start, end - start);
+
+		if (run.next == run.ends.length) {
+			run.writer.reset();
+			writers.offer(run.writer);
+
+			if (pendingIndex < pending.size()) {
+				submitNext();
+			}
+		}
+	}
+
+	private void submitNext() {
+		int end = Math.min(pendingIndex + runLength, pending.size());
+		List<Element> elements = pending.subList(pendingIndex, end);
+		Future<Run> task = pool.submit(new Run(elements, state));
+
+		for (Element element : elements) {
+			tasks.put(element, task);
+		}
+
+		pendingIndex = end;
+	}
+
+	private static <T> T join(Future<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * A run of sibling elements written one after another into a single
+	 * buffer, recording where the output of each ends.
+	 */
+	private class Run implements Callable<Run> {
+		private final List<Element> elements;
+
+		private final SubtreeState state;
+
+		private final int[] ends;
+
+		private XMLByteWriter writer;
+
+		/**
+		 * The index of the next element to copy to the output
+		 */
+		private int next;
+
+		Run(List<Element> elements, SubtreeState state) {
+			this.elements = elements;
+			this.state = state;
+			this.ends = new int[elements.size()];
+		}
+
+		public Run call() throws IOException {
+			writer = writers.poll();
+
+			if (writer == null) {
+				writer = new XMLByteWriter(getOutputFormat());
+			}
+
+			state.apply(writer);
+
+			for (int i = 0; i < ends.length; i++) {
+				writer.writeElement(elements.get(i));
+				ends[i] = writer.getByteBuffer().remaining();
+			}
+
+			return this;
+		}
+	}
+
+	/**
+	 * The state of the writer in which the children of an element are
+	 * written, copied into the writer of each child.
+	 */
+	private static class SubtreeState {
+		private final Namespace[] namespaces;
+
+		private final int indentLevel;
+
+		private final boolean preserve;
+
+		private final boolean escapeText;
+
+		private final int maximumAllowedCharacter;
+
+		private final boolean resolveEntityRefs;
+
+		SubtreeState(XMLWriter writer) {
+			NamespaceStack stack = writer.getNamespaceStack();
+			this.namespaces = new Namespace[stack.size()];
+
+			for (int i = 0; i < namespaces.length; i++) {
+				namespaces[i] = stack.getNamespace(i);
+			}
+
+			this.indentLevel = writer.getIndentLevel();
+			this.preserve = writer.preserve;
+			this.escapeText = writer.isEscapeText();
+			this.maximumAllowedCharacter = writer.getMaximumAllowedCharacter();
+			this.resolveEntityRefs = writer.resolveEntityRefs();
+		}
+
+		void apply(XMLWriter writer) {
+			NamespaceStack stack = writer.getNamespaceStack();
+			stack.clear();
+
+			for (Namespace namespace : namespaces) {
+				stack.push(namespace);
+			}
+
+			writer.setIndentLevel(indentLevel);
+			writer.preserve = preserve;
+			writer.setEscapeText(escapeText);
+			writer.setMaximumAllowedCharacter(maximumAllowedCharacter);
+			writer.setResolveEntityRefs(resolveEntityRefs);
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
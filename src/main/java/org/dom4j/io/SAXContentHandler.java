@@ -168,6 +168,16 @@ public class SAXContentHandler extends DefaultHandler implements
 	 */
 	private boolean stripWhitespaceText = false;
 
+	/**
+	 * Whether elements outside of handled subtrees are discarded
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * The statistics of the current parse when streaming
+	 */
+	private StreamStatistics statistics;
+
 	public SAXContentHandler() {
 		this(DefaultDocumentFactory.getInstance());
 	}
@@ -216,6 +226,10 @@ public class SAXContentHandler extends DefaultHandler implements
 			completeCurrentTextNode();
 		}
 
+		if (isDiscarding()) {
+			return;
+		}
+
 		if (currentElement != null) {
 			currentElement.addProcessingInstruction(target, data);
 		} else {
@@ -253,6 +267,7 @@ public class SAXContentHandler extends DefaultHandler implements
 		}
 
 		textInTextBuffer = false;
+		statistics = streaming ? new StreamStatistics() : null;
 	}
 
 	public void endDocument() throws SAXException {
@@ -271,13 +286,19 @@ public class SAXContentHandler extends DefaultHandler implements
 		QName qName = namespaceStack.getQName(namespaceURI, localName,
 				qualifiedName);
 
-		Branch branch = currentElement;
+		Element element;
 
-		if (branch == null) {
-			branch = getDocument();
-		}
+		if (streaming) {
+			element = createStreamingElement(qName);
+		} else {
+			Branch branch = currentElement;
 
-		Element element = branch.addElement(qName);
+			if (branch == null) {
+				branch = getDocument();
+			}
+
+			element = branch.addElement(qName);
+		}
 
 		// add all declared namespaces
 		addDeclaredNamespaces(element);
@@ -305,12 +326,17 @@ public class SAXContentHandler extends DefaultHandler implements
 			elementHandler.onEnd(elementStack);
 		}
 
+		if (streaming && (currentElement != null) && !isInsideHandledElement()) {
+			// release the subtree once its handler is done with it
+			currentElement.detach();
+		}
+
 		elementStack.popElement();
 		currentElement = elementStack.peekElement();
 	}
 
 	public void characters(char[] ch, int start, int end) throws SAXException {
-		if (end == 0) {
+		if ((end == 0) || isDiscarding()) {
 			return;
 		}
 
@@ -380,7 +406,10 @@ public class SAXContentHandler extends DefaultHandler implements
 
 	public void startDTD(String name, String publicId, String systemId)
 			throws SAXException {
-		getDocument().addDocType(name, publicId, systemId);
+		if (!streaming) {
+			getDocument().addDocType(name, publicId, systemId);
+		}
+
 		insideDTDSection = true;
 		internalDTDsubset = true;
 	}
@@ -388,7 +417,7 @@ public class SAXContentHandler extends DefaultHandler implements
 	public void endDTD() throws SAXException {
 		insideDTDSection = false;
 
-		DocumentType docType = getDocument().getDocType();
+		DocumentType docType = streaming ? null : getDocument().getDocType();
 
 		if (docType != null) {
 			if (internalDTDDeclarations != null) {
@@ -439,7 +468,10 @@ public class SAXContentHandler extends DefaultHandler implements
 
 	public void endCDATA() throws SAXException {
 		insideCDATASection = false;
-		currentElement.addCDATA(cdataText.toString());
+
+		if (!isDiscarding()) {
+			currentElement.addCDATA(cdataText.toString());
+		}
 	}
 
 	public void comment(char[] ch, int start, int end) throws SAXException {
@@ -450,7 +482,7 @@ public class SAXContentHandler extends DefaultHandler implements
 
 			String text = new String(ch, start, end);
 
-			if (!insideDTDSection && (text.length() > 0)) {
+			if (!insideDTDSection && (text.length() > 0) && !isDiscarding()) {
 				if (currentElement != null) {
 					currentElement.addComment(text);
 				} else {
@@ -780,9 +812,80 @@ public class SAXContentHandler extends DefaultHandler implements
 		this.ignoreComments = ignoreComments;
 	}
 
+	/**
+	 * Returns whether this handler is streaming.
+	 *
+	 * @return whether elements outside of handled subtrees are discarded
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets whether this handler is streaming. A streaming handler does not
+	 * build a <code>Document</code>: an element is only attached to its
+	 * parent if a handler is registered for its path or for the path of one
+	 * of its ancestors, and such a subtree is detached again once the
+	 * outermost handler's <code>onEnd</code> method returns. All other
+	 * elements and their text are discarded, so memory use is bounded by the
+	 * largest handled subtree rather than by the document.
+	 *
+	 * @param streaming whether elements outside of handled subtrees are
+	 *                  discarded
+	 * @since 2.0
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Returns the statistics of the last parse when streaming.
+	 *
+	 * @return the statistics or null if this handler is not streaming
+	 * @since 2.0
+	 */
+	public StreamStatistics getStatistics() {
+		return statistics;
+	}
+
 	// Implementation methods
 	// -------------------------------------------------------------------------
 
+	/**
+	 * Creates an element when streaming, attaching it to its parent only if it
+	 * is part of a handled subtree.
+	 *
+	 * @param qName the name of the element
+	 * @return the new element
+	 */
+	private Element createStreamingElement(QName qName) {
+		DispatchHandler handler = elementStack.getDispatchHandler();
+		boolean handled = (handler != null) && handler.isHandled(qName);
+		boolean retained = handled || isInsideHandledElement();
+		Element element;
+
+		if (retained && (currentElement != null)) {
+			element = currentElement.addElement(qName);
+		} else {
+			element = documentFactory.createElement(qName);
+		}
+
+		statistics.elementStarted(elementStack.size() + 1, retained, handled);
+
+		return element;
+	}
+
+	private boolean isInsideHandledElement() {
+		DispatchHandler handler = elementStack.getDispatchHandler();
+
+		return (handler != null) && (handler.getActiveHandlerCount() > 0);
+	}
+
+	private boolean isDiscarding() {
+		return streaming
+				&& ((currentElement == null) || !isInsideHandledElement());
+	}
+
 	/**
 	 * If the current text buffer contains any text then create a new text node
 	 * with it and add it to the current element
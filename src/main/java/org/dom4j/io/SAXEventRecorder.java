@@ -7,22 +7,20 @@
 
 package org.dom4j.io;
 
-import org.dom4j.Namespace;
-import org.dom4j.QName;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.ext.DeclHandler;
 import org.xml.sax.ext.LexicalHandler;
-import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.*;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * <p>
@@ -31,6 +29,14 @@ import java.util.*;
  * Rather than serializing a document as text and re-parsing, the sax events may
  * be serialized instead.
  * </p>
+ * <p>
+ * The events are packed into a single <code>int</code> array of opcodes and
+ * operands. Strings are kept once in a pool and referred to by index, while
+ * characters and comments are copied into one shared <code>char</code> array,
+ * so replaying the events allocates nothing per event. Lexical and
+ * declaration events are only replayed if the handler implements
+ * <code>LexicalHandler</code> or <code>DeclHandler</code>.
+ * </p>
  * Example usage:
  * <p/>
  * <pre>
@@ -55,174 +61,270 @@ import java.util.*;
  */
 public class SAXEventRecorder extends DefaultHandler implements LexicalHandler,
 		DeclHandler, DTDHandler, Externalizable {
-	public static final long serialVersionUID = 1;
+	public static final long serialVersionUID = 2;
 
 	private static final byte STRING = 0;
 
 	private static final byte OBJECT = 1;
 
-	private static final byte NULL = 2;
+	private static final String XMLNS = "xmlns";
 
-	private List events = new ArrayList();
+	private static final String EMPTY_STRING = "";
 
-	private Map prefixMappings = new HashMap();
+	/**
+	 * The longest string which is sure to fit <code>writeUTF</code>
+	 */
+	private static final int MAX_UTF_LENGTH = 65535 / 3;
 
-	private static final String XMLNS = "xmlns";
+	// opcodes, each followed by its operands as listed
+	private static final int PROCESSING_INSTRUCTION = 1; // target, data
 
-	private static final String EMPTY_STRING = "";
+	private static final int START_PREFIX_MAPPING = 2; // prefix, uri
+
+	private static final int END_PREFIX_MAPPING = 3; // prefix
+
+	private static final int START_DOCUMENT = 4;
+
+	private static final int END_DOCUMENT = 5;
+
+	// uri, local name, qualified name, attribute count, then the uri, local
+	// name, qualified name, type and value of every attribute
+	private static final int START_ELEMENT = 6;
+
+	private static final int END_ELEMENT = 7; // uri, local name, qualified name
+
+	private static final int CHARACTERS = 8; // offset, length
+
+	private static final int START_DTD = 9; // name, public id, system id
+
+	private static final int END_DTD = 10;
+
+	private static final int START_ENTITY = 11; // name
+
+	private static final int END_ENTITY = 12; // name
+
+	private static final int START_CDATA = 13;
+
+	private static final int END_CDATA = 14;
+
+	private static final int COMMENT = 15; // offset, length
+
+	private static final int ELEMENT_DECL = 16; // name, model
+
+	// element name, attribute name, type, value default, value
+	private static final int ATTRIBUTE_DECL = 17;
+
+	private static final int INTERNAL_ENTITY_DECL = 18; // name, value
+
+	// name, public id, system id
+	private static final int EXTERNAL_ENTITY_DECL = 19;
+
+	/**
+	 * The opcodes and operands of the recorded events. Strings are
+	 * referenced as one more than their index in the pool, zero being null.
+	 */
+	private int[] events = new int[64];
+
+	private int eventsSize;
+
+	private String[] strings = new String[16];
+
+	private int stringsSize;
+
+	private Map<String, Integer> stringIndexes
+			= new HashMap<String, Integer>();
+
+	private char[] text = new char[256];
+
+	private int textSize;
+
+	/**
+	 * The prefixes of the namespace declarations found in the attributes of
+	 * the open elements, which end after their element
+	 */
+	private int[] prefixes = new int[8];
+
+	private int prefixesSize;
+
+	/**
+	 * The number of prefixes of each open element
+	 */
+	private int[] prefixCounts = new int[16];
+
+	private int depth;
 
 	public SAXEventRecorder() {
 	}
 
 	public void replay(ContentHandler handler) throws SAXException {
-		SAXEvent saxEvent;
-		Iterator itr = events.iterator();
-
-		while (itr.hasNext()) {
-			saxEvent = (SAXEvent) itr.next();
-
-			switch (saxEvent.event) {
+		LexicalHandler lexicalHandler = (handler instanceof LexicalHandler)
+				? (LexicalHandler) handler : null;
+		DeclHandler declHandler = (handler instanceof DeclHandler)
+				? (DeclHandler) handler : null;
+		RecordedAttributes attributes = new RecordedAttributes();
+		int[] ev = events;
+		int size = eventsSize;
+		int i = 0;
+
+		while (i < size) {
+			int event = ev[i++];
+
+			switch (event) {
 				// replay to ContentHandler
-				case SAXEvent.PROCESSING_INSTRUCTION:
-					handler.processingInstruction((String) saxEvent.getParm(0),
-							(String) saxEvent.getParm(1));
+				case PROCESSING_INSTRUCTION:
+					handler.processingInstruction(string(ev[i]),
+							string(ev[i + 1]));
+					i += 2;
 
 					break;
 
-				case SAXEvent.START_PREFIX_MAPPING:
-					handler.startPrefixMapping((String) saxEvent.getParm(0),
-							(String) saxEvent.getParm(1));
+				case START_PREFIX_MAPPING:
+					handler.startPrefixMapping(string(ev[i]),
+							string(ev[i + 1]));
+					i += 2;
 
 					break;
 
-				case SAXEvent.END_PREFIX_MAPPING:
-					handler.endPrefixMapping((String) saxEvent.getParm(0));
+				case END_PREFIX_MAPPING:
+					handler.endPrefixMapping(string(ev[i++]));
 
 					break;
 
-				case SAXEvent.START_DOCUMENT:
+				case START_DOCUMENT:
 					handler.startDocument();
 
 					break;
 
-				case SAXEvent.END_DOCUMENT:
+				case END_DOCUMENT:
 					handler.endDocument();
 
 					break;
 
-				case SAXEvent.START_ELEMENT:
-
-					AttributesImpl attributes = new AttributesImpl();
-					List attParmList = (List) saxEvent.getParm(3);
-
-					if (attParmList != null) {
-						Iterator attsItr = attParmList.iterator();
-
-						while (attsItr.hasNext()) {
-							String[] attParms = (String[]) attsItr.next();
-							attributes.addAttribute(attParms[0], attParms[1],
-									attParms[2], attParms[3], attParms[4]);
-						}
-					}
-
-					handler.startElement((String) saxEvent.getParm(0),
-							(String) saxEvent.getParm(1), (String) saxEvent
-									.getParm(2), attributes);
+				case START_ELEMENT:
+					attributes.offset = i + 4;
+					attributes.length = ev[i + 3];
+					handler.startElement(string(ev[i]), string(ev[i + 1]),
+							string(ev[i + 2]), attributes);
+					i += 4 + (attributes.length * 5);
 
 					break;
 
-				case SAXEvent.END_ELEMENT:
-					handler.endElement((String) saxEvent.getParm(0),
-							(String) saxEvent.getParm(1), (String) saxEvent
-									.getParm(2));
+				case END_ELEMENT:
+					handler.endElement(string(ev[i]), string(ev[i + 1]),
+							string(ev[i + 2]));
+					i += 3;
 
 					break;
 
-				case SAXEvent.CHARACTERS:
-
-					char[] chars = (char[]) saxEvent.getParm(0);
-					int start = ((Integer) saxEvent.getParm(1)).intValue();
-					int end = ((Integer) saxEvent.getParm(2)).intValue();
-					handler.characters(chars, start, end);
+				case CHARACTERS:
+					handler.characters(text, ev[i], ev[i + 1]);
+					i += 2;
 
 					break;
 
 				// replay to LexicalHandler
-				case SAXEvent.START_DTD:
-					((LexicalHandler) handler).startDTD((String) saxEvent
-							.getParm(0), (String) saxEvent.getParm(1),
-							(String) saxEvent.getParm(2));
+				case START_DTD:
+					if (lexicalHandler != null) {
+						lexicalHandler.startDTD(string(ev[i]),
+								string(ev[i + 1]), string(ev[i + 2]));
+					}
+
+					i += 3;
 
 					break;
 
-				case SAXEvent.END_DTD:
-					((LexicalHandler) handler).endDTD();
+				case END_DTD:
+					if (lexicalHandler != null) {
+						lexicalHandler.endDTD();
+					}
 
 					break;
 
-				case SAXEvent.START_ENTITY:
-					((LexicalHandler) handler).startEntity((String) saxEvent
-							.getParm(0));
+				case START_ENTITY:
+					if (lexicalHandler != null) {
+						lexicalHandler.startEntity(string(ev[i]));
+					}
+
+					i++;
 
 					break;
 
-				case SAXEvent.END_ENTITY:
-					((LexicalHandler) handler).endEntity((String) saxEvent
-							.getParm(0));
+				case END_ENTITY:
+					if (lexicalHandler != null) {
+						lexicalHandler.endEntity(string(ev[i]));
+					}
+
+					i++;
 
 					break;
 
-				case SAXEvent.START_CDATA:
-					((LexicalHandler) handler).startCDATA();
+				case START_CDATA:
+					if (lexicalHandler != null) {
+						lexicalHandler.startCDATA();
+					}
 
 					break;
 
-				case SAXEvent.END_CDATA:
-					((LexicalHandler) handler).endCDATA();
+				case END_CDATA:
+					if (lexicalHandler != null) {
+						lexicalHandler.endCDATA();
+					}
 
 					break;
 
-				case SAXEvent.COMMENT:
+				case COMMENT:
+					if (lexicalHandler != null) {
+						lexicalHandler.comment(text, ev[i], ev[i + 1]);
+					}
 
-					char[] cchars = (char[]) saxEvent.getParm(0);
-					int cstart = ((Integer) saxEvent.getParm(1)).intValue();
-					int cend = ((Integer) saxEvent.getParm(2)).intValue();
-					((LexicalHandler) handler).comment(cchars, cstart, cend);
+					i += 2;
 
 					break;
 
 				// replay to DeclHandler
-				case SAXEvent.ELEMENT_DECL:
-					((DeclHandler) handler).elementDecl((String) saxEvent
-							.getParm(0), (String) saxEvent.getParm(1));
+				case ELEMENT_DECL:
+					if (declHandler != null) {
+						declHandler.elementDecl(string(ev[i]),
+								string(ev[i + 1]));
+					}
+
+					i += 2;
 
 					break;
 
-				case SAXEvent.ATTRIBUTE_DECL:
-					((DeclHandler) handler).attributeDecl((String) saxEvent
-							.getParm(0), (String) saxEvent.getParm(1),
-							(String) saxEvent.getParm(2), (String) saxEvent
-									.getParm(3), (String) saxEvent.getParm(4));
+				case ATTRIBUTE_DECL:
+					if (declHandler != null) {
+						declHandler.attributeDecl(string(ev[i]),
+								string(ev[i + 1]), string(ev[i + 2]),
+								string(ev[i + 3]), string(ev[i + 4]));
+					}
+
+					i += 5;
 
 					break;
 
-				case SAXEvent.INTERNAL_ENTITY_DECL:
-					((DeclHandler) handler).internalEntityDecl(
-							(String) saxEvent.getParm(0), (String) saxEvent
-									.getParm(1));
+				case INTERNAL_ENTITY_DECL:
+					if (declHandler != null) {
+						declHandler.internalEntityDecl(string(ev[i]),
+								string(ev[i + 1]));
+					}
+
+					i += 2;
 
 					break;
 
-				case SAXEvent.EXTERNAL_ENTITY_DECL:
-					((DeclHandler) handler).externalEntityDecl(
-							(String) saxEvent.getParm(0), (String) saxEvent
-									.getParm(1), (String) saxEvent.getParm(2));
+				case EXTERNAL_ENTITY_DECL:
+					if (declHandler != null) {
+						declHandler.externalEntityDecl(string(ev[i]),
+								string(ev[i + 1]), string(ev[i + 2]));
+					}
+
+					i += 3;
 
 					break;
 
 				default:
-					throw new SAXException("Unrecognized event: "
-							+ saxEvent.event);
+					throw new SAXException("Unrecognized event: " + event);
 			}
 		}
 	}
@@ -232,143 +334,107 @@ public class SAXEventRecorder extends DefaultHandler implements LexicalHandler,
 
 	public void processingInstruction(String target, String data)
 			throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.PROCESSING_INSTRUCTION);
-		saxEvent.addParm(target);
-		saxEvent.addParm(data);
-		events.add(saxEvent);
+		record(PROCESSING_INSTRUCTION, target, data);
 	}
 
 	public void startPrefixMapping(String prefix, String uri)
 			throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.START_PREFIX_MAPPING);
-		saxEvent.addParm(prefix);
-		saxEvent.addParm(uri);
-		events.add(saxEvent);
+		record(START_PREFIX_MAPPING, prefix, uri);
 	}
 
 	public void endPrefixMapping(String prefix) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.END_PREFIX_MAPPING);
-		saxEvent.addParm(prefix);
-		events.add(saxEvent);
+		record(END_PREFIX_MAPPING, prefix);
 	}
 
 	public void startDocument() throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.START_DOCUMENT);
-		events.add(saxEvent);
+		record(START_DOCUMENT);
 	}
 
 	public void endDocument() throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.END_DOCUMENT);
-		events.add(saxEvent);
+		record(END_DOCUMENT);
 	}
 
 	public void startElement(String namespaceURI, String localName,
 	                         String qualifiedName, Attributes attributes) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.START_ELEMENT);
-		saxEvent.addParm(namespaceURI);
-		saxEvent.addParm(localName);
-		saxEvent.addParm(qualifiedName);
-
-		QName qName = null;
-		if (namespaceURI != null) {
-			qName = new QName(localName, Namespace.get(namespaceURI));
-		} else {
-			qName = new QName(localName);
-		}
-
-		if ((attributes != null) && (attributes.getLength() > 0)) {
-			List attParmList = new ArrayList(attributes.getLength());
-			String[] attParms = null;
-
-			for (int i = 0; i < attributes.getLength(); i++) {
-
-				String attLocalName = attributes.getLocalName(i);
+		int length = (attributes != null) ? attributes.getLength() : 0;
+		int prefixCount = 0;
+
+		for (int i = 0; i < length; i++) {
+			String attLocalName = attributes.getLocalName(i);
+
+			if (isNamespaceDeclaration(attLocalName)) {
+				// if SAXWriter is writing a DOMDocument, namespace
+				// decls are treated as attributes. record a start
+				// prefix mapping event and remember the prefix so that
+				// we can generate an end prefix mapping event within
+				// endElement
+				String prefix = (attLocalName.length() > 5) ? attLocalName
+						.substring(6) : EMPTY_STRING;
+				record(START_PREFIX_MAPPING, prefix, attributes.getValue(i));
+
+				if (prefixesSize == prefixes.length) {
+					prefixes = grow(prefixes, prefixesSize);
+				}
 
-				if (attLocalName.startsWith(XMLNS)) {
+				prefixes[prefixesSize++] = intern(prefix);
+				prefixCount++;
+			}
+		}
 
-					// if SAXWriter is writing a DOMDocument, namespace
-					// decls are treated as attributes. record a start
-					// prefix mapping event
-					String prefix = null;
-					if (attLocalName.length() > 5) {
-						prefix = attLocalName.substring(6);
-					} else {
-						prefix = EMPTY_STRING;
-					}
+		if (depth == prefixCounts.length) {
+			prefixCounts = grow(prefixCounts, depth);
+		}
 
-					SAXEvent prefixEvent = new SAXEvent(
-							SAXEvent.START_PREFIX_MAPPING);
-					prefixEvent.addParm(prefix);
-					prefixEvent.addParm(attributes.getValue(i));
-					events.add(prefixEvent);
-
-					// 'register' the prefix so that we can generate
-					// an end prefix mapping event within endElement
-					List prefixes = (List) prefixMappings.get(qName);
-					if (prefixes == null) {
-						prefixes = new ArrayList();
-						prefixMappings.put(qName, prefixes);
-					}
-					prefixes.add(prefix);
+		prefixCounts[depth++] = prefixCount;
 
-				} else {
+		int attributeCount = length - prefixCount;
+		ensureEvents(5 + (attributeCount * 5));
 
-					attParms = new String[5];
-					attParms[0] = attributes.getURI(i);
-					attParms[1] = attLocalName;
-					attParms[2] = attributes.getQName(i);
-					attParms[3] = attributes.getType(i);
-					attParms[4] = attributes.getValue(i);
-					attParmList.add(attParms);
+		int[] ev = events;
+		int size = eventsSize;
+		ev[size++] = START_ELEMENT;
+		ev[size++] = intern(namespaceURI);
+		ev[size++] = intern(localName);
+		ev[size++] = intern(qualifiedName);
+		ev[size++] = attributeCount;
 
-				}
+		for (int i = 0; i < length; i++) {
+			String attLocalName = attributes.getLocalName(i);
 
+			if (!isNamespaceDeclaration(attLocalName)) {
+				ev[size++] = intern(attributes.getURI(i));
+				ev[size++] = intern(attLocalName);
+				ev[size++] = intern(attributes.getQName(i));
+				ev[size++] = intern(attributes.getType(i));
+				ev[size++] = intern(attributes.getValue(i));
 			}
-
-			saxEvent.addParm(attParmList);
 		}
 
-		events.add(saxEvent);
+		eventsSize = size;
 	}
 
 	public void endElement(String namespaceURI, String localName, String qName)
 			throws SAXException {
+		record(END_ELEMENT, namespaceURI, localName, qName);
 
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.END_ELEMENT);
-		saxEvent.addParm(namespaceURI);
-		saxEvent.addParm(localName);
-		saxEvent.addParm(qName);
-		events.add(saxEvent);
+		// end the prefix mappings we issued for DOMDocument namespace decls
+		if (depth > 0) {
+			int prefixCount = prefixCounts[--depth];
+			int start = prefixesSize - prefixCount;
 
-		// check to see if a we issued a start prefix mapping event
-		// for DOMDocument namespace decls
-
-		QName elementName = null;
-		if (namespaceURI != null) {
-			elementName = new QName(localName, Namespace.get(namespaceURI));
-		} else {
-			elementName = new QName(localName);
-		}
-
-		List prefixes = (List) prefixMappings.get(elementName);
-		if (prefixes != null) {
-			Iterator itr = prefixes.iterator();
-			while (itr.hasNext()) {
-				SAXEvent prefixEvent =
-						new SAXEvent(SAXEvent.END_PREFIX_MAPPING);
-				prefixEvent.addParm(itr.next());
-				events.add(prefixEvent);
+			for (int i = start; i < prefixesSize; i++) {
+				ensureEvents(2);
+				events[eventsSize++] = END_PREFIX_MAPPING;
+				events[eventsSize++] = prefixes[i];
 			}
-		}
 
+			prefixesSize = start;
+		}
 	}
 
-	public void characters(char[] ch, int start, int end) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.CHARACTERS);
-		saxEvent.addParm(ch);
-		saxEvent.addParm(new Integer(start));
-		saxEvent.addParm(new Integer(end));
-		events.add(saxEvent);
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		recordText(CHARACTERS, ch, start, length);
 	}
 
 	// LexicalHandler interface
@@ -376,191 +442,320 @@ public class SAXEventRecorder extends DefaultHandler implements LexicalHandler,
 
 	public void startDTD(String name, String publicId, String systemId)
 			throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.START_DTD);
-		saxEvent.addParm(name);
-		saxEvent.addParm(publicId);
-		saxEvent.addParm(systemId);
-		events.add(saxEvent);
+		record(START_DTD, name, publicId, systemId);
 	}
 
 	public void endDTD() throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.END_DTD);
-		events.add(saxEvent);
+		record(END_DTD);
 	}
 
 	public void startEntity(String name) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.START_ENTITY);
-		saxEvent.addParm(name);
-		events.add(saxEvent);
+		record(START_ENTITY, name);
 	}
 
 	public void endEntity(String name) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.END_ENTITY);
-		saxEvent.addParm(name);
-		events.add(saxEvent);
+		record(END_ENTITY, name);
 	}
 
 	public void startCDATA() throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.START_CDATA);
-		events.add(saxEvent);
+		record(START_CDATA);
 	}
 
 	public void endCDATA() throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.END_CDATA);
-		events.add(saxEvent);
+		record(END_CDATA);
 	}
 
-	public void comment(char[] ch, int start, int end) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.COMMENT);
-		saxEvent.addParm(ch);
-		saxEvent.addParm(new Integer(start));
-		saxEvent.addParm(new Integer(end));
-		events.add(saxEvent);
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		recordText(COMMENT, ch, start, length);
 	}
 
 	// DeclHandler interface
 	// -------------------------------------------------------------------------
 
 	public void elementDecl(String name, String model) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.ELEMENT_DECL);
-		saxEvent.addParm(name);
-		saxEvent.addParm(model);
-		events.add(saxEvent);
+		record(ELEMENT_DECL, name, model);
 	}
 
 	public void attributeDecl(String eName, String aName, String type,
 	                          String valueDefault, String value) throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.ATTRIBUTE_DECL);
-		saxEvent.addParm(eName);
-		saxEvent.addParm(aName);
-		saxEvent.addParm(type);
-		saxEvent.addParm(valueDefault);
-		saxEvent.addParm(value);
-		events.add(saxEvent);
+		ensureEvents(6);
+		events[eventsSize++] = ATTRIBUTE_DECL;
+		events[eventsSize++] = intern(eName);
+		events[eventsSize++] = intern(aName);
+		events[eventsSize++] = intern(type);
+		events[eventsSize++] = intern(valueDefault);
+		events[eventsSize++] = intern(value);
 	}
 
 	public void internalEntityDecl(String name, String value)
 			throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.INTERNAL_ENTITY_DECL);
-		saxEvent.addParm(name);
-		saxEvent.addParm(value);
-		events.add(saxEvent);
+		record(INTERNAL_ENTITY_DECL, name, value);
 	}
 
 	public void externalEntityDecl(String name, String publicId, String sysId)
 			throws SAXException {
-		SAXEvent saxEvent = new SAXEvent(SAXEvent.EXTERNAL_ENTITY_DECL);
-		saxEvent.addParm(name);
-		saxEvent.addParm(publicId);
-		saxEvent.addParm(sysId);
-		events.add(saxEvent);
+		record(EXTERNAL_ENTITY_DECL, name, publicId, sysId);
 	}
 
+	/**
+	 * Writes the string pool, the text and the events, the latter as
+	 * variable length integers.
+	 */
 	public void writeExternal(ObjectOutput out) throws IOException {
-		if (events == null) {
-			out.writeByte(NULL);
-		} else {
-			out.writeByte(OBJECT);
-			out.writeObject(events);
+		out.writeInt(stringsSize);
+
+		for (int i = 0; i < stringsSize; i++) {
+			String string = strings[i];
+
+			if (string.length() <= MAX_UTF_LENGTH) {
+				out.writeByte(STRING);
+				out.writeUTF(string);
+			} else {
+				out.writeByte(OBJECT);
+				out.writeObject(string);
+			}
+		}
+
+		out.writeInt(textSize);
+
+		for (int i = 0; i < textSize; i += MAX_UTF_LENGTH) {
+			int length = Math.min(MAX_UTF_LENGTH, textSize - i);
+			out.writeUTF(new String(text, i, length));
+		}
+
+		out.writeInt(eventsSize);
+
+		for (int i = 0; i < eventsSize; i++) {
+			int value = events[i];
+
+			while ((value & ~0x7F) != 0) {
+				out.writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+
+			out.writeByte(value);
 		}
 	}
 
 	public void readExternal(ObjectInput in) throws ClassNotFoundException,
 			IOException {
-		if (in.readByte() != NULL) {
-			events = (List) in.readObject();
+		stringsSize = in.readInt();
+		strings = new String[Math.max(stringsSize, 16)];
+		stringIndexes = new HashMap<String, Integer>();
+
+		for (int i = 0; i < stringsSize; i++) {
+			String string = (in.readByte() == STRING) ? in.readUTF()
+					: (String) in.readObject();
+			strings[i] = string;
+			stringIndexes.put(string, i + 1);
+		}
+
+		textSize = in.readInt();
+		text = new char[Math.max(textSize, 256)];
+
+		for (int i = 0; i < textSize;) {
+			String chunk = in.readUTF();
+			chunk.getChars(0, chunk.length(), text, i);
+			i += chunk.length();
+		}
+
+		eventsSize = in.readInt();
+		events = new int[Math.max(eventsSize, 64)];
+
+		for (int i = 0; i < eventsSize; i++) {
+			int value = 0;
+
+			for (int shift = 0;; shift += 7) {
+				if (shift > 28) {
+					throw new IOException("Invalid event data");
+				}
+
+				int b = in.readByte();
+				value |= (b & 0x7F) << shift;
+
+				if (b >= 0) {
+					break;
+				}
+			}
+
+			events[i] = value;
 		}
 	}
 
-	// SAXEvent inner class
+	// Implementation methods
 	// -------------------------------------------------------------------------
 
-	static class SAXEvent implements Externalizable {
-		public static final long serialVersionUID = 1;
+	private static boolean isNamespaceDeclaration(String attLocalName) {
+		return (attLocalName != null) && attLocalName.startsWith(XMLNS);
+	}
 
-		static final byte PROCESSING_INSTRUCTION = 1;
+	private String string(int reference) {
+		return (reference == 0) ? null : strings[reference - 1];
+	}
 
-		static final byte START_PREFIX_MAPPING = 2;
+	/**
+	 * Returns the reference of the given string, adding it to the pool if it
+	 * is not there yet.
+	 */
+	private int intern(String string) {
+		if (string == null) {
+			return 0;
+		}
 
-		static final byte END_PREFIX_MAPPING = 3;
+		Integer reference = stringIndexes.get(string);
 
-		static final byte START_DOCUMENT = 4;
+		if (reference != null) {
+			return reference.intValue();
+		}
 
-		static final byte END_DOCUMENT = 5;
+		if (stringsSize == strings.length) {
+			String[] newStrings = new String[stringsSize * 2];
+			System.arraycopy(strings, 0, newStrings, 0, stringsSize);
+			strings = newStrings;
+		}
 
-		static final byte START_ELEMENT = 6;
+		strings[stringsSize++] = string;
+		stringIndexes.put(string, stringsSize);
 
-		static final byte END_ELEMENT = 7;
+		return stringsSize;
+	}
 
-		static final byte CHARACTERS = 8;
+	private void record(int event) {
+		ensureEvents(1);
+		events[eventsSize++] = event;
+	}
 
-		static final byte START_DTD = 9;
+	private void record(int event, String first) {
+		ensureEvents(2);
+		events[eventsSize++] = event;
+		events[eventsSize++] = intern(first);
+	}
+
+	private void record(int event, String first, String second) {
+		ensureEvents(3);
+		events[eventsSize++] = event;
+		events[eventsSize++] = intern(first);
+		events[eventsSize++] = intern(second);
+	}
 
-		static final byte END_DTD = 10;
+	private void record(int event, String first, String second, String third) {
+		ensureEvents(4);
+		events[eventsSize++] = event;
+		events[eventsSize++] = intern(first);
+		events[eventsSize++] = intern(second);
+		events[eventsSize++] = intern(third);
+	}
 
-		static final byte START_ENTITY = 11;
+	private void recordText(int event, char[] ch, int start, int length) {
+		if (textSize + length > text.length) {
+			char[] newText = new char[Math.max(textSize + length,
+					text.length * 2)];
+			System.arraycopy(text, 0, newText, 0, textSize);
+			text = newText;
+		}
 
-		static final byte END_ENTITY = 12;
+		System.arraycopy(ch, start, text, textSize, length);
 
-		static final byte START_CDATA = 13;
+		ensureEvents(3);
+		events[eventsSize++] = event;
+		events[eventsSize++] = textSize;
+		events[eventsSize++] = length;
+		textSize += length;
+	}
 
-		static final byte END_CDATA = 14;
+	private void ensureEvents(int count) {
+		if (eventsSize + count > events.length) {
+			int[] newEvents = new int[Math.max(eventsSize + count,
+					events.length * 2)];
+			System.arraycopy(events, 0, newEvents, 0, eventsSize);
+			events = newEvents;
+		}
+	}
 
-		static final byte COMMENT = 15;
+	private static int[] grow(int[] array, int size) {
+		int[] newArray = new int[size * 2];
+		System.arraycopy(array, 0, newArray, 0, size);
 
-		static final byte ELEMENT_DECL = 16;
+		return newArray;
+	}
 
-		static final byte ATTRIBUTE_DECL = 17;
+	// RecordedAttributes inner class
+	// -------------------------------------------------------------------------
 
-		static final byte INTERNAL_ENTITY_DECL = 18;
+	/**
+	 * The attributes of the element being replayed, read from the events
+	 */
+	private class RecordedAttributes implements Attributes {
+		int offset;
 
-		static final byte EXTERNAL_ENTITY_DECL = 19;
+		int length;
 
-		protected byte event;
+		public int getLength() {
+			return length;
+		}
 
-		protected List parms;
+		public String getURI(int index) {
+			return get(index, 0);
+		}
 
-		public SAXEvent() {
+		public String getLocalName(int index) {
+			return get(index, 1);
 		}
 
-		SAXEvent(byte event) {
-			this.event = event;
+		public String getQName(int index) {
+			return get(index, 2);
 		}
 
-		void addParm(Object parm) {
-			if (parms == null) {
-				parms = new ArrayList(3);
+		public String getType(int index) {
+			return get(index, 3);
+		}
+
+		public String getValue(int index) {
+			return get(index, 4);
+		}
+
+		public int getIndex(String uri, String localName) {
+			for (int i = 0; i < length; i++) {
+				if (localName.equals(get(i, 1)) && uri.equals(get(i, 0))) {
+					return i;
+				}
 			}
 
-			parms.add(parm);
+			return -1;
 		}
 
-		Object getParm(int index) {
-			if ((parms != null) && (index < parms.size())) {
-				return parms.get(index);
-			} else {
-				return null;
+		public int getIndex(String qName) {
+			for (int i = 0; i < length; i++) {
+				if (qName.equals(get(i, 2))) {
+					return i;
+				}
 			}
+
+			return -1;
 		}
 
-		public void writeExternal(ObjectOutput out) throws IOException {
-			out.writeByte(event);
+		public String getType(String uri, String localName) {
+			return getType(getIndex(uri, localName));
+		}
 
-			if (parms == null) {
-				out.writeByte(NULL);
-			} else {
-				out.writeByte(OBJECT);
-				out.writeObject(parms);
-			}
+		public String getType(String qName) {
+			return getType(getIndex(qName));
+		}
+
+		public String getValue(String uri, String localName) {
+			return getValue(getIndex(uri, localName));
 		}
 
-		public void readExternal(ObjectInput in) throws ClassNotFoundException,
-				IOException {
-			event = in.readByte();
+		public String getValue(String qName) {
+			return getValue(getIndex(qName));
+		}
 
-			if (in.readByte() != NULL) {
-				parms = (List) in.readObject();
+		private String get(int index, int field) {
+			if ((index < 0) || (index >= length)) {
+				return null;
 			}
+
+			return string(events[offset + (index * 5) + field]);
 		}
 	}
 }
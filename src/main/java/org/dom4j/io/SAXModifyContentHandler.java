@@ -195,7 +195,7 @@ class SAXModifyContentHandler extends SAXContentHandler {
 	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
 		ElementHandler currentHandler = getElementStack().getDispatchHandler()
-				.getHandler(getElementStack().getPath());
+				.getCurrentHandler();
 
 		super.endElement(uri, localName, qName);
 
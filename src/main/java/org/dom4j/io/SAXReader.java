@@ -9,6 +9,7 @@ package org.dom4j.io;
 
 import org.dom4j.*;
 import org.xml.sax.*;
+import org.xml.sax.ext.DefaultHandler2;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
@@ -75,6 +76,11 @@ public class SAXReader {
 	private static final String SAX_LEXICALHANDLER =
 			"http://xml.org/sax/handlers/LexicalHandler";
 
+	/**
+	 * Handler left on a parser between documents
+	 */
+	private static final DefaultHandler2 NO_HANDLER = new DefaultHandler2();
+
 	/**
 	 * <code>DefaultDocumentFactory</code> used to create new document objects
 	 */
@@ -135,6 +141,16 @@ public class SAXReader {
 	 */
 	private boolean ignoreComments = false;
 
+	/**
+	 * Whether files are read through memory mapped windows
+	 */
+	private boolean memoryMapFiles = false;
+
+	/**
+	 * Whether nodes below the root element are only created when accessed
+	 */
+	private boolean deferNodeExpansion = false;
+
 	/**
 	 * Encoding of InputSource - null means system default encoding
 	 */
@@ -233,39 +249,7 @@ public class SAXReader {
 	 * @throws DocumentException if an error occurs during parsing.
 	 */
 	public Document read(File file) throws DocumentException {
-		try {
-			/*
-						 * We cannot convert the file to an URL because if the filename
-						 * contains '#' characters, there will be problems with the URL in
-						 * the InputSource (because a URL like
-						 * http://myhost.com/index#anchor is treated the same as
-						 * http://myhost.com/index) Thanks to Christian Oetterli
-						 */
-			InputSource source = new InputSource(new FileInputStream(file));
-			if (this.encoding != null) {
-				source.setEncoding(this.encoding);
-			}
-			String path = file.getAbsolutePath();
-
-			if (path != null) {
-				// Code taken from Ant FileUtils
-				StringBuffer sb = new StringBuffer("file://");
-
-				// add an extra slash for filesystems with drive-specifiers
-				if (!path.startsWith(File.separator)) {
-					sb.append("/");
-				}
-
-				path = path.replace('\\', '/');
-				sb.append(path);
-
-				source.setSystemId(sb.toString());
-			}
-
-			return read(source);
-		} catch (FileNotFoundException e) {
-			throw new DocumentException(e.getMessage(), e);
-		}
+		return read(createInputSource(file));
 	}
 
 	/**
@@ -402,6 +386,92 @@ public class SAXReader {
 	 * @throws DocumentException if an error occurs during parsing.
 	 */
 	public Document read(InputSource in) throws DocumentException {
+		return parse(in, false).getDocument();
+	}
+
+	/**
+	 * <p>
+	 * Reads the given <code>File</code> in streaming mode
+	 * </p>
+	 *
+	 * @param file is the <code>File</code> to read from.
+	 * @return the statistics of the document
+	 * @throws DocumentException if an error occurs during parsing.
+	 * @see #stream(InputSource)
+	 * @since 2.0
+	 */
+	public StreamStatistics stream(File file) throws DocumentException {
+		return stream(createInputSource(file));
+	}
+
+	/**
+	 * <p>
+	 * Reads the given stream in streaming mode
+	 * </p>
+	 *
+	 * @param in <code>InputStream</code> to read from.
+	 * @return the statistics of the document
+	 * @throws DocumentException if an error occurs during parsing.
+	 * @see #stream(InputSource)
+	 * @since 2.0
+	 */
+	public StreamStatistics stream(InputStream in) throws DocumentException {
+		InputSource source = new InputSource(in);
+		if (this.encoding != null) {
+			source.setEncoding(this.encoding);
+		}
+
+		return stream(source);
+	}
+
+	/**
+	 * <p>
+	 * Reads the given <code>Reader</code> in streaming mode
+	 * </p>
+	 *
+	 * @param reader is the reader for the input
+	 * @return the statistics of the document
+	 * @throws DocumentException if an error occurs during parsing.
+	 * @see #stream(InputSource)
+	 * @since 2.0
+	 */
+	public StreamStatistics stream(Reader reader) throws DocumentException {
+		InputSource source = new InputSource(reader);
+		if (this.encoding != null) {
+			source.setEncoding(this.encoding);
+		}
+
+		return stream(source);
+	}
+
+	/**
+	 * <p>
+	 * Reads the given <code>InputSource</code> in streaming mode, without
+	 * building a <code>Document</code>.
+	 * </p>
+	 * <p/>
+	 * <p>
+	 * Only the elements matching a path registered with {@link
+	 * #addHandler(String, ElementHandler)} and their descendants are built,
+	 * and each such subtree is detached as soon as its handler's
+	 * <code>onEnd</code> method returns. Elements outside of these subtrees
+	 * are never attached to their parent and their content is discarded,
+	 * although the default handler is still called for them. Memory use is
+	 * therefore bounded by the depth of the document and the size of the
+	 * largest handled subtree, whatever the size of the input.
+	 * </p>
+	 *
+	 * @param in <code>InputSource</code> to read from.
+	 * @return the statistics of the document
+	 * @throws DocumentException if an error occurs during parsing.
+	 * @since 2.0
+	 */
+	public StreamStatistics stream(InputSource in) throws DocumentException {
+		return parse(in, true).getStatistics();
+	}
+
+	private SAXContentHandler parse(InputSource in, boolean streaming)
+			throws DocumentException {
 		try {
 			XMLReader reader = getXMLReader();
 
@@ -417,7 +487,16 @@ public class SAXReader {
 
 			reader.setEntityResolver(thatEntityResolver);
 
-			SAXContentHandler contentHandler = createContentHandler(reader);
+			SAXContentHandler contentHandler;
+
+			// deferred elements cannot be created by a custom factory
+			if (deferNodeExpansion && !streaming && (dispatchHandler == null)
+					&& (getDocumentFactory().getClass() == DefaultDocumentFactory.class)) {
+				contentHandler = createDeferredContentHandler(reader);
+			} else {
+				contentHandler = createContentHandler(reader);
+			}
+
 			contentHandler.setEntityResolver(thatEntityResolver);
 			contentHandler.setInputSource(in);
 
@@ -429,13 +508,14 @@ public class SAXReader {
 			contentHandler.setMergeAdjacentText(isMergeAdjacentText());
 			contentHandler.setStripWhitespaceText(isStripWhitespaceText());
 			contentHandler.setIgnoreComments(isIgnoreComments());
+			contentHandler.setStreaming(streaming);
 			reader.setContentHandler(contentHandler);
 
 			configureReader(reader, contentHandler);
 
 			reader.parse(in);
 
-			return contentHandler.getDocument();
+			return contentHandler;
 		} catch (Exception e) {
 			if (e instanceof SAXParseException) {
 				// e.printStackTrace();
@@ -598,6 +678,59 @@ public class SAXReader {
 		this.ignoreComments = ignoreComments;
 	}
 
+	/**
+	 * Returns whether files are read through memory mapped windows.
+	 *
+	 * @return whether files are memory mapped
+	 * @since 2.0
+	 */
+	public boolean isMemoryMapFiles() {
+		return memoryMapFiles;
+	}
+
+	/**
+	 * Sets whether {@link #read(File)} and {@link #stream(File)} read the
+	 * file through a {@link MappedFileInputStream}, which saves the copies
+	 * of the operating system's read calls and reads files larger than 2GB.
+	 * Parsing is usually bound by the parser rather than by reading, so this
+	 * mostly lowers the load on the system rather than the parsing time.
+	 *
+	 * @param memoryMapFiles whether files should be memory mapped
+	 * @since 2.0
+	 */
+	public void setMemoryMapFiles(boolean memoryMapFiles) {
+		this.memoryMapFiles = memoryMapFiles;
+	}
+
+	/**
+	 * Returns whether the nodes below the root element are only created when
+	 * they are first accessed.
+	 *
+	 * @return whether node expansion is deferred
+	 * @since 2.0
+	 */
+	public boolean isDeferNodeExpansion() {
+		return deferNodeExpansion;
+	}
+
+	/**
+	 * Sets whether the documents read have a
+	 * {@link org.dom4j.tree.DeferredElement} as root element, which keeps its
+	 * descendants in compact arrays until they are navigated to. This saves
+	 * time and memory when only parts of large documents are used. The
+	 * setting is ignored while element handlers are registered, when
+	 * streaming and when the document factory is not exactly a
+	 * {@link DefaultDocumentFactory}, since the elements of a deferred
+	 * document are always <code>DeferredElement</code>s whatever element
+	 * class the factory would create.
+	 *
+	 * @param deferNodeExpansion whether node expansion should be deferred
+	 * @since 2.0
+	 */
+	public void setDeferNodeExpansion(boolean deferNodeExpansion) {
+		this.deferNodeExpansion = deferNodeExpansion;
+	}
+
 	/**
 	 * DOCUMENT ME!
 	 *
@@ -722,7 +855,8 @@ public class SAXReader {
 	 * Adds the <code>ElementHandler</code> to be called when the specified
 	 * path is encounted.
 	 *
-	 * @param path    is the path to be handled
+	 * @param path    is the path to be handled, which may use <code>*</code>
+	 *                and <code>//</code> steps
 	 * @param handler is the <code>ElementHandler</code> to be called by the event
 	 *                based processor.
 	 */
@@ -815,6 +949,44 @@ public class SAXReader {
 		return reader;
 	}
 
+	private InputSource createInputSource(File file) throws DocumentException {
+		try {
+			/*
+						 * We cannot convert the file to an URL because if the filename
+						 * contains '#' characters, there will be problems with the URL in
+						 * the InputSource (because a URL like
+						 * http://myhost.com/index#anchor is treated the same as
+						 * http://myhost.com/index) Thanks to Christian Oetterli
+						 */
+			InputStream in = memoryMapFiles ? new MappedFileInputStream(file)
+					: new FileInputStream(file);
+			InputSource source = new InputSource(in);
+			if (this.encoding != null) {
+				source.setEncoding(this.encoding);
+			}
+			String path = file.getAbsolutePath();
+
+			if (path != null) {
+				// Code taken from Ant FileUtils
+				StringBuffer sb = new StringBuffer("file://");
+
+				// add an extra slash for filesystems with drive-specifiers
+				if (!path.startsWith(File.separator)) {
+					sb.append("/");
+				}
+
+				path = path.replace('\\', '/');
+				sb.append(path);
+
+				source.setSystemId(sb.toString());
+			}
+
+			return source;
+		} catch (IOException e) {
+			throw new DocumentException(e.getMessage(), e);
+		}
+	}
+
 	protected DispatchHandler getDispatchHandler() {
 		if (dispatchHandler == null) {
 			dispatchHandler = new DispatchHandler();
@@ -907,6 +1079,44 @@ public class SAXReader {
 		return new SAXContentHandler(getDocumentFactory(), dispatchHandler);
 	}
 
+	/**
+	 * Factory Method for the content handler used when node expansion is
+	 * deferred.
+	 *
+	 * @param reader the reader which will parse the document
+	 * @return the content handler building a deferred document
+	 * @since 2.0
+	 */
+	protected SAXContentHandler createDeferredContentHandler(XMLReader reader) {
+		return new DeferredContentHandler(getDocumentFactory());
+	}
+
+	/**
+	 * Replaces the handlers the parser keeps from the last document, so that
+	 * a reader kept for later documents does not keep the last one alive.
+	 */
+	void releaseHandlers() {
+		if (xmlReader != null) {
+			releaseHandlers(xmlReader);
+		}
+
+		if (xmlFilter != null) {
+			releaseHandlers(xmlFilter);
+		}
+	}
+
+	private void releaseHandlers(XMLReader reader) {
+		reader.setContentHandler(NO_HANDLER);
+		reader.setErrorHandler((errorHandler != null) ? errorHandler
+				: NO_HANDLER);
+		SAXHelper.setParserProperty(reader, SAX_LEXICALHANDLER, NO_HANDLER);
+		SAXHelper.setParserProperty(reader, SAX_LEXICAL_HANDLER, NO_HANDLER);
+
+		if (includeInternalDTDDeclarations || includeExternalDTDDeclarations) {
+			SAXHelper.setParserProperty(reader, SAX_DECL_HANDLER, NO_HANDLER);
+		}
+	}
+
 	protected EntityResolver createDefaultEntityResolver(String systemId) {
 		String prefix = null;
 
@@ -9,6 +9,7 @@ package org.dom4j.io;
 
 import org.dom4j.*;
 import org.dom4j.tree.NamespaceStack;
+import org.dom4j.tree.TreeWalker;
 import org.xml.sax.*;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.AttributesImpl;
@@ -39,6 +40,18 @@ public class SAXWriter implements XMLReader {
 	protected static final String FEATURE_NAMESPACES
 			= "http://xml.org/sax/features/namespaces";
 
+	/**
+	 * Whether a subclass overrides {@link #write(Element, NamespaceStack)},
+	 * which must then be called for every element
+	 */
+	private static final ClassValue<Boolean> WRITE_OVERRIDDEN = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return TreeWalker.isOverridden(type, SAXWriter.class, "write",
+					Element.class, NamespaceStack.class);
+		}
+	};
+
 	/**
 	 * <code>ContentHandler</code> to which SAX events are raised
 	 */
@@ -62,9 +75,20 @@ public class SAXWriter implements XMLReader {
 	private LexicalHandler lexicalHandler;
 
 	/**
-	 * <code>AttributesImpl</code> used when generating the Attributes
+	 * View of the attributes of the element being written
+	 */
+	private ElementAttributes attributes = new ElementAttributes();
+
+	/**
+	 * The qualified names of the namespace declaration attributes, keyed by
+	 * prefix
+	 */
+	private Map<String, String> namespaceAttributeNames = new HashMap<String, String>();
+
+	/**
+	 * Buffer reused to pass text to the handlers
 	 */
-	private AttributesImpl attributes = new AttributesImpl();
+	private char[] chars = new char[256];
 
 	/**
 	 * Stores the features
@@ -235,8 +259,8 @@ public class SAXWriter implements XMLReader {
 	 */
 	public void write(String text) throws SAXException {
 		if (text != null) {
-			char[] chars = text.toCharArray();
-			contentHandler.characters(chars, 0, chars.length);
+			int length = text.length();
+			contentHandler.characters(toChars(text), 0, length);
 		}
 	}
 
@@ -267,8 +291,7 @@ public class SAXWriter implements XMLReader {
 	public void write(Comment comment) throws SAXException {
 		if (lexicalHandler != null) {
 			String text = comment.getText();
-			char[] chars = text.toCharArray();
-			lexicalHandler.comment(chars, 0, chars.length);
+			lexicalHandler.comment(toChars(text), 0, text.length());
 		}
 	}
 
@@ -551,30 +574,42 @@ public class SAXWriter implements XMLReader {
 
 			if (object instanceof Element) {
 				write((Element) object, namespaceStack);
-			} else if (object instanceof CharacterData) {
-				if (object instanceof Text) {
-					Text text = (Text) object;
-					write(text.getText());
-				} else if (object instanceof CDATA) {
-					write((CDATA) object);
-				} else if (object instanceof Comment) {
-					write((Comment) object);
-				} else {
-					throw new SAXException("Invalid Node in DOM4J content: "
-							+ object + " of type: " + object.getClass());
-				}
-			} else if (object instanceof String) {
-				write((String) object);
-			} else if (object instanceof Entity) {
-				write((Entity) object);
-			} else if (object instanceof ProcessingInstruction) {
-				write((ProcessingInstruction) object);
-			} else if (object instanceof Namespace) {
-				write((Namespace) object);
+			} else {
+				writeContent(object);
+			}
+		}
+	}
+
+	/**
+	 * Generates the SAX events of a node of content other than an element.
+	 *
+	 * @param object the node
+	 * @throws SAXException if the node is not valid content
+	 */
+	private void writeContent(Object object) throws SAXException {
+		if (object instanceof CharacterData) {
+			if (object instanceof Text) {
+				Text text = (Text) object;
+				write(text.getText());
+			} else if (object instanceof CDATA) {
+				write((CDATA) object);
+			} else if (object instanceof Comment) {
+				write((Comment) object);
 			} else {
 				throw new SAXException("Invalid Node in DOM4J content: "
-						+ object);
+						+ object + " of type: " + object.getClass());
 			}
+		} else if (object instanceof String) {
+			write((String) object);
+		} else if (object instanceof Entity) {
+			write((Entity) object);
+		} else if (object instanceof ProcessingInstruction) {
+			write((ProcessingInstruction) object);
+		} else if (object instanceof Namespace) {
+			write((Namespace) object);
+		} else {
+			throw new SAXException("Invalid Node in DOM4J content: "
+					+ object);
 		}
 	}
 
@@ -652,15 +687,19 @@ public class SAXWriter implements XMLReader {
 		contentHandler.endDocument();
 	}
 
+	/**
+	 * Generates the SAX events for an element and its content, walking the
+	 * descendant elements without recursion. If a subclass overrides this
+	 * method, it is called for each descendant element as well, which are
+	 * then written recursively.
+	 *
+	 * @param element        the element
+	 * @param namespaceStack the namespaces in scope
+	 * @throws SAXException if there is a SAX error processing the events
+	 */
 	protected void write(Element element, NamespaceStack namespaceStack)
 			throws SAXException {
-		int stackSize = namespaceStack.size();
-		AttributesImpl namespaceAttributes = startPrefixMapping(element,
-				namespaceStack);
-		startElement(element, namespaceAttributes);
-		writeContent(element, namespaceStack);
-		endElement(element);
-		endPrefixMapping(namespaceStack, stackSize);
+		new ElementWalker(namespaceStack).walk(element);
 	}
 
 	/**
@@ -688,12 +727,11 @@ public class SAXWriter implements XMLReader {
 					elementNamespace);
 		}
 
-		List declaredNamespaces = element.declaredNamespaces();
+		for (int i = 0, size = element.nodeCount(); i < size; i++) {
+			Namespace namespace = NodeHelper.nodeAsNamespace(element.node(i));
 
-		for (int i = 0, size = declaredNamespaces.size(); i < size; i++) {
-			Namespace namespace = (Namespace) declaredNamespaces.get(i);
-
-			if (!isIgnoreableNamespace(namespace, namespaceStack)) {
+			if ((namespace != null)
+					&& !isIgnoreableNamespace(namespace, namespaceStack)) {
 				namespaceStack.push(namespace);
 				contentHandler.startPrefixMapping(namespace.getPrefix(),
 						namespace.getURI());
@@ -729,6 +767,9 @@ public class SAXWriter implements XMLReader {
 		contentHandler.startElement(element.getNamespaceURI(), element
 				.getName(), element.getQualifiedName(), createAttributes(
 				element, namespaceAttributes));
+
+		// do not keep the element reachable
+		attributes.setElement(null, null);
 	}
 
 	protected void endElement(Element element) throws SAXException {
@@ -736,20 +777,20 @@ public class SAXWriter implements XMLReader {
 				element.getQualifiedName());
 	}
 
+	/**
+	 * Returns the attributes of the given element, preceded by the given
+	 * namespace declarations. The attributes are a view of the element which
+	 * is only valid until the next element is written.
+	 *
+	 * @param element             the element being written
+	 * @param namespaceAttributes the namespace declarations of the element,
+	 *                            or null
+	 * @return the attributes to report for the element
+	 * @throws SAXException if the attributes could not be created
+	 */
 	protected Attributes createAttributes(Element element,
 	                                      Attributes namespaceAttributes) throws SAXException {
-		attributes.clear();
-
-		if (namespaceAttributes != null) {
-			attributes.setAttributes(namespaceAttributes);
-		}
-
-		for (Iterator iter = element.attributeIterator(); iter.hasNext();) {
-			Attribute attribute = (Attribute) iter.next();
-			attributes.addAttribute(attribute.getNamespaceURI(), attribute
-					.getName(), attribute.getQualifiedName(), "CDATA",
-					attribute.getValue());
-		}
+		attributes.setElement(element, namespaceAttributes);
 
 		return attributes;
 	}
@@ -774,7 +815,12 @@ public class SAXWriter implements XMLReader {
 			String qualifiedName = "xmlns";
 
 			if ((prefix != null) && (prefix.length() > 0)) {
-				qualifiedName = "xmlns:" + prefix;
+				qualifiedName = namespaceAttributeNames.get(prefix);
+
+				if (qualifiedName == null) {
+					qualifiedName = "xmlns:" + prefix;
+					namespaceAttributeNames.put(prefix, qualifiedName);
+				}
 			}
 
 			String uri = "";
@@ -813,11 +859,87 @@ public class SAXWriter implements XMLReader {
 		return namespaceStack.contains(namespace);
 	}
 
+	/**
+	 * Copies the given text into the reused character buffer.
+	 */
+	private char[] toChars(String text) {
+		int length = text.length();
+
+		if (length > chars.length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+
+		text.getChars(0, length, chars, 0);
+
+		return chars;
+	}
+
 	/**
 	 * Ensures non-null content handlers?
 	 */
 	protected void checkForNullHandlers() {
 	}
+
+	/**
+	 * Generates the events of an element, remembering the size of the
+	 * namespace stack before each element so its prefix mappings can be ended.
+	 */
+	private class ElementWalker extends TreeWalker<SAXException> {
+		private final NamespaceStack namespaceStack;
+
+		private int[] stackSizes = new int[16];
+
+		/**
+		 * Whether the element just entered was written by an overridden
+		 * {@link SAXWriter#write(Element, NamespaceStack)}
+		 */
+		private boolean written;
+
+		ElementWalker(NamespaceStack namespaceStack) {
+			this.namespaceStack = namespaceStack;
+		}
+
+		@Override
+		protected boolean enterElement(Element element) throws SAXException {
+			int depth = getDepth();
+
+			if ((depth > 0) && WRITE_OVERRIDDEN.get(SAXWriter.this.getClass())) {
+				write(element, namespaceStack);
+				written = true;
+
+				return false;
+			}
+
+			if (depth == stackSizes.length) {
+				int[] newStackSizes = new int[depth * 2];
+				System.arraycopy(stackSizes, 0, newStackSizes, 0, depth);
+				stackSizes = newStackSizes;
+			}
+
+			stackSizes[depth] = namespaceStack.size();
+
+			AttributesImpl namespaceAttributes = startPrefixMapping(element,
+					namespaceStack);
+			startElement(element, namespaceAttributes);
+
+			return true;
+		}
+
+		@Override
+		protected void leaveElement(Element element) throws SAXException {
+			if (written) {
+				written = false;
+			} else {
+				endElement(element);
+				endPrefixMapping(namespaceStack, stackSizes[getDepth()]);
+			}
+		}
+
+		@Override
+		protected void visit(Node node) throws SAXException {
+			writeContent(node);
+		}
+	}
 }
 
 /*
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import org.dom4j.*;
+import org.dom4j.tree.AbstractElement;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Reads a DOM4J {@link Document}, or the elements matching a path, from a
+ * StAX {@link XMLStreamReader}. Unlike {@link STAXEventReader}, no event
+ * object is created per token: the nodes are built directly from the
+ * cursor.
+ * </p>
+ * <p/>
+ * <p>
+ * {@link #elementIterator(XMLStreamReader, String)} returns the elements
+ * matching a path one at a time. Each element is only built when the caller
+ * asks for it and everything outside the matched elements is skipped, so
+ * arbitrarily large record files can be processed with a bounded amount of
+ * memory and without callbacks. Paths have the same syntax as the paths
+ * given to {@link SAXReader#addHandler(String, ElementHandler)}.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class STAXStreamReader {
+	/**
+	 * The handler registered for matched paths. It is never called.
+	 */
+	private static final ElementHandler MATCH = new ElementHandler() {
+		public void onStart(ElementPath elementPath) {
+		}
+
+		public void onEnd(ElementPath elementPath) {
+		}
+	};
+
+	/**
+	 * Reference to the DocumentFactory used to build DOM4J nodes.
+	 */
+	private DocumentFactory factory;
+
+	/**
+	 * A StAX input factory, used to construct streams from IO streams.
+	 */
+	private XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	/**
+	 * Constructs a default <code>STAXStreamReader</code> instance with a
+	 * default {@link org.dom4j.DefaultDocumentFactory}.
+	 */
+	public STAXStreamReader() {
+		this.factory = DefaultDocumentFactory.getInstance();
+	}
+
+	/**
+	 * Constructs a <code>STAXStreamReader</code> instance that uses the
+	 * specified {@link DocumentFactory}to construct DOM4J {@link Node}s.
+	 *
+	 * @param factory The DocumentFactory to use when constructing DOM4J nodes, or
+	 *                <code>null</code> if a default should be used.
+	 */
+	public STAXStreamReader(DocumentFactory factory) {
+		setDocumentFactory(factory);
+	}
+
+	/**
+	 * Sets the DocumentFactory to be used when constructing DOM4J nodes.
+	 *
+	 * @param documentFactory The DocumentFactory to use when constructing DOM4J nodes, or
+	 *                        <code>null</code> if a default should be used.
+	 */
+	public void setDocumentFactory(DocumentFactory documentFactory) {
+		if (documentFactory != null) {
+			this.factory = documentFactory;
+		} else {
+			this.factory = DefaultDocumentFactory.getInstance();
+		}
+	}
+
+	/**
+	 * Constructs a StAX stream reader from the provided I/O stream and reads
+	 * a DOM4J document from it.
+	 *
+	 * @param is The I/O stream from which the Document will be read.
+	 * @return The Document that was read from the stream.
+	 * @throws XMLStreamException If an error occurs reading content from the stream.
+	 */
+	public Document readDocument(InputStream is) throws XMLStreamException {
+		return readDocument(is, null);
+	}
+
+	/**
+	 * Constructs a StAX stream reader from the provided I/O character stream
+	 * and reads a DOM4J document from it.
+	 *
+	 * @param reader The character stream from which the Document will be read.
+	 * @return The Document that was read from the stream.
+	 * @throws XMLStreamException If an error occurs reading content from the stream.
+	 */
+	public Document readDocument(Reader reader) throws XMLStreamException {
+		return readDocument(reader, null);
+	}
+
+	/**
+	 * Constructs a StAX stream reader from the provided I/O stream and reads
+	 * a DOM4J document from it.
+	 *
+	 * @param is       The I/O stream from which the Document will be read.
+	 * @param systemId A system id used to resolve entities.
+	 * @return The Document that was read from the stream.
+	 * @throws XMLStreamException If an error occurs reading content from the stream.
+	 */
+	public Document readDocument(InputStream is, String systemId)
+			throws XMLStreamException {
+		XMLStreamReader streamReader = inputFactory.createXMLStreamReader(
+				systemId, is);
+
+		try {
+			return readDocument(streamReader);
+		} finally {
+			streamReader.close();
+		}
+	}
+
+	/**
+	 * Constructs a StAX stream reader from the provided I/O character stream
+	 * and reads a DOM4J document from it.
+	 *
+	 * @param reader   The character stream from which the Document will be read.
+	 * @param systemId A system id used to resolve entities.
+	 * @return The Document that was read from the stream.
+	 * @throws XMLStreamException If an error occurs reading content from the stream.
+	 */
+	public Document readDocument(Reader reader, String systemId)
+			throws XMLStreamException {
+		XMLStreamReader streamReader = inputFactory.createXMLStreamReader(
+				systemId, reader);
+
+		try {
+			return readDocument(streamReader);
+		} finally {
+			streamReader.close();
+		}
+	}
+
+	/**
+	 * Reads a DOM4J {@link Document}from the provided stream. The stream
+	 * should be positioned at the start of a document, or on a start tag.
+	 *
+	 * @param reader The stream from which to read the {@link Document}.
+	 * @return The {@link Document}that was read from the stream.
+	 * @throws XMLStreamException If an error occurs reading from the stream.
+	 */
+	public Document readDocument(XMLStreamReader reader)
+			throws XMLStreamException {
+		Document doc;
+		int type = reader.getEventType();
+
+		if (type == XMLStreamConstants.START_DOCUMENT) {
+			String encoding = reader.getCharacterEncodingScheme();
+
+			if (encoding != null) {
+				doc = factory.createDocument(encoding);
+			} else {
+				doc = factory.createDocument();
+			}
+
+			type = reader.next();
+		} else {
+			doc = factory.createDocument();
+		}
+
+		while (true) {
+			switch (type) {
+				case XMLStreamConstants.START_ELEMENT:
+					doc.add(readElement(reader));
+
+					break;
+
+				case XMLStreamConstants.COMMENT:
+					doc.addComment(reader.getText());
+
+					break;
+
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					doc.addProcessingInstruction(reader.getPITarget(), reader
+							.getPIData());
+
+					break;
+
+				case XMLStreamConstants.END_DOCUMENT:
+					return doc;
+
+				default:
+
+					// skip space outside the root element and DTD events,
+					// which are not currently supported
+					break;
+			}
+
+			if (!reader.hasNext()) {
+				return doc;
+			}
+
+			type = reader.next();
+		}
+	}
+
+	/**
+	 * Reads a DOM4J Element from the provided stream. The stream must be
+	 * positioned on a start tag, and is left on the matching end tag.
+	 *
+	 * @param reader The stream from which to read the Element.
+	 * @return The Element that was read from the stream.
+	 * @throws XMLStreamException If an error occured reading from the stream, or the stream
+	 *                            was not positioned on a start tag.
+	 */
+	public Element readElement(XMLStreamReader reader)
+			throws XMLStreamException {
+		if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			throw new XMLStreamException("Expected start tag, found event "
+					+ reader.getEventType(), reader.getLocation());
+		}
+
+		Element root = createElement(reader);
+		Element current = root;
+
+		while (true) {
+			if (!reader.hasNext()) {
+				String msg = "Unexpected end of stream while reading"
+						+ " element content";
+				throw new XMLStreamException(msg, reader.getLocation());
+			}
+
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT: {
+					Element child = createElement(reader);
+					current.add(child);
+					current = child;
+
+					break;
+				}
+
+				case XMLStreamConstants.END_ELEMENT:
+
+					if (current == root) {
+						return root;
+					}
+
+					current = current.getParent();
+
+					break;
+
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					current.addText(reader.getText());
+
+					break;
+
+				case XMLStreamConstants.CDATA:
+					current.addCDATA(reader.getText());
+
+					break;
+
+				case XMLStreamConstants.COMMENT:
+					current.addComment(reader.getText());
+
+					break;
+
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					current.addProcessingInstruction(reader.getPITarget(),
+							reader.getPIData());
+
+					break;
+
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					current.addEntity(reader.getLocalName(), reader.getText());
+
+					break;
+
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the elements of the provided I/O stream matching the given
+	 * path. The StAX stream reader is closed once the iterator is exhausted.
+	 *
+	 * @param is   The I/O stream from which the elements will be read.
+	 * @param path The path of the elements to return, such as
+	 *             <code>/feed/entry</code> or <code>//entry</code>.
+	 * @return an iterator over the matching elements
+	 * @throws XMLStreamException If the stream reader cannot be created.
+	 * @see #elementIterator(XMLStreamReader, String)
+	 */
+	public Iterator<Element> elementIterator(InputStream is, String path)
+			throws XMLStreamException {
+		return new MatchIterator(inputFactory.createXMLStreamReader(is),
+				path, true);
+	}
+
+	/**
+	 * Returns the elements of the provided I/O character stream matching the
+	 * given path. The StAX stream reader is closed once the iterator is
+	 * exhausted.
+	 *
+	 * @param reader The character stream from which the elements will be read.
+	 * @param path   The path of the elements to return, such as
+	 *               <code>/feed/entry</code> or <code>//entry</code>.
+	 * @return an iterator over the matching elements
+	 * @throws XMLStreamException If the stream reader cannot be created.
+	 * @see #elementIterator(XMLStreamReader, String)
+	 */
+	public Iterator<Element> elementIterator(Reader reader, String path)
+			throws XMLStreamException {
+		return new MatchIterator(inputFactory.createXMLStreamReader(reader),
+				path, true);
+	}
+
+	/**
+	 * Returns the elements of the provided stream matching the given path,
+	 * which is evaluated from the current position of the stream. Each
+	 * matching element is read, with its content, when {@link
+	 * Iterator#next()} is called; elements nested in a matching element are
+	 * not returned separately. All other content is skipped without building
+	 * any node. Errors reading the stream are reported as {@link
+	 * STAXStreamException}s.
+	 *
+	 * @param reader The stream from which the elements will be read.
+	 * @param path   The path of the elements to return, such as
+	 *               <code>/feed/entry</code> or <code>//entry</code>.
+	 * @return an iterator over the matching elements
+	 */
+	public Iterator<Element> elementIterator(XMLStreamReader reader,
+			String path) {
+		return new MatchIterator(reader, path, false);
+	}
+
+	/**
+	 * Constructs a new DOM4J Element from the start tag the stream is
+	 * positioned on. All attributes and namespaces will be added to the
+	 * returned element.
+	 *
+	 * @param reader The stream positioned on a start tag.
+	 * @return The Element constructed from the start tag.
+	 */
+	public Element createElement(XMLStreamReader reader) {
+		Element elem = factory.createElement(createQName(reader
+				.getLocalName(), reader.getPrefix(), reader.getNamespaceURI()));
+
+		// create namespaces
+		for (int i = 0, size = reader.getNamespaceCount(); i < size; i++) {
+			String prefix = reader.getNamespacePrefix(i);
+			String uri = reader.getNamespaceURI(i);
+			elem.addNamespace((prefix != null) ? prefix : "",
+					(uri != null) ? uri : "");
+		}
+
+		// create attributes
+		int attributeCount = reader.getAttributeCount();
+
+		if (elem instanceof AbstractElement) {
+			((AbstractElement) elem).ensureAttributesCapacity(attributeCount);
+		}
+
+		for (int i = 0; i < attributeCount; i++) {
+			QName attributeName = createQName(reader.getAttributeLocalName(i),
+					reader.getAttributePrefix(i), reader
+							.getAttributeNamespace(i));
+			elem.addAttribute(attributeName, reader.getAttributeValue(i));
+		}
+
+		return elem;
+	}
+
+	private QName createQName(String localName, String prefix, String uri) {
+		return factory.createQName(localName, (prefix != null) ? prefix : "",
+				(uri != null) ? uri : "");
+	}
+
+	/**
+	 * Iterates over the elements matching a path, skipping all other content
+	 * of the stream.
+	 */
+	private class MatchIterator implements Iterator<Element> {
+		private final XMLStreamReader reader;
+
+		private final DispatchHandler matcher;
+
+		private final boolean closeReader;
+
+		/**
+		 * Whether the current event of the stream still has to be examined
+		 */
+		private boolean started;
+
+		/**
+		 * Whether the stream is positioned on the start tag of a match
+		 */
+		private boolean positioned;
+
+		private boolean finished;
+
+		/**
+		 * The number of open elements entered by this iterator
+		 */
+		private int depth;
+
+		MatchIterator(XMLStreamReader reader, String path,
+				boolean closeReader) {
+			this.reader = reader;
+			this.matcher = new DispatchHandler();
+			this.matcher.addHandler(path, MATCH);
+			this.closeReader = closeReader;
+		}
+
+		public boolean hasNext() {
+			if (positioned) {
+				return true;
+			}
+
+			if (finished) {
+				return false;
+			}
+
+			try {
+				int type;
+
+				if (!started) {
+					started = true;
+					type = reader.getEventType();
+				} else if (reader.hasNext()) {
+					type = reader.next();
+				} else {
+					type = XMLStreamConstants.END_DOCUMENT;
+				}
+
+				while (type != XMLStreamConstants.END_DOCUMENT) {
+					if (type == XMLStreamConstants.START_ELEMENT) {
+						depth++;
+
+						if (matcher.enter(createQName(reader.getLocalName(),
+								reader.getPrefix(), reader.getNamespaceURI())) != null) {
+							positioned = true;
+
+							return true;
+						}
+					} else if (type == XMLStreamConstants.END_ELEMENT) {
+						if (depth == 0) {
+							// the end tag of the element the stream was
+							// positioned in
+							break;
+						}
+
+						depth--;
+						matcher.leave();
+					}
+
+					if (!reader.hasNext()) {
+						break;
+					}
+
+					type = reader.next();
+				}
+
+				finished = true;
+
+				if (closeReader) {
+					reader.close();
+				}
+
+				return false;
+			} catch (XMLStreamException e) {
+				throw new STAXStreamException(e);
+			}
+		}
+
+		public Element next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			try {
+				Element element = readElement(reader);
+				depth--;
+				matcher.leave();
+				positioned = false;
+
+				return element;
+			} catch (XMLStreamException e) {
+				throw new STAXStreamException(e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
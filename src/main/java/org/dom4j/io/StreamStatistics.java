@@ -0,0 +1,132 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+/**
+ * <p>
+ * <code>StreamStatistics</code> describes a document that was read by
+ * {@link SAXReader#stream(org.xml.sax.InputSource)}. In streaming mode no
+ * <code>Document</code> is built, so these counts are all that remains of
+ * the parse once the registered <code>ElementHandler</code> instances have
+ * processed their elements.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class StreamStatistics {
+	private long elementCount;
+
+	private long handledElementCount;
+
+	private long retainedElementCount;
+
+	private int maxDepth;
+
+	StreamStatistics() {
+	}
+
+	/**
+	 * Returns the number of elements in the document.
+	 *
+	 * @return the number of elements
+	 */
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	/**
+	 * Returns the number of elements that were dispatched to a registered
+	 * <code>ElementHandler</code>.
+	 *
+	 * @return the number of handled elements
+	 */
+	public long getHandledElementCount() {
+		return handledElementCount;
+	}
+
+	/**
+	 * Returns the number of elements that were built into a subtree of a
+	 * handled element, including the handled elements themselves. All other
+	 * elements were never attached to their parent.
+	 *
+	 * @return the number of retained elements
+	 */
+	public long getRetainedElementCount() {
+		return retainedElementCount;
+	}
+
+	/**
+	 * Returns the maximum nesting depth of elements, the root element being
+	 * at depth 1.
+	 *
+	 * @return the maximum depth
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	void elementStarted(int depth, boolean retained, boolean handled) {
+		elementCount++;
+
+		if (retained) {
+			retainedElementCount++;
+		}
+
+		if (handled) {
+			handledElementCount++;
+		}
+
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+	}
+
+	public String toString() {
+		return super.toString() + " [StreamStatistics: elements: "
+				+ elementCount + " handled: " + handledElementCount
+				+ " retained: " + retainedElementCount + " max depth: "
+				+ maxDepth + "]";
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
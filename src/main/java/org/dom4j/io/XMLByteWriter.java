@@ -0,0 +1,369 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import org.dom4j.Node;
+import org.dom4j.NodeType;
+import org.dom4j.QName;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * <code>XMLByteWriter</code> is an {@link XMLWriter} which encodes its output
+ * itself rather than through an <code>OutputStreamWriter</code>. Text is
+ * escaped with table lookups straight into a reusable byte buffer and the
+ * encoded names of elements and attributes are cached, so the output is
+ * produced without intermediate strings. The bytes written are the same as
+ * those of an <code>XMLWriter</code> using the same {@link OutputFormat}.
+ * </p>
+ * <p>
+ * UTF-8, ISO-8859-1 and US-ASCII are encoded directly; for any other encoding
+ * this class behaves exactly like <code>XMLWriter</code>. When constructed
+ * without a stream the output is kept in memory, where it is available from
+ * {@link #getByteBuffer()} until {@link #reset()} is called.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class XMLByteWriter extends XMLWriter {
+	/**
+	 * The number of encoded names kept before the cache is cleared
+	 */
+	private static final int NAME_CACHE_SIZE = 1024;
+
+	private static final byte[][] ELEMENT_ENTITIES = createEntities((char) 0);
+
+	private static final byte[][] QUOT_ENTITIES = createEntities('\"');
+
+	private static final byte[][] APOS_ENTITIES = createEntities('\'');
+
+	/**
+	 * The output when the encoding is one written directly, otherwise null
+	 */
+	private ByteOutputWriter output;
+
+	private Map<QName, byte[]> names = new IdentityHashMap<QName, byte[]>();
+
+	public XMLByteWriter(OutputStream out) throws UnsupportedEncodingException {
+		this(out, DEFAULT_FORMAT);
+	}
+
+	public XMLByteWriter(OutputStream out, OutputFormat format)
+			throws UnsupportedEncodingException {
+		super(out, format);
+		setOutput(writer);
+	}
+
+	/**
+	 * Creates a writer which keeps its output in memory.
+	 *
+	 * @param format the format of the output
+	 * @throws UnsupportedEncodingException if the encoding of the format is
+	 *                                      not one written directly
+	 */
+	public XMLByteWriter(OutputFormat format)
+			throws UnsupportedEncodingException {
+		super(new ByteOutputWriter(null, format.getEncoding()), format);
+		setOutput(writer);
+	}
+
+	public void setWriter(Writer writer) {
+		super.setWriter(writer);
+		setOutput(writer);
+	}
+
+	/**
+	 * Redirects the output to the given stream. If the encoding is written
+	 * directly the byte buffer already in use is kept for the new stream.
+	 *
+	 * @param out the stream to write to
+	 * @throws UnsupportedEncodingException if the encoding is not supported
+	 */
+	public void setOutputStream(OutputStream out)
+			throws UnsupportedEncodingException {
+		super.setOutputStream(out);
+		setOutput(writer);
+	}
+
+	/**
+	 * Returns the bytes written since this writer was created or last reset.
+	 * Only a writer constructed without a stream keeps its output, the buffer
+	 * of any other writer is emptied whenever it fills up.
+	 *
+	 * @return a buffer wrapping the output, which is only valid until the next
+	 *         write or reset
+	 * @throws IllegalStateException if the output is written to a stream or is
+	 *                               not encoded by this writer
+	 */
+	public ByteBuffer getByteBuffer() {
+		if ((output == null) || (output.getOutputStream() != null)) {
+			throw new IllegalStateException("Output is not kept in memory");
+		}
+
+		return ByteBuffer.wrap(output.getBuffer(), 0, output.size());
+	}
+
+	/**
+	 * Discards the output kept in memory so that the buffer can be reused for
+	 * another document.
+	 */
+	public void reset() {
+		if (output != null) {
+			output.reset();
+		}
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Returns the output encoded by this writer, or null if the encoding of
+	 * the format is written through an ordinary <code>Writer</code>.
+	 */
+	ByteOutputWriter getByteOutput() {
+		return output;
+	}
+
+	protected Writer createWriter(OutputStream outStream, String encoding)
+			throws UnsupportedEncodingException {
+		if (!ByteOutputWriter.isSupported(encoding)) {
+			return super.createWriter(outStream, encoding);
+		}
+
+		if ((output != null) && output.isEncoding(encoding)) {
+			output.setOutputStream(outStream);
+
+			return output;
+		}
+
+		return new ByteOutputWriter(outStream, encoding);
+	}
+
+	protected void writeQName(QName qName) throws IOException {
+		if (output == null) {
+			super.writeQName(qName);
+
+			return;
+		}
+
+		byte[] bytes = names.get(qName);
+
+		if (bytes == null) {
+			if (names.size() >= NAME_CACHE_SIZE) {
+				names.clear();
+			}
+
+			bytes = output.encode(qName.getQualifiedName());
+			names.put(qName, bytes);
+		}
+
+		output.writeBytes(bytes);
+	}
+
+	protected void writeString(String text) throws IOException {
+		if (output == null) {
+			super.writeString(text);
+
+			return;
+		}
+
+		if ((text != null) && (text.length() > 0)) {
+			boolean escape = isEscapeText();
+
+			if (getOutputFormat().isTrimText()) {
+				// the same tokens as a StringTokenizer over the escaped text,
+				// in which a form feed is no longer a delimiter
+				boolean first = true;
+
+				for (int i = 0, size = text.length(); i < size;) {
+					while ((i < size) && isDelimiter(text.charAt(i), escape)) {
+						i++;
+					}
+
+					if (i == size) {
+						break;
+					}
+
+					int start = i;
+
+					while ((i < size) && !isDelimiter(text.charAt(i), escape)) {
+						i++;
+					}
+
+					if (first) {
+						first = false;
+
+						if (lastOutputNodeType == NodeType.TEXT_NODE) {
+							output.write(' ');
+						}
+					} else {
+						output.write(' ');
+					}
+
+					writeText(text, start, i, escape);
+					lastOutputNodeType = NodeType.TEXT_NODE;
+				}
+			} else {
+				lastOutputNodeType = NodeType.TEXT_NODE;
+				writeText(text, 0, text.length(), escape);
+			}
+		}
+	}
+
+	protected void writeNodeText(Node node) throws IOException {
+		if (output == null) {
+			super.writeNodeText(node);
+
+			return;
+		}
+
+		String text = node.getText();
+
+		if ((text != null) && (text.length() > 0)) {
+			lastOutputNodeType = NodeType.TEXT_NODE;
+			writeText(text, 0, text.length(), isEscapeText());
+		}
+	}
+
+	protected void writeEscapeAttributeEntities(String txt) throws IOException {
+		if (output == null) {
+			super.writeEscapeAttributeEntities(txt);
+		} else if (txt != null) {
+			char quote = getOutputFormat().getAttributeQuoteCharacter();
+			byte[][] entities = ELEMENT_ENTITIES;
+
+			if (quote == '\"') {
+				entities = QUOT_ENTITIES;
+			} else if (quote == '\'') {
+				entities = APOS_ENTITIES;
+			}
+
+			output.writeEscaped(txt, 0, txt.length(), entities,
+					getMaximumAllowedCharacter());
+		}
+	}
+
+	private void writeText(String text, int start, int end, boolean escape)
+			throws IOException {
+		if (escape) {
+			output.writeEscaped(text, start, end, ELEMENT_ENTITIES,
+					getMaximumAllowedCharacter());
+		} else {
+			output.write(text, start, end - start);
+		}
+	}
+
+	private void setOutput(Writer writer) {
+		ByteOutputWriter answer = null;
+
+		if (writer instanceof ByteOutputWriter) {
+			answer = (ByteOutputWriter) writer;
+		}
+
+		if (answer != output) {
+			names.clear();
+			output = answer;
+		}
+	}
+
+	private static boolean isDelimiter(char c, boolean escape) {
+		switch (c) {
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\r':
+				return true;
+
+			case '\f':
+				return !escape;
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Creates the replacements of the ASCII characters escaped by {@link
+	 * XMLWriter}, including the given quote character unless it is zero.
+	 */
+	private static byte[][] createEntities(char quote) {
+		byte[][] entities = new byte[0x80][];
+
+		for (char c = 0; c < 0x20; c++) {
+			if ((c != '\t') && (c != '\n') && (c != '\r')) {
+				entities[c] = toBytes("&#" + (int) c + ";");
+			}
+		}
+
+		entities['<'] = toBytes("&lt;");
+		entities['>'] = toBytes("&gt;");
+		entities['&'] = toBytes("&amp;");
+
+		if (quote == '\"') {
+			entities[quote] = toBytes("&quot;");
+		} else if (quote == '\'') {
+			entities[quote] = toBytes("&apos;");
+		}
+
+		return entities;
+	}
+
+	private static byte[] toBytes(String ascii) {
+		byte[] bytes = new byte[ascii.length()];
+
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) ascii.charAt(i);
+		}
+
+		return bytes;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -9,6 +9,7 @@ package org.dom4j.io;
 
 import org.dom4j.*;
 import org.dom4j.tree.NamespaceStack;
+import org.dom4j.tree.TreeWalker;
 import org.xml.sax.*;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.XMLFilterImpl;
@@ -51,6 +52,31 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 
 	protected static final OutputFormat DEFAULT_FORMAT = new OutputFormat();
 
+	/**
+	 * Whether a subclass overrides {@link #writeElement(Element)},
+	 * {@link #writeElementContent(Element)} or {@link #writeNode(Node)}, which
+	 * must then be called for every element and node as they were before
+	 * elements were written without recursion
+	 */
+	private static final ClassValue<Boolean> HOOKS_OVERRIDDEN = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return TreeWalker.isOverridden(type, XMLWriter.class,
+					WALKING_WRITERS, "writeElement", Element.class)
+					|| TreeWalker.isOverridden(type, XMLWriter.class,
+							"writeElementContent", Element.class)
+					|| TreeWalker.isOverridden(type, XMLWriter.class,
+							"writeNode", Node.class);
+		}
+	};
+
+	/**
+	 * The writers of dom4j whose {@link #writeElement(Element)} only wraps the
+	 * walk of this class
+	 */
+	private static final Set<Class<?>> WALKING_WRITERS = new HashSet<Class<?>>(
+			Arrays.<Class<?>> asList(HTMLWriter.class, ParallelXMLWriter.class));
+
 	/**
 	 * Should entityRefs by resolved when writing ?
 	 */
@@ -137,6 +163,19 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 	 */
 	private Map<String, String> namespacesMap;
 
+	/**
+	 * Writes elements and their content without recursion
+	 */
+	private final ElementWriter elementWriter = new ElementWriter();
+
+	/**
+	 * The state of the content of each element being written, reused across
+	 * elements
+	 */
+	private final List<ContentState> contentStates = new ArrayList<ContentState>();
+
+	private int contentDepth;
+
 	/**
 	 * what is the maximum allowed character code such as 127 in US-ASCII (7
 	 * bit) or 255 in ISO- (8 bit) or -1 to not escape any characters (other
@@ -227,6 +266,16 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 		this.indentLevel = indentLevel;
 	}
 
+	/**
+	 * Returns the current indentation level.
+	 *
+	 * @return the number of indents written before the next line
+	 * @since 2.0
+	 */
+	public int getIndentLevel() {
+		return indentLevel;
+	}
+
 	/**
 	 * Returns the maximum allowed character code that should be allowed
 	 * unescaped which defaults to 127 in US-ASCII (7 bit) or 255 in ISO- (8
@@ -518,7 +567,7 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 	 */
 	public void writeOpen(Element element) throws IOException {
 		writer.write("<");
-		writer.write(element.getQualifiedName());
+		writeQName(element.getQName());
 		writeAttributes(element);
 		writer.write(">");
 	}
@@ -861,15 +910,57 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 	// Implementation methods
 	// -------------------------------------------------------------------------
 
+	/**
+	 * Writes an element and its content. The descendant elements are written
+	 * without recursion through {@link #writeElementStart(Element)} and
+	 * {@link #writeElementEnd(Element)}, so subclasses should override those
+	 * to change how each element is written. If a subclass overrides this
+	 * method, {@link #writeElementContent(Element)} or
+	 * {@link #writeNode(Node)} instead, the elements are written recursively
+	 * through these methods, so that the overrides are called for each
+	 * descendant as well.
+	 *
+	 * @param element the element to write
+	 * @throws IOException if the element could not be written
+	 */
 	protected void writeElement(Element element) throws IOException {
+		int oldContentDepth = contentDepth;
+
+		try {
+			if (HOOKS_OVERRIDDEN.get(getClass())) {
+				if (writeElementStart(element)) {
+					writeElementContent(element);
+				}
+
+				writeElementEnd(element);
+			} else {
+				elementWriter.walk(element);
+			}
+		} finally {
+			while (contentDepth > oldContentDepth) {
+				popContentState();
+			}
+		}
+	}
+
+	/**
+	 * Writes the start tag of an element, with the namespaces it declares and
+	 * its attributes. An element without content is closed at once.
+	 *
+	 * @param element the element being written
+	 * @return true if the content of the element should be written, false if
+	 *         the element has been closed
+	 * @throws IOException if the element could not be written
+	 * @since 2.0
+	 */
+	protected boolean writeElementStart(Element element) throws IOException {
 		int size = element.nodeCount();
-		String qualifiedName = element.getQualifiedName();
 
 		writePrintln();
 		indent();
 
 		writer.write("<");
-		writer.write(qualifiedName);
+		writeQName(element.getQName());
 
 		int previouslyDeclaredNamespaces = namespaceStack.size();
 		Namespace ns = element.getNamespace();
@@ -903,21 +994,45 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 
 		lastOutputNodeType = NodeType.ELEMENT_NODE;
 
+		ContentState state = pushContentState(element);
+		state.previouslyDeclaredNamespaces = previouslyDeclaredNamespaces;
+		state.empty = size <= 0;
+		state.textOnly = textOnly;
+
 		if (size <= 0) {
-			writeEmptyElementClose(qualifiedName);
-		} else {
-			writer.write(">");
+			writeEmptyElementClose(element.getQualifiedName());
 
-			if (textOnly) {
-				// we have at least one text node so lets assume
-				// that its non-empty
-				writeElementContent(element);
-			} else {
-				// we know it's not null or empty from above
-				++indentLevel;
+			return false;
+		}
+
+		writer.write(">");
+
+		if (!textOnly) {
+			// we know it's not null or empty from above
+			++indentLevel;
+		}
+
+		startContent(state);
 
-				writeElementContent(element);
+		return true;
+	}
 
+	/**
+	 * Writes the end tag of an element whose start tag was written by
+	 * {@link #writeElementStart(Element)}, unless the element had no content,
+	 * and removes the namespaces it declared.
+	 *
+	 * @param element the element being written
+	 * @throws IOException if the element could not be written
+	 * @since 2.0
+	 */
+	protected void writeElementEnd(Element element) throws IOException {
+		ContentState state = contentStates.get(contentDepth - 1);
+
+		if (!state.empty) {
+			endContent(state);
+
+			if (!state.textOnly) {
 				--indentLevel;
 
 				writePrintln();
@@ -925,16 +1040,18 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 			}
 
 			writer.write("</");
-			writer.write(qualifiedName);
+			writeQName(element.getQName());
 			writer.write(">");
 		}
 
 		// remove declared namespaceStack from stack
-		while (namespaceStack.size() > previouslyDeclaredNamespaces) {
+		while (namespaceStack.size() > state.previouslyDeclaredNamespaces) {
 			namespaceStack.pop();
 		}
 
 		lastOutputNodeType = NodeType.ELEMENT_NODE;
+
+		popContentState();
 	}
 
 	/**
@@ -965,97 +1082,100 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 	 * enabled then all adjacent text nodes are appended together before the
 	 * whitespace trimming occurs to avoid problems with multiple text nodes
 	 * being created due to text content that spans parser buffers in a SAX
-	 * parser.
+	 * parser. Child elements are written through {@link #writeNode(Node)}.
+	 * This method is only called if a subclass overrides it,
+	 * {@link #writeElement(Element)} or {@link #writeNode(Node)}.
 	 *
-	 * @param element DOCUMENT ME!
-	 * @throws IOException DOCUMENT ME!
+	 * @param element the element whose content to write
+	 * @throws IOException if the content could not be written
 	 */
 	protected void writeElementContent(Element element) throws IOException {
-		boolean trim = format.isTrimText();
-		boolean oldPreserve = preserve;
-
-		if (trim) { // verify we have to before more expensive test
-			preserve = isElementSpacePreserved(element);
-			trim = !preserve;
-		}
+		ContentState state = pushContentState(element);
 
-		if (trim) {
-			// concatenate adjacent text nodes together
-			// so that whitespace trimming works properly
-			Text lastTextNode = null;
-			StringBuffer buff = null;
-			boolean textOnly = true;
+		try {
+			startContent(state);
 
 			for (int i = 0, size = element.nodeCount(); i < size; i++) {
 				Node node = element.node(i);
 
-				if (node instanceof Text) {
-					if (lastTextNode == null) {
-						lastTextNode = (Text) node;
-					} else {
-						if (buff == null) {
-							buff = new StringBuffer(lastTextNode.getText());
-						}
+				writeContentNode(state, node);
 
-						buff.append(((Text) node).getText());
-					}
-				} else {
-					if (!textOnly && format.isPadText()) {
-						// only add the PAD_TEXT if the text itself starts with
-						// whitespace
-						char firstChar = 'a';
-						if (buff != null) {
-							firstChar = buff.charAt(0);
-						} else if (lastTextNode != null) {
-							firstChar = lastTextNode.getText().charAt(0);
-						}
+				if (node.getNodeTypeEnum() == NodeType.ELEMENT_NODE) {
+					writeNode(node);
+				}
+			}
 
-						if (Character.isWhitespace(firstChar)) {
-							writer.write(PAD_TEXT);
-						}
-					}
+			endContent(state);
+		} finally {
+			popContentState();
+		}
+	}
 
-					if (lastTextNode != null) {
-						if (buff != null) {
-							writeString(buff.toString());
-							buff = null;
-						} else {
-							writeString(lastTextNode.getText());
-						}
+	private ContentState pushContentState(Element element) {
+		if (contentDepth == contentStates.size()) {
+			contentStates.add(new ContentState());
+		}
 
-						if (format.isPadText()) {
-							// only add the PAD_TEXT if the text itself ends
-							// with whitespace
-							char lastTextChar = 'a';
-							if (buff != null) {
-								lastTextChar = buff.charAt(buff.length() - 1);
-							} else if (lastTextNode != null) {
-								String txt = lastTextNode.getText();
-								lastTextChar = txt.charAt(txt.length() - 1);
-							}
-
-							if (Character.isWhitespace(lastTextChar)) {
-								writer.write(PAD_TEXT);
-							}
-						}
+		ContentState state = contentStates.get(contentDepth++);
+		state.element = element;
+
+		return state;
+	}
+
+	private void popContentState() {
+		ContentState state = contentStates.get(--contentDepth);
+		state.element = null;
+		state.lastTextNode = null;
+		state.buff = null;
+	}
+
+	private void startContent(ContentState state) {
+		boolean trim = format.isTrimText();
+		state.oldPreserve = preserve;
+
+		if (trim) { // verify we have to before more expensive test
+			preserve = isElementSpacePreserved(state.element);
+			trim = !preserve;
+		}
+
+		state.trim = trim;
+		state.contentTextOnly = true;
+		state.lastTextNode = null;
+		state.buff = null;
+	}
 
-						lastTextNode = null;
+	/**
+	 * Writes a node of the content of an element, other than an element
+	 * itself, for which only the text before it is written.
+	 */
+	private void writeContentNode(ContentState state, Node node)
+			throws IOException {
+		boolean text = node.getNodeTypeEnum() == NodeType.TEXT_NODE;
+		boolean element = node.getNodeTypeEnum() == NodeType.ELEMENT_NODE;
+
+		if (state.trim) {
+			// concatenate adjacent text nodes together
+			// so that whitespace trimming works properly
+			if (text) {
+				if (state.lastTextNode == null) {
+					state.lastTextNode = node;
+				} else {
+					if (state.buff == null) {
+						state.buff = new StringBuffer(state.lastTextNode
+								.getText());
 					}
 
-					textOnly = false;
-					writeNode(node);
+					state.buff.append(node.getText());
 				}
-			}
-
-			if (lastTextNode != null) {
-				if (!textOnly && format.isPadText()) {
+			} else {
+				if (!state.contentTextOnly && format.isPadText()) {
 					// only add the PAD_TEXT if the text itself starts with
 					// whitespace
 					char firstChar = 'a';
-					if (buff != null) {
-						firstChar = buff.charAt(0);
-					} else {
-						firstChar = lastTextNode.getText().charAt(0);
+					if (state.buff != null) {
+						firstChar = state.buff.charAt(0);
+					} else if (state.lastTextNode != null) {
+						firstChar = state.lastTextNode.getText().charAt(0);
 					}
 
 					if (Character.isWhitespace(firstChar)) {
@@ -1063,29 +1183,18 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 					}
 				}
 
-				if (buff != null) {
-					writeString(buff.toString());
-					buff = null;
-				} else {
-					writeString(lastTextNode.getText());
-				}
-
-				lastTextNode = null;
-			}
-		} else {
-			Node lastTextNode = null;
-
-			for (int i = 0, size = element.nodeCount(); i < size; i++) {
-				Node node = element.node(i);
+				if (state.lastTextNode != null) {
+					if (state.buff != null) {
+						writeString(state.buff.toString());
+						state.buff = null;
+					} else {
+						writeString(state.lastTextNode.getText());
+					}
 
-				if (node instanceof Text) {
-					writeNode(node);
-					lastTextNode = node;
-				} else {
-					if ((lastTextNode != null) && format.isPadText()) {
-						// only add the PAD_TEXT if the text itself ends with
-						// whitespace
-						String txt = lastTextNode.getText();
+					if (format.isPadText()) {
+						// only add the PAD_TEXT if the text itself ends
+						// with whitespace
+						String txt = state.lastTextNode.getText();
 						char lastTextChar = txt.charAt(txt.length() - 1);
 
 						if (Character.isWhitespace(lastTextChar)) {
@@ -1093,18 +1202,71 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 						}
 					}
 
+					state.lastTextNode = null;
+				}
+
+				state.contentTextOnly = false;
+
+				if (!element) {
+					writeNode(node);
+				}
+			}
+		} else {
+			if (text) {
+				writeNode(node);
+				state.lastTextNode = node;
+			} else {
+				if ((state.lastTextNode != null) && format.isPadText()) {
+					// only add the PAD_TEXT if the text itself ends with
+					// whitespace
+					String txt = state.lastTextNode.getText();
+					char lastTextChar = txt.charAt(txt.length() - 1);
+
+					if (Character.isWhitespace(lastTextChar)) {
+						writer.write(PAD_TEXT);
+					}
+				}
+
+				state.lastTextNode = null;
+
+				if (!element) {
 					writeNode(node);
+				}
+			}
+		}
+	}
 
-					// if ((lastTextNode != null) && format.isPadText()) {
-					// writer.write(PAD_TEXT);
-					// }
+	/**
+	 * Writes the text left at the end of the content of an element.
+	 */
+	private void endContent(ContentState state) throws IOException {
+		if (state.trim && (state.lastTextNode != null)) {
+			if (!state.contentTextOnly && format.isPadText()) {
+				// only add the PAD_TEXT if the text itself starts with
+				// whitespace
+				char firstChar = 'a';
+				if (state.buff != null) {
+					firstChar = state.buff.charAt(0);
+				} else {
+					firstChar = state.lastTextNode.getText().charAt(0);
+				}
 
-					lastTextNode = null;
+				if (Character.isWhitespace(firstChar)) {
+					writer.write(PAD_TEXT);
 				}
 			}
+
+			if (state.buff != null) {
+				writeString(state.buff.toString());
+				state.buff = null;
+			} else {
+				writeString(state.lastTextNode.getText());
+			}
+
+			state.lastTextNode = null;
 		}
 
-		preserve = oldPreserve;
+		preserve = state.oldPreserve;
 	}
 
 	protected void writeCDATA(String text) throws IOException {
@@ -1430,7 +1592,7 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 			} else {
 				char quote = format.getAttributeQuoteCharacter();
 				writer.write(" ");
-				writer.write(attribute.getQualifiedName());
+				writeQName(attribute.getQName());
 				writer.write("=");
 				writer.write(quote);
 				writeEscapeAttributeEntities(attribute.getValue());
@@ -1441,7 +1603,7 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 
 	protected void writeAttribute(Attribute attribute) throws IOException {
 		writer.write(" ");
-		writer.write(attribute.getQualifiedName());
+		writeQName(attribute.getQName());
 		writer.write("=");
 
 		char quote = format.getAttributeQuoteCharacter();
@@ -1544,6 +1706,19 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 		}
 	}
 
+	/**
+	 * Writes the qualified name of an element or attribute. Subclasses that
+	 * write to a byte stream may override this to reuse an encoded form of
+	 * the name.
+	 *
+	 * @param qName the name to write
+	 * @throws IOException if the name could not be written
+	 * @since 2.0
+	 */
+	protected void writeQName(QName qName) throws IOException {
+		writer.write(qName.getQualifiedName());
+	}
+
 	protected void writeClose(String qualifiedName) throws IOException {
 		writer.write("</");
 		writer.write(qualifiedName);
@@ -1818,6 +1993,13 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 		return format;
 	}
 
+	/**
+	 * Returns the namespaces declared by the elements currently being written.
+	 */
+	NamespaceStack getNamespaceStack() {
+		return namespaceStack;
+	}
+
 	public boolean resolveEntityRefs() {
 		return resolveEntityRefs;
 	}
@@ -1825,6 +2007,62 @@ public class XMLWriter extends XMLFilterImpl implements LexicalHandler {
 	public void setResolveEntityRefs(boolean resolve) {
 		this.resolveEntityRefs = resolve;
 	}
+
+	/**
+	 * Writes the elements walked through the hooks of the writer.
+	 */
+	private class ElementWriter extends TreeWalker<IOException> {
+		@Override
+		protected boolean enterElement(Element element) throws IOException {
+			if (getDepth() > 0) {
+				writeContentNode(contentStates.get(contentDepth - 1), element);
+			}
+
+			return writeElementStart(element);
+		}
+
+		@Override
+		protected void leaveElement(Element element) throws IOException {
+			writeElementEnd(element);
+		}
+
+		@Override
+		protected void visit(Node node) throws IOException {
+			writeContentNode(contentStates.get(contentDepth - 1), node);
+		}
+	}
+
+	/**
+	 * The state of an element while its content is written.
+	 */
+	private static class ContentState {
+		private Element element;
+
+		private int previouslyDeclaredNamespaces;
+
+		/**
+		 * Whether the element has no content
+		 */
+		private boolean empty;
+
+		/**
+		 * Whether the element has no element or comment children
+		 */
+		private boolean textOnly;
+
+		private boolean oldPreserve;
+
+		private boolean trim;
+
+		/**
+		 * Whether only text has been written from the content so far
+		 */
+		private boolean contentTextOnly;
+
+		private Node lastTextNode;
+
+		private StringBuffer buff;
+	}
 }
 
 /*
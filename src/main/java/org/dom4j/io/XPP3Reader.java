@@ -266,7 +266,8 @@ public class XPP3Reader {
 	 * Adds the <code>ElementHandler</code> to be called when the specified
 	 * path is encounted.
 	 *
-	 * @param path    is the path to be handled
+	 * @param path    is the path to be handled, which may use <code>*</code>
+	 *                and <code>//</code> steps
 	 * @param handler is the <code>ElementHandler</code> to be called by the event
 	 *                based processor.
 	 */
@@ -304,9 +305,14 @@ public class XPP3Reader {
 		DocumentFactory df = getDocumentFactory();
 		Document document = df.createDocument();
 		Element parent = null;
+		ElementStack elementStack = new ElementStack();
 		XmlPullParser pp = getXPPParser();
 		pp.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
 
+		if (dispatchHandler != null) {
+			elementStack.setDispatchHandler(dispatchHandler);
+		}
+
 		while (true) {
 			int type = pp.nextToken();
 
@@ -385,15 +391,25 @@ public class XPP3Reader {
 					}
 
 					parent = newElement;
+					elementStack.pushElement(newElement);
+
+					if (dispatchHandler != null) {
+						dispatchHandler.onStart(elementStack);
+					}
 
 					break;
 				}
 
 				case XmlPullParser.END_TAG: {
-					if (parent != null) {
-						parent = parent.getParent();
+					if ((dispatchHandler != null) && (parent != null)) {
+						dispatchHandler.onEnd(elementStack);
 					}
 
+					// handlers may have detached the element, so the parent
+					// is taken from the stack
+					elementStack.popElement();
+					parent = elementStack.peekElement();
+
 					break;
 				}
 
@@ -0,0 +1,574 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io.aelfred2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.Document;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A {@link SAXDriver} which builds a dom4j document straight from the
+ * callbacks of the &AElfred; parser, without going through the SAX
+ * interfaces and <code>org.dom4j.io.SAXContentHandler</code>. The element
+ * and attribute names, which the parser interns, are mapped to their
+ * <code>QName</code>s by identity, so names are only split and resolved
+ * against the namespaces in scope the first time they occur, and again after
+ * a namespace declaration changes the meaning of a prefix. Attributes are
+ * added to the elements as they are read instead of being collected into a
+ * SAX <code>Attributes</code> list first.
+ * <p>
+ * The documents built are the same as those of a
+ * <code>org.dom4j.io.SAXReader</code> with the same settings, except that
+ * DTD declarations are not included. The content and lexical handlers set on
+ * this driver are not called. Validity errors, such as undeclared namespace
+ * prefixes, are fatal unless another error handler is set.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class DocumentDriver extends SAXDriver {
+	private final DocumentFactory documentFactory;
+
+	private boolean mergeAdjacentText;
+
+	private boolean stripWhitespaceText;
+
+	private boolean ignoreComments;
+
+	private Document document;
+
+	private String systemId;
+
+	/**
+	 * The open elements
+	 */
+	private Element[] elements = new Element[32];
+
+	private int depth;
+
+	/**
+	 * The prefixes and namespaces in scope, in the order of their
+	 * declaration
+	 */
+	private String[] prefixes = new String[16];
+
+	private Namespace[] namespaces = new Namespace[16];
+
+	private int namespaceCount;
+
+	/**
+	 * The number of namespaces in scope at the start of each open element
+	 */
+	private int[] namespaceMarks = new int[32];
+
+	/**
+	 * The number of namespaces in scope before the namespaces declared by
+	 * the element whose attributes are being read
+	 */
+	private int namespaceMark;
+
+	private String[] attributeNames = new String[8];
+
+	private String[] attributeValues = new String[8];
+
+	private int attributeCount;
+
+	private boolean readingAttributes;
+
+	private final Map<String, QName> elementQNames = new IdentityHashMap<String, QName>();
+
+	private final Map<String, QName> attributeQNames = new IdentityHashMap<String, QName>();
+
+	private final Namespace noNamespace;
+
+	private String entity;
+
+	private boolean insideDTDSection;
+
+	private boolean insideCDATASection;
+
+	private final StringBuilder cdataText = new StringBuilder();
+
+	private final StringBuilder textBuffer = new StringBuilder();
+
+	public DocumentDriver() {
+		this(DefaultDocumentFactory.getInstance());
+	}
+
+	public DocumentDriver(DocumentFactory documentFactory) {
+		this.documentFactory = documentFactory;
+		this.noNamespace = documentFactory.createNamespace("", "");
+		setErrorHandler(new StrictErrorHandler());
+	}
+
+	public DocumentFactory getDocumentFactory() {
+		return documentFactory;
+	}
+
+	public boolean isMergeAdjacentText() {
+		return mergeAdjacentText;
+	}
+
+	/**
+	 * Sets whether adjacent text nodes are merged into one.
+	 *
+	 * @param mergeAdjacentText whether text should be merged
+	 * @see org.dom4j.io.SAXReader#setMergeAdjacentText(boolean)
+	 */
+	public void setMergeAdjacentText(boolean mergeAdjacentText) {
+		this.mergeAdjacentText = mergeAdjacentText;
+	}
+
+	public boolean isStripWhitespaceText() {
+		return stripWhitespaceText;
+	}
+
+	/**
+	 * Sets whether merged text made of whitespace only is dropped.
+	 *
+	 * @param stripWhitespaceText whether whitespace should be stripped
+	 * @see org.dom4j.io.SAXReader#setStripWhitespaceText(boolean)
+	 */
+	public void setStripWhitespaceText(boolean stripWhitespaceText) {
+		this.stripWhitespaceText = stripWhitespaceText;
+	}
+
+	public boolean isIgnoreComments() {
+		return ignoreComments;
+	}
+
+	public void setIgnoreComments(boolean ignoreComments) {
+		this.ignoreComments = ignoreComments;
+	}
+
+	/**
+	 * Reads a document.
+	 *
+	 * @param source the document to read
+	 * @return the document
+	 * @throws SAXException if the document is not well formed
+	 * @throws IOException if the document cannot be read
+	 */
+	public Document read(InputSource source) throws SAXException, IOException {
+		systemId = source.getSystemId();
+
+		try {
+			parse(source);
+
+			return getDocument();
+		} finally {
+			systemId = null;
+		}
+	}
+
+	/**
+	 * Returns the document that has been or is being built.
+	 *
+	 * @return the document
+	 */
+	public Document getDocument() {
+		if (document == null) {
+			document = documentFactory.createDocument((String) null);
+
+			if (systemId != null) {
+				document.setName(systemId);
+			}
+		}
+
+		return document;
+	}
+
+	// Callbacks of the parser
+	// -------------------------------------------------------------------------
+
+	@Override
+	void startDocument() throws SAXException {
+		super.startDocument();
+		document = null;
+		Arrays.fill(elements, 0, depth, null);
+		depth = 0;
+		namespaceCount = 0;
+		attributeCount = 0;
+		readingAttributes = false;
+		elementQNames.clear();
+		attributeQNames.clear();
+		entity = null;
+		insideDTDSection = false;
+		insideCDATASection = false;
+		textBuffer.setLength(0);
+		declareNamespace("xml", Namespace.XML_NAMESPACE.getURI());
+	}
+
+	@Override
+	void doctypeDecl(String name, String publicId, String systemId)
+			throws SAXException {
+		getDocument().addDocType(name, publicId, systemId);
+		insideDTDSection = true;
+	}
+
+	@Override
+	void endDoctype() throws SAXException {
+		insideDTDSection = false;
+	}
+
+	@Override
+	void attribute(String qname, String value, boolean isSpecified)
+			throws SAXException {
+		if (!readingAttributes) {
+			readingAttributes = true;
+			namespaceMark = namespaceCount;
+		}
+
+		if (qname.startsWith("xmlns")) {
+			if (qname.length() == 5) {
+				declareNamespace("", value);
+				return;
+			} else if (qname.charAt(5) == ':') {
+				if (value.length() == 0) {
+					verror("missing URI in namespace decl attribute: " + qname);
+				} else {
+					declareNamespace(qname.substring(6), value);
+				}
+
+				return;
+			}
+		}
+
+		if (attributeCount == attributeNames.length) {
+			attributeNames = Arrays.copyOf(attributeNames, attributeCount * 2);
+			attributeValues = Arrays.copyOf(attributeValues, attributeCount * 2);
+		}
+
+		attributeNames[attributeCount] = qname;
+		attributeValues[attributeCount] = value;
+		attributeCount++;
+	}
+
+	@Override
+	void startElement(String elname) throws SAXException {
+		completeCurrentTextNode();
+
+		if (!readingAttributes) {
+			namespaceMark = namespaceCount;
+		}
+
+		QName qName = elementQNames.get(elname);
+
+		if (qName == null) {
+			qName = createQName(elname, true);
+			elementQNames.put(elname, qName);
+		}
+
+		Element element = documentFactory.createElement(qName);
+
+		if (depth == 0) {
+			getDocument().add(element);
+		} else {
+			elements[depth - 1].add(element);
+		}
+
+		for (int i = namespaceMark; i < namespaceCount; i++) {
+			element.add(namespaces[i]);
+		}
+
+		for (int i = 0; i < attributeCount; i++) {
+			String name = attributeNames[i];
+			QName attributeQName = attributeQNames.get(name);
+
+			if (attributeQName == null) {
+				attributeQName = createQName(name, false);
+				attributeQNames.put(name, attributeQName);
+			}
+
+			element.add(documentFactory.createAttribute(element, attributeQName,
+					attributeValues[i]));
+			attributeNames[i] = null;
+			attributeValues[i] = null;
+		}
+
+		attributeCount = 0;
+		readingAttributes = false;
+
+		if (depth == elements.length) {
+			elements = Arrays.copyOf(elements, depth * 2);
+			namespaceMarks = Arrays.copyOf(namespaceMarks, depth * 2);
+		}
+
+		elements[depth] = element;
+		namespaceMarks[depth] = namespaceMark;
+		depth++;
+		entity = null;
+	}
+
+	@Override
+	void endElement(String elname) throws SAXException {
+		completeCurrentTextNode();
+
+		depth--;
+		elements[depth] = null;
+
+		int mark = namespaceMarks[depth];
+
+		while (namespaceCount > mark) {
+			namespaceCount--;
+			String prefix = prefixes[namespaceCount];
+			Namespace namespace = namespaces[namespaceCount];
+			prefixes[namespaceCount] = null;
+			namespaces[namespaceCount] = null;
+
+			if (getNamespace(prefix) != namespace) {
+				namespacesChanged();
+			}
+		}
+	}
+
+	@Override
+	void charData(char[] ch, int start, int length) throws SAXException {
+		if (length == 0 || depth == 0) {
+			return;
+		}
+
+		Element element = elements[depth - 1];
+
+		if (entity != null) {
+			completeCurrentTextNode();
+			element.addEntity(entity, new String(ch, start, length));
+			entity = null;
+		} else if (insideCDATASection) {
+			completeCurrentTextNode();
+			cdataText.append(ch, start, length);
+		} else if (mergeAdjacentText) {
+			textBuffer.append(ch, start, length);
+		} else {
+			element.addText(new String(ch, start, length));
+		}
+	}
+
+	@Override
+	void ignorableWhitespace(char[] ch, int start, int length)
+			throws SAXException {
+		// dropped, as by SAXContentHandler
+	}
+
+	@Override
+	void startCDATA() throws SAXException {
+		insideCDATASection = true;
+		cdataText.setLength(0);
+	}
+
+	@Override
+	void endCDATA() throws SAXException {
+		insideCDATASection = false;
+		elements[depth - 1].addCDATA(cdataText.toString());
+	}
+
+	@Override
+	void processingInstruction(String target, String data) throws SAXException {
+		completeCurrentTextNode();
+
+		if (depth > 0) {
+			elements[depth - 1].addProcessingInstruction(target, data);
+		} else {
+			getDocument().addProcessingInstruction(target, data);
+		}
+	}
+
+	@Override
+	void comment(char[] ch, int start, int length) throws SAXException {
+		if (ignoreComments) {
+			return;
+		}
+
+		completeCurrentTextNode();
+
+		if (!insideDTDSection && length > 0) {
+			String text = new String(ch, start, length);
+
+			if (depth > 0) {
+				elements[depth - 1].addComment(text);
+			} else {
+				getDocument().addComment(text);
+			}
+		}
+	}
+
+	@Override
+	void startExternalEntity(String name, String systemId, boolean stackOnly)
+			throws SAXException {
+		super.startExternalEntity(name, systemId, stackOnly);
+
+		if (!stackOnly) {
+			startEntity(name);
+		}
+	}
+
+	@Override
+	void endExternalEntity(String name) throws SAXException {
+		super.endExternalEntity(name);
+		entity = null;
+	}
+
+	@Override
+	void startInternalEntity(String name) throws SAXException {
+		super.startInternalEntity(name);
+		startEntity(name);
+	}
+
+	@Override
+	void endInternalEntity(String name) throws SAXException {
+		super.endInternalEntity(name);
+		entity = null;
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	private void startEntity(String name) {
+		entity = null;
+
+		if (!insideDTDSection && !"amp".equals(name) && !"apos".equals(name)
+				&& !"gt".equals(name) && !"lt".equals(name)
+				&& !"quot".equals(name)) {
+			entity = name;
+		}
+	}
+
+	private void completeCurrentTextNode() {
+		int length = textBuffer.length();
+
+		if (length == 0) {
+			return;
+		}
+
+		String text = textBuffer.toString();
+		textBuffer.setLength(0);
+
+		if (stripWhitespaceText && text.trim().length() == 0) {
+			return;
+		}
+
+		elements[depth - 1].addText(text);
+	}
+
+	private void declareNamespace(String prefix, String uri) {
+		Namespace namespace = documentFactory.createNamespace(prefix, uri);
+
+		if (getNamespace(prefix) != namespace) {
+			namespacesChanged();
+		}
+
+		if (namespaceCount == namespaces.length) {
+			prefixes = Arrays.copyOf(prefixes, namespaceCount * 2);
+			namespaces = Arrays.copyOf(namespaces, namespaceCount * 2);
+		}
+
+		prefixes[namespaceCount] = prefix;
+		namespaces[namespaceCount] = namespace;
+		namespaceCount++;
+	}
+
+	/**
+	 * Returns the namespace the given prefix is bound to or null.
+	 */
+	private Namespace getNamespace(String prefix) {
+		for (int i = namespaceCount - 1; i >= 0; i--) {
+			if (prefix.equals(prefixes[i])) {
+				return namespaces[i];
+			}
+		}
+
+		return (prefix.length() == 0) ? noNamespace : null;
+	}
+
+	/**
+	 * Forgets the names resolved so far, as a prefix has been bound to
+	 * another namespace.
+	 */
+	private void namespacesChanged() {
+		elementQNames.clear();
+		attributeQNames.clear();
+	}
+
+	private QName createQName(String name, boolean element) throws SAXException {
+		int index = name.indexOf(':');
+
+		if (index < 0) {
+			Namespace namespace = element ? getNamespace("") : Namespace.NO_NAMESPACE;
+
+			return documentFactory.createQName(name, namespace);
+		}
+
+		Namespace namespace = getNamespace(name.substring(0, index));
+
+		if (namespace == null) {
+			fatal("undeclared " + (element ? "element" : "attribute")
+					+ " prefix in: " + name);
+		}
+
+		return documentFactory.createQName(name.substring(index + 1), namespace);
+	}
+
+	/**
+	 * Reports errors as fatal, as <code>SAXContentHandler</code> does.
+	 */
+	private static final class StrictErrorHandler extends DefaultHandler {
+		@Override
+		public void error(SAXParseException exception) throws SAXException {
+			throw exception;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -122,7 +122,7 @@ import org.xml.sax.helpers.NamespaceSupport;
  * @author Updated by David Brownell &lt;dbrownell@users.sourceforge.net&gt;
  * @see org.xml.sax.Parser
  */
-final public class SAXDriver
+public class SAXDriver
     implements Locator, Attributes2, XMLReader, Parser, AttributeList
 {
     private final DefaultHandler2	base = new DefaultHandler2 ();
@@ -8,16 +8,17 @@ package org.dom4j.rule;
 
 import org.dom4j.*;
 
-import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * <p>
- * <code>Mode</code> manages a number of RuleSet instances for the mode in a
- * stylesheet. It is responsible for finding the correct rule for a given DOM4J
- * Node using the XSLT processing model uses the smallest possible RuleSet to
- * reduce the number of Rule evaluations.
+ * <code>Mode</code> manages the rules for the mode in a stylesheet. It is
+ * responsible for finding the correct rule for a given DOM4J Node using the
+ * XSLT processing model. Rules are indexed by node type, node name and parent
+ * name so that only the few rules which could match a node are evaluated, and
+ * predicate free patterns such as <code>chapter/title</code> are not evaluated
+ * at all.
  * </p>
  *
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
@@ -25,15 +26,7 @@ import java.util.Map;
  */
 public class Mode {
 
-	private EnumMap<NodeType, RuleSet> ruleSets = new EnumMap<NodeType, RuleSet>(NodeType.class);
-	/**
-	 * Map of exact (local) element names to RuleSet instances
-	 */
-	private Map<String, RuleSet> elementNameRuleSets;
-	/**
-	 * Map of exact (local) attribute names to RuleSet instances
-	 */
-	private Map<String, RuleSet> attributeNameRuleSets;
+	private final RuleIndex ruleIndex = new RuleIndex();
 
 	public Mode() {
 	}
@@ -78,61 +71,11 @@ public class Mode {
 	}
 
 	public void addRule(Rule rule) {
-		NodeType matchType = rule.getMatchType();
-		String name = rule.getMatchesNodeName();
-
-		if (name != null) {
-			switch (matchType) {
-				case ELEMENT_NODE:
-					elementNameRuleSets = addToNameMap(elementNameRuleSets, name, rule);
-					break;
-				case ATTRIBUTE_NODE:
-					attributeNameRuleSets = addToNameMap(attributeNameRuleSets, name, rule);
-					break;
-			}
-		}
-
-		//TODO
-//		if (matchType >= Pattern.NUMBER_OF_TYPES) {
-//			matchType = Pattern.ANY_NODE;
-//		}
-		if (matchType == NodeType.ANY_NODE) {
-			// add rule to all other RuleSets if they exist
-			for (RuleSet ruleSet : this.ruleSets.values()) {
-				if (ruleSet != null) {
-					ruleSet.addRule(rule);
-				}
-			}
-		}
-
-		getRuleSet(matchType).addRule(rule);
+		ruleIndex.addRule(rule);
 	}
 
 	public void removeRule(Rule rule) {
-		NodeType matchType = rule.getMatchType();
-		String name = rule.getMatchesNodeName();
-
-		if (name != null) {
-			switch (matchType) {
-				case ELEMENT_NODE:
-					removeFromNameMap(elementNameRuleSets, name, rule);
-					break;
-				case ATTRIBUTE_NODE:
-					removeFromNameMap(attributeNameRuleSets, name, rule);
-					break;
-			}
-		}
-
-		//TODO
-//		if (matchType >= Pattern.NUMBER_OF_TYPES) {
-//			matchType = Pattern.ANY_NODE;
-//		}
-
-		getRuleSet(matchType).removeRule(rule);
-
-		if (matchType == NodeType.ANY_NODE) {
-			getRuleSet(NodeType.ANY_NODE).removeRule(rule);
-		}
+		ruleIndex.removeRule(rule);
 	}
 
 	/**
@@ -143,85 +86,29 @@ public class Mode {
 	 * @return the matching Rule or no rule if none matched
 	 */
 	public Rule getMatchingRule(Node node) {
-		NodeType matchType = node.getNodeTypeEnum();
-
-		switch (matchType) {
-			case ELEMENT_NODE:
-				if (elementNameRuleSets != null) {
-					String name = node.getName();
-					RuleSet ruleSet = elementNameRuleSets.get(name);
-
-					if (ruleSet != null) {
-						Rule answer = ruleSet.getMatchingRule(node);
-
-						if (answer != null) {
-							return answer;
-						}
-					}
-				}
-				break;
-			case ATTRIBUTE_NODE:
-				if (attributeNameRuleSets != null) {
-					String name = node.getName();
-					RuleSet ruleSet = attributeNameRuleSets.get(name);
-
-					if (ruleSet != null) {
-						Rule answer = ruleSet.getMatchingRule(node);
-
-						if (answer != null) {
-							return answer;
-						}
-					}
-				}
-				break;
-		}
-
-		//TODO
-//		if ((matchType < 0) || (matchType >= ruleSets.length)) {
-//			matchType = Pattern.ANY_NODE;
-//		}
-
-		Rule answer = null;
-		RuleSet ruleSet = ruleSets.get(matchType);
-
-		if (ruleSet != null) {
-			// try rules that match this kind of node first
-			answer = ruleSet.getMatchingRule(node);
-		}
-
-		if ((answer == null) && (matchType != NodeType.ANY_NODE)) {
-			// try general rules that match any kind of node
-			ruleSet = ruleSets.get(matchType);
-
-			if (ruleSet != null) {
-				answer = ruleSet.getMatchingRule(node);
-			}
-		}
-
-		return answer;
+		return ruleIndex.getMatchingRule(node);
 	}
 
 	/**
-	 * DOCUMENT ME!
+	 * Returns the rules of this mode which may match nodes of the given type.
 	 *
-	 * @param matchType DOCUMENT ME!
-	 * @return the RuleSet for the given matching type. This method will never
-	 *         return null, a new instance will be created.
+	 * @param matchType the type of node to be matched
+	 * @return a new RuleSet of the rules of this mode for the given matching
+	 *         type and of the rules matching any node
+	 * @deprecated the rules are no longer kept in a RuleSet per matching
+	 *             type, so changes to the returned RuleSet do not affect
+	 *             this mode; use {@link #getMatchingRule(Node)}
 	 */
+	@Deprecated
 	protected RuleSet getRuleSet(NodeType matchType) {
-		RuleSet ruleSet = ruleSets.get(matchType);
+		RuleSet ruleSet = new RuleSet();
 
-		if (ruleSet == null) {
-			ruleSet = new RuleSet();
-			ruleSets.put(matchType, ruleSet);
+		for (Rule rule : ruleIndex.getRules()) {
+			NodeType type = rule.getMatchType();
 
-			// add the patterns that match any node
-			if (matchType != NodeType.ANY_NODE) {
-				RuleSet allRules = ruleSets.get(matchType);
-
-				if (allRules != null) {
-					ruleSet.addAll(allRules);
-				}
+			if ((type == null) || (type == matchType)
+					|| (type == NodeType.ANY_NODE)) {
+				ruleSet.addRule(rule);
 			}
 		}
 
@@ -231,11 +118,14 @@ public class Mode {
 	/**
 	 * Adds the Rule to a RuleSet for the given name.
 	 *
-	 * @param map  DOCUMENT ME!
-	 * @param name DOCUMENT ME!
-	 * @param rule DOCUMENT ME!
-	 * @return the Map (which will be created if the given map was null
+	 * @param map  the map of RuleSets by name, may be null
+	 * @param name the name the rule matches
+	 * @param rule the rule to add
+	 * @return the Map (which will be created if the given map was null)
+	 * @deprecated this mode no longer keeps RuleSets by name, so this method
+	 *             only updates the given map
 	 */
+	@Deprecated
 	protected Map<String, RuleSet> addToNameMap(Map<String, RuleSet> map, String name, Rule rule) {
 		if (map == null) {
 			map = new HashMap<String, RuleSet>();
@@ -253,6 +143,16 @@ public class Mode {
 		return map;
 	}
 
+	/**
+	 * Removes the Rule from the RuleSet for the given name.
+	 *
+	 * @param map  the map of RuleSets by name, may be null
+	 * @param name the name the rule matches
+	 * @param rule the rule to remove
+	 * @deprecated this mode no longer keeps RuleSets by name, so this method
+	 *             only updates the given map
+	 */
+	@Deprecated
 	protected void removeFromNameMap(Map<String, RuleSet> map, String name, Rule rule) {
 		if (map != null) {
 			RuleSet ruleSet = map.get(name);
@@ -111,7 +111,7 @@ public class Rule implements Comparable {
 		int answer = this.importPrecedence - that.importPrecedence;
 
 		if (answer == 0) {
-			answer = (int) Math.round(this.priority - that.priority);
+			answer = Double.compare(this.priority, that.priority);
 
 			if (answer == 0) {
 				answer = this.appearenceCount - that.appearenceCount;
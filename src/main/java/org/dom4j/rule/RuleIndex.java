@@ -0,0 +1,350 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.rule;
+
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.NodeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * <code>RuleIndex</code> buckets the rules of a {@link Mode} by node type,
+ * node name and parent name so that only the rules which could possibly match
+ * a node are evaluated. For every combination of these seen the candidate
+ * rules are merged once, in XSLT conflict resolution order, and cut off after
+ * the first rule whose pattern is {@link IndexedPattern#isPredicateFree()
+ * predicate free}, since that rule always matches.
+ * </p>
+ *
+ * @since 2.0
+ */
+class RuleIndex {
+	private static final Candidates NO_CANDIDATES = new Candidates(
+			new Rule[0], null);
+
+	/**
+	 * All the rules in the order they were added
+	 */
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	/**
+	 * The lazily created index for each node type, null if the rules have
+	 * changed since it was created
+	 */
+	private Map<NodeType, TypeIndex> typeIndexes;
+
+	/**
+	 * The rules in descending precedence, null if the rules have changed
+	 */
+	private Entry[] entries;
+
+	public void addRule(Rule rule) {
+		rules.add(rule);
+		typeIndexes = null;
+		entries = null;
+	}
+
+	public void removeRule(Rule rule) {
+		rules.remove(rule);
+		typeIndexes = null;
+		entries = null;
+	}
+
+	/**
+	 * Returns the rules of this index.
+	 *
+	 * @return the unmodifiable list of the rules
+	 */
+	public List<Rule> getRules() {
+		return Collections.unmodifiableList(rules);
+	}
+
+	/**
+	 * Performs an XSLT processing model match for the rule which matches the
+	 * given Node the best.
+	 *
+	 * @param node is the DOM4J Node to match against
+	 * @return the matching Rule or no rule if none matched
+	 */
+	public Rule getMatchingRule(Node node) {
+		return getTypeIndex(node.getNodeTypeEnum()).getCandidates(node)
+				.getMatchingRule(node);
+	}
+
+	private TypeIndex getTypeIndex(NodeType nodeType) {
+		if (typeIndexes == null) {
+			typeIndexes = new EnumMap<NodeType, TypeIndex>(NodeType.class);
+		}
+
+		TypeIndex index = typeIndexes.get(nodeType);
+
+		if (index == null) {
+			index = new TypeIndex(nodeType, getEntries());
+			typeIndexes.put(nodeType, index);
+		}
+
+		return index;
+	}
+
+	private Entry[] getEntries() {
+		if (entries == null) {
+			Collections.sort(rules);
+
+			int size = rules.size();
+			entries = new Entry[size];
+
+			for (int i = 0; i < size; i++) {
+				entries[i] = new Entry(rules.get(size - 1 - i));
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * What the index knows about a single rule.
+	 */
+	private static final class Entry {
+		private final Rule rule;
+
+		private final NodeType matchType;
+
+		private final String name;
+
+		private final String parentName;
+
+		private final boolean predicateFree;
+
+		Entry(Rule rule) {
+			Pattern pattern = rule.getPattern();
+			NodeType type = pattern.getMatchType();
+			String nodeName = pattern.getMatchesNodeName();
+			boolean simple = false;
+
+			this.rule = rule;
+			this.matchType = (type != null) ? type : NodeType.ANY_NODE;
+
+			if (pattern instanceof IndexedPattern) {
+				IndexedPattern indexed = (IndexedPattern) pattern;
+				this.parentName = indexed.getMatchesParentName();
+				simple = indexed.isPredicateFree();
+			} else {
+				this.parentName = null;
+			}
+
+			if ((nodeName == null) || "*".equals(nodeName)) {
+				this.name = null;
+			} else if ((matchType == NodeType.ELEMENT_NODE)
+					|| (matchType == NodeType.ATTRIBUTE_NODE)) {
+				this.name = nodeName;
+			} else {
+				// only element and attribute rules are indexed by name
+				this.name = null;
+				simple = false;
+			}
+
+			this.predicateFree = simple;
+		}
+
+		boolean appliesTo(NodeType nodeType, String nodeName,
+				String parent) {
+			if ((matchType != nodeType) && (matchType != NodeType.ANY_NODE)) {
+				return false;
+			}
+
+			if ((name != null) && !name.equals(nodeName)) {
+				return false;
+			}
+
+			return (parentName == null) || parentName.equals(parent);
+		}
+	}
+
+	/**
+	 * The rules for a single node type, with the candidates for each node and
+	 * parent name seen so far.
+	 */
+	private static final class TypeIndex {
+		private final NodeType nodeType;
+
+		private final List<Entry> entries = new ArrayList<Entry>();
+
+		/**
+		 * The node names used by the rules of this type
+		 */
+		private final Set<String> names = new HashSet<String>();
+
+		/**
+		 * The parent names used by the rules of this type
+		 */
+		private final Set<String> parentNames = new HashSet<String>();
+
+		/**
+		 * Candidates keyed by node name and then parent name, where null
+		 * stands for any name no rule refers to
+		 */
+		private final Map<String, Map<String, Candidates>> candidates
+				= new HashMap<String, Map<String, Candidates>>();
+
+		TypeIndex(NodeType nodeType, Entry[] allEntries) {
+			this.nodeType = nodeType;
+
+			for (int i = 0; i < allEntries.length; i++) {
+				Entry entry = allEntries[i];
+
+				if ((entry.matchType == nodeType)
+						|| (entry.matchType == NodeType.ANY_NODE)) {
+					entries.add(entry);
+
+					if (entry.name != null) {
+						names.add(entry.name);
+					}
+
+					if (entry.parentName != null) {
+						parentNames.add(entry.parentName);
+					}
+				}
+			}
+		}
+
+		Candidates getCandidates(Node node) {
+			if (entries.isEmpty()) {
+				return NO_CANDIDATES;
+			}
+
+			String name = null;
+
+			if (!names.isEmpty()) {
+				name = node.getName();
+
+				if (!names.contains(name)) {
+					name = null;
+				}
+			}
+
+			String parentName = null;
+
+			if (!parentNames.isEmpty()) {
+				Element parent = node.getParent();
+
+				if ((parent != null) && parentNames.contains(parent.getName())) {
+					parentName = parent.getName();
+				}
+			}
+
+			Map<String, Candidates> byParent = candidates.get(name);
+
+			if (byParent == null) {
+				byParent = new HashMap<String, Candidates>();
+				candidates.put(name, byParent);
+			}
+
+			Candidates answer = byParent.get(parentName);
+
+			if (answer == null) {
+				answer = createCandidates(name, parentName);
+				byParent.put(parentName, answer);
+			}
+
+			return answer;
+		}
+
+		private Candidates createCandidates(String name, String parentName) {
+			List<Rule> list = new ArrayList<Rule>();
+
+			for (Entry entry : entries) {
+				if (entry.appliesTo(nodeType, name, parentName)) {
+					if (entry.predicateFree) {
+						return new Candidates(list.toArray(new Rule[list
+								.size()]), entry.rule);
+					}
+
+					list.add(entry.rule);
+				}
+			}
+
+			return new Candidates(list.toArray(new Rule[list.size()]), null);
+		}
+	}
+
+	/**
+	 * The rules which have to be tried, in order, for some node type, node
+	 * name and parent name.
+	 */
+	private static final class Candidates {
+		private final Rule[] rules;
+
+		/**
+		 * The predicate free rule which matches if none of the others do
+		 */
+		private final Rule fallback;
+
+		Candidates(Rule[] rules, Rule fallback) {
+			this.rules = rules;
+			this.fallback = fallback;
+		}
+
+		Rule getMatchingRule(Node node) {
+			for (int i = 0; i < rules.length; i++) {
+				Rule rule = rules[i];
+
+				if (rule.matches(node)) {
+					return rule;
+				}
+			}
+
+			return fallback;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -9,6 +9,7 @@ package org.dom4j.rule.pattern;
 
 import org.dom4j.Node;
 import org.dom4j.NodeType;
+import org.dom4j.rule.IndexedPattern;
 import org.dom4j.rule.Pattern;
 
 /**
@@ -20,7 +21,7 @@ import org.dom4j.rule.Pattern;
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
  * @version $Revision: 1.7 $
  */
-public class NodeTypePattern implements Pattern {
+public class NodeTypePattern implements IndexedPattern {
 	/**
 	 * A pattern which matches any Attribute node
 	 */
@@ -82,6 +83,15 @@ public class NodeTypePattern implements Pattern {
 	public String getMatchesNodeName() {
 		return null;
 	}
+
+	public String getMatchesParentName() {
+		return null;
+	}
+
+	public boolean isPredicateFree() {
+		// no node is of type ANY_NODE so such a pattern never matches
+		return nodeType != NodeType.ANY_NODE;
+	}
 }
 
 /*
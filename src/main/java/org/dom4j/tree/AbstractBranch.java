@@ -225,7 +225,6 @@ public abstract class AbstractBranch extends AbstractNode implements Branch {
 	}
 
 	public Element elementByID(String elementID) {
-		//TODO
 		for (int i = 0, size = nodeCount(); i < size; i++) {
 			Node node = node(i);
 
@@ -284,10 +283,7 @@ public abstract class AbstractBranch extends AbstractNode implements Branch {
 	 * @return the ID of the given <code>Element</code>
 	 */
 	protected String elementID(Element element) {
-		//TODO
-		// XXX: there will be other ways of finding the ID
-		// XXX: should probably have an IDResolver or something
-		return element.attributeValue("ID");
+		return IDResolver.DEFAULT.getID(element);
 	}
 
 	/**
@@ -305,7 +301,7 @@ public abstract class AbstractBranch extends AbstractNode implements Branch {
 	 * @return DOCUMENT ME!
 	 */
 	protected List<Node> createContentList() {
-		return new LazyList<Node>();
+		return new CompactList<Node>();
 	}
 
 	/**
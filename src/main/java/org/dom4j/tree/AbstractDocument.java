@@ -14,6 +14,9 @@ import org.dom4j.io.XMLWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,27 @@ public abstract class AbstractDocument extends AbstractBranch implements
 	 */
 	protected String encoding;
 
+	/**
+	 * Whether any document has created an index, so that as long as none has
+	 * the elements need not look up their document to update its indexes
+	 */
+	private static volatile boolean indexCreated;
+
+	/**
+	 * Decides which attributes hold the IDs of elements
+	 */
+	private IDResolver idResolver = IDResolver.DEFAULT;
+
+	/**
+	 * The lazily created index of the IDs of the elements of this document
+	 */
+	private IDIndex idIndex;
+
+	/**
+	 * The secondary indexes declared on this document or null if none
+	 */
+	private List<ElementIndex<?>> indexes;
+
 	public AbstractDocument() {
 	}
 
@@ -228,18 +252,310 @@ public abstract class AbstractDocument extends AbstractBranch implements
 		return this;
 	}
 
+	/**
+	 * Returns the element with the given ID. The IDs of all the elements of
+	 * this document are indexed on the first call and the index is then kept
+	 * up to date as the document changes, so that lookups do not scan the
+	 * document.
+	 *
+	 * @param elementID the ID to look up
+	 * @return the first element in document order with the given ID or null
+	 * @see #setIDResolver(IDResolver)
+	 */
+	@Override
+	public Element elementByID(String elementID) {
+		if ((idIndex == null) || !idIndex.isOrdered(elementID)) {
+			// the first of several elements with the same ID is wanted
+			indexCreated = true;
+			idIndex = new IDIndex(this, idResolver);
+			idIndex.build(this);
+		}
+
+		return idIndex.getFirst(elementID);
+	}
+
+	/**
+	 * Returns the resolver deciding which attributes hold the IDs of elements.
+	 *
+	 * @return the resolver deciding which attributes hold the IDs of elements
+	 */
+	public IDResolver getIDResolver() {
+		return idResolver;
+	}
+
+	/**
+	 * Sets the resolver deciding which attributes hold the IDs of elements,
+	 * which defaults to {@link IDResolver#DEFAULT}.
+	 *
+	 * @param idResolver the resolver to use, or null for the default one
+	 */
+	public void setIDResolver(IDResolver idResolver) {
+		this.idResolver = (idResolver != null) ? idResolver
+				: IDResolver.DEFAULT;
+		idIndex = null;
+	}
+
+	/**
+	 * Maps the IDs of the elements of this document, as decided by the ID
+	 * resolver, to the first element in document order with each ID. Unlike
+	 * the index used by {@link #elementByID(String)} the map is not kept up
+	 * to date, so it suits documents which cannot change.
+	 *
+	 * @return a new map of the IDs of the elements
+	 */
+	protected Map<String, Element> createIDMap() {
+		IDIndex index = new IDIndex(this, idResolver);
+		index.build(this);
+
+		Map<String, Element> answer = new HashMap<String, Element>();
+
+		for (String elementID : index.keySet()) {
+			answer.put(elementID, index.getFirst(elementID));
+		}
+
+		index.release();
+
+		return answer;
+	}
+
+	/**
+	 * Declares a secondary index on the elements of this document. The index
+	 * is built from the current content and is then kept up to date until it
+	 * is removed.
+	 *
+	 * @param index is the index to maintain
+	 * @throws IllegalArgumentException if the index belongs to another
+	 *                                  document
+	 */
+	public void addIndex(ElementIndex<?> index) {
+		AbstractDocument owner = index.getDocument();
+
+		if ((owner != null) && (owner != this)) {
+			throw new IllegalArgumentException(
+					"The index is already maintained by another document");
+		}
+
+		if (indexes == null) {
+			indexCreated = true;
+			indexes = new ArrayList<ElementIndex<?>>();
+		}
+
+		if (owner == null) {
+			indexes.add(index);
+		}
+
+		index.build(this);
+	}
+
+	/**
+	 * Stops maintaining the given index, which is emptied.
+	 *
+	 * @param index the index to stop maintaining
+	 * @return true if the index was maintained by this document
+	 */
+	public boolean removeIndex(ElementIndex<?> index) {
+		if ((indexes != null) && indexes.remove(index)) {
+			index.release();
+
+			if (indexes.isEmpty()) {
+				indexes = null;
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the indexes which this document keeps up to date, not counting
+	 * the index of IDs.
+	 *
+	 * @return the unmodifiable list of the indexes declared on this document
+	 */
+	public List<ElementIndex<?>> getIndexes() {
+		if (indexes == null) {
+			return Collections.emptyList();
+		}
+
+		return Collections.unmodifiableList(indexes);
+	}
+
+	/**
+	 * Returns the index declared on the attribute with the given name and no
+	 * namespace.
+	 *
+	 * @param attributeName the local name of the attribute
+	 * @return the first index declared on the values of the attribute or null
+	 *         if there is none
+	 */
+	public AttributeIndex getAttributeIndex(String attributeName) {
+		return getAttributeIndex(attributeName, "");
+	}
+
+	/**
+	 * Returns the index declared on the attribute with the given QName.
+	 *
+	 * @param attributeQName the QName of the attribute
+	 * @return the first index declared on the values of the attribute or null
+	 *         if there is none
+	 */
+	public AttributeIndex getAttributeIndex(QName attributeQName) {
+		return getAttributeIndex(attributeQName.getName(), attributeQName
+				.getNamespaceURI());
+	}
+
+	/**
+	 * Returns the index declared on the attribute with the given local name
+	 * and namespace URI.
+	 *
+	 * @param localName    the local name of the attribute
+	 * @param namespaceURI the namespace URI of the attribute, which is empty
+	 *                     for no namespace
+	 * @return the first index declared on the values of the attribute or null
+	 *         if there is none
+	 */
+	public AttributeIndex getAttributeIndex(String localName,
+			String namespaceURI) {
+		if (indexes != null) {
+			for (ElementIndex<?> index : indexes) {
+				if (index instanceof AttributeIndex) {
+					QName qName = ((AttributeIndex) index).getAttributeQName();
+
+					if (qName.getName().equals(localName)
+							&& qName.getNamespaceURI().equals(namespaceURI)) {
+						return (AttributeIndex) index;
+					}
+				}
+			}
+		}
+
+		return null;
+	}
+
 	protected void childAdded(Node node) {
 		if (node != null) {
 			node.setDocument(this);
+
+			if (node.getNodeTypeEnum() == NodeType.ELEMENT_NODE) {
+				elementAdded((Element) node);
+			}
 		}
 	}
 
 	protected void childRemoved(Node node) {
 		if (node != null) {
+			if (node.getNodeTypeEnum() == NodeType.ELEMENT_NODE) {
+				elementRemoved((Element) node);
+			}
+
 			node.setDocument(null);
 		}
 	}
 
+	@Override
+	protected String elementID(Element element) {
+		return idResolver.getID(element);
+	}
+
+	/**
+	 * Returns whether changes to this document need to be passed on to any
+	 * index.
+	 *
+	 * @return true if this document has indexes to keep up to date
+	 */
+	boolean isIndexed() {
+		return (idIndex != null) || (indexes != null);
+	}
+
+	/**
+	 * Returns whether any document may have indexes. Until one has been
+	 * created, changes to elements need not look for an indexed document.
+	 *
+	 * @return false if no document has created an index yet
+	 */
+	static boolean isIndexCreated() {
+		return indexCreated;
+	}
+
+	/**
+	 * Indexes an element, and its descendants, added to this document.
+	 *
+	 * @param element the element which has been added
+	 */
+	void elementAdded(Element element) {
+		if (idIndex != null) {
+			idIndex.addAll(element);
+		}
+
+		if (indexes != null) {
+			for (ElementIndex<?> index : indexes) {
+				index.addAll(element);
+			}
+		}
+	}
+
+	/**
+	 * Unindexes an element, and its descendants, about to be removed from this
+	 * document.
+	 *
+	 * @param element the element about to be removed
+	 */
+	void elementRemoved(Element element) {
+		if (idIndex != null) {
+			idIndex.removeAll(element);
+		}
+
+		if (indexes != null) {
+			for (ElementIndex<?> index : indexes) {
+				index.removeAll(element);
+			}
+		}
+	}
+
+	/**
+	 * Reindexes an element, and its descendants, whose name has changed.
+	 *
+	 * @param element the element which has been renamed
+	 */
+	void elementRenamed(Element element) {
+		elementRemoved(element);
+		elementAdded(element);
+	}
+
+	/**
+	 * Reindexes an element whose attributes have changed.
+	 *
+	 * @param element the element whose attributes have changed
+	 */
+	void elementChanged(Element element) {
+		if (idIndex != null) {
+			idIndex.update(element);
+		}
+
+		if (indexes != null) {
+			for (ElementIndex<?> index : indexes) {
+				index.update(element);
+			}
+		}
+	}
+
+	/**
+	 * Discards the indexes of a clone of this document, which belong to the
+	 * original.
+	 */
+	void resetIndexes() {
+		idIndex = null;
+		indexes = null;
+	}
+
+	/**
+	 * Discards the ID index so that it is rebuilt on the next lookup.
+	 */
+	void invalidateIDIndex() {
+		idIndex = null;
+	}
+
 	protected void checkAddElementAllowed(Element element) {
 		Element root = getRootElement();
 
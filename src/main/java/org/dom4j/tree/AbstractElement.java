@@ -38,6 +38,33 @@ public abstract class AbstractElement extends AbstractBranch implements
 	protected static final boolean VERBOSE_TOSTRING = false;
 	protected static final boolean USE_STRINGVALUE_SEPARATOR = false;
 
+	/**
+	 * Whether a subclass overrides {@link #accept(Visitor)}, which must then
+	 * be called for its elements
+	 */
+	private static final ClassValue<Boolean> ACCEPT_OVERRIDDEN = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return TreeWalker.isOverridden(type, AbstractElement.class,
+					"accept", Visitor.class);
+		}
+	};
+
+	/**
+	 * Whether a subclass overrides {@link #getStringValue()} or
+	 * {@link #getContentAsStringValue(Node)}, which must then be called for
+	 * its elements
+	 */
+	private static final ClassValue<Boolean> STRING_VALUE_OVERRIDDEN = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return TreeWalker.isOverridden(type, AbstractElement.class,
+					"getStringValue")
+					|| TreeWalker.isOverridden(type, AbstractElement.class,
+							"getContentAsStringValue", Node.class);
+		}
+	};
+
 	public AbstractElement() {
 	}
 
@@ -169,24 +196,14 @@ public abstract class AbstractElement extends AbstractBranch implements
 	 * method.
 	 * </p>
 	 *
+	 * The descendant elements are visited without recursion, so they are not
+	 * asked to accept the visitor themselves, unless they override this
+	 * method or are not <code>AbstractElement</code>s.
+	 *
 	 * @param visitor <code>Visitor</code> is the visitor.
 	 */
 	public void accept(Visitor visitor) {
-		visitor.visit(this);
-
-		// visit attributes
-		for (int i = 0, size = attributeCount(); i < size; i++) {
-			Attribute attribute = attribute(i);
-
-			visitor.visit(attribute);
-		}
-
-		// visit content
-		for (int i = 0, size = nodeCount(); i < size; i++) {
-			Node node = node(i);
-
-			node.accept(visitor);
-		}
+		new VisitorWalker(visitor).walk(this);
 	}
 
 	@Override
@@ -304,6 +321,40 @@ public abstract class AbstractElement extends AbstractBranch implements
 		return element(getDocumentFactory().createQName(name, namespace));
 	}
 
+	@Override
+	public Element elementByID(String elementID) {
+		Document document = getDocument();
+
+		if (document instanceof AbstractDocument) {
+			// the index covers the whole document
+			Element element = document.elementByID(elementID);
+
+			if ((element == null) || isAncestorOf(element)) {
+				return element;
+			}
+		}
+
+		return super.elementByID(elementID);
+	}
+
+	/**
+	 * Returns the ID of the given element as decided by the ID resolver of
+	 * the document of this element, or the default one if there is none.
+	 *
+	 * @param element the element to return the ID of
+	 * @return the ID of the element or null
+	 */
+	@Override
+	protected String elementID(Element element) {
+		Document document = getDocument();
+
+		if (document instanceof AbstractDocument) {
+			return ((AbstractDocument) document).elementID(element);
+		}
+
+		return super.elementID(element);
+	}
+
 	public List<Element> elements() {
 		BackedList<Element> answer = createResultList();
 		for (Node node : contentList()) {
@@ -336,15 +387,15 @@ public abstract class AbstractElement extends AbstractBranch implements
 	}
 
 	public Iterator<Element> elementIterator() {
-		return elements().iterator();
+		return new ElementIterator(contentList().iterator(), this);
 	}
 
 	public Iterator<Element> elementIterator(String name) {
-		return elements(name).iterator();
+		return new ElementNameIterator(contentList().iterator(), this, name);
 	}
 
 	public Iterator<Element> elementIterator(QName qName) {
-		return elements(qName).iterator();
+		return new ElementQNameIterator(contentList().iterator(), this, qName);
 	}
 
 	public Iterator<Element> elementIterator(String name, Namespace ns) {
@@ -511,6 +562,7 @@ public abstract class AbstractElement extends AbstractBranch implements
 
 			if (copy != null) {
 				list.remove(copy);
+				childRemoved(copy);
 
 				answer = true;
 			}
@@ -988,34 +1040,45 @@ public abstract class AbstractElement extends AbstractBranch implements
 
 		int size = list.size();
 
-		if (size > 0) {
-			if (size == 1) {
-				// optimised to avoid StringBuffer creation
-				return getContentAsStringValue(list.get(0));
-			} else {
-				StringBuffer buffer = new StringBuffer();
-
-				for (int i = 0; i < size; i++) {
-					Node node = list.get(i);
+		if (size == 0) {
+			return "";
+		}
 
-					String string = getContentAsStringValue(node);
+		if (size == 1) {
+			Node node = list.get(0);
 
-					if (string.length() > 0) {
-						if (USE_STRINGVALUE_SEPARATOR) {
-							if (buffer.length() > 0) {
-								buffer.append(' ');
-							}
-						}
+			if (node.getNodeTypeEnum() != NodeType.ELEMENT_NODE) {
+				// optimised to avoid StringBuilder creation
+				return getContentAsStringValue(node);
+			}
+		}
 
-						buffer.append(string);
-					}
-				}
+		if (STRING_VALUE_OVERRIDDEN.get(getClass())) {
+			StringBuilder builder = new StringBuilder();
 
-				return buffer.toString();
+			for (int i = 0; i < size; i++) {
+				appendStringValue(builder, getContentAsStringValue(list.get(i)));
 			}
+
+			return builder.toString();
 		}
 
-		return "";
+		StringValueWalker walker = new StringValueWalker();
+		walker.walk(this);
+
+		return walker.builder.toString();
+	}
+
+	private static void appendStringValue(StringBuilder builder, String string) {
+		if (string.length() > 0) {
+			if (USE_STRINGVALUE_SEPARATOR) {
+				if (builder.length() > 0) {
+					builder.append(' ');
+				}
+			}
+
+			builder.append(string);
+		}
 	}
 
 	/**
@@ -1036,6 +1099,16 @@ public abstract class AbstractElement extends AbstractBranch implements
 	 * @since DOM Level 2
 	 */
 	public void normalize() {
+		new NormalizeWalker().walk(this);
+	}
+
+	/**
+	 * Normalizes the <code>Text</code> nodes directly contained in this
+	 * element, as {@link #normalize()} does for the whole sub-tree.
+	 *
+	 * @since 2.0
+	 */
+	protected void normalizeContent() {
 		List<Node> content = contentList();
 
 		Text previousText = null;
@@ -1066,12 +1139,6 @@ public abstract class AbstractElement extends AbstractBranch implements
 					}
 				}
 			} else {
-				if (node instanceof Element) {
-					Element element = (Element) node;
-
-					element.normalize();
-				}
-
 				previousText = null;
 
 				i++;
@@ -1360,6 +1427,10 @@ public abstract class AbstractElement extends AbstractBranch implements
 				ArrayList arrayList = (ArrayList) list;
 
 				arrayList.ensureCapacity(minCapacity);
+			} else if (list instanceof CompactList) {
+				CompactList compactList = (CompactList) list;
+
+				compactList.ensureCapacity(minCapacity);
 			}
 		}
 	}
@@ -1432,17 +1503,127 @@ public abstract class AbstractElement extends AbstractBranch implements
 	protected void childAdded(Node node) {
 		if (node != null) {
 			node.setParent(this);
+			updateIndexes(node, true);
 		}
 	}
 
 	protected void childRemoved(Node node) {
 		if (node != null) {
+			updateIndexes(node, false);
 			node.setParent(null);
 
 			node.setDocument(null);
 		}
 	}
 
+	private boolean isAncestorOf(Element element) {
+		for (Element parent = element.getParent(); parent != null; parent = parent
+				.getParent()) {
+			if (parent == this) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Keeps the indexes of the document, if it has any, up to date when an
+	 * element or attribute has been added or removed.
+	 *
+	 * @param node  the child added or removed
+	 * @param added whether the child was added
+	 */
+	private void updateIndexes(Node node, boolean added) {
+		NodeType nodeType = node.getNodeTypeEnum();
+
+		if ((nodeType == NodeType.ELEMENT_NODE)
+				|| (nodeType == NodeType.ATTRIBUTE_NODE)) {
+			AbstractDocument document = getIndexedDocument();
+
+			if (document != null) {
+				if (nodeType == NodeType.ATTRIBUTE_NODE) {
+					document.elementChanged(this);
+				} else if (added) {
+					document.elementAdded((Element) node);
+				} else {
+					document.elementRemoved((Element) node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes this element the parent of the attributes which have replaced its
+	 * attributes, so that later changes to their values are passed on to
+	 * {@link #attributesChanged()}.
+	 *
+	 * @param attributes the new attributes of this element
+	 */
+	void adoptAttributes(List<Attribute> attributes) {
+		for (int i = 0, size = attributes.size(); i < size; i++) {
+			attributes.get(i).setParent(this);
+		}
+	}
+
+	/**
+	 * Called when the value of an attribute has changed, or the attributes
+	 * have been replaced, to keep the indexes of the document up to date.
+	 */
+	void attributesChanged() {
+		AbstractDocument document = getIndexedDocument();
+
+		if (document != null) {
+			document.elementChanged(this);
+		}
+	}
+
+	/**
+	 * Called by implementations when the QName of this element has changed,
+	 * so that the parent and the indexes of the document can be updated.
+	 *
+	 * @param oldQName the previous QName
+	 */
+	protected void qNameChanged(QName oldQName) {
+		Element parent = getParent();
+
+		if (parent instanceof AbstractElement) {
+			((AbstractElement) parent).childQNameChanged(this, oldQName);
+		}
+
+		AbstractDocument document = getIndexedDocument();
+
+		if (document != null) {
+			document.elementRenamed(this);
+		}
+	}
+
+	/**
+	 * Called when the QName of a child element has changed. Implementations
+	 * which index their children by name should update their index.
+	 *
+	 * @param child    the renamed child element
+	 * @param oldQName the previous QName of the child
+	 */
+	protected void childQNameChanged(Element child, QName oldQName) {
+	}
+
+	private AbstractDocument getIndexedDocument() {
+		if (!AbstractDocument.isIndexCreated()) {
+			// avoids walking up to the document for every node added
+			return null;
+		}
+
+		Document document = getDocument();
+
+		if ((document instanceof AbstractDocument)
+				&& ((AbstractDocument) document).isIndexed()) {
+			return (AbstractDocument) document;
+		}
+
+		return null;
+	}
+
 	/**
 	 * DOCUMENT ME!
 	 *
@@ -1501,6 +1682,96 @@ public abstract class AbstractElement extends AbstractBranch implements
 	protected <T extends Object> Iterator<T> createSingleIterator(T result) {
 		return new SingleIterator<T>(result);
 	}
+
+	/**
+	 * Visits an element, its attributes and its content.
+	 */
+	private static class VisitorWalker extends TreeWalker<RuntimeException> {
+		private final Visitor visitor;
+
+		VisitorWalker(Visitor visitor) {
+			this.visitor = visitor;
+		}
+
+		@Override
+		protected boolean enterElement(Element element) {
+			if ((getDepth() > 0)
+					&& (!(element instanceof AbstractElement) || ACCEPT_OVERRIDDEN
+							.get(element.getClass()))) {
+				element.accept(visitor);
+
+				return false;
+			}
+
+			visitor.visit(element);
+
+			for (int i = 0, size = element.attributeCount(); i < size; i++) {
+				visitor.visit(element.attribute(i));
+			}
+
+			return true;
+		}
+
+		@Override
+		protected void visit(Node node) {
+			node.accept(visitor);
+		}
+	}
+
+	/**
+	 * Concatenates the string values of the text nodes of an element.
+	 */
+	private static class StringValueWalker extends
+			TreeWalker<RuntimeException> {
+		private final StringBuilder builder = new StringBuilder();
+
+		@Override
+		protected boolean enterElement(Element element) {
+			if ((getDepth() > 0)
+					&& (!(element instanceof AbstractElement) || STRING_VALUE_OVERRIDDEN
+							.get(element.getClass()))) {
+				appendStringValue(builder, element.getStringValue());
+
+				return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		protected void visit(Node node) {
+			switch (node.getNodeTypeEnum()) {
+				case CDATA_SECTION_NODE:
+				case ENTITY_REFERENCE_NODE:
+				case TEXT_NODE:
+					appendStringValue(builder, node.getStringValue());
+
+					break;
+
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Normalizes the text of each element, delegating to elements of other
+	 * implementations.
+	 */
+	private static class NormalizeWalker extends TreeWalker<RuntimeException> {
+		@Override
+		protected boolean enterElement(Element element) {
+			if (element instanceof AbstractElement) {
+				((AbstractElement) element).normalizeContent();
+
+				return true;
+			}
+
+			element.normalize();
+
+			return false;
+		}
+	}
 }
 
 /*
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import org.dom4j.Element;
+import org.dom4j.QName;
+
+/**
+ * <p>
+ * <code>AttributeIndex</code> indexes the elements of a document by the value
+ * of an attribute, such as <code>sku</code> or <code>id</code>. The attribute
+ * is identified by its QName, so an index of <code>sku</code> ignores an
+ * attribute <code>x:sku</code> in a namespace. Elements without the attribute
+ * are not indexed. The index is also used by the XPath engine to evaluate
+ * paths such as <code>//item[@sku='x']</code> without walking the document,
+ * when the predicate tests the same QName.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class AttributeIndex extends ElementIndex<String> {
+	private final QName attributeQName;
+
+	/**
+	 * Creates an index of the value of the attribute with the given name and
+	 * no namespace.
+	 *
+	 * @param attributeName the local name of the attribute to index
+	 */
+	public AttributeIndex(String attributeName) {
+		this(QName.get(attributeName));
+	}
+
+	/**
+	 * Creates an index of the value of the attribute with the given QName.
+	 *
+	 * @param attributeQName the QName of the attribute to index
+	 */
+	public AttributeIndex(QName attributeQName) {
+		this.attributeQName = attributeQName;
+	}
+
+	/**
+	 * Returns the local name of the indexed attribute.
+	 *
+	 * @return the local name of the indexed attribute
+	 */
+	public String getAttributeName() {
+		return attributeQName.getName();
+	}
+
+	/**
+	 * Returns the QName of the indexed attribute.
+	 *
+	 * @return the QName of the indexed attribute
+	 */
+	public QName getAttributeQName() {
+		return attributeQName;
+	}
+
+	protected String getKey(Element element) {
+		return element.attributeValue(attributeQName);
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
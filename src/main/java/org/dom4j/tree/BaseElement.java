@@ -76,10 +76,17 @@ public class BaseElement extends AbstractElement {
 
 	@Override
 	public Document getDocument() {
-		if (parentBranch instanceof Document) {
-			return (Document) parentBranch;
-		} else if (parentBranch instanceof Element) {
-			Element parent = (Element) parentBranch;
+		Branch branch = parentBranch;
+
+		// walk up without recursion while the ancestors are of this class
+		while (branch instanceof BaseElement) {
+			branch = ((BaseElement) branch).parentBranch;
+		}
+
+		if (branch instanceof Document) {
+			return (Document) branch;
+		} else if (branch instanceof Element) {
+			Element parent = (Element) branch;
 
 			return parent.getDocument();
 		}
@@ -104,7 +111,12 @@ public class BaseElement extends AbstractElement {
 	}
 
 	public void setQName(QName name) {
+		QName oldQName = this.qname;
 		this.qname = name;
+
+		if ((oldQName != null) && !oldQName.equals(name)) {
+			qNameChanged(oldQName);
+		}
 	}
 
 	public void clearContent() {
@@ -125,6 +137,12 @@ public class BaseElement extends AbstractElement {
 		if (attributes instanceof ContentListFacade) {
 			this.attributes = ((ContentListFacade<Attribute>) attributes).getBackingList();
 		}
+
+		if (this.attributes != null) {
+			adoptAttributes(this.attributes);
+		}
+
+		attributesChanged();
 	}
 
 	// Implementation methods
@@ -156,6 +174,7 @@ public class BaseElement extends AbstractElement {
 
 	protected void setAttributeList(List<Attribute> attributeList) {
 		this.attributes = attributeList;
+		attributesChanged();
 	}
 }
 
@@ -28,6 +28,10 @@ final class CloneHelper {
 		setFinalField(clazz, object, fieldName, new LazyList<Object>());
 	}
 
+	public static <T> void setFinalCompactList(Class<T> clazz, T object, String fieldName) {
+		setFinalField(clazz, object, fieldName, new CompactList<Object>());
+	}
+
 	public static <T> void setFinalContent(Class<T> clazz, T object) {
 		setFinalField(clazz, object, "content", new LazyList<Object>());
 	}
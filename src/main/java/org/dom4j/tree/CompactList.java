@@ -0,0 +1,265 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * <code>CompactList</code> is a growable array list tuned for the content and
+ * attributes of an element. Up to two entries are held in fields of the list
+ * itself, which covers leaf and text-only elements without allocating a
+ * backing array; larger lists switch to an array which grows by half its
+ * size. Unlike {@link LazyList} random access never rebuilds any index, so
+ * mixing mutation with {@link #get(int)} stays cheap.
+ * </p>
+ *
+ * @param <E> the type of the entries
+ * @since 2.0
+ */
+public class CompactList<E> extends AbstractList<E> implements RandomAccess,
+		Serializable {
+	private static final long serialVersionUID = 0;
+
+	/**
+	 * The capacity of the backing array once the inline fields are exhausted
+	 */
+	private static final int INITIAL_CAPACITY = 4;
+
+	private E first;
+
+	private E second;
+
+	/**
+	 * The backing array or null while the entries are held inline
+	 */
+	private Object[] elements;
+
+	private int size;
+
+	public CompactList() {
+	}
+
+	public CompactList(Collection<? extends E> collection) {
+		this.addAll(collection);
+	}
+
+	@Override
+	public E get(int index) {
+		checkIndex(index);
+		return element(index);
+	}
+
+	@Override
+	public E set(int index, E element) {
+		checkIndex(index);
+		E oldValue = element(index);
+		if (this.elements != null) {
+			this.elements[index] = element;
+		} else if (index == 0) {
+			this.first = element;
+		} else {
+			this.second = element;
+		}
+		return oldValue;
+	}
+
+	@Override
+	public boolean add(E element) {
+		this.modCount++;
+		if (this.elements == null) {
+			if (this.size == 0) {
+				this.first = element;
+				this.size = 1;
+				return true;
+			} else if (this.size == 1) {
+				this.second = element;
+				this.size = 2;
+				return true;
+			}
+			inflate(INITIAL_CAPACITY);
+		} else if (this.size == this.elements.length) {
+			grow();
+		}
+		this.elements[this.size++] = element;
+		return true;
+	}
+
+	@Override
+	public void add(int index, E element) {
+		if (index < 0 || index > this.size) {
+			throw new IndexOutOfBoundsException(MessageFormat.format("Index: {0}, Size: {1}", index, this.size));
+		}
+		if (index == this.size) {
+			add(element);
+			return;
+		}
+		this.modCount++;
+		if (this.elements == null) {
+			if (this.size == 1) {
+				this.second = this.first;
+				this.first = element;
+				this.size = 2;
+				return;
+			}
+			inflate(INITIAL_CAPACITY);
+		} else if (this.size == this.elements.length) {
+			grow();
+		}
+		System.arraycopy(this.elements, index, this.elements, index + 1, this.size - index);
+		this.elements[index] = element;
+		this.size++;
+	}
+
+	@Override
+	public E remove(int index) {
+		checkIndex(index);
+		this.modCount++;
+		E oldValue = element(index);
+		if (this.elements != null) {
+			int moved = this.size - index - 1;
+			if (moved > 0) {
+				System.arraycopy(this.elements, index + 1, this.elements, index, moved);
+			}
+			this.elements[--this.size] = null;
+		} else {
+			if (index == 0) {
+				this.first = this.second;
+			}
+			this.second = null;
+			if (--this.size == 0) {
+				this.first = null;
+			}
+		}
+		return oldValue;
+	}
+
+	@Override
+	public int indexOf(Object object) {
+		for (int i = 0; i < this.size; i++) {
+			Object element = element(i);
+			if (object == null ? element == null : object.equals(element)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return indexOf(object) >= 0;
+	}
+
+	@Override
+	public void clear() {
+		this.modCount++;
+		this.first = null;
+		this.second = null;
+		this.elements = null;
+		this.size = 0;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Grows the backing array so that it can hold at least the given number
+	 * of entries without further copying.
+	 *
+	 * @param minCapacity the desired minimum capacity
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity <= 2) {
+			return;
+		}
+		if (this.elements == null) {
+			inflate(minCapacity);
+		} else if (minCapacity > this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, minCapacity);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private E element(int index) {
+		if (this.elements != null) {
+			return (E) this.elements[index];
+		}
+		return (index == 0) ? this.first : this.second;
+	}
+
+	/**
+	 * Moves the inline entries into a newly allocated backing array.
+	 */
+	private void inflate(int capacity) {
+		Object[] array = new Object[Math.max(capacity, INITIAL_CAPACITY)];
+		if (this.size > 0) {
+			array[0] = this.first;
+		}
+		if (this.size > 1) {
+			array[1] = this.second;
+		}
+		this.first = null;
+		this.second = null;
+		this.elements = array;
+	}
+
+	private void grow() {
+		int capacity = this.elements.length;
+		this.elements = Arrays.copyOf(this.elements, capacity + (capacity >> 1));
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException(MessageFormat.format("Index: {0}, Size: {1}", index, this.size));
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
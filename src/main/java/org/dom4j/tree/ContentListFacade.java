@@ -9,6 +9,7 @@ package org.dom4j.tree;
 import org.dom4j.Node;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -44,28 +45,46 @@ public class ContentListFacade<T extends Node> extends AbstractList<T> {
 
 	@Override
 	public boolean add(T node) {
+		boolean added = branchContent.add(node);
+
+		// the branch is told once the content holds the node, so that the
+		// indexes of the document see the new content
 		branch.childAdded(node);
 
-		return branchContent.add(node);
+		return added;
 	}
 
 	@Override
 	public void add(int index, T node) {
-		branch.childAdded(node);
 		branchContent.add(index, node);
+		branch.childAdded(node);
 	}
 
 	@Override
 	public T set(int index, T node) {
-		branch.childAdded(node);
+		T old = branchContent.set(index, node);
+
+		if (old != node) {
+			// the replaced node is removed just as by remove(int), once the
+			// content no longer holds it
+			if (old != null) {
+				branch.childRemoved(old);
+			}
+
+			branch.childAdded(node);
+		}
 
-		return branchContent.set(index, node);
+		return old;
 	}
 
 	public boolean remove(T node) {
-		branch.childRemoved(node);
+		boolean removed = branchContent.remove(node);
+
+		if (removed) {
+			branch.childRemoved(node);
+		}
 
-		return branchContent.remove(node);
+		return removed;
 	}
 
 	@Override
@@ -103,22 +122,31 @@ public class ContentListFacade<T extends Node> extends AbstractList<T> {
 
 	@Override
 	public void clear() {
-		for (T node : this) {
+		List<T> removed = new ArrayList<T>(branchContent);
+		branchContent.clear();
+
+		for (T node : removed) {
 			branch.childRemoved(node);
 		}
-
-		branchContent.clear();
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
-		for (Object object : c) {
-			if (object instanceof Node) {
-				branch.childRemoved((Node) object);
+		List<T> removed = new ArrayList<T>();
+
+		for (T node : branchContent) {
+			if (c.contains(node)) {
+				removed.add(node);
 			}
 		}
 
-		return branchContent.removeAll(c);
+		boolean changed = branchContent.removeAll(c);
+
+		for (T node : removed) {
+			branch.childRemoved(node);
+		}
+
+		return changed;
 	}
 
 	public int size() {
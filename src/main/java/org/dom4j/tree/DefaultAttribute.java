@@ -80,6 +80,10 @@ public class DefaultAttribute extends FlyweightAttribute {
 	@Override
 	public void setValue(String value) {
 		this.value = value;
+
+		if (parent instanceof AbstractElement) {
+			((AbstractElement) parent).attributesChanged();
+		}
 	}
 
 	@Override
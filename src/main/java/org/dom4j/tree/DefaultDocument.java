@@ -94,6 +94,7 @@ public class DefaultDocument extends AbstractDocument {
 
 	public void setDocType(DocumentType docType) {
 		this.docType = docType;
+		invalidateIDIndex();
 	}
 
 	public Document addDocType(String docTypeName, String publicId, String systemId) {
@@ -119,6 +120,7 @@ public class DefaultDocument extends AbstractDocument {
 	public DefaultDocument clone() {
 		DefaultDocument document =  (DefaultDocument) super.clone();
 		document.rootElement = null;
+		document.resetIndexes();
 		CloneHelper.setFinalContent(DefaultDocument.class, document);
 		document.appendContent(this);
 
@@ -39,15 +39,14 @@ public class DefaultElement extends AbstractElement {
 	 */
 	private Branch parentBranch;
 	/**
-	 * Stores null for no content or a List
-	 * for multiple content nodes. The List will be lazily constructed when
-	 * required.
+	 * Stores the content nodes in an array backed list which holds up to two
+	 * nodes without allocating an array.
 	 */
-	private List<Node> content = new LazyList<Node>();
+	private List<Node> content = new CompactList<Node>();
 	/**
-	 * Lazily constructes list of attributes
+	 * The list of attributes
 	 */
-	private final List<Attribute> attributes;
+	private final CompactList<Attribute> attributes;
 
 	public DefaultElement(String name) {
 		this(DOCUMENT_FACTORY.createQName(name));
@@ -59,7 +58,8 @@ public class DefaultElement extends AbstractElement {
 
 	public DefaultElement(QName qname, int attributeCount) {
 		this.qname = qname;
-		this.attributes = new LazyList<Attribute>();
+		this.attributes = new CompactList<Attribute>();
+		this.attributes.ensureCapacity(attributeCount);
 	}
 
 	public DefaultElement(String name, Namespace namespace) {
@@ -86,10 +86,17 @@ public class DefaultElement extends AbstractElement {
 
 	@Override
 	public Document getDocument() {
-		if (parentBranch instanceof Document) {
-			return (Document) parentBranch;
-		} else if (parentBranch instanceof Element) {
-			Element parent = (Element) parentBranch;
+		Branch branch = parentBranch;
+
+		// walk up without recursion while the ancestors are of this class
+		while (branch instanceof DefaultElement) {
+			branch = ((DefaultElement) branch).parentBranch;
+		}
+
+		if (branch instanceof Document) {
+			return (Document) branch;
+		} else if (branch instanceof Element) {
+			Element parent = (Element) branch;
 
 			return parent.getDocument();
 		}
@@ -114,32 +121,12 @@ public class DefaultElement extends AbstractElement {
 	}
 
 	public void setQName(QName name) {
+		QName oldQName = this.qname;
 		this.qname = name;
-	}
-
-	@Override
-	public String getStringValue() {
-		if (contentList().size() == 0) {
-			return "";
-		}
 
-		if (contentList().size() == 1) {
-			return getContentAsStringValue(contentList().get(0));
+		if ((oldQName != null) && !oldQName.equals(name)) {
+			qNameChanged(oldQName);
 		}
-
-		StringBuilder builder = new StringBuilder();
-		for (Node node : contentList()) {
-			String string = getContentAsStringValue(node);
-			if (string.length() > 0) {
-				if (USE_STRINGVALUE_SEPARATOR) {
-					if (builder.length() > 0) {
-						builder.append(' ');
-					}
-				}
-				builder.append(string);
-			}
-		}
-		return builder.toString();
 	}
 
 	@Override
@@ -147,8 +134,8 @@ public class DefaultElement extends AbstractElement {
 		DefaultElement answer = (DefaultElement) super.clone();
 
 		if (answer != this) {
-			CloneHelper.setFinalLazyList(DefaultElement.class, answer, "attributes");
-			CloneHelper.setFinalContent(DefaultElement.class, answer);
+			CloneHelper.setFinalCompactList(DefaultElement.class, answer, "attributes");
+			answer.content = answer.createContentList();
 			answer.appendAttributes(this);
 			answer.appendContent(this);
 		}
@@ -406,6 +393,10 @@ public class DefaultElement extends AbstractElement {
 		if (attributes != null) {
 			this.attributes.addAll(attributes);
 		}
+
+		adoptAttributes(this.attributes);
+
+		attributesChanged();
 	}
 
 	@Override
@@ -522,6 +513,7 @@ public class DefaultElement extends AbstractElement {
 	protected void setAttributeList(List<Attribute> attributeList) {
 		attributeList().clear();
 		attributeList().addAll(attributeList);
+		attributesChanged();
 	}
 
 	@Override
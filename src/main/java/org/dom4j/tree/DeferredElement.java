@@ -0,0 +1,225 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.io.ObjectStreamException;
+import java.util.List;
+
+import org.dom4j.Attribute;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.QName;
+
+/**
+ * A {@link DefaultElement} whose attributes and content are kept in a
+ * {@link DeferredNodeTable} until they are first accessed. The nodes are
+ * then created in one go, child elements being deferred elements again, so
+ * only the parts of a document which are navigated to are ever turned into
+ * objects. Apart from that a deferred element behaves exactly like a
+ * <code>DefaultElement</code>.
+ *
+ * @see org.dom4j.io.SAXReader#setDeferNodeExpansion(boolean)
+ * @since 2.0
+ */
+public class DeferredElement extends DefaultElement {
+	/**
+	 * The table holding the attributes and content of this element or
+	 * <code>null</code> once they have been created
+	 */
+	private transient volatile DeferredNodeTable table;
+
+	/**
+	 * The index of this element in the table
+	 */
+	private transient int index;
+
+	public DeferredElement(QName qname, DeferredNodeTable table, int index) {
+		super(qname, table.getAttributeCount(index));
+		this.table = table;
+		this.index = index;
+	}
+
+	/**
+	 * Returns whether the attributes and content of this element still have
+	 * to be created.
+	 *
+	 * @return true if this element has not been expanded yet
+	 */
+	public boolean isDeferred() {
+		return table != null;
+	}
+
+	@Override
+	public DeferredElement clone() {
+		materialize();
+		return (DeferredElement) super.clone();
+	}
+
+	@Override
+	public List<Namespace> declaredNamespaces() {
+		materialize();
+		return super.declaredNamespaces();
+	}
+
+	@Override
+	public boolean removeProcessingInstruction(String target) {
+		materialize();
+		return super.removeProcessingInstruction(target);
+	}
+
+	@Override
+	public void setContent(List<Node> content) {
+		materialize();
+		super.setContent(content);
+	}
+
+	@Override
+	public void clearContent() {
+		materialize();
+		super.clearContent();
+	}
+
+	@Override
+	public void setAttributes(List<Attribute> attributes) {
+		materialize();
+		super.setAttributes(attributes);
+	}
+
+	@Override
+	protected List<Node> contentList() {
+		materialize();
+		return super.contentList();
+	}
+
+	@Override
+	protected List<Attribute> attributeList() {
+		materialize();
+		return super.attributeList();
+	}
+
+	@Override
+	@Deprecated
+	protected List<Attribute> attributeList(int attributeCount) {
+		materialize();
+		return super.attributeList(attributeCount);
+	}
+
+	/**
+	 * Creates the attributes and content of this element from the table. The
+	 * nodes are added without notifying the document indexes, as they are
+	 * part of the document already.
+	 */
+	protected void materialize() {
+		DeferredNodeTable nodes = table;
+
+		if (nodes == null) {
+			return;
+		}
+
+		synchronized (nodes) {
+			if (table == null) {
+				return;
+			}
+
+			DocumentFactory factory = getDocumentFactory();
+			List<Attribute> attributes = super.attributeList();
+			int start = nodes.getAttributeStart(index);
+			int end = start + nodes.getAttributeCount(index);
+
+			for (int i = start; i < end; i++) {
+				Attribute attribute = factory.createAttribute(this,
+						nodes.getAttributeQName(i), nodes.getAttributeValue(i));
+				attributes.add(attribute);
+				attribute.setParent(this);
+			}
+
+			List<Node> content = super.contentList();
+
+			for (int child = nodes.getFirstChild(index); child >= 0;
+					child = nodes.getNextSibling(child)) {
+				Node node = createNode(nodes, child, factory);
+				content.add(node);
+				node.setParent(this);
+			}
+
+			table = null;
+		}
+	}
+
+	private Node createNode(DeferredNodeTable nodes, int child, DocumentFactory factory) {
+		switch (nodes.getKind(child)) {
+			case DeferredNodeTable.ELEMENT:
+				return new DeferredElement((QName) nodes.getSymbol(child), nodes, child);
+			case DeferredNodeTable.TEXT:
+				return factory.createText(nodes.getText(child));
+			case DeferredNodeTable.CDATA:
+				return factory.createCDATA(nodes.getText(child));
+			case DeferredNodeTable.COMMENT:
+				return factory.createComment(nodes.getText(child));
+			case DeferredNodeTable.PROCESSING_INSTRUCTION:
+				return factory.createProcessingInstruction(
+						(String) nodes.getSymbol(child), nodes.getText(child));
+			case DeferredNodeTable.ENTITY:
+				return factory.createEntity((String) nodes.getSymbol(child),
+						nodes.getText(child));
+			case DeferredNodeTable.NAMESPACE:
+				return (Namespace) nodes.getSymbol(child);
+			default:
+				throw new IllegalStateException("Unknown node kind: " + nodes.getKind(child));
+		}
+	}
+
+	/**
+	 * Expands this element before it is serialized, as the state of the super
+	 * classes is written first.
+	 *
+	 * @return this element
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		materialize();
+		return this;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
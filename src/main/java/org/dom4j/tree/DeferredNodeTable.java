@@ -0,0 +1,356 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+
+/**
+ * Holds the nodes of a parsed document below its root element in a few
+ * parallel arrays instead of node objects. Every node has a kind, a symbol
+ * (the <code>QName</code> of an element, the target of a processing
+ * instruction, the name of an entity or a <code>Namespace</code>), the index
+ * of its first child and of its next sibling, and two data slots which hold
+ * the range of the character data of text like nodes or the range of the
+ * attributes of an element. All character data is stored in a single
+ * <code>char</code> array.
+ * <p>
+ * The table is filled by a builder in document order and read by
+ * {@link DeferredElement}s, which create their content from it the first
+ * time it is accessed. It is not meant to be modified once the elements
+ * referring to it have been handed out.
+ * </p>
+ *
+ * @see org.dom4j.io.SAXReader#setDeferNodeExpansion(boolean)
+ * @since 2.0
+ */
+public class DeferredNodeTable {
+	static final byte ELEMENT = 1;
+
+	static final byte TEXT = 2;
+
+	static final byte CDATA = 3;
+
+	static final byte COMMENT = 4;
+
+	static final byte PROCESSING_INSTRUCTION = 5;
+
+	static final byte ENTITY = 6;
+
+	static final byte NAMESPACE = 7;
+
+	private static final int NONE = -1;
+
+	private byte[] kinds = new byte[64];
+
+	private int[] symbols = new int[64];
+
+	private int[] firstChildren = new int[64];
+
+	private int[] nextSiblings = new int[64];
+
+	private int[] offsets = new int[64];
+
+	private int[] lengths = new int[64];
+
+	/**
+	 * The last child of every node, only needed while the table is built
+	 */
+	private int[] lastChildren = new int[64];
+
+	private int nodeCount;
+
+	private int[] attributeNames = new int[16];
+
+	private String[] attributeValues = new String[16];
+
+	private int attributeCount;
+
+	private char[] text = new char[1024];
+
+	private int textLength;
+
+	private Object[] symbolTable = new Object[64];
+
+	private int symbolCount;
+
+	/**
+	 * The indexes of the names and namespaces in the symbol table. These are
+	 * looked up by identity as <code>QName.equals()</code> ignores prefixes.
+	 */
+	private Map<Object, Integer> symbolIndexes = new IdentityHashMap<Object, Integer>();
+
+	/**
+	 * The indexes of processing instruction targets and entity names
+	 */
+	private Map<Object, Integer> stringIndexes = new HashMap<Object, Integer>();
+
+	public DeferredNodeTable() {
+	}
+
+	/**
+	 * Adds an element.
+	 *
+	 * @param parent
+	 *            the index of the parent element or -1 for the root element
+	 * @param qName
+	 *            the name of the element
+	 *
+	 * @return the index of the new element
+	 */
+	public int addElement(int parent, QName qName) {
+		int index = addNode(parent, ELEMENT, symbol(qName, symbolIndexes));
+		offsets[index] = attributeCount;
+		return index;
+	}
+
+	/**
+	 * Adds an attribute to the given element. The attributes of an element
+	 * must be added before any other node is added to the table.
+	 *
+	 * @param element
+	 *            the index of the element, which must be the last node added
+	 * @param qName
+	 *            the name of the attribute
+	 * @param value
+	 *            the value of the attribute
+	 */
+	public void addAttribute(int element, QName qName, String value) {
+		if (element != nodeCount - 1 || kinds[element] != ELEMENT) {
+			throw new IllegalStateException("Attributes must directly follow their element");
+		}
+
+		if (attributeCount == attributeNames.length) {
+			int capacity = attributeCount * 2;
+			attributeNames = Arrays.copyOf(attributeNames, capacity);
+			attributeValues = Arrays.copyOf(attributeValues, capacity);
+		}
+
+		attributeNames[attributeCount] = symbol(qName, symbolIndexes);
+		attributeValues[attributeCount] = value;
+		attributeCount++;
+		lengths[element]++;
+	}
+
+	public void addText(int parent, char[] ch, int start, int length) {
+		addCharacterData(parent, TEXT, 0, ch, start, length);
+	}
+
+	public void addCDATA(int parent, char[] ch, int start, int length) {
+		addCharacterData(parent, CDATA, 0, ch, start, length);
+	}
+
+	public void addComment(int parent, char[] ch, int start, int length) {
+		addCharacterData(parent, COMMENT, 0, ch, start, length);
+	}
+
+	public void addProcessingInstruction(int parent, String target, String data) {
+		addCharacterData(parent, PROCESSING_INSTRUCTION, symbol(target, stringIndexes), data);
+	}
+
+	public void addEntity(int parent, String name, String text) {
+		addCharacterData(parent, ENTITY, symbol(name, stringIndexes), text);
+	}
+
+	public void addNamespace(int parent, Namespace namespace) {
+		addNode(parent, NAMESPACE, symbol(namespace, symbolIndexes));
+	}
+
+	/**
+	 * Releases the memory only needed while the table is built. No nodes can
+	 * be added afterwards.
+	 */
+	public void trimToSize() {
+		kinds = Arrays.copyOf(kinds, nodeCount);
+		symbols = Arrays.copyOf(symbols, nodeCount);
+		firstChildren = Arrays.copyOf(firstChildren, nodeCount);
+		nextSiblings = Arrays.copyOf(nextSiblings, nodeCount);
+		offsets = Arrays.copyOf(offsets, nodeCount);
+		lengths = Arrays.copyOf(lengths, nodeCount);
+		attributeNames = Arrays.copyOf(attributeNames, attributeCount);
+		attributeValues = Arrays.copyOf(attributeValues, attributeCount);
+		text = Arrays.copyOf(text, textLength);
+		symbolTable = Arrays.copyOf(symbolTable, symbolCount);
+		lastChildren = null;
+		symbolIndexes = null;
+		stringIndexes = null;
+	}
+
+	/**
+	 * Returns the number of nodes in this table, attributes not included.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	byte getKind(int index) {
+		return kinds[index];
+	}
+
+	Object getSymbol(int index) {
+		return symbolTable[symbols[index]];
+	}
+
+	int getFirstChild(int index) {
+		return firstChildren[index];
+	}
+
+	int getNextSibling(int index) {
+		return nextSiblings[index];
+	}
+
+	String getText(int index) {
+		return new String(text, offsets[index], lengths[index]);
+	}
+
+	int getAttributeStart(int element) {
+		return offsets[element];
+	}
+
+	int getAttributeCount(int element) {
+		return lengths[element];
+	}
+
+	QName getAttributeQName(int attribute) {
+		return (QName) symbolTable[attributeNames[attribute]];
+	}
+
+	String getAttributeValue(int attribute) {
+		return attributeValues[attribute];
+	}
+
+	private void addCharacterData(int parent, byte kind, int symbol, String data) {
+		int length = data.length();
+		ensureTextCapacity(length);
+		data.getChars(0, length, text, textLength);
+		addCharacterData(parent, kind, symbol, length);
+	}
+
+	private void addCharacterData(int parent, byte kind, int symbol, char[] ch, int start,
+			int length) {
+		ensureTextCapacity(length);
+		System.arraycopy(ch, start, text, textLength, length);
+		addCharacterData(parent, kind, symbol, length);
+	}
+
+	private void addCharacterData(int parent, byte kind, int symbol, int length) {
+		int index = addNode(parent, kind, symbol);
+		offsets[index] = textLength;
+		lengths[index] = length;
+		textLength += length;
+	}
+
+	private int addNode(int parent, byte kind, int symbol) {
+		if (lastChildren == null) {
+			throw new IllegalStateException("The table has been trimmed");
+		}
+
+		int index = nodeCount;
+
+		if (index == kinds.length) {
+			int capacity = index * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			symbols = Arrays.copyOf(symbols, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			lastChildren = Arrays.copyOf(lastChildren, capacity);
+		}
+
+		kinds[index] = kind;
+		symbols[index] = symbol;
+		firstChildren[index] = NONE;
+		nextSiblings[index] = NONE;
+		offsets[index] = 0;
+		lengths[index] = 0;
+		lastChildren[index] = NONE;
+
+		if (parent != NONE) {
+			int previous = lastChildren[parent];
+
+			if (previous == NONE) {
+				firstChildren[parent] = index;
+			} else {
+				nextSiblings[previous] = index;
+			}
+
+			lastChildren[parent] = index;
+		}
+
+		nodeCount++;
+
+		return index;
+	}
+
+	private void ensureTextCapacity(int length) {
+		if (textLength + length > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+		}
+	}
+
+	private int symbol(Object value, Map<Object, Integer> indexes) {
+		Integer index = indexes.get(value);
+
+		if (index == null) {
+			if (symbolCount == symbolTable.length) {
+				symbolTable = Arrays.copyOf(symbolTable, symbolCount * 2);
+			}
+
+			index = Integer.valueOf(symbolCount);
+			symbolTable[symbolCount++] = value;
+			indexes.put(value, index);
+		}
+
+		return index.intValue();
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
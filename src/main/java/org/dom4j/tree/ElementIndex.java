@@ -0,0 +1,514 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import org.dom4j.Branch;
+import org.dom4j.Element;
+import org.dom4j.NodeHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * <code>ElementIndex</code> is a secondary index over the elements of a
+ * document, keyed by a value computed from each element such as the value of
+ * one of its attributes. An index is declared with
+ * {@link AbstractDocument#addIndex(ElementIndex)}, which builds it from the
+ * content of the document, and is then kept up to date as elements and
+ * attributes are added, removed, renamed or changed.
+ * </p>
+ * <p>
+ * The elements of a key are returned in document order, except that elements
+ * which are not added at the end of the document are appended to their key
+ * once the index has been built. {@link #isOrdered(Object)} tells whether
+ * this has happened to a key, and removing the index from the document and
+ * adding it again restores document order.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @see AttributeIndex
+ * @see NameIndex
+ * @see PathIndex
+ * @since 2.0
+ */
+public abstract class ElementIndex<K> {
+	/**
+	 * Rough sizes in bytes used by {@link #getMemoryUsage()}, assuming a 64
+	 * bit JVM with compressed references
+	 */
+	private static final int KEY_OVERHEAD = 32 + 4 + 16 + 24 + 16;
+
+	private static final int ELEMENT_OVERHEAD = 4 + 16 + 24;
+
+	private final Map<K, Bucket> buckets = new HashMap<K, Bucket>();
+
+	/**
+	 * The key each element was indexed under, as it may have changed since,
+	 * and its position in the bucket of the key
+	 */
+	private final Map<Element, Entry<K>> entries = new IdentityHashMap<Element, Entry<K>>();
+
+	/**
+	 * The last element of the document in document order, or null if it is
+	 * not known
+	 */
+	private Element last;
+
+	/**
+	 * The document maintaining this index
+	 */
+	private AbstractDocument document;
+
+	/**
+	 * Whether the index is being built from the whole document
+	 */
+	private boolean building;
+
+	protected ElementIndex() {
+	}
+
+	/**
+	 * Returns the key to index the given element under.
+	 *
+	 * @param element is the element to index
+	 * @return the key or null if the element should not be indexed
+	 */
+	protected abstract K getKey(Element element);
+
+	/**
+	 * Returns the elements indexed under the given key. The list is a view
+	 * which should not be used once the document has changed.
+	 *
+	 * @param key the key to look up
+	 * @return the unmodifiable list of the elements with the given key, which
+	 *         is empty if there are none
+	 */
+	public List<Element> get(K key) {
+		Bucket bucket = buckets.get(key);
+
+		if (bucket == null) {
+			return Collections.emptyList();
+		}
+
+		compact(bucket);
+
+		return Collections.unmodifiableList(bucket.elements);
+	}
+
+	/**
+	 * Returns the first element indexed under the given key.
+	 *
+	 * @param key the key to look up
+	 * @return the first element with the given key or null if there is none
+	 */
+	public Element getFirst(K key) {
+		Bucket bucket = buckets.get(key);
+
+		return (bucket != null) ? bucket.elements.get(bucket.head) : null;
+	}
+
+	/**
+	 * Returns whether the elements of the given key are in document order,
+	 * which they may not be once elements have been inserted before others.
+	 *
+	 * @param key the key to look up
+	 * @return true if the elements with the given key are known to be in
+	 *         document order
+	 */
+	public boolean isOrdered(K key) {
+		Bucket bucket = buckets.get(key);
+
+		return (bucket == null) || bucket.ordered;
+	}
+
+	/**
+	 * Returns the keys which at least one element is indexed under.
+	 *
+	 * @return the unmodifiable set of the keys in use
+	 */
+	public Set<K> keySet() {
+		return Collections.unmodifiableSet(buckets.keySet());
+	}
+
+	/**
+	 * Returns the number of keys which at least one element is indexed
+	 * under.
+	 *
+	 * @return the number of distinct keys
+	 */
+	public int getKeyCount() {
+		return buckets.size();
+	}
+
+	/**
+	 * Returns the number of elements in this index.
+	 *
+	 * @return the number of indexed elements
+	 */
+	public int getElementCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Estimates the memory used by this index, not counting the keys
+	 * themselves which are usually shared with the document.
+	 *
+	 * @return the approximate size of this index in bytes
+	 */
+	public long getMemoryUsage() {
+		return ((long) buckets.size() * KEY_OVERHEAD)
+				+ ((long) entries.size() * ELEMENT_OVERHEAD);
+	}
+
+	/**
+	 * Returns the document which keeps this index up to date.
+	 *
+	 * @return the document maintaining this index or null
+	 */
+	public AbstractDocument getDocument() {
+		return document;
+	}
+
+	public String toString() {
+		return super.toString() + " [ElementIndex: " + getKeyCount()
+				+ " keys, " + getElementCount() + " elements]";
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Indexes the whole of the given document.
+	 *
+	 * @param owner the document to index, which maintains this index
+	 */
+	void build(AbstractDocument owner) {
+		this.document = owner;
+		buckets.clear();
+		entries.clear();
+		last = null;
+
+		Element root = owner.getRootElement();
+
+		if (root != null) {
+			building = true;
+
+			try {
+				addAll(root);
+			} finally {
+				building = false;
+			}
+		}
+	}
+
+	/**
+	 * Stops maintaining this index.
+	 */
+	void release() {
+		document = null;
+		buckets.clear();
+		entries.clear();
+		last = null;
+	}
+
+	/**
+	 * Indexes the given element, which has just been added to the document,
+	 * and all its descendants.
+	 *
+	 * @param element the element added
+	 */
+	void addAll(Element element) {
+		boolean ordered = building || isAppended(element);
+		List<Element> stack = new ArrayList<Element>();
+		Element next = element;
+		stack.add(element);
+
+		while (!stack.isEmpty()) {
+			next = stack.remove(stack.size() - 1);
+			add(next, ordered);
+
+			// push in reverse so that the children are indexed in order
+			for (int i = next.nodeCount() - 1; i >= 0; i--) {
+				Element child = NodeHelper.nodeAsElement(next.node(i));
+
+				if (child != null) {
+					stack.add(child);
+				}
+			}
+		}
+
+		// the last element indexed is the last one of the subtree, while after
+		// an insertion the last element of the document is no longer known
+		last = ordered ? next : null;
+	}
+
+	/**
+	 * Removes the given element, which is about to be removed from the
+	 * document, and all its descendants.
+	 *
+	 * @param element the element about to be removed
+	 */
+	void removeAll(Element element) {
+		List<Element> stack = new ArrayList<Element>();
+		stack.add(element);
+
+		while (!stack.isEmpty()) {
+			Element next = stack.remove(stack.size() - 1);
+			remove(next);
+
+			if (next == last) {
+				last = null;
+			}
+
+			for (int i = 0, size = next.nodeCount(); i < size; i++) {
+				Element child = NodeHelper.nodeAsElement(next.node(i));
+
+				if (child != null) {
+					stack.add(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-indexes the given element, whose attributes have changed.
+	 *
+	 * @param element the element whose attributes have changed
+	 */
+	void update(Element element) {
+		K key = getKey(element);
+		Entry<K> entry = entries.get(element);
+		K indexed = (entry != null) ? entry.key : null;
+
+		if ((key == null) ? (indexed != null) : !key.equals(indexed)) {
+			remove(element);
+
+			// the element is appended to its new key, which keeps the key in
+			// order only if no element follows it
+			boolean lastElement = (last != null) ? (element == last)
+					: (isLast(element) && !hasChildElements(element));
+			add(element, lastElement);
+		}
+	}
+
+	private void add(Element element, boolean ordered) {
+		K key = getKey(element);
+
+		if (key != null) {
+			Bucket bucket = buckets.get(key);
+
+			if (bucket == null) {
+				bucket = new Bucket();
+				buckets.put(key, bucket);
+			} else if (!ordered) {
+				bucket.ordered = false;
+			}
+
+			entries.put(element, new Entry<K>(key, bucket.elements.size()));
+			bucket.elements.add(element);
+		}
+	}
+
+	private void remove(Element element) {
+		Entry<K> entry = entries.remove(element);
+
+		if (entry == null) {
+			return;
+		}
+
+		Bucket bucket = buckets.get(entry.key);
+		List<Element> elements = bucket.elements;
+
+		if (elements.size() - bucket.removed == 1) {
+			buckets.remove(entry.key);
+
+			return;
+		}
+
+		// leave a gap rather than shift the elements which follow
+		elements.set(entry.position, null);
+		bucket.removed++;
+
+		while (elements.get(elements.size() - 1) == null) {
+			elements.remove(elements.size() - 1);
+			bucket.removed--;
+		}
+
+		while (elements.get(bucket.head) == null) {
+			bucket.head++;
+		}
+
+		if (bucket.removed > elements.size() / 2) {
+			compact(bucket);
+		}
+	}
+
+	/**
+	 * Closes the gaps left by removed elements in the given bucket.
+	 */
+	private void compact(Bucket bucket) {
+		if (bucket.removed == 0) {
+			return;
+		}
+
+		List<Element> elements = bucket.elements;
+		int size = 0;
+
+		for (int i = bucket.head, count = elements.size(); i < count; i++) {
+			Element element = elements.get(i);
+
+			if (element != null) {
+				entries.get(element).position = size;
+				elements.set(size++, element);
+			}
+		}
+
+		elements.subList(size, elements.size()).clear();
+		bucket.head = 0;
+		bucket.removed = 0;
+	}
+
+	/**
+	 * Returns true if the given element, which has just been added, follows
+	 * all the other elements of the document. As long as the last element is
+	 * known this only walks up from it to the parent of the given element,
+	 * which takes constant time on average while elements are appended.
+	 */
+	private boolean isAppended(Element element) {
+		Element parent = element.getParent();
+
+		if ((last == null) || (parent == null)) {
+			return isLast(element);
+		}
+
+		if (parent.node(parent.nodeCount() - 1) != element) {
+			return false;
+		}
+
+		for (Element ancestor = last; ancestor != null; ancestor = ancestor
+				.getParent()) {
+			if (ancestor == parent) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns true if no node follows the given element in document order
+	 * other than its descendants.
+	 */
+	private static boolean isLast(Element element) {
+		Element node = element;
+
+		while (true) {
+			Element parent = node.getParent();
+
+			if (parent == null) {
+				Branch document = node.getDocument();
+
+				return (document == null)
+						|| (document.node(document.nodeCount() - 1) == node);
+			}
+
+			if (parent.node(parent.nodeCount() - 1) != node) {
+				return false;
+			}
+
+			node = parent;
+		}
+	}
+
+	private static boolean hasChildElements(Element element) {
+		for (int i = 0, size = element.nodeCount(); i < size; i++) {
+			if (NodeHelper.nodeAsElement(element.node(i)) != null) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The elements with the same key, in which removed elements leave a null
+	 * until the bucket is compacted.
+	 */
+	private static final class Bucket {
+		private final List<Element> elements = new ArrayList<Element>(1);
+
+		/**
+		 * The position of the first element
+		 */
+		private int head;
+
+		/**
+		 * The number of removed elements still taking a position
+		 */
+		private int removed;
+
+		private boolean ordered = true;
+	}
+
+	/**
+	 * The key of an indexed element and its position in the bucket.
+	 */
+	private static final class Entry<K> {
+		private final K key;
+
+		private int position;
+
+		private Entry(K key, int position) {
+			this.key = key;
+			this.position = position;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
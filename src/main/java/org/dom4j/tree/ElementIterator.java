@@ -8,36 +8,133 @@
 package org.dom4j.tree;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.NodeHelper;
 
 /**
  * <p>
- * <code>ElementIterator</code> is a filtering {@link Iterator}which filters
- * out objects which do not implement the {@link Element}interface.
+ * <code>ElementIterator</code> is a filtering {@link Iterator}which returns
+ * only the {@link Element}instances of the nodes returned by another
+ * iterator. It walks the underlying iterator lazily, so iterating the child
+ * elements of a branch does not copy them into a list first, and it fails fast
+ * whenever the underlying iterator does.
  * </p>
  * 
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
  * @version $Revision: 1.8 $
- * 
- * @deprecated THIS CLASS WILL BE REMOVED IN dom4j-1.6 !!
  */
-public class ElementIterator extends FilterIterator {
-    public ElementIterator(Iterator proxy) {
-        super(proxy);
+public class ElementIterator implements Iterator<Element> {
+    private final Iterator<? extends Node> proxy;
+
+    /** The branch whose content is iterated, notified of removals */
+    private final AbstractBranch branch;
+
+    private Element next;
+
+    /** The element last returned by {@link #next()} */
+    private Element last;
+
+    /** Whether the proxy has moved past the last returned element */
+    private boolean advanced;
+
+    public ElementIterator(Iterator<? extends Node> proxy) {
+        this(proxy, null);
+    }
+
+    /**
+     * Creates an iterator over the given content iterator of a branch.
+     * Elements removed through this iterator are detached from the branch.
+     * 
+     * @param proxy
+     *            an iterator over the content list of the branch
+     * @param branch
+     *            the branch owning the content
+     */
+    ElementIterator(Iterator<? extends Node> proxy, AbstractBranch branch) {
+        this.proxy = proxy;
+        this.branch = branch;
+    }
+
+    public boolean hasNext() {
+        while ((next == null) && proxy.hasNext()) {
+            Element element = NodeHelper.nodeAsElement(proxy.next());
+            advanced = true;
+
+            if ((element != null) && matches((Object) element)) {
+                next = element;
+            }
+        }
+
+        return next != null;
+    }
+
+    public Element next() throws NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        last = next;
+        next = null;
+        advanced = false;
+
+        return last;
     }
 
     /**
-     * DOCUMENT ME!
+     * Removes the element last returned by {@link #next()}. As this iterator
+     * looks ahead this is only possible if {@link #hasNext()} has not been
+     * called since.
+     * 
+     * @throws IllegalStateException
+     *             if there is no element to remove or the underlying iterator
+     *             has moved past it
+     */
+    public void remove() {
+        if ((last == null) || advanced) {
+            throw new IllegalStateException();
+        }
+
+        proxy.remove();
+
+        if (branch != null) {
+            branch.childRemoved(last);
+        }
+
+        last = null;
+    }
+
+    /**
+     * Filter method to perform some matching on the given element.
      * 
      * @param element
-     *            DOCUMENT ME!
+     *            the child element to test
+     * 
+     * @return true if the given element should appear in the iteration
+     */
+    protected boolean matches(Element element) {
+        return true;
+    }
+
+    /**
+     * Filter method used before this iterator was typed. Every child element
+     * is passed to this method, which delegates to
+     * {@link #matches(Element)}, so subclasses overriding it are still
+     * honoured.
+     * 
+     * @param object
+     *            the child element to test
+     * 
+     * @return true if the given object is an {@link Element}which should
+     *         appear in the iteration
      * 
-     * @return true if the given element implements the {@link Element}
-     *         interface
+     * @deprecated override {@link #matches(Element)}instead
      */
-    protected boolean matches(Object element) {
-        return element instanceof Element;
+    @Deprecated
+    protected boolean matches(Object object) {
+        return (object instanceof Element) && matches((Element) object);
     }
 }
 
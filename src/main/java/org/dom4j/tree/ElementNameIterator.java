@@ -10,6 +10,7 @@ package org.dom4j.tree;
 import java.util.Iterator;
 
 import org.dom4j.Element;
+import org.dom4j.Node;
 
 /**
  * <p>
@@ -20,34 +21,31 @@ import org.dom4j.Element;
  * 
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
  * @version $Revision: 1.11 $
- * 
- * @deprecated THIS CLASS WILL BE REMOVED IN dom4j-1.6 !!
  */
-public class ElementNameIterator extends FilterIterator {
+public class ElementNameIterator extends ElementIterator {
     private String name;
 
-    public ElementNameIterator(Iterator proxy, String name) {
+    public ElementNameIterator(Iterator<? extends Node> proxy, String name) {
         super(proxy);
         this.name = name;
     }
 
+    ElementNameIterator(Iterator<? extends Node> proxy, AbstractBranch branch,
+            String name) {
+        super(proxy, branch);
+        this.name = name;
+    }
+
     /**
-     * DOCUMENT ME!
+     * Accepts the element if the element has the name of this iterator.
      * 
-     * @param object
-     *            DOCUMENT ME!
+     * @param element
+     *            the child element to test
      * 
-     * @return true if the given element implements the {@link Element}
-     *         interface
+     * @return true if the given element has the name of this iterator
      */
-    protected boolean matches(Object object) {
-        if (object instanceof Element) {
-            Element element = (Element) object;
-
-            return name.equals(element.getName());
-        }
-
-        return false;
+    protected boolean matches(Element element) {
+        return name.equals(element.getName());
     }
 }
 
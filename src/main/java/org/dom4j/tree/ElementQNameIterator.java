@@ -10,6 +10,7 @@ package org.dom4j.tree;
 import java.util.Iterator;
 
 import org.dom4j.Element;
+import org.dom4j.Node;
 import org.dom4j.QName;
 
 /**
@@ -21,34 +22,32 @@ import org.dom4j.QName;
  * 
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
  * @version $Revision: 1.7 $
- * 
- * @deprecated THIS CLASS WILL BE REMOVED IN dom4j-1.6 !!
  */
-public class ElementQNameIterator extends FilterIterator {
+public class ElementQNameIterator extends ElementIterator {
     private QName qName;
 
-    public ElementQNameIterator(Iterator proxy, QName qName) {
+    public ElementQNameIterator(Iterator<? extends Node> proxy, QName qName) {
         super(proxy);
         this.qName = qName;
     }
 
+    ElementQNameIterator(Iterator<? extends Node> proxy,
+            AbstractBranch branch, QName qName) {
+        super(proxy, branch);
+        this.qName = qName;
+    }
+
     /**
-     * DOCUMENT ME!
+     * Accepts the element if the element has the {@link QName}of this iterator.
      * 
-     * @param object
-     *            DOCUMENT ME!
+     * @param element
+     *            the child element to test
      * 
-     * @return true if the given element implements the {@link Element}
-     *         interface and matches the given {@link QName}
+     * @return true if the given element matches the {@link QName}of this
+     *         iterator
      */
-    protected boolean matches(Object object) {
-        if (object instanceof Element) {
-            Element element = (Element) object;
-
-            return qName.equals(element.getQName());
-        }
-
-        return false;
+    protected boolean matches(Element element) {
+        return qName.equals(element.getQName());
     }
 }
 
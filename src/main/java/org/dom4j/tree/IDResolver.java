@@ -0,0 +1,133 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import org.dom4j.Element;
+
+/**
+ * <p>
+ * <code>IDResolver</code> decides which attribute of an element holds its ID
+ * for {@link org.dom4j.Branch#elementByID(String)}. The attributes are tried
+ * by (local) name in the order given and, if enabled, the attributes declared
+ * of type <code>ID</code> in the DTD of the document take precedence over
+ * them. The DTD declarations are only available if the document was read
+ * with its internal or external DTD declarations included.
+ * </p>
+ *
+ * @see AbstractDocument#setIDResolver(IDResolver)
+ * @since 2.0
+ */
+public class IDResolver {
+	/**
+	 * Resolves IDs from the <code>ID</code> attribute only
+	 */
+	public static final IDResolver DEFAULT = new IDResolver(false, "ID");
+
+	private final String[] attributeNames;
+
+	private final boolean useDocType;
+
+	/**
+	 * Creates a resolver which uses the given attribute names.
+	 *
+	 * @param attributeNames the names of the ID attributes in order of
+	 *                       preference
+	 */
+	public IDResolver(String... attributeNames) {
+		this(false, attributeNames);
+	}
+
+	/**
+	 * Creates a resolver which uses the given attribute names and optionally
+	 * the ID attributes declared in the DTD.
+	 *
+	 * @param useDocType     whether attributes declared of type ID take
+	 *                       precedence
+	 * @param attributeNames the names of the ID attributes in order of
+	 *                       preference
+	 */
+	public IDResolver(boolean useDocType, String... attributeNames) {
+		this.useDocType = useDocType;
+		this.attributeNames = attributeNames.clone();
+	}
+
+	/**
+	 * Returns whether the attributes declared of type ID by the document type
+	 * take precedence over the attribute names.
+	 *
+	 * @return whether attributes declared of type ID in the DTD are used
+	 */
+	public boolean isUseDocType() {
+		return useDocType;
+	}
+
+	/**
+	 * Returns the names of the attributes holding the IDs of elements.
+	 *
+	 * @return the names of the ID attributes in order of preference
+	 */
+	public String[] getAttributeNames() {
+		return attributeNames.clone();
+	}
+
+	/**
+	 * Returns the ID of the given element from the first of the configured
+	 * attributes it has. DTD declarations are not considered here.
+	 *
+	 * @param element is the element to find the ID of
+	 * @return the ID of the element or null if it has none
+	 */
+	public String getID(Element element) {
+		for (String name : attributeNames) {
+			String value = element.attributeValue(name);
+
+			if (value != null) {
+				return value;
+			}
+		}
+
+		return null;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
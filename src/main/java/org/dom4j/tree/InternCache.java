@@ -0,0 +1,222 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * <code>InternCache</code> is a concurrent table used to intern immutable
+ * value objects such as {@link org.dom4j.QName} and
+ * {@link org.dom4j.Namespace}. Lookups never block; a miss publishes the new
+ * value with a single compare-and-set so that concurrent callers always agree
+ * on one canonical instance.
+ * </p>
+ * <p>
+ * Values are only weakly reachable from the cache. Entries whose value has
+ * been garbage collected are removed through a {@link ReferenceQueue} on the
+ * next insertion, so stale entries never require a scan of the table.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the interned value type
+ * @since 2.0
+ */
+public class InternCache<K, V> {
+	private final ConcurrentMap<K, ValueReference<K, V>> map;
+
+	private final ReferenceQueue<V> queue = new ReferenceQueue<V>();
+
+	public InternCache() {
+		this.map = new ConcurrentHashMap<K, ValueReference<K, V>>();
+	}
+
+	public InternCache(int initialCapacity) {
+		this.map = new ConcurrentHashMap<K, ValueReference<K, V>>(
+				initialCapacity);
+	}
+
+	/**
+	 * Returns the value interned for the given key.
+	 *
+	 * @param key the key to look up, which must not be null
+	 * @return the interned value or null if there is none
+	 */
+	public V get(K key) {
+		ValueReference<K, V> ref = this.map.get(key);
+
+		return (ref != null) ? ref.get() : null;
+	}
+
+	/**
+	 * Interns the given value under the given key unless another value is
+	 * already interned there.
+	 *
+	 * @param key   the key, which must not be null
+	 * @param value the candidate value
+	 * @return the canonical value for the key; either the given value or the
+	 *         one another thread interned first
+	 */
+	public V putIfAbsent(K key, V value) {
+		purge();
+
+		ValueReference<K, V> newRef = new ValueReference<K, V>(key, value,
+				this.queue);
+
+		while (true) {
+			ValueReference<K, V> ref = this.map.putIfAbsent(key, newRef);
+
+			if (ref == null) {
+				return value;
+			}
+
+			V answer = ref.get();
+
+			if (answer != null) {
+				return answer;
+			}
+
+			if (this.map.replace(key, ref, newRef)) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the values currently interned.
+	 *
+	 * @return a new list of the live values
+	 */
+	public List<V> values() {
+		List<V> answer = new ArrayList<V>(this.map.size());
+
+		for (ValueReference<K, V> ref : this.map.values()) {
+			V value = ref.get();
+
+			if (value != null) {
+				answer.add(value);
+			}
+		}
+
+		return answer;
+	}
+
+	/**
+	 * Returns a read only view of this cache as a map, which leaves out the
+	 * entries whose values have been collected.
+	 *
+	 * @return the live map of the interned values by key
+	 */
+	public Map<K, V> asMap() {
+		return new AbstractMap<K, V>() {
+			public V get(Object key) {
+				ValueReference<K, V> ref = map.get(key);
+
+				return (ref != null) ? ref.get() : null;
+			}
+
+			public boolean containsKey(Object key) {
+				return get(key) != null;
+			}
+
+			public Set<Map.Entry<K, V>> entrySet() {
+				Set<Map.Entry<K, V>> answer = new LinkedHashSet<Map.Entry<K, V>>();
+
+				for (ValueReference<K, V> ref : map.values()) {
+					V value = ref.get();
+
+					if (value != null) {
+						answer.add(new SimpleImmutableEntry<K, V>(ref.key,
+								value));
+					}
+				}
+
+				return Collections.unmodifiableSet(answer);
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of entries, including entries whose values have been
+	 * collected but not yet purged.
+	 *
+	 * @return the number of entries in the table
+	 */
+	public int size() {
+		return this.map.size();
+	}
+
+	/**
+	 * Removes the entries whose values have been garbage collected.
+	 */
+	public void purge() {
+		Reference<? extends V> ref;
+
+		while ((ref = this.queue.poll()) != null) {
+			ValueReference<K, V> valueRef = (ValueReference<K, V>) ref;
+			this.map.remove(valueRef.key, valueRef);
+		}
+	}
+
+	private static final class ValueReference<K, V> extends WeakReference<V> {
+		private final K key;
+
+		ValueReference(K key, V value, ReferenceQueue<V> queue) {
+			super(value, queue);
+			this.key = key;
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
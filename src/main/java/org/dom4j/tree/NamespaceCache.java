@@ -7,11 +7,15 @@
 
 package org.dom4j.tree;
 
-import org.dom4j.Namespace;
-
 import java.lang.ref.WeakReference;
-import java.lang.reflect.Constructor;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Namespace;
 
 /**
  * <p>
@@ -19,6 +23,12 @@ import java.util.Map;
  * <code>DefaultNamespace</code> for reuse both across documents and within
  * documents.
  * </p>
+ * <p>
+ * Namespaces are interned in a single {@link InternCache}keyed by prefix and
+ * URI, so a lookup is one hash probe and a miss never takes a lock.
+ * Namespaces which are no longer referenced are evicted by the garbage
+ * collector.
+ * </p>
  *
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
  * @author Maarten Coene
@@ -26,45 +36,30 @@ import java.util.Map;
  * @version $Revision: 1.15 $
  */
 public class NamespaceCache {
-	private static final String CONCURRENTREADERHASHMAP_CLASS
-			= "EDU.oswego.cs.dl.util.concurrent.ConcurrentReaderHashMap";
+	/**
+	 * Cache of {@link Namespace}instances indexed by prefix and URI
+	 */
+	private static final InternCache<Key, Namespace> namespaces
+			= new InternCache<Key, Namespace>();
 
 	/**
-	 * Cache of {@link Map}instances indexed by URI which contain caches of
-	 * {@link Namespace}for each prefix
+	 * Read only view of the caches of weak references to {@link Namespace}
+	 * instances indexed by URI which contain a cache for each prefix
+	 *
+	 * @deprecated the cache is no longer a map, use {@link #get(String,
+	 *             String)}
 	 */
-	protected static Map cache;
+	@Deprecated
+	protected static Map cache = new URIMap();
 
 	/**
-	 * Cache of {@link Namespace}instances indexed by URI for default
-	 * namespaces with no prefixes
+	 * Read only view of the weak references to {@link Namespace}instances
+	 * indexed by URI for default namespaces with no prefixes
+	 *
+	 * @deprecated the cache is no longer a map, use {@link #get(String)}
 	 */
-	protected static Map noPrefixCache;
-
-	static {
-		/* Try the java.util.concurrent.ConcurrentHashMap first. */
-		try {
-			Class clazz = Class
-					.forName("java.util.concurrent.ConcurrentHashMap");
-			Constructor construct = clazz.getConstructor(new Class[]{
-					Integer.TYPE, Float.TYPE, Integer.TYPE});
-			cache = (Map) construct.newInstance(new Object[]{new Integer(11),
-					new Float(0.75f), new Integer(1)});
-			noPrefixCache = (Map) construct.newInstance(new Object[]{
-					new Integer(11), new Float(0.75f), new Integer(1)});
-		} catch (Throwable t1) {
-			/* Try to use the util.concurrent library (if in classpath) */
-			try {
-				Class clazz = Class.forName(CONCURRENTREADERHASHMAP_CLASS);
-				cache = (Map) clazz.newInstance();
-				noPrefixCache = (Map) clazz.newInstance();
-			} catch (Throwable t2) {
-				/* If previous implementations fail, use internal one */
-				cache = new ConcurrentReaderHashMap();
-				noPrefixCache = new ConcurrentReaderHashMap();
-			}
-		}
-	}
+	@Deprecated
+	protected static Map noPrefixCache = new PrefixMap("");
 
 	/**
 	 * DOCUMENT ME!
@@ -74,27 +69,12 @@ public class NamespaceCache {
 	 * @return the namespace for the given prefix and uri
 	 */
 	public Namespace get(String prefix, String uri) {
-		Map uriCache = getURICache(uri);
-		WeakReference ref = (WeakReference) uriCache.get(prefix);
-		Namespace answer = null;
-
-		if (ref != null) {
-			answer = (Namespace) ref.get();
-		}
+		Key key = new Key(prefix, uri);
+		Namespace answer = namespaces.get(key);
 
 		if (answer == null) {
-			synchronized (uriCache) {
-				ref = (WeakReference) uriCache.get(prefix);
-
-				if (ref != null) {
-					answer = (Namespace) ref.get();
-				}
-
-				if (answer == null) {
-					answer = createNamespace(prefix, uri);
-					uriCache.put(prefix, new WeakReference(answer));
-				}
-			}
+			answer = namespaces.putIfAbsent(key, createNamespace(key.prefix,
+					key.uri));
 		}
 
 		return answer;
@@ -107,67 +87,203 @@ public class NamespaceCache {
 	 * @return the name model for the given name and namepsace
 	 */
 	public Namespace get(String uri) {
-		WeakReference ref = (WeakReference) noPrefixCache.get(uri);
-		Namespace answer = null;
+		return get("", uri);
+	}
+
+	/**
+	 * DOCUMENT ME!
+	 *
+	 * @param uri DOCUMENT ME!
+	 * @return a read only view of the weak references to the namespaces for
+	 *         the given URI indexed by prefix
+	 * @deprecated the cache is no longer a map, use {@link #get(String,
+	 *             String)}
+	 */
+	@Deprecated
+	protected Map getURICache(String uri) {
+		return new URIPrefixMap(uri);
+	}
+
+	/**
+	 * A factory method to create {@link Namespace}instance
+	 *
+	 * @param prefix DOCUMENT ME!
+	 * @param uri    DOCUMENT ME!
+	 * @return a newly created {@link Namespace}instance.
+	 */
+	protected Namespace createNamespace(String prefix, String uri) {
+		return new Namespace(prefix, uri);
+	}
 
-		if (ref != null) {
-			answer = (Namespace) ref.get();
+	/**
+	 * The prefix and URI pair a {@link Namespace}is interned under.
+	 */
+	protected static final class Key {
+		private final String prefix;
+
+		private final String uri;
+
+		private final int hashCode;
+
+		Key(String prefix, String uri) {
+			this.prefix = (prefix != null) ? prefix : "";
+			this.uri = (uri != null) ? uri : "";
+			this.hashCode = (31 * this.uri.hashCode()) + this.prefix.hashCode();
 		}
 
-		if (answer == null) {
-			synchronized (noPrefixCache) {
-				ref = (WeakReference) noPrefixCache.get(uri);
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
 
-				if (ref != null) {
-					answer = (Namespace) ref.get();
-				}
+		@Override
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			} else if (object instanceof Key) {
+				Key that = (Key) object;
 
-				if (answer == null) {
-					answer = createNamespace("", uri);
-					noPrefixCache.put(uri, new WeakReference(answer));
-				}
+				return (hashCode == that.hashCode) && uri.equals(that.uri)
+						&& prefix.equals(that.prefix);
 			}
+
+			return false;
 		}
+	}
 
-		return answer;
+	/**
+	 * The read only view behind {@link #cache}, which maps each URI to a
+	 * {@link URIPrefixMap}.
+	 */
+	private static final class URIMap extends
+			AbstractMap<String, Map<String, WeakReference<Namespace>>> {
+		public Map<String, WeakReference<Namespace>> get(Object uri) {
+			if (uri instanceof String) {
+				Map<String, WeakReference<Namespace>> answer = new URIPrefixMap(
+						(String) uri);
+
+				return answer.isEmpty() ? null : answer;
+			}
+
+			return null;
+		}
+
+		public boolean containsKey(Object uri) {
+			return get(uri) != null;
+		}
+
+		public Set<Map.Entry<String, Map<String, WeakReference<Namespace>>>> entrySet() {
+			Map<String, Map<String, WeakReference<Namespace>>> answer
+					= new LinkedHashMap<String, Map<String, WeakReference<Namespace>>>();
+
+			for (Key key : namespaces.asMap().keySet()) {
+				if (!answer.containsKey(key.uri)) {
+					answer.put(key.uri, new URIPrefixMap(key.uri));
+				}
+			}
+
+			return Collections.unmodifiableMap(answer).entrySet();
+		}
 	}
 
 	/**
-	 * DOCUMENT ME!
-	 *
-	 * @param uri DOCUMENT ME!
-	 * @return the cache for the given namespace URI. If one does not currently
-	 *         exist it is created.
+	 * A read only view of the weak references to the namespaces for a URI
+	 * indexed by prefix.
 	 */
-	protected Map getURICache(String uri) {
-		Map answer = (Map) cache.get(uri);
+	private static final class URIPrefixMap extends
+			AbstractMap<String, WeakReference<Namespace>> {
+		private final String uri;
 
-		if (answer == null) {
-			synchronized (cache) {
-				answer = (Map) cache.get(uri);
+		URIPrefixMap(String uri) {
+			this.uri = uri;
+		}
 
-				if (answer == null) {
-					answer = new ConcurrentReaderHashMap();
-					cache.put(uri, answer);
+		public WeakReference<Namespace> get(Object prefix) {
+			if (prefix instanceof String) {
+				Namespace namespace = namespaces.get(new Key((String) prefix,
+						uri));
+
+				if (namespace != null) {
+					return new WeakReference<Namespace>(namespace);
 				}
 			}
+
+			return null;
 		}
 
-		return answer;
+		public boolean containsKey(Object prefix) {
+			return get(prefix) != null;
+		}
+
+		public Set<Map.Entry<String, WeakReference<Namespace>>> entrySet() {
+			Set<Map.Entry<String, WeakReference<Namespace>>> answer
+					= new LinkedHashSet<Map.Entry<String, WeakReference<Namespace>>>();
+
+			for (Map.Entry<Key, Namespace> entry : namespaces.asMap()
+					.entrySet()) {
+				Key key = entry.getKey();
+
+				if (key.uri.equals(uri)) {
+					answer.add(new SimpleImmutableEntry<String, WeakReference<Namespace>>(
+							key.prefix, new WeakReference<Namespace>(entry
+									.getValue())));
+				}
+			}
+
+			return Collections.unmodifiableSet(answer);
+		}
 	}
 
 	/**
-	 * A factory method to create {@link Namespace}instance
-	 *
-	 * @param prefix DOCUMENT ME!
-	 * @param uri    DOCUMENT ME!
-	 * @return a newly created {@link Namespace}instance.
+	 * A read only view of the weak references to the namespaces with a prefix
+	 * indexed by URI.
 	 */
-	protected Namespace createNamespace(String prefix, String uri) {
-		return new Namespace(prefix, uri);
+	private static final class PrefixMap extends
+			AbstractMap<String, WeakReference<Namespace>> {
+		private final String prefix;
+
+		PrefixMap(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public WeakReference<Namespace> get(Object uri) {
+			if (uri instanceof String) {
+				Namespace namespace = namespaces.get(new Key(prefix,
+						(String) uri));
+
+				if (namespace != null) {
+					return new WeakReference<Namespace>(namespace);
+				}
+			}
+
+			return null;
+		}
+
+		public boolean containsKey(Object uri) {
+			return get(uri) != null;
+		}
+
+		public Set<Map.Entry<String, WeakReference<Namespace>>> entrySet() {
+			Set<Map.Entry<String, WeakReference<Namespace>>> answer
+					= new LinkedHashSet<Map.Entry<String, WeakReference<Namespace>>>();
+
+			for (Map.Entry<Key, Namespace> entry : namespaces.asMap()
+					.entrySet()) {
+				Key key = entry.getKey();
+
+				if (key.prefix.equals(prefix)) {
+					answer.add(new SimpleImmutableEntry<String, WeakReference<Namespace>>(
+							key.uri, new WeakReference<Namespace>(entry
+									.getValue())));
+				}
+			}
+
+			return Collections.unmodifiableSet(answer);
+		}
 	}
 }
 
+
 /*
  * Redistribution and use of this software and associated documentation
  * ("Software"), with or without modification, are permitted provided that the
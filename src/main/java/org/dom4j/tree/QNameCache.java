@@ -11,31 +11,65 @@ import org.dom4j.DocumentFactory;
 import org.dom4j.Namespace;
 import org.dom4j.QName;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>
  * <code>QNameCache</code> caches instances of <code>QName</code> for reuse
  * both across documents and within documents.
- * </p>< < < < < < < QNameCache.java
+ * </p>
+ * <p>
+ * Each namespace has its own sub-table of {@link QName}instances keyed by
+ * local name. Lookups do not take any lock, so many parsers can share one
+ * cache without contending on it; QNames that are no longer referenced are
+ * evicted by the garbage collector, and so are the sub-tables of namespaces
+ * that are no longer referenced.
+ * </p>
  *
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
- * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
- * @version $Revision: 1.16 $ >>>>>>> 1.15
+ * @version $Revision: 1.16 $
  */
 public class QNameCache {
+	/**
+	 * Read only view of the {@link QName}instances with no namespace
+	 *
+	 * @deprecated the cache is no longer a map, use {@link #get(String)}
+	 */
+	@Deprecated
+	protected Map noNamespaceCache;
+
+	/**
+	 * Read only view of the caches of {@link QName}instances indexed by
+	 * namespace
+	 *
+	 * @deprecated the cache is no longer a map, use {@link
+	 *             #getNamespaceQNames(Namespace)}
+	 */
+	@Deprecated
+	protected Map namespaceCache;
+
 	/**
 	 * Cache of {@link QName}instances with no namespace
 	 */
-	protected Map noNamespaceCache = Collections
-			.synchronizedMap(new WeakHashMap());
+	private final InternCache<String, QName> noNamespaceQNames
+			= new InternCache<String, QName>();
 
 	/**
-	 * Cache of {@link Map}instances indexed by namespace which contain caches
-	 * of {@link QName}for each name
+	 * Cache of {@link InternCache}instances indexed by weak references to
+	 * their namespace which contain caches of {@link QName}for each name
 	 */
-	protected Map namespaceCache = Collections
-			.synchronizedMap(new WeakHashMap());
+	private final ConcurrentMap<NamespaceReference, InternCache<String, QName>> namespaceQNames
+			= new ConcurrentHashMap<NamespaceReference, InternCache<String, QName>>();
+
+	/**
+	 * The references to namespaces which have been garbage collected
+	 */
+	private final ReferenceQueue<Namespace> queue = new ReferenceQueue<Namespace>();
 
 	/**
 	 * The document factory associated with new QNames instances in this cache
@@ -44,10 +78,13 @@ public class QNameCache {
 	private DocumentFactory documentFactory;
 
 	public QNameCache() {
+		this(null);
 	}
 
 	public QNameCache(DocumentFactory documentFactory) {
 		this.documentFactory = documentFactory;
+		this.noNamespaceCache = noNamespaceQNames.asMap();
+		this.namespaceCache = new NamespaceCacheMap();
 	}
 
 	/**
@@ -55,13 +92,12 @@ public class QNameCache {
 	 *
 	 * @return DOCUMENT ME!
 	 */
-	public List getQNames() {
-		List answer = new ArrayList();
-		answer.addAll(noNamespaceCache.values());
+	public List<QName> getQNames() {
+		List<QName> answer = new ArrayList<QName>();
+		answer.addAll(noNamespaceQNames.values());
 
-		for (Iterator it = namespaceCache.values().iterator(); it.hasNext();) {
-			Map map = (Map) it.next();
-			answer.addAll(map.values());
+		for (InternCache<String, QName> cache : namespaceQNames.values()) {
+			answer.addAll(cache.values());
 		}
 
 		return answer;
@@ -74,18 +110,16 @@ public class QNameCache {
 	 * @return the QName for the given name and no namepsace
 	 */
 	public QName get(String name) {
-		QName answer = null;
-
-		if (name != null) {
-			answer = (QName) noNamespaceCache.get(name);
-		} else {
+		if (name == null) {
 			name = "";
 		}
 
+		QName answer = noNamespaceQNames.get(name);
+
 		if (answer == null) {
 			answer = createQName(name);
 			answer.setDocumentFactory(documentFactory);
-			noNamespaceCache.put(name, answer);
+			answer = noNamespaceQNames.putIfAbsent(name, answer);
 		}
 
 		return answer;
@@ -99,19 +133,17 @@ public class QNameCache {
 	 * @return the QName for the given local name and namepsace
 	 */
 	public QName get(String name, Namespace namespace) {
-		Map cache = getNamespaceCache(namespace);
-		QName answer = null;
-
-		if (name != null) {
-			answer = (QName) cache.get(name);
-		} else {
+		if (name == null) {
 			name = "";
 		}
 
+		InternCache<String, QName> cache = getNamespaceQNames(namespace);
+		QName answer = cache.get(name);
+
 		if (answer == null) {
 			answer = createQName(name, namespace);
 			answer.setDocumentFactory(documentFactory);
-			cache.put(name, answer);
+			answer = cache.putIfAbsent(name, answer);
 		}
 
 		return answer;
@@ -126,19 +158,17 @@ public class QNameCache {
 	 * @return the QName for the given local name, qualified name and namepsace
 	 */
 	public QName get(String localName, Namespace namespace, String qName) {
-		Map cache = getNamespaceCache(namespace);
-		QName answer = null;
-
-		if (localName != null) {
-			answer = (QName) cache.get(localName);
-		} else {
+		if (localName == null) {
 			localName = "";
 		}
 
+		InternCache<String, QName> cache = getNamespaceQNames(namespace);
+		QName answer = cache.get(localName);
+
 		if (answer == null) {
 			answer = createQName(localName, namespace, qName);
 			answer.setDocumentFactory(documentFactory);
-			cache.put(localName, answer);
+			answer = cache.putIfAbsent(localName, answer);
 		}
 
 		return answer;
@@ -176,30 +206,60 @@ public class QNameCache {
 	 * @return the cache for the given namespace. If one does not currently
 	 *         exist it is created.
 	 */
-	protected Map getNamespaceCache(Namespace namespace) {
-		if (namespace == Namespace.NO_NAMESPACE) {
-			return noNamespaceCache;
+	protected InternCache<String, QName> getNamespaceQNames(Namespace namespace) {
+		if ((namespace == null) || (namespace == Namespace.NO_NAMESPACE)) {
+			return noNamespaceQNames;
 		}
 
-		Map answer = null;
-
-		if (namespace != null) {
-			answer = (Map) namespaceCache.get(namespace);
-		}
+		InternCache<String, QName> answer = namespaceQNames
+				.get(new NamespaceReference(namespace, null));
 
 		if (answer == null) {
-			answer = createMap();
-			namespaceCache.put(namespace, answer);
+			purge();
+			answer = createCache();
+
+			InternCache<String, QName> existing = namespaceQNames.putIfAbsent(
+					new NamespaceReference(namespace, queue), answer);
+
+			if (existing != null) {
+				answer = existing;
+			}
 		}
 
 		return answer;
 	}
 
+	/**
+	 * DOCUMENT ME!
+	 *
+	 * @param namespace DOCUMENT ME!
+	 * @return a read only view of the cache for the given namespace. If one
+	 *         does not currently exist it is created.
+	 * @deprecated namespace caches are no longer maps, use {@link
+	 *             #getNamespaceQNames(Namespace)}
+	 */
+	@Deprecated
+	protected Map getNamespaceCache(Namespace namespace) {
+		return getNamespaceQNames(namespace).asMap();
+	}
+
+	/**
+	 * A factory method
+	 *
+	 * @return a newly created {@link InternCache}instance.
+	 */
+	protected InternCache<String, QName> createCache() {
+		return new InternCache<String, QName>();
+	}
+
 	/**
 	 * A factory method
 	 *
 	 * @return a newly created {@link Map}instance.
+	 * @deprecated namespace caches are no longer maps and this method is no
+	 *             longer called, override {@link #createCache()} instead
 	 */
+	@Deprecated
 	protected Map createMap() {
 		return Collections.synchronizedMap(new HashMap());
 	}
@@ -240,6 +300,89 @@ public class QNameCache {
 	                            String qualifiedName) {
 		return new QName(name, namespace, qualifiedName);
 	}
+
+	/**
+	 * Removes the caches of the namespaces which have been garbage collected.
+	 */
+	private void purge() {
+		Reference<? extends Namespace> ref;
+
+		while ((ref = queue.poll()) != null) {
+			namespaceQNames.remove(ref);
+		}
+	}
+
+	/**
+	 * A weak reference to a namespace which is equal to the references to
+	 * equal namespaces, so that it can be used as a key.
+	 */
+	private static final class NamespaceReference extends
+			WeakReference<Namespace> {
+		private final int hashCode;
+
+		private NamespaceReference(Namespace namespace,
+				ReferenceQueue<Namespace> queue) {
+			super(namespace, queue);
+			this.hashCode = namespace.hashCode();
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+
+			if (!(object instanceof NamespaceReference)) {
+				return false;
+			}
+
+			Namespace namespace = get();
+
+			return (namespace != null)
+					&& namespace.equals(((NamespaceReference) object).get());
+		}
+	}
+
+	/**
+	 * The read only view of the caches of the namespaces as maps.
+	 */
+	private final class NamespaceCacheMap extends
+			AbstractMap<Namespace, Map<String, QName>> {
+		public Map<String, QName> get(Object key) {
+			if (!(key instanceof Namespace)) {
+				return null;
+			}
+
+			InternCache<String, QName> cache = namespaceQNames
+					.get(new NamespaceReference((Namespace) key, null));
+
+			return (cache != null) ? cache.asMap() : null;
+		}
+
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		public Set<Map.Entry<Namespace, Map<String, QName>>> entrySet() {
+			Set<Map.Entry<Namespace, Map<String, QName>>> answer
+					= new LinkedHashSet<Map.Entry<Namespace, Map<String, QName>>>();
+
+			for (Map.Entry<NamespaceReference, InternCache<String, QName>> entry : namespaceQNames
+					.entrySet()) {
+				Namespace namespace = entry.getKey().get();
+
+				if (namespace != null) {
+					answer.add(new SimpleImmutableEntry<Namespace, Map<String, QName>>(
+							namespace, entry.getValue().asMap()));
+				}
+			}
+
+			return Collections.unmodifiableSet(answer);
+		}
+	}
 }
 
 
@@ -278,4 +421,4 @@ public class QNameCache {
  * POSSIBILITY OF SUCH DAMAGE.
  * 
  * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
- */
\ No newline at end of file
+ */
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.NodeHelper;
+
+/**
+ * <p>
+ * <code>TreeWalker</code> walks the content of an element in document order
+ * using an explicit stack instead of recursion, so that deeply nested
+ * documents can be processed with a constant amount of call stack. Each
+ * element is reported to {@link #enterElement(Element)} before its content
+ * and to {@link #leaveElement(Element)} after it, and every other node is
+ * reported to {@link #visit(Node)}. Attributes are not walked.
+ * </p>
+ * <p>
+ * The content of an element is read by index when the walk reaches it, so an
+ * element may change its own content when it is entered. A walker may be
+ * reused, and its hooks may start a new walk, but it must not be shared
+ * between threads.
+ * </p>
+ * <p>
+ * Where a walk replaces a recursive method, such as
+ * <code>XMLWriter.writeElement</code>, subclasses overriding that method
+ * expect it to be called for each element. The walks of dom4j use
+ * {@link #isOverridden(Class, Class, String, Class[])} to call the method
+ * for the elements of such subclasses instead of walking them.
+ * </p>
+ *
+ * @param <E> the checked exception thrown by the hooks, or
+ *            <code>RuntimeException</code> if there is none
+ * @since 2.0
+ */
+public abstract class TreeWalker<E extends Exception> {
+	private static final int INITIAL_DEPTH = 16;
+
+	/**
+	 * The elements entered and not yet left by every active walk
+	 */
+	private Element[] elements = new Element[INITIAL_DEPTH];
+
+	/**
+	 * The index of the next node of each entered element
+	 */
+	private int[] indexes = new int[INITIAL_DEPTH];
+
+	private int size;
+
+	/**
+	 * The value of <code>size</code> when the current walk started
+	 */
+	private int base;
+
+	/**
+	 * Walks the given node. An element is walked with all of its content,
+	 * while any other node is just passed to {@link #visit(Node)}.
+	 *
+	 * @param node the node to walk
+	 * @throws E if one of the hooks failed
+	 */
+	public void walk(Node node) throws E {
+		Element element = NodeHelper.nodeAsElement(node);
+
+		if (element == null) {
+			visit(node);
+
+			return;
+		}
+
+		int oldBase = base;
+		base = size;
+
+		try {
+			if (!enterElement(element)) {
+				leaveElement(element);
+
+				return;
+			}
+
+			push(element);
+
+			while (size > base) {
+				int top = size - 1;
+				Element parent = elements[top];
+				int index = indexes[top];
+
+				if (index < parent.nodeCount()) {
+					indexes[top] = index + 1;
+
+					Node child = parent.node(index);
+					Element childElement = NodeHelper.nodeAsElement(child);
+
+					if (childElement == null) {
+						visit(child);
+					} else if (enterElement(childElement)) {
+						push(childElement);
+					} else {
+						leaveElement(childElement);
+					}
+				} else {
+					elements[top] = null;
+					size = top;
+					leaveElement(parent);
+				}
+			}
+		} finally {
+			while (size > base) {
+				elements[--size] = null;
+			}
+
+			base = oldBase;
+		}
+	}
+
+	/**
+	 * Returns whether the given class, or one of its superclasses below the
+	 * given base class, overrides a method of the base class.
+	 *
+	 * @param type           the class to check
+	 * @param base           the class declaring the method
+	 * @param name           the name of the method
+	 * @param parameterTypes the parameter types of the method
+	 * @return true if a class below the base class overrides the method
+	 */
+	public static boolean isOverridden(Class<?> type, Class<?> base,
+			String name, Class<?>... parameterTypes) {
+		return isOverridden(type, base, Collections.<Class<?>> emptySet(),
+				name, parameterTypes);
+	}
+
+	/**
+	 * Returns whether the given class, or one of its superclasses below the
+	 * given base class, overrides a method of the base class. Overrides
+	 * declared by the ignored classes are not counted, as these take part in
+	 * the walk which replaced the method.
+	 *
+	 * @param type           the class to check
+	 * @param base           the class declaring the method
+	 * @param ignored        the classes whose overrides are not counted
+	 * @param name           the name of the method
+	 * @param parameterTypes the parameter types of the method
+	 * @return true if a class below the base class, other than the ignored
+	 *         ones, overrides the method
+	 */
+	public static boolean isOverridden(Class<?> type, Class<?> base,
+			Set<? extends Class<?>> ignored, String name,
+			Class<?>... parameterTypes) {
+		for (Class<?> c = type; (c != null) && (c != base); c = c
+				.getSuperclass()) {
+			if (ignored.contains(c)) {
+				continue;
+			}
+
+			try {
+				c.getDeclaredMethod(name, parameterTypes);
+
+				return true;
+			} catch (NoSuchMethodException e) {
+				// not declared by this class
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the depth of the node being entered, left or visited, relative
+	 * to the element the current walk started at, which has a depth of zero.
+	 *
+	 * @return the number of ancestors of the node entered by the current walk
+	 */
+	protected int getDepth() {
+		return size - base;
+	}
+
+	/**
+	 * Called before the content of an element is walked.
+	 *
+	 * @param element the element
+	 * @return true to walk the content of the element, false to skip it
+	 * @throws E if the walk should stop
+	 */
+	protected boolean enterElement(Element element) throws E {
+		return true;
+	}
+
+	/**
+	 * Called after the content of an element has been walked or skipped.
+	 *
+	 * @param element the element
+	 * @throws E if the walk should stop
+	 */
+	protected void leaveElement(Element element) throws E {
+	}
+
+	/**
+	 * Called for each node which is not an element.
+	 *
+	 * @param node the node
+	 * @throws E if the walk should stop
+	 */
+	protected void visit(Node node) throws E {
+	}
+
+	private void push(Element element) {
+		if (size == elements.length) {
+			Element[] newElements = new Element[size * 2];
+			System.arraycopy(elements, 0, newElements, 0, size);
+			elements = newElements;
+
+			int[] newIndexes = new int[size * 2];
+			System.arraycopy(indexes, 0, newIndexes, 0, size);
+			indexes = newIndexes;
+		}
+
+		elements[size] = element;
+		indexes[size] = 0;
+		size++;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -8,21 +8,30 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * Maps values by {@link QName} and by local name. Where several QNames share
+ * a local name, the local name maps to the value of the first of them put, or
+ * of another of them once that has been removed.
+ *
  * @author Jirsák Filip
  * @version $Revision$
  */
 public class DoubleNameMap<T> {
 
-	private Map<String, T> namedMap = new HashMap<String, T>();
+	private Map<String, QName> namedMap = new HashMap<String, QName>();
 	private Map<QName, T> qNamedMap = new HashMap<QName, T>();
 
 	public void put(QName qName, T value) {
 		qNamedMap.put(qName, value);
-		namedMap.put(qName.getName(), value);
+
+		if (!namedMap.containsKey(qName.getName())) {
+			namedMap.put(qName.getName(), qName);
+		}
 	}
 
 	public T get(String name) {
-		return namedMap.get(name);
+		QName qName = namedMap.get(name);
+
+		return (qName != null) ? qNamedMap.get(qName) : null;
 	}
 
 	public T get(QName qName) {
@@ -30,7 +39,23 @@ public class DoubleNameMap<T> {
 	}
 
 	public void remove(QName qName) {
-		this.qNamedMap.remove(qName);
-		this.namedMap.remove(qName.getName());
+		if (this.qNamedMap.remove(qName) == null) {
+			return;
+		}
+
+		String name = qName.getName();
+
+		if (qName.equals(namedMap.get(name))) {
+			namedMap.remove(name);
+
+			// fall back to another QName with the same local name
+			for (QName other : qNamedMap.keySet()) {
+				if (name.equals(other.getName())) {
+					namedMap.put(name, other);
+
+					break;
+				}
+			}
+		}
 	}
 }
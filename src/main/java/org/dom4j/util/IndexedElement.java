@@ -10,14 +10,25 @@ import org.dom4j.*;
 import org.dom4j.tree.BackedList;
 import org.dom4j.tree.DefaultElement;
 import org.dom4j.tree.LazyList;
+import org.dom4j.tree.NamespaceStack;
+import org.xml.sax.Attributes;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
  * <code>IndexedElement</code> is an implementation of {@link Element}which
  * maintains an index of the attributes and elements it contains to optimise
- * lookups via name.
+ * lookups via name. The indexes are created on the first lookup and kept up
+ * to date as children are added, removed or renamed. For indexes across a
+ * whole document see {@link org.dom4j.tree.ElementIndex}.
+ * </p>
+ * <p>
+ * Since 2.0 the index of elements is keyed by {@link QName}, so subclasses
+ * overriding {@link #elementIndex()} or {@link #removeFromElementIndex}
+ * need to follow the new signatures.
  * </p>
  *
  * @author <a href="mailto:james.strachan@metastuff.com">James Strachan </a>
@@ -26,9 +37,13 @@ import java.util.List;
 public class IndexedElement extends DefaultElement {
 
 	/**
-	 * Lazily constructed index for elements
+	 * Lazily constructed index for elements by QName
+	 */
+	private Map<QName, List<Element>> elementIndex;
+	/**
+	 * Lazily constructed index for elements by local name, across namespaces
 	 */
-	private DoubleNameMap<List<Element>> elementIndex;
+	private Map<String, List<Element>> elementNameIndex;
 	/**
 	 * Lazily constructed index for attributes
 	 */
@@ -58,26 +73,59 @@ public class IndexedElement extends DefaultElement {
 
 	@Override
 	public Element element(String name) {
-		return firstElement(elementIndex().get(name));
+		buildElementIndex();
+
+		return firstElement(elementNameIndex.get(name));
 	}
 
 	@Override
 	public Element element(QName qName) {
-		return firstElement(elementIndex().get(qName));
+		buildElementIndex();
+
+		return firstElement(elementIndex.get(qName));
 	}
 
 	@Override
 	public List<Element> elements(String name) {
-		return asElementList(elementIndex().get(name));
+		buildElementIndex();
+
+		return asElementList(elementNameIndex.get(name));
 	}
 
 	@Override
 	public List<Element> elements(QName qName) {
-		return asElementList(elementIndex().get(qName));
+		buildElementIndex();
+
+		return asElementList(elementIndex.get(qName));
+	}
+
+	@Override
+	public void setContent(List<Node> content) {
+		dropElementIndex();
+		super.setContent(content);
+	}
+
+	@Override
+	public void clearContent() {
+		dropElementIndex();
+		super.clearContent();
+	}
+
+	@Override
+	public void setAttributes(List<Attribute> attributes) {
+		attributeIndex = null;
+		super.setAttributes(attributes);
+	}
+
+	@Override
+	public void setAttributes(Attributes attributes,
+	                          NamespaceStack namespaceStack, boolean noNamespaceAttributes) {
+		attributeIndex = null;
+		super.setAttributes(attributes, namespaceStack, noNamespaceAttributes);
 	}
 
 	protected static Element firstElement(List<Element> list) {
-		if (list.isEmpty()) {
+		if ((list == null) || list.isEmpty()) {
 			return null;
 		}
 
@@ -86,23 +134,31 @@ public class IndexedElement extends DefaultElement {
 
 	protected List<Element> asElementList(List<Element> list) {
 		BackedList<Element> answer = createResultList();
-		for (Element element : list) {
-			answer.addLocal(element);
+
+		if (list != null) {
+			for (Element element : list) {
+				answer.addLocal(element);
+			}
 		}
 
 		return answer;
 	}
 
-	// #### could we override the add(Element) remove(Element methods?
-
 	@Override
-	protected void addNode(Node node) {
-		super.addNode(node);
+	protected void childAdded(Node node) {
+		super.childAdded(node);
 
 		switch (node.getNodeTypeEnum()) {
 			case ELEMENT_NODE:
 				if (elementIndex != null) {
-					addToElementIndex((Element) node);
+					List<Node> content = contentList();
+
+					if (content.get(content.size() - 1) == node) {
+						addToElementIndex((Element) node);
+					} else {
+						// inserted, so the lists would be out of order
+						dropElementIndex();
+					}
 				}
 				break;
 			case ATTRIBUTE_NODE:
@@ -114,24 +170,28 @@ public class IndexedElement extends DefaultElement {
 	}
 
 	@Override
-	protected boolean removeNode(Node node) {
-		if (super.removeNode(node)) {
-			switch (node.getNodeTypeEnum()) {
-				case ELEMENT_NODE:
-					if (elementIndex != null) {
-						removeFromElementIndex((Element) node);
-					}
-					break;
-				case ATTRIBUTE_NODE:
-					if (attributeIndex != null) {
-						removeFromAttributeIndex((Attribute) node);
-					}
-					break;
-			}
-			return true;
+	protected void childRemoved(Node node) {
+		switch (node.getNodeTypeEnum()) {
+			case ELEMENT_NODE:
+				if (elementIndex != null) {
+					Element element = (Element) node;
+					removeFromElementIndex(element, element.getQName());
+				}
+				break;
+			case ATTRIBUTE_NODE:
+				if (attributeIndex != null) {
+					removeFromAttributeIndex((Attribute) node);
+				}
+				break;
 		}
 
-		return false;
+		super.childRemoved(node);
+	}
+
+	@Override
+	protected void childQNameChanged(Element child, QName oldQName) {
+		// the child may now belong before other elements of its new name
+		dropElementIndex();
 	}
 
 	protected DoubleNameMap<Attribute> attributeIndex() {
@@ -146,9 +206,63 @@ public class IndexedElement extends DefaultElement {
 		return attributeIndex;
 	}
 
-	protected DoubleNameMap<List<Element>> elementIndex() {
+	/**
+	 * Returns the index of the child elements by name, building it if needed.
+	 * This returned a <code>DoubleNameMap</code> before 2.0, which could not
+	 * be kept in document order when elements were renamed.
+	 *
+	 * @return the lists of the child elements by <code>QName</code>
+	 */
+	protected Map<QName, List<Element>> elementIndex() {
+		buildElementIndex();
+
+		return elementIndex;
+	}
+
+	protected void addToElementIndex(Element element) {
+		QName qName = element.getQName();
+		addToList(elementIndex, qName, element);
+		addToList(elementNameIndex, qName.getName(), element);
+	}
+
+	/**
+	 * Removes a child element from the index of elements.
+	 *
+	 * @param element the child element to remove
+	 * @deprecated as the element may have been indexed under another name,
+	 *             use {@link #removeFromElementIndex(Element, QName)}
+	 */
+	@Deprecated
+	protected void removeFromElementIndex(Element element) {
+		removeFromElementIndex(element, element.getQName());
+	}
+
+	/**
+	 * Removes a child element from the index of elements.
+	 *
+	 * @param element the child element to remove
+	 * @param qName   the name the element was indexed under
+	 * @since 2.0
+	 */
+	protected void removeFromElementIndex(Element element, QName qName) {
+		removeFromList(elementIndex, qName, element);
+		removeFromList(elementNameIndex, qName.getName(), element);
+	}
+
+	protected void addToAttributeIndex(Attribute attribute) {
+		QName qName = attribute.getQName();
+		attributeIndex.put(qName, attribute);
+	}
+
+	protected void removeFromAttributeIndex(Attribute attribute) {
+		QName qName = attribute.getQName();
+		attributeIndex.remove(qName);
+	}
+
+	private void buildElementIndex() {
 		if (elementIndex == null) {
-			elementIndex = new DoubleNameMap<List<Element>>();
+			elementIndex = new HashMap<QName, List<Element>>();
+			elementNameIndex = new HashMap<String, List<Element>>();
 			for (Node node : contentList()) {
 				Element element = NodeHelper.nodeAsElement(node);
 				if (element != null) {
@@ -157,42 +271,35 @@ public class IndexedElement extends DefaultElement {
 
 			}
 		}
+	}
 
-		return elementIndex;
+	private void dropElementIndex() {
+		elementIndex = null;
+		elementNameIndex = null;
 	}
 
-	protected void addToElementIndex(Element element) {
-		QName qName = element.getQName();
-		List<Element> list = elementIndex.get(qName);
+	private static <K> void addToList(Map<K, List<Element>> map, K key,
+	                                  Element element) {
+		List<Element> list = map.get(key);
 		if (list == null) {
 			list = new LazyList<Element>();
-			elementIndex.put(qName, list);
+			map.put(key, list);
 		}
 
 		list.add(element);
 	}
 
-	protected void removeFromElementIndex(Element element) {
-		QName qName = element.getQName();
-		List<Element> list = elementIndex.get(qName);
+	private static <K> void removeFromList(Map<K, List<Element>> map, K key,
+	                                       Element element) {
+		List<Element> list = map.get(key);
 		if (list != null) {
 			list.remove(element);
 			if (list.isEmpty()) {
-				elementIndex.remove(qName);
+				map.remove(key);
 			}
 
 		}
 	}
-
-	protected void addToAttributeIndex(Attribute attribute) {
-		QName qName = attribute.getQName();
-		attributeIndex.put(qName, attribute);
-	}
-
-	protected void removeFromAttributeIndex(Attribute attribute) {
-		QName qName = attribute.getQName();
-		attributeIndex.remove(qName);
-	}
 }
 
 /*
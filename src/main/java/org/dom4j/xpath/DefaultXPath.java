@@ -14,6 +14,7 @@ import org.dom4j.XPathException;
 import org.jaxen.*;
 import org.jaxen.dom4j.Dom4jXPath;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -27,12 +28,35 @@ import java.util.*;
  * @author <a href="mailto:jstrachan@apache.org">James Strachan </a>
  */
 public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
+	/**
+	 * The evaluation in progress on the current thread
+	 */
+	private static final ThreadLocal<Evaluation> EVALUATION = new ThreadLocal<Evaluation>();
+
 	private String text;
 
 	private XPath xpath;
 
 	private NamespaceContext namespaceContext;
 
+	/**
+	 * The variable context of this instance, which the compiled expression
+	 * looks up through {@link ContextVariableContext} so that it can be shared
+	 */
+	private VariableContext variableContext;
+
+	/**
+	 * The expression compiled for direct evaluation or null if it must be
+	 * evaluated by Jaxen
+	 */
+	private SimpleLocationPath path;
+
+	/**
+	 * Whether the Jaxen expression is shared with other instances, in which
+	 * case it is copied before its function or namespace context is changed
+	 */
+	private transient boolean shared;
+
 	/**
 	 * Construct an XPath
 	 *
@@ -41,7 +65,28 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 	 */
 	public DefaultXPath(String text) throws InvalidXPathException {
 		this.text = text;
-		this.xpath = parse(text);
+		this.xpath = compile(text, null);
+		this.path = SimpleLocationPath.compile(text);
+	}
+
+	/**
+	 * Construct an XPath sharing an expression compiled by {@link
+	 * #compile(String, NamespaceContext)}.
+	 *
+	 * @param text             the text of the expression
+	 * @param xpath            the compiled expression
+	 * @param namespaceContext the namespace context the expression was compiled
+	 *                         with or null
+	 * @param path             the expression compiled for direct evaluation
+	 *                         or null
+	 */
+	DefaultXPath(String text, XPath xpath, NamespaceContext namespaceContext,
+			SimpleLocationPath path) {
+		this.text = text;
+		this.xpath = xpath;
+		this.namespaceContext = namespaceContext;
+		this.path = path;
+		this.shared = true;
 	}
 
 	public String toString() {
@@ -64,6 +109,7 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 	}
 
 	public void setFunctionContext(FunctionContext functionContext) {
+		unshare();
 		xpath.setFunctionContext(functionContext);
 	}
 
@@ -76,23 +122,30 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 	}
 
 	public void setNamespaceContext(NamespaceContext namespaceContext) {
+		unshare();
 		this.namespaceContext = namespaceContext;
-		xpath.setNamespaceContext(namespaceContext);
+		xpath.setNamespaceContext((namespaceContext != null) ? namespaceContext
+				: ContextNodeNamespaceContext.INSTANCE);
 	}
 
 	public VariableContext getVariableContext() {
-		return xpath.getVariableContext();
+		if (variableContext == null) {
+			variableContext = new SimpleVariableContext();
+		}
+
+		return variableContext;
 	}
 
 	public void setVariableContext(VariableContext variableContext) {
-		xpath.setVariableContext(variableContext);
+		// the compiled expression, which may be shared, is left alone
+		this.variableContext = variableContext;
 	}
 
 	public Object evaluate(Object context) {
-		try {
-			setNSContext(context);
+		Evaluation previous = beginEvaluation(context);
 
-			List answer = xpath.selectNodes(context);
+		try {
+			List answer = select(context);
 
 			if ((answer != null) && (answer.size() == 1)) {
 				return answer.get(0);
@@ -103,6 +156,8 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 			handleJaxenException(e);
 
 			return null;
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
@@ -111,14 +166,16 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 	}
 
 	public List selectNodes(Object context) {
-		try {
-			setNSContext(context);
+		Evaluation previous = beginEvaluation(context);
 
-			return xpath.selectNodes(context);
+		try {
+			return select(context);
 		} catch (JaxenException e) {
 			handleJaxenException(e);
 
 			return Collections.EMPTY_LIST;
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
@@ -138,10 +195,17 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 	}
 
 	public Node selectSingleNode(Object context) {
+		Evaluation previous = beginEvaluation(context);
+
 		try {
-			setNSContext(context);
+			Object answer;
+			List nodes = selectSimple(context, true);
 
-			Object answer = xpath.selectSingleNode(context);
+			if (nodes != null) {
+				answer = nodes.isEmpty() ? null : nodes.get(0);
+			} else {
+				answer = xpath.selectSingleNode(context);
+			}
 
 			if (answer instanceof Node) {
 				return (Node) answer;
@@ -158,42 +222,63 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 			handleJaxenException(e);
 
 			return null;
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
 	public String valueOf(Object context) {
+		Evaluation previous = beginEvaluation(context);
+
 		try {
-			setNSContext(context);
+			List nodes = selectSimple(context, true);
+
+			if (nodes != null) {
+				return nodes.isEmpty() ? "" : ((Node) nodes.get(0))
+						.getStringValue();
+			}
 
 			return xpath.stringValueOf(context);
 		} catch (JaxenException e) {
 			handleJaxenException(e);
 
 			return "";
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
 	public Number numberValueOf(Object context) {
-		try {
-			setNSContext(context);
+		Evaluation previous = beginEvaluation(context);
 
+		try {
 			return xpath.numberValueOf(context);
 		} catch (JaxenException e) {
 			handleJaxenException(e);
 
 			return null;
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
 	public boolean booleanValueOf(Object context) {
+		Evaluation previous = beginEvaluation(context);
+
 		try {
-			setNSContext(context);
+			List nodes = selectSimple(context, true);
+
+			if (nodes != null) {
+				return !nodes.isEmpty();
+			}
 
 			return xpath.booleanValueOf(context);
 		} catch (JaxenException e) {
 			handleJaxenException(e);
 
 			return false;
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
@@ -243,10 +328,10 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 	}
 
 	public boolean matches(Node node) {
-		try {
-			setNSContext(node);
+		Evaluation previous = beginEvaluation(node);
 
-			List answer = xpath.selectNodes(node);
+		try {
+			List answer = select(node);
 
 			if ((answer != null) && (answer.size() > 0)) {
 				Object item = answer.get(0);
@@ -263,6 +348,8 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 			handleJaxenException(e);
 
 			return false;
+		} finally {
+			endEvaluation(previous);
 		}
 	}
 
@@ -329,6 +416,25 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 		return valueOf(node);
 	}
 
+	/**
+	 * Parses the given expression. Unless a namespace context is given,
+	 * namespace prefixes are resolved against the node the expression is
+	 * evaluated on, so that the result may be evaluated concurrently.
+	 *
+	 * @param text             the text of the expression
+	 * @param namespaceContext the namespace context to use or null
+	 * @return the compiled expression
+	 * @throws InvalidXPathException if the expression is invalid
+	 */
+	static XPath compile(String text, NamespaceContext namespaceContext) {
+		XPath xpath = parse(text);
+		xpath.setNamespaceContext((namespaceContext != null) ? namespaceContext
+				: ContextNodeNamespaceContext.INSTANCE);
+		xpath.setVariableContext(ContextVariableContext.INSTANCE);
+
+		return xpath;
+	}
+
 	protected static XPath parse(String text) {
 		try {
 			return new Dom4jXPath(text);
@@ -340,9 +446,80 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 		throw new InvalidXPathException(text);
 	}
 
+	/**
+	 * Selects the nodes of this expression, evaluating simple location paths
+	 * directly.
+	 *
+	 * @param context the context to evaluate the expression on
+	 * @return the selected nodes
+	 * @throws JaxenException if Jaxen fails to evaluate the expression
+	 */
+	private List select(Object context) throws JaxenException {
+		List answer = selectSimple(context, false);
+
+		return (answer != null) ? answer : xpath.selectNodes(context);
+	}
+
+	/**
+	 * Evaluates this expression directly if it is a simple location path.
+	 *
+	 * @param context the context to evaluate the expression on
+	 * @param single  whether only the first node is needed
+	 * @return the selected nodes or null if Jaxen must be used
+	 */
+	private List selectSimple(Object context, boolean single) {
+		if (path == null) {
+			return null;
+		}
+
+		return path.selectNodes(context, namespaceContext, single);
+	}
+
+	/**
+	 * Makes the given node the one namespace prefixes are resolved against on
+	 * the current thread, unless a namespace context was set, and the
+	 * variable context of this instance the one variables are looked up in.
+	 *
+	 * @param context the node the expression is about to be evaluated on
+	 */
 	protected void setNSContext(Object context) {
-		if (namespaceContext == null) {
-			xpath.setNamespaceContext(DefaultNamespaceContext.create(context));
+		EVALUATION.set(new Evaluation(context, variableContext));
+	}
+
+	/**
+	 * Starts an evaluation on the given node through
+	 * {@link #setNSContext(Object)}.
+	 *
+	 * @return the evaluation in progress on the current thread, to be passed
+	 *         to {@link #endEvaluation(Evaluation)}
+	 */
+	private Evaluation beginEvaluation(Object context) {
+		Evaluation previous = EVALUATION.get();
+		setNSContext(context);
+
+		return previous;
+	}
+
+	/**
+	 * Restores the evaluation in progress before {@link
+	 * #beginEvaluation(Object)}, so that evaluations may be nested.
+	 */
+	private static void endEvaluation(Evaluation previous) {
+		EVALUATION.set(previous);
+	}
+
+	/**
+	 * Gives this instance its own copy of a shared Jaxen expression before
+	 * its function or namespace context is changed.
+	 */
+	private void unshare() {
+		if (shared) {
+			XPath copy = parse(text);
+			copy.setNamespaceContext(xpath.getNamespaceContext());
+			copy.setFunctionContext(xpath.getFunctionContext());
+			copy.setVariableContext(xpath.getVariableContext());
+			xpath = copy;
+			shared = false;
 		}
 	}
 
@@ -350,6 +527,69 @@ public class DefaultXPath implements org.dom4j.XPath, NodeFilter, Serializable {
 			throws XPathException {
 		throw new XPathException(text, exception);
 	}
+
+	/**
+	 * Resolves namespace prefixes against the node that is being evaluated on
+	 * the current thread.
+	 */
+	private static final class ContextNodeNamespaceContext implements
+			NamespaceContext, Serializable {
+		private static final ContextNodeNamespaceContext INSTANCE
+				= new ContextNodeNamespaceContext();
+
+		public String translateNamespacePrefixToUri(String prefix) {
+			Evaluation evaluation = EVALUATION.get();
+			DefaultNamespaceContext context = (evaluation != null)
+					? DefaultNamespaceContext.create(evaluation.node) : null;
+
+			return (context != null) ? context
+					.translateNamespacePrefixToUri(prefix) : null;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Looks up variables in the variable context of the instance that is
+	 * being evaluated on the current thread.
+	 */
+	private static final class ContextVariableContext implements
+			VariableContext, Serializable {
+		private static final ContextVariableContext INSTANCE
+				= new ContextVariableContext();
+
+		public Object getVariableValue(String namespaceURI, String prefix,
+				String localName) throws UnresolvableException {
+			Evaluation evaluation = EVALUATION.get();
+
+			if ((evaluation == null) || (evaluation.variableContext == null)) {
+				throw new UnresolvableException("Variable " + localName);
+			}
+
+			return evaluation.variableContext.getVariableValue(namespaceURI,
+					prefix, localName);
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * The node and the variable context of an evaluation in progress.
+	 */
+	private static final class Evaluation {
+		private final Object node;
+
+		private final VariableContext variableContext;
+
+		private Evaluation(Object node, VariableContext variableContext) {
+			this.node = node;
+			this.variableContext = variableContext;
+		}
+	}
 }
 
 /*
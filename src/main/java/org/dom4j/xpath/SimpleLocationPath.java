@@ -0,0 +1,721 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.xpath;
+
+import org.dom4j.*;
+import org.dom4j.tree.AbstractDocument;
+import org.dom4j.tree.AttributeIndex;
+import org.jaxen.NamespaceContext;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * <code>SimpleLocationPath</code> evaluates a common subset of XPath location
+ * paths by walking the dom4j tree directly, without going through Jaxen. The
+ * subset consists of paths such as <code>/orders/order[@id='x']/line/@sku</code>
+ * or <code>item/name</code>:
+ * </p>
+ * <ul>
+ * <li>relative paths, optionally starting with <code>./</code>, and absolute
+ * paths starting with <code>/</code></li>
+ * <li>child steps with a name test <code>name</code>,
+ * <code>prefix:name</code>, <code>prefix:*</code> or <code>*</code></li>
+ * <li>a single descendant step <code>//</code>, which must apply to the last
+ * element step</li>
+ * <li>a final attribute step <code>@name</code> or <code>@*</code></li>
+ * <li>predicates <code>[n]</code>, <code>[@name]</code>,
+ * <code>[@name='value']</code>, <code>[name]</code> and
+ * <code>[name='value']</code></li>
+ * </ul>
+ * <p>
+ * These restrictions ensure that nodes are found in document order and
+ * without duplicates, as XPath requires. An absolute descendant step whose
+ * first predicate compares an attribute with a literal, such as
+ * <code>//item[@sku='x']</code>, uses an {@link AttributeIndex} of that
+ * attribute if the document declares one. {@link #compile(String)} returns
+ * null for any other expression, which is then evaluated by Jaxen.
+ * </p>
+ *
+ * @since 2.0
+ */
+final class SimpleLocationPath implements Serializable {
+	private static final int CHILD = 0;
+
+	private static final int DESCENDANT = 1;
+
+	private static final int ATTRIBUTE = 2;
+
+	private static final int POSITION = 3;
+
+	private static final Predicate[] NO_PREDICATES = new Predicate[0];
+
+	private final boolean absolute;
+
+	private final Step[] steps;
+
+	/**
+	 * The namespace prefixes used by the name tests, indexed by {@link
+	 * NameTest#index}
+	 */
+	private final String[] prefixes;
+
+	private SimpleLocationPath(boolean absolute, Step[] steps,
+			String[] prefixes) {
+		this.absolute = absolute;
+		this.steps = steps;
+		this.prefixes = prefixes;
+	}
+
+	/**
+	 * Compiles the given expression if it belongs to the supported subset.
+	 *
+	 * @param text the XPath expression
+	 * @return the compiled path or null if the expression must be evaluated
+	 *         by Jaxen
+	 */
+	static SimpleLocationPath compile(String text) {
+		return new Parser(text.trim()).parse();
+	}
+
+	/**
+	 * Selects the nodes of this path in document order.
+	 *
+	 * @param context          the context node
+	 * @param namespaceContext the namespace context or null to resolve
+	 *                         prefixes against the context node
+	 * @param single           whether only the first node is needed
+	 * @return the nodes or null if the path cannot be evaluated against the
+	 *         given context, in which case Jaxen should be used
+	 */
+	List<Node> selectNodes(Object context, NamespaceContext namespaceContext,
+			boolean single) {
+		if (!(context instanceof Node)) {
+			return null;
+		}
+
+		Node node = (Node) context;
+		String[] uris = null;
+
+		if (prefixes.length > 0) {
+			if (namespaceContext == null) {
+				namespaceContext = DefaultNamespaceContext.create(node);
+
+				if (namespaceContext == null) {
+					return null;
+				}
+			}
+
+			uris = new String[prefixes.length];
+
+			for (int i = 0; i < prefixes.length; i++) {
+				uris[i] = namespaceContext
+						.translateNamespacePrefixToUri(prefixes[i]);
+
+				if (uris[i] == null) {
+					// let Jaxen report the unresolvable prefix
+					return null;
+				}
+			}
+		}
+
+		if (absolute && !(node instanceof Document)) {
+			node = node.getDocument();
+
+			if (node == null) {
+				return null;
+			}
+		}
+
+		List<Node> current = null;
+		int first = 0;
+
+		if (absolute && (node instanceof AbstractDocument)) {
+			current = steps[0].selectIndexed((AbstractDocument) node, uris,
+					single && (steps.length == 1));
+
+			if (current != null) {
+				first = 1;
+			}
+		}
+
+		if (current == null) {
+			current = new ArrayList<Node>(1);
+			current.add(node);
+		}
+
+		for (int i = first; (i < steps.length) && !current.isEmpty(); i++) {
+			List<Node> result = new ArrayList<Node>();
+			steps[i].select(current, uris, result, single
+					&& (i == (steps.length - 1)));
+			current = result;
+		}
+
+		return current;
+	}
+
+	/**
+	 * Matches the name of a node against a name test.
+	 */
+	private static final class NameTest implements Serializable {
+		private final String localName;
+
+		/**
+		 * The index of the namespace prefix or -1 if unprefixed
+		 */
+		private final int index;
+
+		private NameTest(String localName, int index) {
+			this.localName = localName;
+			this.index = index;
+		}
+
+		private boolean matches(QName qname, String[] uris) {
+			if (localName == null) {
+				return (index < 0)
+						|| uris[index].equals(qname.getNamespaceURI());
+			}
+
+			if (!localName.equals(qname.getName())) {
+				return false;
+			}
+
+			String uri = (index < 0) ? "" : uris[index];
+
+			return uri.equals(qname.getNamespaceURI());
+		}
+	}
+
+	private static final class Predicate implements Serializable {
+		private final int type;
+
+		private final int position;
+
+		private final NameTest name;
+
+		/**
+		 * The value to compare with or null to test for existence
+		 */
+		private final String value;
+
+		private Predicate(int type, int position, NameTest name, String value) {
+			this.type = type;
+			this.position = position;
+			this.name = name;
+			this.value = value;
+		}
+
+		private boolean accepts(Element element, String[] uris) {
+			if (type == ATTRIBUTE) {
+				for (int i = 0, size = element.attributeCount(); i < size; i++) {
+					Attribute attribute = element.attribute(i);
+
+					if (name.matches(attribute.getQName(), uris)
+							&& ((value == null) || value.equals(attribute
+									.getValue()))) {
+						return true;
+					}
+				}
+			} else {
+				for (int i = 0, size = element.nodeCount(); i < size; i++) {
+					Node node = element.node(i);
+
+					if (node instanceof Element) {
+						Element child = (Element) node;
+
+						if (name.matches(child.getQName(), uris)
+								&& ((value == null) || value.equals(child
+										.getStringValue()))) {
+							return true;
+						}
+					}
+				}
+			}
+
+			return false;
+		}
+	}
+
+	private static final class Step implements Serializable {
+		private final int axis;
+
+		private final NameTest name;
+
+		private final Predicate[] predicates;
+
+		private final boolean positional;
+
+		private Step(int axis, NameTest name, Predicate[] predicates) {
+			this.axis = axis;
+			this.name = name;
+			this.predicates = predicates;
+
+			boolean hasPosition = false;
+
+			for (int i = 0; i < predicates.length; i++) {
+				if (predicates[i].type == POSITION) {
+					hasPosition = true;
+				}
+			}
+
+			this.positional = hasPosition;
+		}
+
+		/**
+		 * Selects the elements of a descendant step from the root of the
+		 * given document through an {@link AttributeIndex} of the attribute
+		 * compared by the first predicate.
+		 *
+		 * @return the elements in document order or null if the step cannot
+		 *         be evaluated through an index
+		 */
+		private List<Node> selectIndexed(AbstractDocument document,
+				String[] uris, boolean single) {
+			if ((axis != DESCENDANT) || positional || (predicates.length == 0)) {
+				return null;
+			}
+
+			Predicate predicate = predicates[0];
+
+			if ((predicate.type != ATTRIBUTE) || (predicate.value == null)
+					|| (predicate.name.localName == null)) {
+				return null;
+			}
+
+			// only an index of the exact attribute tested holds all matches
+			NameTest test = predicate.name;
+			AttributeIndex index = document.getAttributeIndex(test.localName,
+					(test.index < 0) ? "" : uris[test.index]);
+
+			if ((index == null) || !index.isOrdered(predicate.value)) {
+				return null;
+			}
+
+			List<Node> result = new ArrayList<Node>();
+
+			// the index ignores the element name and the other predicates
+			for (Element element : index.get(predicate.value)) {
+				if (name.matches(element.getQName(), uris)
+						&& accepts(element, uris, null)) {
+					result.add(element);
+
+					if (single) {
+						break;
+					}
+				}
+			}
+
+			return result;
+		}
+
+		private void select(List<Node> context, String[] uris,
+				List<Node> result, boolean single) {
+			for (int i = 0, size = context.size(); i < size; i++) {
+				Node node = context.get(i);
+				boolean done = false;
+
+				if (axis == ATTRIBUTE) {
+					if (node instanceof Element) {
+						done = selectAttributes((Element) node, uris, result,
+								single);
+					}
+				} else if (node instanceof Branch) {
+					done = selectChildren((Branch) node, uris, result, single);
+				}
+
+				if (done) {
+					return;
+				}
+			}
+		}
+
+		private boolean selectAttributes(Element element, String[] uris,
+				List<Node> result, boolean single) {
+			for (int i = 0, size = element.attributeCount(); i < size; i++) {
+				Attribute attribute = element.attribute(i);
+
+				if (name.matches(attribute.getQName(), uris)) {
+					result.add(attribute);
+
+					if (single) {
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Selects the matching children of the given parent and, for a
+		 * descendant step, of all its descendants. Children are added before
+		 * the descendants of their following siblings, i.e. in document
+		 * order.
+		 */
+		private boolean selectChildren(Branch parent, String[] uris,
+				List<Node> result, boolean single) {
+			int[] counters = positional ? new int[predicates.length] : null;
+
+			for (int i = 0, size = parent.nodeCount(); i < size; i++) {
+				Node node = parent.node(i);
+
+				if (node instanceof Element) {
+					Element element = (Element) node;
+
+					if (name.matches(element.getQName(), uris)
+							&& accepts(element, uris, counters)) {
+						result.add(element);
+
+						if (single) {
+							return true;
+						}
+					}
+
+					if ((axis == DESCENDANT)
+							&& selectChildren(element, uris, result, single)) {
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
+
+		private boolean accepts(Element element, String[] uris, int[] counters) {
+			for (int i = 0; i < predicates.length; i++) {
+				Predicate predicate = predicates[i];
+
+				if (predicate.type == POSITION) {
+					// counts the nodes which passed the previous predicates
+					if (++counters[i] != predicate.position) {
+						return false;
+					}
+				} else if (!predicate.accepts(element, uris)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Parses the supported subset, giving up on anything else.
+	 */
+	private static final class Parser {
+		private final String text;
+
+		private final List<String> prefixes = new ArrayList<String>();
+
+		private int index;
+
+		private Parser(String text) {
+			this.text = text;
+		}
+
+		private SimpleLocationPath parse() {
+			List<Step> steps = new ArrayList<Step>();
+			boolean absolute = false;
+
+			// whether the next step is a descendant step
+			boolean descendant = false;
+
+			// whether a descendant step has been parsed
+			boolean afterDescendant = false;
+
+			if (text.startsWith("//")) {
+				absolute = true;
+				descendant = true;
+				index = 2;
+			} else if (text.startsWith("/")) {
+				absolute = true;
+				index = 1;
+			} else if (text.startsWith(".//")) {
+				descendant = true;
+				index = 3;
+			} else if (text.startsWith("./")) {
+				index = 2;
+			}
+
+			while (true) {
+				if (peek('@')) {
+					index++;
+
+					NameTest name = parseNameTest();
+
+					if ((name == null) || descendant
+							|| (index != text.length())) {
+						return null;
+					}
+
+					steps.add(new Step(ATTRIBUTE, name, NO_PREDICATES));
+
+					break;
+				}
+
+				NameTest name = parseNameTest();
+
+				if (name == null) {
+					return null;
+				}
+
+				List<Predicate> predicates = new ArrayList<Predicate>();
+
+				while (peek('[')) {
+					Predicate predicate = parsePredicate();
+
+					if (predicate == null) {
+						return null;
+					}
+
+					predicates.add(predicate);
+				}
+
+				steps.add(new Step(descendant ? DESCENDANT : CHILD, name,
+						predicates.toArray(new Predicate[predicates.size()])));
+				afterDescendant |= descendant;
+				descendant = false;
+
+				if (index == text.length()) {
+					break;
+				}
+
+				if (!peek('/')) {
+					return null;
+				}
+
+				index++;
+
+				if (peek('/')) {
+					if (afterDescendant) {
+						return null;
+					}
+
+					index++;
+					descendant = true;
+				} else if (afterDescendant && !peek('@')) {
+					// only an attribute step may follow a descendant step, as
+					// further element steps could return nodes out of order
+					return null;
+				}
+			}
+
+			return new SimpleLocationPath(absolute, steps
+					.toArray(new Step[steps.size()]), prefixes
+					.toArray(new String[prefixes.size()]));
+		}
+
+		private NameTest parseNameTest() {
+			if (peek('*')) {
+				index++;
+
+				return new NameTest(null, -1);
+			}
+
+			String name = parseNCName();
+
+			if (name == null) {
+				return null;
+			}
+
+			String prefix = null;
+
+			if (peek(':')) {
+				index++;
+				prefix = name;
+
+				if (peek('*')) {
+					index++;
+					name = null;
+				} else {
+					name = parseNCName();
+
+					if (name == null) {
+						// an axis or an invalid name
+						return null;
+					}
+				}
+			}
+
+			if (peek('(')) {
+				// a function call or a node type test
+				return null;
+			}
+
+			if (prefix == null) {
+				return new NameTest(name, -1);
+			}
+
+			int prefixIndex = prefixes.indexOf(prefix);
+
+			if (prefixIndex < 0) {
+				prefixIndex = prefixes.size();
+				prefixes.add(prefix);
+			}
+
+			return new NameTest(name, prefixIndex);
+		}
+
+		private Predicate parsePredicate() {
+			index++;
+			skipWhitespace();
+
+			Predicate predicate;
+
+			if ((index < text.length())
+					&& Character.isDigit(text.charAt(index))) {
+				int start = index;
+
+				while ((index < text.length())
+						&& Character.isDigit(text.charAt(index))) {
+					index++;
+				}
+
+				if ((index - start) > 9) {
+					return null;
+				}
+
+				int position = Integer.parseInt(text.substring(start, index));
+				predicate = new Predicate(POSITION, position, null,
+						null);
+			} else {
+				int type = CHILD;
+
+				if (peek('@')) {
+					index++;
+					type = ATTRIBUTE;
+				}
+
+				NameTest name = parseNameTest();
+
+				if (name == null) {
+					return null;
+				}
+
+				skipWhitespace();
+
+				String value = null;
+
+				if (peek('=')) {
+					index++;
+					skipWhitespace();
+					value = parseLiteral();
+
+					if (value == null) {
+						return null;
+					}
+				}
+
+				predicate = new Predicate(type, 0, name, value);
+			}
+
+			skipWhitespace();
+
+			if (!peek(']')) {
+				return null;
+			}
+
+			index++;
+
+			return predicate;
+		}
+
+		private String parseLiteral() {
+			if (!peek('\'') && !peek('"')) {
+				return null;
+			}
+
+			char quote = text.charAt(index);
+			int end = text.indexOf(quote, index + 1);
+
+			if (end < 0) {
+				return null;
+			}
+
+			String literal = text.substring(index + 1, end);
+			index = end + 1;
+
+			return literal;
+		}
+
+		private String parseNCName() {
+			int start = index;
+
+			if ((index < text.length())
+					&& (Character.isLetter(text.charAt(index)) || (text
+							.charAt(index) == '_'))) {
+				index++;
+
+				while (index < text.length()) {
+					char c = text.charAt(index);
+
+					if (Character.isLetterOrDigit(c) || (c == '_')
+							|| (c == '-') || (c == '.')) {
+						index++;
+					} else {
+						break;
+					}
+				}
+
+				return text.substring(start, index);
+			}
+
+			return null;
+		}
+
+		private void skipWhitespace() {
+			while ((index < text.length())
+					&& Character.isWhitespace(text.charAt(index))) {
+				index++;
+			}
+		}
+
+		private boolean peek(char c) {
+			return (index < text.length()) && (text.charAt(index) == c);
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
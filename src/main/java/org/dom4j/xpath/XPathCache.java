@@ -0,0 +1,379 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.xpath;
+
+import org.dom4j.InvalidXPathException;
+import org.jaxen.NamespaceContext;
+import org.jaxen.SimpleNamespaceContext;
+import org.jaxen.XPath;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * <code>XPathCache</code> is a bounded cache of compiled XPath expressions,
+ * keyed by the text of the expression and the namespace URIs it is compiled
+ * with. The {@link DefaultXPath} instances it creates share the compiled
+ * Jaxen expression, which is safe since evaluating a <code>DefaultXPath</code>
+ * does not modify it. Each instance keeps its own variable context, while an
+ * instance whose function or namespace context is changed takes a private
+ * copy of the expression first.
+ * </p>
+ * <p/>
+ * <p>
+ * Lookups do not lock the cache, and expressions are parsed outside any
+ * lock. When the cache is full, expressions which have not been used since
+ * the eviction last passed them are evicted, which approximates evicting the
+ * least recently used ones. Only the thread adding an expression to a full
+ * cache evicts, while the others go on.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class XPathCache {
+	/**
+	 * The maximum size of the shared cache unless the
+	 * <code>org.dom4j.xpath.cacheSize</code> system property is set to a
+	 * valid size, where 0 disables caching
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+	private static final XPathCache INSTANCE = new XPathCache(
+			getDefaultMaximumSize());
+
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+	private final int maximumSize;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Held by the thread evicting expressions
+	 */
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	/**
+	 * Where the eviction continues, which is guarded by the eviction lock
+	 */
+	private Iterator<Entry> hand;
+
+	/**
+	 * Creates a cache holding at most the given number of expressions.
+	 *
+	 * @param maximumSize the maximum number of expressions, or 0 to disable
+	 *                    caching
+	 */
+	public XPathCache(int maximumSize) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("Illegal maximum size: "
+					+ maximumSize);
+		}
+
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Returns the cache shared by the document factories.
+	 *
+	 * @return the shared cache
+	 */
+	public static XPathCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Creates an XPath for the given expression, which is only parsed if it
+	 * is not cached yet.
+	 *
+	 * @param text the XPath expression
+	 * @return a new <code>DefaultXPath</code> instance
+	 * @throws InvalidXPathException if the XPath expression is invalid
+	 */
+	public DefaultXPath createXPath(String text) throws InvalidXPathException {
+		return createXPath(text, null);
+	}
+
+	/**
+	 * Creates an XPath for the given expression using the given namespace
+	 * URIs, which is only parsed if it is not cached yet.
+	 *
+	 * @param text          the XPath expression
+	 * @param namespaceURIs the namespace URIs keyed by prefix, or null to
+	 *                      resolve prefixes against the context node
+	 * @return a new <code>DefaultXPath</code> instance
+	 * @throws InvalidXPathException if the XPath expression is invalid
+	 */
+	public DefaultXPath createXPath(String text,
+			Map<String, String> namespaceURIs) throws InvalidXPathException {
+		Key key = new Key(text, namespaceURIs);
+		Entry entry = entries.get(key);
+
+		if (entry != null) {
+			hitCount.incrementAndGet();
+
+			// only written when it changes, so that hits do not contend
+			if (!entry.used) {
+				entry.used = true;
+			}
+		} else {
+			missCount.incrementAndGet();
+
+			// the key is copied so later changes to the map do not affect it
+			if (namespaceURIs != null) {
+				key = new Key(text, new HashMap<String, String>(namespaceURIs));
+			}
+
+			entry = new Entry(key, text, key.namespaceURIs);
+
+			if (maximumSize > 0) {
+				// another thread may have parsed the same expression
+				Entry existing = entries.putIfAbsent(key, entry);
+
+				if (existing != null) {
+					entry = existing;
+				} else if (entries.size() > maximumSize) {
+					evict();
+				}
+			}
+		}
+
+		return new DefaultXPath(text, entry.xpath, entry.namespaceContext,
+				entry.path);
+	}
+
+	/**
+	 * Returns the maximum number of expressions this cache holds.
+	 *
+	 * @return the maximum size
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Returns the number of expressions currently cached.
+	 *
+	 * @return the size of this cache
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of expressions that were found in this cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of expressions that had to be parsed.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the number of expressions evicted because the cache was full.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Removes all expressions from this cache. The statistics are kept.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	public String toString() {
+		return super.toString() + " [XPathCache: size: " + size() + "/"
+				+ maximumSize + " hits: " + getHitCount() + " misses: "
+				+ getMissCount() + " evictions: " + getEvictionCount() + "]";
+	}
+
+	/**
+	 * Evicts expressions until the cache is no longer too large, unless
+	 * another thread is already doing so. The hand sweeps the cache like a
+	 * clock: an expression used since the hand last passed it is kept once
+	 * more, any other one is evicted.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+
+		try {
+			// after two sweeps every expression has been passed unused once,
+			// unless other threads keep using it
+			int steps = 2 * entries.size();
+
+			while (entries.size() > maximumSize) {
+				if ((hand == null) || !hand.hasNext()) {
+					hand = entries.values().iterator();
+
+					if (!hand.hasNext()) {
+						break;
+					}
+				}
+
+				Entry entry = hand.next();
+
+				if (entry.used && (--steps > 0)) {
+					entry.used = false;
+				} else if (entries.remove(entry.key, entry)) {
+					evictionCount.incrementAndGet();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private static int getDefaultMaximumSize() {
+		try {
+			int size = Integer.getInteger("org.dom4j.xpath.cacheSize",
+					DEFAULT_MAXIMUM_SIZE).intValue();
+
+			// an invalid size must not stop the class from loading
+			return (size >= 0) ? size : DEFAULT_MAXIMUM_SIZE;
+		} catch (Exception e) {
+			return DEFAULT_MAXIMUM_SIZE;
+		}
+	}
+
+	private static final class Key {
+		private final String text;
+
+		private final Map<String, String> namespaceURIs;
+
+		private final int hashCode;
+
+		private Key(String text, Map<String, String> namespaceURIs) {
+			this.text = text;
+			this.namespaceURIs = namespaceURIs;
+
+			int hash = text.hashCode();
+
+			if (namespaceURIs != null) {
+				hash = (31 * hash) + namespaceURIs.hashCode();
+			}
+
+			this.hashCode = hash;
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+
+			if (!(object instanceof Key)) {
+				return false;
+			}
+
+			Key that = (Key) object;
+
+			if ((hashCode != that.hashCode) || !text.equals(that.text)) {
+				return false;
+			}
+
+			if (namespaceURIs == null) {
+				return that.namespaceURIs == null;
+			}
+
+			return namespaceURIs.equals(that.namespaceURIs);
+		}
+	}
+
+	private static final class Entry {
+		private final Key key;
+
+		private final XPath xpath;
+
+		private final NamespaceContext namespaceContext;
+
+		private final SimpleLocationPath path;
+
+		/**
+		 * Whether the expression has been used since the eviction last
+		 * passed it
+		 */
+		private volatile boolean used;
+
+		private Entry(Key key, String text, Map<String, String> namespaceURIs) {
+			this.key = key;
+
+			if (namespaceURIs != null) {
+				this.namespaceContext = new SimpleNamespaceContext(namespaceURIs);
+			} else {
+				this.namespaceContext = null;
+			}
+
+			this.xpath = DefaultXPath.compile(text, namespaceContext);
+			this.path = SimpleLocationPath.compile(text);
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -18,6 +18,7 @@ import org.jaxen.pattern.PatternParser;
 import org.jaxen.saxpath.SAXPathException;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * <p>
@@ -28,17 +29,22 @@ import java.util.ArrayList;
  * @author <a href="mailto:jstrachan@apache.org">James Strachan </a>
  * @version $Revision: 1.18 $
  */
-public class XPathPattern implements org.dom4j.rule.Pattern {
+public class XPathPattern implements org.dom4j.rule.IndexedPattern {
 	private String text;
 
 	private Pattern pattern;
 
 	private Context context;
 
+	private String parentName;
+
+	private boolean predicateFree;
+
 	public XPathPattern(Pattern pattern) {
 		this.pattern = pattern;
 		this.text = pattern.getText();
 		this.context = new Context(getContextSupport());
+		analyze();
 	}
 
 	public XPathPattern(String text) {
@@ -52,15 +58,21 @@ public class XPathPattern implements org.dom4j.rule.Pattern {
 		} catch (RuntimeException e) {
 			throw new InvalidXPathException(text);
 		}
+
+		analyze();
 	}
 
 	public boolean matches(Node node) {
 		try {
+			// a context of its own, so that patterns may be matched
+			// concurrently
 			ArrayList<Node> list = new ArrayList<Node>(1);
 			list.add(node);
-			context.setNodeSet(list);
 
-			return pattern.matches(node, context);
+			Context nodeContext = new Context(context.getContextSupport());
+			nodeContext.setNodeSet(list);
+
+			return pattern.matches(node, nodeContext);
 		} catch (JaxenException e) {
 			handleJaxenException(e);
 
@@ -101,6 +113,14 @@ public class XPathPattern implements org.dom4j.rule.Pattern {
 		return pattern.getMatchesNodeName();
 	}
 
+	public String getMatchesParentName() {
+		return parentName;
+	}
+
+	public boolean isPredicateFree() {
+		return predicateFree;
+	}
+
 	public void setVariableContext(VariableContext variableContext) {
 		context.getContextSupport().setVariableContext(variableContext);
 	}
@@ -116,6 +136,118 @@ public class XPathPattern implements org.dom4j.rule.Pattern {
 				new SimpleVariableContext(), DocumentNavigator.getInstance());
 	}
 
+	/**
+	 * Works out the parent name and whether this pattern is predicate free
+	 * from the text of the pattern. Anything not recognised here is left to
+	 * be evaluated.
+	 */
+	private void analyze() {
+		if ((text == null) || (text.indexOf('|') >= 0)) {
+			return;
+		}
+
+		// split into steps on the slashes outside of predicates and literals
+		List<String> steps = new ArrayList<String>();
+		int start = 0;
+		int depth = 0;
+		char quote = 0;
+
+		for (int i = 0, length = text.length(); i < length; i++) {
+			char c = text.charAt(i);
+
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if ((c == '\'') || (c == '"')) {
+				quote = c;
+			} else if ((c == '[') || (c == '(')) {
+				depth++;
+			} else if ((c == ']') || (c == ')')) {
+				depth--;
+			} else if ((c == '/') && (depth == 0)) {
+				steps.add(text.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+
+		steps.add(text.substring(start).trim());
+
+		int size = steps.size();
+
+		if ((size >= 2) && isName(steps.get(size - 2))) {
+			parentName = steps.get(size - 2);
+		}
+
+		if ((size > 2) || ((size == 2) && (parentName == null))) {
+			return;
+		}
+
+		String step = steps.get(size - 1);
+		NodeType type;
+		String name = null;
+
+		if (step.equals("*")) {
+			type = NodeType.ELEMENT_NODE;
+		} else if (step.equals("@*")) {
+			type = NodeType.ATTRIBUTE_NODE;
+		} else if (step.startsWith("@") && isName(step.substring(1))) {
+			type = NodeType.ATTRIBUTE_NODE;
+			name = step.substring(1);
+		} else if (isName(step)) {
+			type = NodeType.ELEMENT_NODE;
+			name = step;
+		} else if (step.equals("text()")) {
+			type = NodeType.TEXT_NODE;
+		} else if (step.equals("comment()")) {
+			type = NodeType.COMMENT_NODE;
+		} else if (step.equals("processing-instruction()")) {
+			type = NodeType.PROCESSING_INSTRUCTION_NODE;
+		} else {
+			return;
+		}
+
+		// only trust the analysis if the parsed pattern agrees with it
+		if (type != getMatchType()) {
+			return;
+		}
+
+		if ((type == NodeType.ELEMENT_NODE)
+				|| (type == NodeType.ATTRIBUTE_NODE)) {
+			String matchesName = getMatchesNodeName();
+
+			if ("*".equals(matchesName)) {
+				matchesName = null;
+			}
+
+			if ((name == null) ? (matchesName != null) : !name
+					.equals(matchesName)) {
+				return;
+			}
+		}
+
+		predicateFree = true;
+	}
+
+	private static boolean isName(String step) {
+		int length = step.length();
+
+		if ((length == 0)
+				|| !(Character.isLetter(step.charAt(0)) || (step.charAt(0) == '_'))) {
+			return false;
+		}
+
+		for (int i = 1; i < length; i++) {
+			char c = step.charAt(i);
+
+			if (!(Character.isLetterOrDigit(c) || (c == '_') || (c == '-') || (c == '.'))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	protected void handleJaxenException(JaxenException exception)
 			throws XPathException {
 		throw new XPathException(text, exception);
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.frozen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.DocumentType;
+import org.dom4j.Element;
+import org.dom4j.dtd.InternalDeclaration;
+import org.dom4j.dtd.InternalEntityDecl;
+
+/**
+ * Tests that a {@link FrozenDocument} is an independent, unmodifiable copy of
+ * its source however deep the source is.
+ */
+public class FrozenDocumentTest extends TestCase {
+	private static final int DEPTH = 50000;
+
+	public void testDeepDocument() throws Exception {
+		Document source = DocumentHelper.createDocument();
+		Element element = source.addElement("e0");
+
+		for (int i = 1; i < DEPTH; i++) {
+			element = element.addElement("e" + (i % 7));
+		}
+
+		element.addText("leaf");
+
+		final Document[] frozen = new Document[1];
+		final Throwable[] error = new Throwable[1];
+		Thread thread = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					frozen[0] = new FrozenDocument(source);
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		}, "freeze", 256 * 1024);
+		thread.start();
+		thread.join();
+
+		assertNull(error[0]);
+
+		int depth = 0;
+		Element copy = frozen[0].getRootElement();
+
+		while (copy.elements().size() == 1) {
+			Element child = copy.elements().get(0);
+			assertSame(copy, child.getParent());
+			assertSame(frozen[0], child.getDocument());
+			copy = child;
+			depth++;
+		}
+
+		assertEquals(DEPTH - 1, depth);
+		assertEquals("leaf", copy.getText());
+		assertEquals("e" + ((DEPTH - 1) % 7), copy.getName());
+	}
+
+	public void testFrozenElement() {
+		Element source = DocumentHelper.createElement("root");
+		source.addAttribute("a", "1");
+		source.addElement("child").addText("text");
+		source.addComment("comment");
+
+		Element copy = new FrozenElement(source);
+
+		assertEquals(source.asXML(), copy.asXML());
+		assertSame(copy, copy.element("child").getParent());
+	}
+
+	public void testDocType() {
+		Document source = DocumentHelper.createDocument();
+		source.addElement("root");
+		source.addDocType("root", "-//Test//EN", "test.dtd");
+		DocumentType sourceType = source.getDocType();
+		List<InternalDeclaration> declarations = new ArrayList<>();
+		declarations.add(new InternalEntityDecl("name", "value"));
+		sourceType.setInternalDeclarations(declarations);
+
+		Document frozen = new FrozenDocument(source);
+		DocumentType docType = frozen.getDocType();
+
+		assertEquals("root", docType.getElementName());
+		assertEquals("test.dtd", docType.getSystemID());
+		assertEquals(1, docType.getInternalDeclarations().size());
+
+		sourceType.setSystemID("other.dtd");
+		sourceType.getInternalDeclarations().clear();
+
+		assertEquals("test.dtd", docType.getSystemID());
+		assertEquals(1, docType.getInternalDeclarations().size());
+
+		try {
+			docType.setSystemID("other.dtd");
+			fail("the document type should be read only");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		try {
+			docType.getInternalDeclarations().clear();
+			fail("the declarations should be read only");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		Document clone = (Document) frozen.clone();
+		clone.getDocType().setSystemID("clone.dtd");
+
+		assertEquals("test.dtd", docType.getSystemID());
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.dom4j.DefaultDocumentFactory;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.DocumentType;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+import org.dom4j.dtd.AttributeDecl;
+import org.dom4j.dtd.ElementDecl;
+import org.dom4j.dtd.ExternalEntityDecl;
+import org.dom4j.dtd.InternalEntityDecl;
+
+/**
+ * Tests that documents written by {@link BinaryDocumentWriter} are read back
+ * unchanged by {@link BinaryDocumentReader}, whatever the input.
+ */
+public class BinaryDocumentTest extends TestCase {
+	public void testStreamRoundTrip() throws Exception {
+		Document document = createDocument();
+		Document copy = new BinaryDocumentReader()
+				.read(new ByteArrayInputStream(write(document)));
+
+		assertSameDocument(document, copy);
+	}
+
+	public void testChannelRoundTrip() throws Exception {
+		Document document = createDocument();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDocumentWriter writer = new BinaryDocumentWriter(Channels
+				.newChannel(out));
+		writer.write(document);
+		writer.close();
+
+		Document copy = new BinaryDocumentReader().read(Channels
+				.newChannel(new ByteArrayInputStream(out.toByteArray())));
+
+		assertSameDocument(document, copy);
+	}
+
+	public void testHeapBufferRoundTrip() throws Exception {
+		Document document = createDocument();
+		byte[] bytes = write(document);
+
+		// an offset into the array must be honoured
+		byte[] padded = new byte[bytes.length + 7];
+		System.arraycopy(bytes, 0, padded, 5, bytes.length);
+
+		ByteBuffer buffer = ByteBuffer.wrap(padded, 5, bytes.length).slice();
+		Document copy = new BinaryDocumentReader().read(buffer);
+
+		assertSameDocument(document, copy);
+		assertEquals(bytes.length, buffer.position());
+	}
+
+	public void testDirectBufferRoundTrip() throws Exception {
+		Document document = createDocument();
+		byte[] bytes = write(document);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+		buffer.put(bytes).put(new byte[3]).flip();
+
+		Document copy = new BinaryDocumentReader().read(buffer);
+
+		assertSameDocument(document, copy);
+		assertEquals(bytes.length, buffer.position());
+	}
+
+	public void testFileRoundTrip() throws Exception {
+		Document first = createDocument();
+		Document second = DocumentHelper.parseText("<second><a/>b</second>");
+		File file = File.createTempFile("dom4j", ".bin");
+
+		try {
+			BinaryDocumentWriter writer = new BinaryDocumentWriter(
+					new FileOutputStream(file));
+			writer.write(first);
+			writer.write(second);
+			writer.close();
+
+			assertSameDocument(first, new BinaryDocumentReader().read(file));
+
+			FileInputStream in = new FileInputStream(file);
+
+			try {
+				BinaryDocumentReader reader = new BinaryDocumentReader();
+				assertSameDocument(first, reader.read(in.getChannel()));
+				assertSameDocument(second, reader.read(in.getChannel()));
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testLargeDocument() throws Exception {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+
+		// more than a buffer of distinct names and long text
+		for (int i = 0; i < 5000; i++) {
+			root.addElement("e" + i).addAttribute("a" + (i % 17), "v" + i)
+					.addText("text \u00e9\u4e2d\ud83d\ude00 " + i);
+		}
+
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < 20000; i++) {
+			text.append((char) ('a' + (i % 26)));
+		}
+
+		root.addElement("long").addText(text.toString());
+
+		Document copy = new BinaryDocumentReader()
+				.read(new ByteArrayInputStream(write(document)));
+
+		assertSameDocument(document, copy);
+	}
+
+	public void testInvalidInput() throws Exception {
+		try {
+			new BinaryDocumentReader().read(new ByteArrayInputStream(
+					"<xml/>".getBytes("UTF-8")));
+			fail("Read a document which is not binary");
+		} catch (DocumentException e) {
+			// expected
+		}
+
+		byte[] bytes = write(createDocument());
+		byte[] truncated = new byte[bytes.length / 2];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+		try {
+			new BinaryDocumentReader().read(new ByteArrayInputStream(truncated));
+			fail("Read a truncated document");
+		} catch (DocumentException e) {
+			// expected
+		}
+	}
+
+	public void testCorruptedInput() throws Exception {
+		byte[] bytes = write(createDocument());
+		int[] masks = {0x01, 0x80, 0xFF};
+
+		for (int i = 0; i < bytes.length; i++) {
+			for (int mask : masks) {
+				byte[] corrupted = bytes.clone();
+				corrupted[i] ^= mask;
+				assertReadOrRejected(corrupted);
+			}
+
+			byte[] truncated = new byte[i];
+			System.arraycopy(bytes, 0, truncated, 0, i);
+			assertReadOrRejected(truncated);
+		}
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Reads the given bytes, which may only fail with a
+	 * {@link DocumentException}.
+	 */
+	private static void assertReadOrRejected(byte[] bytes) {
+		try {
+			new BinaryDocumentReader().read(new ByteArrayInputStream(bytes));
+		} catch (DocumentException e) {
+			// rejected
+		}
+
+		try {
+			new BinaryDocumentReader().read(ByteBuffer.wrap(bytes));
+		} catch (DocumentException e) {
+			// rejected
+		}
+	}
+
+	private static Document createDocument() {
+		Document document = DocumentHelper.createDocument();
+		document.setXMLEncoding("UTF-8");
+		document.addComment(" before the root ");
+		document.addProcessingInstruction("xml-stylesheet",
+				"type=\"text/xsl\" href=\"style.xsl\"");
+
+		DocumentType docType = DefaultDocumentFactory.getInstance()
+				.createDocType("catalog", "-//dom4j//test//EN", "catalog.dtd");
+		List internal = new ArrayList();
+		internal.add(new ElementDecl("catalog", "(item)*"));
+		internal.add(new AttributeDecl("item", "id", "ID", "#REQUIRED", null));
+		internal.add(new InternalEntityDecl("company", "MetaStuff"));
+		internal.add(new ExternalEntityDecl("legal", null, "legal.xml"));
+		docType.setInternalDeclarations(internal);
+		document.setDocType(docType);
+
+		Namespace ns = Namespace.get("c", "urn:catalog");
+		Element root = document.addElement(QName.get("catalog", ns));
+		root.addNamespace("x", "urn:extra");
+
+		for (int i = 0; i < 3; i++) {
+			Element item = root.addElement(QName.get("item", ns));
+			item.addAttribute("id", "i" + i);
+			item.addAttribute(QName.get("flag", "x", "urn:extra"), "yes");
+			item.addText("Item " + i + " & <more>");
+			item.addCDATA("raw <" + i + ">");
+			item.addEntity("company", "MetaStuff");
+			item.addElement("empty");
+		}
+
+		root.addComment("end");
+		root.addProcessingInstruction("target", "data");
+
+		return document;
+	}
+
+	private static byte[] write(Document document) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDocumentWriter writer = new BinaryDocumentWriter(out);
+		writer.write(document);
+		writer.close();
+
+		return out.toByteArray();
+	}
+
+	private static void assertSameDocument(Document expected, Document actual) {
+		assertEquals(expected.getXMLEncoding(), actual.getXMLEncoding());
+		assertEquals(expected.nodeCount(), actual.nodeCount());
+
+		for (int i = 0, size = expected.nodeCount(); i < size; i++) {
+			assertEquals(expected.node(i).asXML(), actual.node(i).asXML());
+		}
+
+		DocumentType docType = expected.getDocType();
+
+		if (docType != null) {
+			DocumentType copy = actual.getDocType();
+			assertEquals(docType.getElementName(), copy.getElementName());
+			assertEquals(docType.getPublicID(), copy.getPublicID());
+			assertEquals(docType.getSystemID(), copy.getSystemID());
+			assertEquals(String.valueOf(docType.getInternalDeclarations()),
+					String.valueOf(copy.getInternalDeclarations()));
+		} else {
+			assertNull(actual.getDocType());
+		}
+
+		Element root = expected.getRootElement();
+		Element copy = actual.getRootElement();
+
+		assertEquals(root.getQName(), copy.getQName());
+		assertEquals(root.additionalNamespaces(), copy.additionalNamespaces());
+		assertEquals(root.elements().size(), copy.elements().size());
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
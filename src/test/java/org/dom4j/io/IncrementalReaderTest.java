@@ -0,0 +1,110 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+
+/**
+ * Tests that {@link IncrementalReader} enforces the reserved prefixes and
+ * namespaces of Namespaces in XML as {@link SAXReader} does.
+ */
+public class IncrementalReaderTest extends TestCase {
+	private static final String[] REJECTED = {
+			"<r xmlns:xmlns='urn:u'/>",
+			"<r xmlns:xml='urn:wrong'/>",
+			"<r xmlns:p='http://www.w3.org/XML/1998/namespace'/>",
+			"<r xmlns='http://www.w3.org/XML/1998/namespace'/>",
+			"<r xmlns:p='http://www.w3.org/2000/xmlns/'/>",
+			"<r xmlns='http://www.w3.org/2000/xmlns/'/>"};
+
+	private static final String[] ACCEPTED = {
+			"<r xmlns:xml='http://www.w3.org/XML/1998/namespace'/>",
+			"<r xml:lang='en' xmlns:p='urn:p' p:a='1'/>"};
+
+	public void testReservedNamespaces() throws Exception {
+		for (String xml : REJECTED) {
+			assertRejected(xml);
+		}
+	}
+
+	public void testAllowedNamespaces() throws Exception {
+		for (String xml : ACCEPTED) {
+			Document expected = new SAXReader().read(new StringReader(xml));
+			assertEquals(expected.asXML(), read(xml).asXML());
+		}
+	}
+
+	// Implementation methods
+	// -------------------------------------------------------------------------
+
+	private static Document read(String xml) throws Exception {
+		IncrementalReader reader = new IncrementalReader();
+		reader.feed(ByteBuffer.wrap(xml.getBytes("UTF-8")));
+
+		return reader.endOfInput();
+	}
+
+	private static void assertRejected(String xml) throws Exception {
+		try {
+			new SAXReader().read(new StringReader(xml));
+			fail("SAXReader accepted " + xml);
+		} catch (DocumentException e) {
+			// expected
+		}
+
+		try {
+			read(xml);
+			fail("IncrementalReader accepted " + xml);
+		} catch (DocumentException e) {
+			// expected
+		}
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.io;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+/**
+ * Tests that subclasses of {@link XMLWriter} overriding its protected hooks
+ * are called for every element and node they were called for before
+ * elements were written without recursion.
+ */
+public class XMLWriterTest extends TestCase {
+	public void testWriteNodeOverride() throws Exception {
+		StringWriter out = new StringWriter();
+		XMLWriter writer = new XMLWriter(out) {
+			@Override
+			protected void writeNode(Node node) throws IOException {
+				if ("secret".equals(node.getName())) {
+					writeComment("redacted");
+				} else {
+					super.writeNode(node);
+				}
+			}
+		};
+
+		writer.write(createDocument().getRootElement());
+
+		assertEquals("<root><a>t</a><b/><!--redacted--></root>", out
+				.toString());
+	}
+
+	public void testWriteElementContentOverride() throws Exception {
+		StringWriter out = new StringWriter();
+		XMLWriter writer = new XMLWriter(out) {
+			@Override
+			protected void writeElementContent(Element element)
+					throws IOException {
+				writer.write("[C]");
+				super.writeElementContent(element);
+			}
+		};
+
+		writer.write(createDocument().getRootElement());
+
+		assertEquals("<root>[C]<a>[C]t</a><b/><secret>[C]pw</secret></root>",
+				out.toString());
+	}
+
+	public void testWriteElementOverride() throws Exception {
+		StringWriter out = new StringWriter();
+		XMLWriter writer = new XMLWriter(out) {
+			@Override
+			protected void writeElement(Element element) throws IOException {
+				if (!"secret".equals(element.getName())) {
+					super.writeElement(element);
+				}
+			}
+		};
+
+		writer.write(createDocument().getRootElement());
+
+		assertEquals("<root><a>t</a><b/></root>", out.toString());
+	}
+
+	public void testWithoutOverrides() throws Exception {
+		StringWriter out = new StringWriter();
+		XMLWriter writer = new XMLWriter(out) {
+		};
+
+		writer.write(createDocument().getRootElement());
+
+		assertEquals("<root><a>t</a><b/><secret>pw</secret></root>", out
+				.toString());
+	}
+
+	private static Document createDocument() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+		root.addElement("a").addText("t");
+		root.addElement("b");
+		root.addElement("secret").addText("pw");
+
+		return document;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.util.List;
+import java.util.Random;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+/**
+ * Compares looking elements up through an {@link AttributeIndex} with
+ * scanning an unindexed {@link DefaultElement}, and measures what keeping the
+ * index up to date adds to building and changing a document. Run it with the
+ * number of items and of lookups as optional arguments; the first rounds
+ * warm up the JIT.
+ */
+public class ElementIndexBenchmark {
+	private static final int ROUNDS = 5;
+
+	private static int sink;
+
+	public static void main(String[] args) {
+		int size = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int lookups = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+
+		String[] keys = new String[lookups];
+		Random random = new Random(1);
+
+		for (int i = 0; i < lookups; i++) {
+			keys[i] = "k" + random.nextInt(size);
+		}
+
+		Document plain = createDocument(size, false);
+		Document indexed = createDocument(size, true);
+		AttributeIndex index = ((AbstractDocument) indexed)
+				.getAttributeIndex("sku");
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.println("round " + round);
+			report("scan", lookups, scan(plain, keys));
+			report("index", lookups, lookup(index, keys));
+			report("build", size, build(size, false));
+			report("build indexed", size, build(size, true));
+			report("update", size, update(plain));
+			report("update indexed", size, update(indexed));
+		}
+
+		System.out.println(index + " " + index.getMemoryUsage() + " bytes");
+		System.out.println(sink);
+	}
+
+	private static Document createDocument(int size, boolean indexed) {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("catalog");
+
+		if (indexed) {
+			((AbstractDocument) document).addIndex(new AttributeIndex("sku"));
+		}
+
+		for (int i = 0; i < size; i++) {
+			root.addElement("item").addAttribute("sku", "k" + i);
+		}
+
+		return document;
+	}
+
+	private static long scan(Document document, String[] keys) {
+		Element root = document.getRootElement();
+		long start = System.nanoTime();
+
+		for (String key : keys) {
+			for (Element item : root.elements()) {
+				if (key.equals(item.attributeValue("sku"))) {
+					sink += item.nodeCount();
+
+					break;
+				}
+			}
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static long lookup(AttributeIndex index, String[] keys) {
+		long start = System.nanoTime();
+
+		for (String key : keys) {
+			sink += index.getFirst(key).nodeCount();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static long build(int size, boolean indexed) {
+		long start = System.nanoTime();
+		Document document = createDocument(size, indexed);
+		long time = System.nanoTime() - start;
+		sink += document.getRootElement().nodeCount();
+
+		return time;
+	}
+
+	/**
+	 * Reverses the keys of the items, so that every key is still used.
+	 */
+	private static long update(Document document) {
+		List<Element> items = document.getRootElement().elements();
+		int size = items.size();
+		long start = System.nanoTime();
+
+		for (int i = 0; i < size; i++) {
+			Element item = items.get(i);
+			item.addAttribute("sku", "k" + (size - 1 - Integer.parseInt(item
+					.attributeValue("sku").substring(1))));
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, int operations, long nanos) {
+		System.out.println("  " + name + ": " + (nanos / operations)
+				+ " ns/op");
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
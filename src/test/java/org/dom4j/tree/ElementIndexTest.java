@@ -0,0 +1,290 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+/**
+ * Tests that {@link ElementIndex} and {@link AbstractDocument#elementByID}
+ * agree with a scan of the document in document order while the document
+ * changes.
+ */
+public class ElementIndexTest extends TestCase {
+	private static final int KEYS = 3;
+
+	public void testChangeAfterInsertion() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+		Element item1 = root.addElement("item");
+		AttributeIndex index = new AttributeIndex("sku");
+		((AbstractDocument) document).addIndex(index);
+
+		Element item2 = DocumentHelper.createElement("item");
+		item2.addAttribute("sku", "k");
+		root.content().add(item2);
+		item1.addAttribute("sku", "k");
+
+		assertSameElements(scan(document, "sku", "k"), index, "k");
+	}
+
+	public void testElementByIDAfterInsertion() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+		Element a = root.addElement("a");
+		assertNull(document.elementByID("x"));
+
+		Element b = DocumentHelper.createElement("b");
+		b.addAttribute("ID", "x");
+		root.content().add(b);
+		a.addAttribute("ID", "x");
+
+		assertSame(a, document.elementByID("x"));
+	}
+
+	public void testSetReplacesIndexedElement() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+		Element x = root.addElement("x");
+		x.addAttribute("ID", "old");
+		assertSame(x, document.elementByID("old"));
+
+		Element y = DocumentHelper.createElement("y");
+		y.addAttribute("ID", "new");
+		root.content().set(0, y);
+
+		assertNull(document.elementByID("old"));
+		assertSame(y, document.elementByID("new"));
+		assertNull(x.getParent());
+	}
+
+	public void testSetAttributes() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+		assertNull(document.elementByID("i1"));
+
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(DocumentHelper.createAttribute(null, "ID", "i1"));
+		root.setAttributes(attributes);
+		assertSame(root, document.elementByID("i1"));
+
+		root.attribute("ID").setValue("i2");
+
+		assertSame(root, document.elementByID("i2"));
+		assertNull(document.elementByID("i1"));
+	}
+
+	public void testAttributeListChanges() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+		assertNull(document.elementByID("i1"));
+
+		Attribute attribute = DocumentHelper.createAttribute(null, "ID", "i1");
+		root.attributes().add(attribute);
+		assertSame(root, document.elementByID("i1"));
+
+		root.attributes().set(0,
+				DocumentHelper.createAttribute(null, "ID", "i2"));
+		assertNull(document.elementByID("i1"));
+		assertSame(root, document.elementByID("i2"));
+
+		root.attributes().clear();
+		assertNull(document.elementByID("i2"));
+	}
+
+	public void testMutationsAgainstScan() {
+		for (int seed = 0; seed < 500; seed++) {
+			mutate(new Random(seed));
+		}
+	}
+
+	private static void mutate(Random random) {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("root");
+
+		for (int i = 0; i < 5; i++) {
+			root.addElement("item").addAttribute("sku", key(random));
+		}
+
+		AttributeIndex index = new AttributeIndex("sku");
+		((AbstractDocument) document).addIndex(index);
+		document.elementByID("i0");
+
+		for (int step = 0; step < 40; step++) {
+			List<Element> elements = scan(document, null, null);
+			Element element = elements.get(random.nextInt(elements.size()));
+
+			switch (random.nextInt(8)) {
+				case 0:
+					element.addElement("item").addAttribute("sku", key(random));
+
+					break;
+
+				case 1: {
+					Element child = DocumentHelper.createElement("item");
+					child.addAttribute("sku", key(random));
+					child.addAttribute("ID", id(random));
+					element.content().add(child);
+
+					break;
+				}
+
+				case 2: {
+					Element child = DocumentHelper.createElement("item");
+					child.addAttribute("ID", id(random));
+					element.content().add(
+							random.nextInt(element.nodeCount() + 1), child);
+
+					break;
+				}
+
+				case 3:
+					if (element != root) {
+						element.getParent().remove(element);
+					}
+
+					break;
+
+				case 4:
+					element.addAttribute("sku", key(random));
+
+					break;
+
+				case 5:
+					element.addAttribute("ID", id(random));
+
+					break;
+
+				case 6: {
+					Attribute attribute = element.attribute("sku");
+
+					if (attribute != null) {
+						element.remove(attribute);
+					}
+
+					break;
+				}
+
+				default: {
+					Attribute attribute = element.attribute("ID");
+
+					if (attribute != null) {
+						attribute.setValue(id(random));
+					}
+
+					break;
+				}
+			}
+
+			for (int i = 0; i < KEYS; i++) {
+				String key = "k" + i;
+				assertSameElements(scan(document, "sku", key), index, key);
+
+				List<Element> ids = scan(document, "ID", "i" + i);
+				assertSame(ids.isEmpty() ? null : ids.get(0), document
+						.elementByID("i" + i));
+			}
+		}
+	}
+
+	private static String key(Random random) {
+		return "k" + random.nextInt(KEYS);
+	}
+
+	private static String id(Random random) {
+		return "i" + random.nextInt(KEYS);
+	}
+
+	/**
+	 * Checks the indexed elements of a key, which must be in document order
+	 * if the index claims so.
+	 */
+	private static void assertSameElements(List<Element> expected,
+			AttributeIndex index, String key) {
+		List<Element> actual = index.get(key);
+
+		if (index.isOrdered(key)) {
+			assertEquals(expected, actual);
+		} else {
+			assertEquals(expected.size(), actual.size());
+			assertTrue(actual.containsAll(expected));
+		}
+	}
+
+	/**
+	 * Returns the elements of the document in document order, only those with
+	 * the given attribute value if an attribute name is given.
+	 */
+	private static List<Element> scan(Document document, String name,
+			String value) {
+		List<Element> elements = new ArrayList<Element>();
+		List<Element> stack = new ArrayList<Element>();
+		stack.add(document.getRootElement());
+
+		while (!stack.isEmpty()) {
+			Element element = stack.remove(stack.size() - 1);
+
+			if ((name == null) || value.equals(element.attributeValue(name))) {
+				elements.add(element);
+			}
+
+			for (int i = element.nodeCount() - 1; i >= 0; i--) {
+				if (element.node(i) instanceof Element) {
+					stack.add((Element) element.node(i));
+				}
+			}
+		}
+
+		return elements;
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */
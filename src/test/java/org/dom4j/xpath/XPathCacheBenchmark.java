@@ -0,0 +1,198 @@
+/*
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ *
+ * This software is open source.
+ * See the bottom of this file for the licence.
+ */
+
+package org.dom4j.xpath;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+/**
+ * Measures <code>selectNodes(String)</code> in a loop through the shared
+ * {@link XPathCache} against parsing the expression every time, from one
+ * thread and from several, and the cost of evictions in a cache smaller than
+ * the set of expressions used. Run it with the number of threads and of
+ * iterations as optional arguments; the first rounds warm up the JIT.
+ */
+public class XPathCacheBenchmark {
+	private static final int ROUNDS = 5;
+
+	private static final int EXPRESSIONS = 64;
+
+	private static final int HOT = 8;
+
+	private static volatile int sink;
+
+	public static void main(String[] args) throws Exception {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+		int iterations = (args.length > 1) ? Integer.parseInt(args[1])
+				: 100000;
+
+		Document document = createDocument(100);
+		String[] expressions = new String[EXPRESSIONS];
+
+		for (int i = 0; i < EXPRESSIONS; i++) {
+			expressions[i] = "/catalog/item[@sku='k" + i + "']/@sku";
+		}
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.println("round " + round);
+			report("parse", iterations, parse(document, expressions,
+					iterations));
+			report("selectNodes", iterations, select(document, expressions,
+					iterations));
+			report("selectNodes, " + threads + " threads", iterations,
+					selectConcurrently(document, expressions, iterations,
+							threads));
+			report("evicting cache", iterations, evict(document, expressions,
+					iterations));
+		}
+
+		System.out.println(XPathCache.getInstance());
+	}
+
+	private static Document createDocument(int size) {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("catalog");
+
+		for (int i = 0; i < size; i++) {
+			root.addElement("item").addAttribute("sku", "k" + i);
+		}
+
+		return document;
+	}
+
+	private static long parse(Document document, String[] expressions,
+			int iterations) {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			String text = expressions[i % expressions.length];
+			sink += new DefaultXPath(text).selectNodes(document).size();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static long select(Document document, String[] expressions,
+			int iterations) {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			String text = expressions[i % expressions.length];
+			sink += document.selectNodes(text).size();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Runs the iterations of {@link #select} shared out between the given
+	 * number of threads, and returns the elapsed time of them all.
+	 */
+	private static long selectConcurrently(final Document document,
+			final String[] expressions, int iterations, int threads)
+			throws InterruptedException {
+		final int share = iterations / threads;
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				public void run() {
+					ready.countDown();
+
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					select(document, expressions, share);
+				}
+			};
+			workers[t].start();
+		}
+
+		ready.await();
+
+		long start = System.nanoTime();
+		go.countDown();
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Uses a cache holding half of the expressions, with every other lookup
+	 * going to a few hot expressions which should stay cached.
+	 */
+	private static long evict(Document document, String[] expressions,
+			int iterations) {
+		XPathCache cache = new XPathCache(expressions.length / 2);
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			String text = ((i % 2) == 0) ? expressions[(i / 2) % HOT]
+					: expressions[i % expressions.length];
+			sink += cache.createXPath(text).selectNodes(document).size();
+		}
+
+		long time = System.nanoTime() - start;
+		System.out.println("  " + cache);
+
+		return time;
+	}
+
+	private static void report(String name, int operations, long nanos) {
+		System.out.println("  " + name + ": " + (nanos / operations)
+				+ " ns/op");
+	}
+}
+
+/*
+ * Redistribution and use of this software and associated documentation
+ * ("Software"), with or without modification, are permitted provided that the
+ * following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain copyright statements and
+ * notices. Redistributions must also contain a copy of this document.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. The name "DOM4J" must not be used to endorse or promote products derived
+ * from this Software without prior written permission of MetaStuff, Ltd. For
+ * written permission, please contact dom4j-info@metastuff.com.
+ * 
+ * 4. Products derived from this Software may not be called "DOM4J" nor may
+ * "DOM4J" appear in their names without prior written permission of MetaStuff,
+ * Ltd. DOM4J is a registered trademark of MetaStuff, Ltd.
+ * 
+ * 5. Due credit should be given to the DOM4J Project - http://dom4j.sourceforge.net
+ * 
+ * THIS SOFTWARE IS PROVIDED BY METASTUFF, LTD. AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL METASTUFF, LTD. OR ITS CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Copyright 2001-2005 (C) MetaStuff, Ltd. All Rights Reserved.
+ */